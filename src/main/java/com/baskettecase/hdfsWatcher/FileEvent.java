@@ -0,0 +1,163 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonView;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The message sent for a file.
+ *
+ * Serialized in one of two shapes, chosen per output binding with
+ * hdfswatcher.event-schema and hdfswatcher.binding-event-schemas:
+ * <ul>
+ *   <li>legacy: {@code {"type":"hdfs","url":"..."}}, the original URL-only message.</li>
+ *   <li>v2: the same two fields plus {@code version} and whatever the watcher knows about
+ *       the file from its listing, so consumers need no GETFILESTATUS call. Unknown values
+ *       are left out.</li>
+ * </ul>
+ * The shapes are {@link JsonView}s of this record, so one mapper writes both.
+ *
+ * @param url the URL consumers fetch the file from
+ * @param path the absolute path of the file
+ * @param directory the watched directory the file was found under
+ * @param size the file size in bytes
+ * @param modificationTime the file modification time in epoch millis
+ * @param owner the file owner
+ * @param group the file group
+ * @param replication the HDFS replication factor
+ * @param blockSize the HDFS block size in bytes
+ * @param fingerprint the fingerprint the file is tracked by, as 32 hex digits
+ * @param blockLocations where the file's blocks are stored; only with hdfswatcher.event-block-locations
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"type", "version", "url", "path", "directory", "size", "modificationTime", "owner", "group",
+    "replication", "blockSize", "fingerprint", "blockLocations"})
+public record FileEvent(
+        @JsonView(Views.Legacy.class) String url,
+        @JsonView(Views.V2.class) String path,
+        @JsonView(Views.V2.class) String directory,
+        @JsonView(Views.V2.class) Long size,
+        @JsonView(Views.V2.class) Long modificationTime,
+        @JsonView(Views.V2.class) String owner,
+        @JsonView(Views.V2.class) String group,
+        @JsonView(Views.V2.class) Short replication,
+        @JsonView(Views.V2.class) Long blockSize,
+        @JsonView(Views.V2.class) String fingerprint,
+        @JsonView(Views.V2.class) List<Block> blockLocations) {
+
+    public static final String TYPE = "hdfs";
+    public static final int VERSION = 2;
+
+    /**
+     * The views selecting a schema's fields. V2 includes everything in legacy.
+     */
+    public static final class Views {
+        public static class Legacy {
+        }
+
+        public static class V2 extends Legacy {
+        }
+
+        private Views() {
+        }
+    }
+
+    /**
+     * One block of a file.
+     *
+     * @param offset the block's offset in the file
+     * @param length the block length in bytes
+     * @param hosts the datanodes holding a replica
+     */
+    public record Block(
+            @JsonView(Views.V2.class) long offset,
+            @JsonView(Views.V2.class) long length,
+            @JsonView(Views.V2.class) List<String> hosts) {
+    }
+
+    /**
+     * Creates an event that only knows the file's URL, e.g. for a file known by name only.
+     */
+    public static FileEvent of(String url) {
+        return new FileEvent(url, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Creates an event for a file found in an HDFS listing.
+     *
+     * @param url the WebHDFS URL of the file
+     * @param status the file's listing entry
+     * @param directory the watched directory the file was found under
+     * @param fingerprint the file fingerprint as hex, or null
+     * @param blocks the file's block locations, or null to leave them out
+     */
+    public static FileEvent of(String url, FileStatus status, String directory, String fingerprint,
+                               BlockLocation[] blocks) throws IOException {
+        return new FileEvent(url, status.getPath().toUri().getPath(), directory, status.getLen(),
+            status.getModificationTime(), status.getOwner(), status.getGroup(), status.getReplication(),
+            status.getBlockSize(), fingerprint, blocks != null ? toBlocks(blocks) : null);
+    }
+
+    /**
+     * Creates an event for an HDFS file known from a WebHDFS listing or the file index
+     * rather than a FileStatus. Values that are not known are passed as null.
+     *
+     * @param url the WebHDFS URL of the file
+     * @param path the absolute path of the file
+     * @param directory the watched directory the file was found under
+     * @param size the file size in bytes, or null
+     * @param modificationTime the file modification time, or null
+     * @param owner the file owner, or null
+     * @param group the file group, or null
+     * @param fingerprint the file fingerprint as hex, or null
+     */
+    public static FileEvent ofFile(String url, String path, String directory, Long size, Long modificationTime,
+                                   String owner, String group, String fingerprint) {
+        return new FileEvent(url, path, directory, size, modificationTime, owner, group, null, null, fingerprint,
+            null);
+    }
+
+    /**
+     * Creates an event for a file in the local storage directory.
+     *
+     * @param url the URL the file is served at
+     * @param path the absolute path of the file
+     * @param directory the directory holding the file
+     * @param size the file size in bytes
+     * @param modificationTime the file modification time
+     * @param fingerprint the file fingerprint as hex
+     */
+    public static FileEvent ofLocalFile(String url, String path, String directory, long size, long modificationTime,
+                                        String fingerprint) {
+        return new FileEvent(url, path, directory, size, modificationTime, null, null, null, null, fingerprint, null);
+    }
+
+    @JsonProperty("type")
+    @JsonView(Views.Legacy.class)
+    public String type() {
+        return TYPE;
+    }
+
+    @JsonProperty("version")
+    @JsonView(Views.V2.class)
+    public int version() {
+        return VERSION;
+    }
+
+    private static List<Block> toBlocks(BlockLocation[] locations) throws IOException {
+        List<Block> blocks = new ArrayList<>(locations.length);
+        for (BlockLocation location : locations) {
+            blocks.add(new Block(location.getOffset(), location.getLength(), List.of(location.getHosts())));
+        }
+        return blocks;
+    }
+}
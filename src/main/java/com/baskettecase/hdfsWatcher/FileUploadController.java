@@ -1,11 +1,17 @@
 package com.baskettecase.hdfsWatcher;
 
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.service.FileIndexService;
 import com.baskettecase.hdfsWatcher.service.ProcessedFilesService;
 import com.baskettecase.hdfsWatcher.service.ProcessingStateService;
+import com.baskettecase.hdfsWatcher.service.PublishRateLimiter;
 import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
 import com.baskettecase.hdfsWatcher.util.UrlUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 // removed unused imports
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -13,6 +19,10 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
@@ -33,6 +43,8 @@ public class FileUploadController {
     private final HdfsWatcherService hdfsWatcherService;
     private final ProcessedFilesService processedFilesService;
     private final ProcessingStateService processingStateService;
+    private final PublishRateLimiter publishRateLimiter;
+    private final FileIndexService fileIndexService;
 
     public FileUploadController(LocalFileService storageService, 
                               HdfsWatcherProperties properties,
@@ -40,7 +52,9 @@ public class FileUploadController {
                               HdfsWatcherOutput output,
                               HdfsWatcherService hdfsWatcherService,
                               ProcessedFilesService processedFilesService,
-                              ProcessingStateService processingStateService) {
+                              ProcessingStateService processingStateService,
+                              PublishRateLimiter publishRateLimiter,
+                              FileIndexService fileIndexService) {
         this.storageService = validateService(storageService, "LocalFileService");
         this.properties = validateService(properties, "HdfsWatcherProperties");
         this.webHdfsService = validateService(webHdfsService, "WebHdfsService");
@@ -48,6 +62,8 @@ public class FileUploadController {
         this.hdfsWatcherService = validateService(hdfsWatcherService, "HdfsWatcherService");
         this.processedFilesService = validateService(processedFilesService, "ProcessedFilesService");
         this.processingStateService = validateService(processingStateService, "ProcessingStateService");
+        this.publishRateLimiter = validateService(publishRateLimiter, "PublishRateLimiter");
+        this.fileIndexService = validateService(fileIndexService, "FileIndexService");
         
             String mode = properties.getMode();
             boolean isLocalMode = properties.isPseudoop();
@@ -96,17 +112,17 @@ public class FileUploadController {
             originalFilename, file.getSize(), isLocalMode ? "local" : "HDFS");
 
         try {
-            String publicUrl = processFileUpload(file, originalFilename);
+            FileEvent event = processFileUpload(file, originalFilename);
 
             // Always send JSON notification to Rabbit/stream
-            output.send(publicUrl, properties.getMode());
+            output.send(event, properties.getMode());
 
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("filename", originalFilename);
-            response.put("url", publicUrl);
+            response.put("url", event.url());
             response.put("timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString());
-            logger.info("Successfully uploaded file: {} -> {}", originalFilename, publicUrl);
+            logger.info("Successfully uploaded file: {} -> {}", originalFilename, event.url());
             return ResponseEntity.ok(response);
 
         } catch (Exception e) {
@@ -120,9 +136,9 @@ public class FileUploadController {
     }
     
     /**
-     * Processes file upload and returns the public URL.
+     * Processes file upload and returns the event sent for the stored file.
      */
-    private String processFileUpload(MultipartFile file, String originalFilename) throws Exception {
+    private FileEvent processFileUpload(MultipartFile file, String originalFilename) throws Exception {
         String mode = properties.getMode();
         boolean isLocalMode = "standalone".equals(mode) && properties.isPseudoop();
         
@@ -134,13 +150,15 @@ public class FileUploadController {
     }
     
     /**
-     * Processes upload to WebHDFS and builds the public URL.
+     * Processes upload to WebHDFS and builds the event for the uploaded file.
      */
-    private String processWebHdfsUpload(MultipartFile file, String originalFilename) throws Exception {
+    private FileEvent processWebHdfsUpload(MultipartFile file, String originalFilename) throws Exception {
         webHdfsService.uploadFile(file);
         
         String baseUrl = properties.getWebhdfsUri();
         String hdfsPath = properties.getHdfsPath();
+        // Per-directory settings such as the output binding are keyed by the path as configured
+        String watchedPath = hdfsPath;
         String user = properties.getHdfsUser();
         
         // Normalize paths
@@ -150,20 +168,57 @@ public class FileUploadController {
         }
         
         String encodedFilename = UrlUtils.encodeFilename(originalFilename);
-        return String.format("%s%s%s/%s?op=%s&user.name=%s", 
+        String publicUrl = String.format("%s%s%s/%s?op=%s&user.name=%s", 
             baseUrl, 
             HdfsWatcherConstants.WEBHDFS_PATH,
             hdfsPath, 
             encodedFilename, 
             HdfsWatcherConstants.WEBHDFS_OP_OPEN, 
             user);
+        return indexWebHdfsUpload(publicUrl, originalFilename, hdfsPath, watchedPath);
     }
     
     /**
-     * Processes upload to local storage and builds the public URL.
+     * Processes upload to local storage and builds the event for the stored file.
      */
-    private String processLocalUpload(MultipartFile file) {
-        return storageService.store(file);
+    private FileEvent processLocalUpload(MultipartFile file) {
+        String publicUrl = storageService.store(file);
+        String filename = org.springframework.util.StringUtils.cleanPath(file.getOriginalFilename());
+        java.nio.file.Path stored = storageService.load(filename).toAbsolutePath();
+        String directory = stored.getParent().toString();
+        try {
+            long size = Files.size(stored);
+            long modificationTime = Files.getLastModifiedTime(stored).toMillis();
+            fileIndexService.record(directory, filename, size, modificationTime);
+            return FileEvent.ofLocalFile(publicUrl, stored.toString(), directory, size, modificationTime,
+                processedFilesService.fingerprintFile(filename, size, modificationTime).toHex());
+        } catch (Exception e) {
+            logger.warn("Could not index uploaded file {}: {}", filename, e.getMessage());
+            return FileEvent.ofFile(publicUrl, stored.toString(), directory, null, null, null, null, null);
+        }
+    }
+    
+    /**
+     * Records an uploaded file in the hash index and builds its event from the file's
+     * details. The upload has succeeded either way; without the details the event
+     * carries only where the file is.
+     * 
+     * @param watchedPath the configured path the file was uploaded to, for the event's directory
+     */
+    private FileEvent indexWebHdfsUpload(String publicUrl, String filename, String hdfsPath, String watchedPath) {
+        String path = childPath(hdfsPath, filename);
+        try {
+            Map<String, Object> details = webHdfsService.getFileDetails(filename);
+            long size = (Long) details.get("size");
+            long modificationTime = (Long) details.get("modificationTime");
+            fileIndexService.record(hdfsPath, filename, size, modificationTime);
+            return FileEvent.ofFile(publicUrl, path, watchedPath, size, modificationTime,
+                (String) details.get("owner"), (String) details.get("group"),
+                processedFilesService.fingerprintFile(filename, size, modificationTime).toHex());
+        } catch (Exception e) {
+            logger.warn("Could not index uploaded file {}: {}", filename, e.getMessage());
+            return FileEvent.ofFile(publicUrl, path, watchedPath, null, null, null, null, null);
+        }
     }
 
     /**
@@ -196,7 +251,7 @@ public class FileUploadController {
             
             // Get processed files info
             int processedCount = processedFilesService.getProcessedFilesCount();
-            Set<String> processedHashes = processedFilesService.getAllProcessedFiles();
+            Set<String> processedFingerprints = processedFilesService.getAllProcessedFingerprints();
             
             // Get processing state
             boolean isProcessingEnabled = processingStateService.isProcessingEnabled();
@@ -208,7 +263,7 @@ public class FileUploadController {
             response.put("hdfsDisconnected", hdfsDisconnected);
             response.put("totalFiles", files.size());
             response.put("processedFilesCount", processedCount);
-            response.put("processedFilesHashes", processedHashes);
+            response.put("processedFileFingerprints", processedFingerprints);
             response.put("enabled", isProcessingEnabled);
             response.put("status", processingStateService.getProcessingState()); // Returns "STARTED" or "STOPPED"
             response.put("consumerStatus", determineConsumerStatus(isProcessingEnabled));
@@ -269,10 +324,11 @@ public class FileUploadController {
                         }
                     }
                 } else {
-                    // Use WebHDFS for detailed file information from multiple directories
-                    List<Map<String, Object>> hdfsFiles = webHdfsService.listFilesWithDetailsFromMultipleDirectories();
+                    // Use WebHDFS for detailed file information from multiple directories, page by page
+                    Iterator<Map<String, Object>> hdfsFiles = webHdfsService.iterateFilesWithDetailsFromMultipleDirectories();
                     
-                    for (Map<String, Object> hdfsFile : hdfsFiles) {
+                    while (hdfsFiles.hasNext()) {
+                        Map<String, Object> hdfsFile = hdfsFiles.next();
                         String filename = (String) hdfsFile.get("filename");
                         Long size = (Long) hdfsFile.get("size");
                         Long modificationTime = (Long) hdfsFile.get("modificationTime");
@@ -441,44 +497,49 @@ public class FileUploadController {
             List<String> processedHashes = new ArrayList<>();
             List<String> failedHashes = new ArrayList<>();
             
-            String mode = properties.getMode();
             boolean isLocalMode = properties.isPseudoop();
             
+            // Resolve every hash at once; only hashes missing from the index cost a listing
+            Map<String, Fingerprint> fingerprints = new LinkedHashMap<>();
             for (String hash : fileHashes) {
                 try {
-                    // Find the file details by hash
-                    String filename = findFilenameByHash(hash);
-                    if (filename == null) {
-                        logger.warn("Could not find filename for hash: {}", hash);
-                        failedHashes.add(hash);
-                        continue;
-                    }
+                    fingerprints.put(hash, Fingerprint.fromHash(hash));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Invalid file hash: {}", hash);
+                    failedHashes.add(hash);
+                }
+            }
+            Map<Fingerprint, FileIndexService.FileLocation> locations = fileIndexService.resolve(fingerprints.values());
+            
+            for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+                String hash = entry.getKey();
+                FileIndexService.FileLocation location = locations.get(entry.getValue());
+                if (location == null) {
+                    logger.warn("Could not find filename for hash: {}", hash);
+                    failedHashes.add(hash);
+                    continue;
+                }
+                
+                String filename = location.filename();
+                FileEvent event = fileEventFor(location, entry.getValue(), isLocalMode);
+                
+                // Send to output (RabbitMQ/stream) first, then mark as processed
+                try {
+                    publishRateLimiter.acquire();
+                    output.send(event, properties.getMode());
                     
-                    // Process the file immediately
-                    String fileUrl = processFileImmediately(filename, isLocalMode);
+                    // Only mark as processed after successful queue send
+                    processedFilesService.markFileAsProcessed(hash);
+                    processedCount++;
+                    processedHashes.add(hash);
                     
-                    // Send to output (RabbitMQ/stream) first, then mark as processed
-                    try {
-                        output.send(fileUrl, properties.getMode());
-                        
-                        // Only mark as processed after successful queue send
-                        processedFilesService.markFileAsProcessed(hash);
-                        processedCount++;
-                        processedHashes.add(hash);
-                        
-                        logger.info("Immediately processed file: {} -> {}", filename, fileUrl);
-                        
-                    } catch (Exception e) {
-                        logger.error("Failed to send file to queue: {} (hash: {}). Error: {}", 
-                            filename, hash, e.getMessage());
-                        failedHashes.add(hash);
-                        // Don't mark as processed if queue send failed
-                        continue;
-                    }
+                    logger.info("Immediately processed file: {} -> {}", filename, event.url());
                     
                 } catch (Exception e) {
-                    logger.error("Failed to process file with hash: {}", hash, e);
+                    logger.error("Failed to send file to queue: {} (hash: {}). Error: {}", 
+                        filename, hash, e.getMessage());
                     failedHashes.add(hash);
+                    // Don't mark as processed if queue send failed
                 }
             }
             
@@ -505,132 +566,85 @@ public class FileUploadController {
     }
     
     /**
-     * Finds filename by hash by looking up in the current file list.
+     * Builds the event sent for a file found through the hash index.
      */
-    private String findFilenameByHash(String hash) {
-        try {
-            if (properties.isPseudoop()) {
-                // For local mode, get files from local storage
-                List<String> files = storageService.loadAll()
-                    .map(path -> path.getFileName().toString())
-                    .collect(Collectors.toList());
-                
-                for (String filename : files) {
-                    try {
-                        java.nio.file.Path filePath = storageService.load(filename);
-                        long fileSize = java.nio.file.Files.size(filePath);
-                        long modificationTime = java.nio.file.Files.getLastModifiedTime(filePath).toMillis();
-                        String fileHash = processedFilesService.generateFileHash(filename, fileSize, modificationTime);
-                        
-                        if (hash.equals(fileHash)) {
-                            return filename;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("Error checking file hash for: {}", filename, e);
-                    }
-                }
-            } else {
-                // For HDFS mode, get files from WebHDFS
-                List<Map<String, Object>> hdfsFiles = webHdfsService.listFilesWithDetails();
-                
-                for (Map<String, Object> hdfsFile : hdfsFiles) {
-                    String filename = (String) hdfsFile.get("filename");
-                    Long size = (Long) hdfsFile.get("size");
-                    Long modificationTime = (Long) hdfsFile.get("modificationTime");
-                    
-                    String fileHash = processedFilesService.generateFileHash(filename, size, modificationTime);
-                    
-                    if (hash.equals(fileHash)) {
-                        return filename;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error finding filename by hash: {}", hash, e);
+    private FileEvent fileEventFor(FileIndexService.FileLocation location, Fingerprint fingerprint,
+                                   boolean isLocalMode) {
+        String filename = location.filename();
+        if (isLocalMode) {
+            String fileUrl = UrlUtils.buildFileUrl(properties.getPublicAppUri(), HdfsWatcherConstants.FILES_PATH,
+                filename);
+            return FileEvent.ofLocalFile(fileUrl, childPath(location.directory(), filename), location.directory(),
+                location.size(), location.modificationTime(), fingerprint.toHex());
         }
-        
-        return null;
+        return FileEvent.ofFile(buildWebHdfsFileUrl(filename, location.directory()),
+            childPath(location.directory(), filename), watchedPathFor(location.directory()), location.size(),
+            location.modificationTime(), null, null, fingerprint.toHex());
     }
     
     /**
-     * Processes a file immediately and returns the public URL.
+     * Gets the configured HDFS path a directory lies in, as the poller names it in events.
+     * The index records the file's own directory, which in recursive mode is below the
+     * watched path. Directories outside every watched path are returned as they are.
      */
-    private String processFileImmediately(String filename, boolean isLocalMode) throws Exception {
-        if (isLocalMode) {
-            // For local mode, build the file URL
-            return UrlUtils.buildFileUrl(
-                properties.getPublicAppUri(), 
-                HdfsWatcherConstants.FILES_PATH, 
-                filename
-            );
-        } else {
-            // For HDFS mode, build the WebHDFS URL
-            String baseUrl = properties.getWebhdfsUri();
-            
-            if (baseUrl == null || baseUrl.isEmpty()) {
-                // Fallback to hdfsUri logic
-                baseUrl = buildBaseUriFromHdfsUri();
+    private String watchedPathFor(String directory) {
+        String watchedPath = directory;
+        int longest = -1;
+        for (String configuredPath : properties.getHdfsPaths()) {
+            String root = configuredPath.trim().replaceAll("/+$", "");
+            if (!root.isEmpty() && !root.startsWith("/")) {
+                root = "/" + root;
+            }
+            boolean contains = root.isEmpty() || directory.equals(root) || directory.startsWith(root + "/");
+            if (contains && root.length() > longest) {
+                watchedPath = configuredPath;
+                longest = root.length();
             }
-            
-            // Find the correct HDFS path for this file by looking it up in file metadata
-            String hdfsPath = findCorrectHdfsPathForFile(filename);
-            
-            String encodedFilename = UrlUtils.encodePathSegment(filename);
-            String webhdfsUrl = baseUrl.replaceAll("/$", "") + 
-                               HdfsWatcherConstants.WEBHDFS_PATH + 
-                               hdfsPath.replaceAll("/$", "") + "/" + encodedFilename;
-            
-            logger.error("DEBUGGING processFileImmediately: filename={}, hdfsPath={}, finalURL={}", 
-                        filename, hdfsPath, webhdfsUrl);
-            
-            return webhdfsUrl;
         }
+        return watchedPath;
     }
     
     /**
-     * Finds the correct HDFS path for a file by looking it up in file metadata.
+     * Gets the path of a file in a directory.
      */
-    private String findCorrectHdfsPathForFile(String filename) {
-        try {
-            // Get files from WebHDFS with metadata
-            List<Map<String, Object>> hdfsFiles = webHdfsService.listFilesWithDetailsFromMultipleDirectories();
-            
-            for (Map<String, Object> hdfsFile : hdfsFiles) {
-                String fileFilename = (String) hdfsFile.get("filename");
-                String source = (String) hdfsFile.get("source");
-                
-                if (filename.equals(fileFilename)) {
-                    // Find the original HDFS path that matches this source
-                    for (String configuredPath : properties.getHdfsPaths()) {
-                        String dirName = configuredPath;
-                        if (dirName.startsWith("/")) {
-                            dirName = dirName.substring(1);
-                        }
-                        if (dirName.isEmpty()) {
-                            dirName = "root";
-                        }
-                        if (dirName.equals(source)) {
-                            logger.error("DEBUGGING findCorrectHdfsPathForFile: filename={}, source={}, configuredPath={}", 
-                                        filename, source, configuredPath);
-                            return configuredPath;  // Use the original configured path
-                        }
-                    }
-                    // Fallback if no configured path matches the source
-                    String fallbackPath = "/" + source;
-                    logger.error("DEBUGGING findCorrectHdfsPathForFile: filename={}, source={}, using fallback={}", 
-                                filename, source, fallbackPath);
-                    return fallbackPath;
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error finding HDFS path for file: {}", filename, e);
+    private static String childPath(String directory, String filename) {
+        return directory.replaceAll("/$", "") + "/" + filename;
+    }
+    
+    /**
+     * Builds the WebHDFS URL sent for a file in the given HDFS directory.
+     */
+    private String buildWebHdfsFileUrl(String filename, String hdfsPath) {
+        String baseUrl = properties.getWebhdfsUri();
+        
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            // Fallback to hdfsUri logic
+            baseUrl = buildBaseUriFromHdfsUri();
         }
         
-        // Ultimate fallback: use the legacy single path
-        String legacyPath = properties.getHdfsPath();
-        logger.error("DEBUGGING findCorrectHdfsPathForFile: filename={}, using legacy fallback={}", 
-                    filename, legacyPath);
-        return legacyPath != null ? legacyPath : "/";
+        String encodedFilename = UrlUtils.encodePathSegment(filename);
+        return baseUrl.replaceAll("/$", "") + 
+               HdfsWatcherConstants.WEBHDFS_PATH + 
+               hdfsPath.replaceAll("/$", "") + "/" + encodedFilename;
+    }
+    
+    /**
+     * Maps a listing record's "source" back to the configured HDFS path it came from.
+     */
+    private String configuredPathForSource(String source) {
+        for (String configuredPath : properties.getHdfsPaths()) {
+            String dirName = configuredPath;
+            if (dirName.startsWith("/")) {
+                dirName = dirName.substring(1);
+            }
+            if (dirName.isEmpty()) {
+                dirName = "root";
+            }
+            if (dirName.equals(source)) {
+                return configuredPath;
+            }
+        }
+        return "/" + source;
     }
     
     /**
@@ -652,23 +666,27 @@ public class FileUploadController {
                 
                 for (String filename : files) {
                     try {
-                        java.nio.file.Path filePath = storageService.load(filename);
+                        java.nio.file.Path filePath = storageService.load(filename).toAbsolutePath();
                         long fileSize = java.nio.file.Files.size(filePath);
                         long modificationTime = java.nio.file.Files.getLastModifiedTime(filePath).toMillis();
-                        String fileHash = processedFilesService.generateFileHash(filename, fileSize, modificationTime);
+                        Fingerprint fingerprint = processedFilesService.fingerprintFile(filename, fileSize, 
+                            modificationTime);
                         
                         // Check if file has already been processed
-                        if (!processedFilesService.isFileProcessed(fileHash)) {
+                        if (!processedFilesService.isFileProcessed(fingerprint)) {
                             // Process the file immediately
                             String fileUrl = UrlUtils.buildFileUrl(
                                 properties.getPublicAppUri(), 
                                 HdfsWatcherConstants.FILES_PATH, 
                                 filename
                             );
-                            output.send(fileUrl, properties.getMode());
+                            FileEvent event = FileEvent.ofLocalFile(fileUrl, filePath.toString(), 
+                                filePath.getParent().toString(), fileSize, modificationTime, fingerprint.toHex());
+                            publishRateLimiter.acquire();
+                            output.send(event, properties.getMode());
                             
                             // Mark as processed
-                            processedFilesService.markFileAsProcessed(fileHash);
+                            processedFilesService.markFileAsProcessed(fingerprint);
                             processedCount++;
                             logger.info("Immediately processed local file: {} -> {}", filename, fileUrl);
                         }
@@ -677,25 +695,32 @@ public class FileUploadController {
                     }
                 }
             } else {
-                // For HDFS mode, get files from WebHDFS
-                List<Map<String, Object>> hdfsFiles = webHdfsService.listFilesWithDetails();
+                // For HDFS mode, page through WebHDFS
+                Iterator<Map<String, Object>> hdfsFiles = webHdfsService.iterateFilesWithDetailsFromMultipleDirectories();
                 
-                for (Map<String, Object> hdfsFile : hdfsFiles) {
+                while (hdfsFiles.hasNext()) {
+                    Map<String, Object> hdfsFile = hdfsFiles.next();
                     String filename = (String) hdfsFile.get("filename");
                     Long size = (Long) hdfsFile.get("size");
                     Long modificationTime = (Long) hdfsFile.get("modificationTime");
+                    String source = (String) hdfsFile.get("source");
                     
-                    String fileHash = processedFilesService.generateFileHash(filename, size, modificationTime);
+                    Fingerprint fingerprint = processedFilesService.fingerprintFile(filename, size, modificationTime);
                     
                     // Check if file has already been processed
-                    if (!processedFilesService.isFileProcessed(fileHash)) {
+                    if (!processedFilesService.isFileProcessed(fingerprint)) {
                         try {
-                            // Process the file immediately
-                            String fileUrl = processFileImmediately(filename, false);
-                            output.send(fileUrl, properties.getMode());
+                            // The record already names its directory, so no second listing is needed to find it
+                            String hdfsPath = configuredPathForSource(source);
+                            String fileUrl = buildWebHdfsFileUrl(filename, hdfsPath);
+                            FileEvent event = FileEvent.ofFile(fileUrl, childPath(hdfsPath, filename), hdfsPath, 
+                                size, modificationTime, (String) hdfsFile.get("owner"), 
+                                (String) hdfsFile.get("group"), fingerprint.toHex());
+                            publishRateLimiter.acquire();
+                            output.send(event, properties.getMode());
                             
                             // Mark as processed
-                            processedFilesService.markFileAsProcessed(fileHash);
+                            processedFilesService.markFileAsProcessed(fingerprint);
                             processedCount++;
                             logger.info("Immediately processed HDFS file: {} -> {}", filename, fileUrl);
                         } catch (Exception e) {
@@ -771,6 +796,101 @@ public class FileUploadController {
         }
     }
 
+    /**
+     * Downloads the processed set as a snapshot file, e.g. to seed a replacement instance.
+     * 
+     * @return the snapshot file, or a JSON error
+     */
+    @GetMapping("/api/processed-files/snapshot")
+    @ResponseBody
+    public ResponseEntity<?> downloadProcessedFilesSnapshot() {
+        java.nio.file.Path temp = null;
+        try {
+            temp = Files.createTempFile("processed-", ".snapshot");
+            int count = processedFilesService.exportSnapshot(temp);
+            long size = Files.size(temp);
+            // The temporary file goes away once the response has been streamed
+            InputStream snapshot = Files.newInputStream(temp, StandardOpenOption.DELETE_ON_CLOSE);
+            logger.info("Serving processed-files snapshot with {} entries ({} bytes)", count, size);
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"processed.snapshot\"")
+                .header("X-Processed-Files-Count", String.valueOf(count))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(size)
+                .body(new InputStreamResource(snapshot));
+        } catch (Exception e) {
+            logger.error("Error exporting processed files snapshot", e);
+            deleteQuietly(temp);
+            return ResponseEntity.status(500).body(Map.of(
+                "status", "error",
+                "message", "Failed to export processed files snapshot: " + e.getMessage(),
+                "timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString()
+            ));
+        }
+    }
+    
+    /**
+     * Adds the entries of an uploaded snapshot file to the processed set. Existing entries
+     * are kept.
+     * 
+     * @param file the snapshot (multipart field: file)
+     * @return JSON response with import results
+     */
+    @PostMapping("/api/processed-files/snapshot")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uploadProcessedFilesSnapshot(@RequestParam("file") MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", "No snapshot file provided",
+                "timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString()
+            ));
+        }
+        java.nio.file.Path temp = null;
+        try {
+            // Snapshots are read through a memory mapping, so they need to be on disk
+            temp = Files.createTempFile("processed-upload-", ".snapshot");
+            file.transferTo(temp);
+            long importedCount = processedFilesService.importSnapshot(temp);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("importedCount", importedCount);
+            response.put("processedFilesCount", processedFilesService.getProcessedFilesCount());
+            response.put("message", "Successfully imported " + importedCount + " processed files");
+            response.put("timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString());
+            return ResponseEntity.ok(response);
+            
+        } catch (IOException e) {
+            logger.error("Error importing processed files snapshot", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", "Failed to import processed files snapshot: " + e.getMessage(),
+                "timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString()
+            ));
+        } catch (Exception e) {
+            logger.error("Error importing processed files snapshot", e);
+            return ResponseEntity.status(500).body(Map.of(
+                "status", "error",
+                "message", "Failed to import processed files snapshot: " + e.getMessage(),
+                "timestamp", OffsetDateTime.now(ZoneOffset.UTC).toString()
+            ));
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+    
+    private static void deleteQuietly(java.nio.file.Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete temporary file {}: {}", path, e.getMessage());
+        }
+    }
+
     /**
      * Reprocess-all: stop processing, clear all processed flags.
      */
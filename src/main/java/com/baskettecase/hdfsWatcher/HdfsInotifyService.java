@@ -0,0 +1,441 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.service.FileFilterService;
+import com.baskettecase.hdfsWatcher.sharding.ShardingService;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInotifyEventInputStream;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.client.HdfsAdmin;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivilegedExceptionAction;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven HDFS discovery that tails the NameNode inotify stream instead of
+ * re-listing every watched directory on each poll interval.
+ *
+ * Active only when hdfswatcher.discovery-mode=event outside pseudoop mode. Closed files
+ * (and files renamed into a watched directory) are fed into the same dedup-and-send
+ * path used by polling. The last consumed transaction id is persisted so a restart
+ * resumes where it left off; gaps in the stream trigger a single reconciling listing.
+ * A file whose send or stat fails puts its directory on a retry list: the directory gets
+ * a reconciling listing every retry interval until nothing in it fails, and the persisted
+ * txid is held at the batch before the first failure so a restart replays it.
+ * Reading the inotify stream requires HDFS superuser privileges, so if the stream
+ * cannot be opened the watcher stays on scheduled polling.
+ */
+@Service
+public class HdfsInotifyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HdfsInotifyService.class);
+
+    private final HdfsWatcherProperties properties;
+    private final HdfsWatcherService watcherService;
+    private final FileFilterService fileFilterService;
+    private final ShardingService shardingService;
+
+    private volatile boolean running = false;
+    private volatile Thread worker;
+    private volatile long lastTxid = -1L;
+    private long persistedTxid = -1L;
+    private long lastPersistTime = 0L;
+    // Watched directories with a file whose send or stat failed, retried with a full listing
+    private final Set<String> retryDirectories = ConcurrentHashMap.newKeySet();
+    // Txid persisted instead of lastTxid while retries are pending
+    private volatile long retryFromTxid = -1L;
+    private long lastRetryTime = 0L;
+
+    public HdfsInotifyService(HdfsWatcherProperties properties,
+                              HdfsWatcherService watcherService,
+                              FileFilterService fileFilterService,
+                              ShardingService shardingService) {
+        this.properties = properties;
+        this.watcherService = watcherService;
+        this.fileFilterService = fileFilterService;
+        this.shardingService = shardingService;
+    }
+
+    /**
+     * Starts tailing the inotify stream once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (properties.isPseudoop() || !properties.isEventDiscovery()) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::run, "hdfs-inotify");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+        logger.info("{} Event discovery started for paths: {}",
+            HdfsWatcherConstants.LOG_PREFIX_INOTIFY, properties.getHdfsPaths());
+    }
+
+    /**
+     * Stops the inotify worker and persists the last consumed transaction id.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(HdfsWatcherConstants.INOTIFY_POLL_TIMEOUT_MS * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        persistTxid(true);
+    }
+
+    /**
+     * Gets the last inotify transaction id that was fully handled.
+     *
+     * @return the last transaction id, or -1 if none has been consumed yet
+     */
+    public long getLastTxid() {
+        return lastTxid;
+    }
+
+    private void run() {
+        HdfsAdmin admin;
+        try {
+            admin = createAdmin();
+        } catch (Exception e) {
+            logger.error("{} Could not connect to the inotify stream, staying on scheduled polling",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, e);
+            return;
+        }
+
+        lastTxid = readPersistedTxid();
+        persistedTxid = lastTxid;
+        DFSInotifyEventInputStream stream = null;
+
+        while (running) {
+            try {
+                if (stream == null) {
+                    stream = openStream(admin);
+                }
+                EventBatch batch = stream.poll(HdfsWatcherConstants.INOTIFY_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    handleBatch(batch);
+                    lastTxid = batch.getTxid();
+                }
+                retryFailedDirectories();
+                persistTxid(false);
+            } catch (MissingEventsException e) {
+                logger.warn("{} Inotify stream has a gap (expected txid {}, got {}), reconciling with a full listing",
+                    HdfsWatcherConstants.LOG_PREFIX_INOTIFY, e.getExpectedTxid(), e.getActualTxid());
+                lastTxid = -1L;
+                stream = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                logger.warn("{} Inotify stream failed, retrying in {} ms",
+                    HdfsWatcherConstants.LOG_PREFIX_INOTIFY, HdfsWatcherConstants.INOTIFY_RECONNECT_DELAY_MS, e);
+                stream = null;
+                if (!fallBackToPolling()) {
+                    break;
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // Reopen the stream like after an I/O failure so a recurring error cannot spin
+                logger.error("{} Unexpected error in inotify discovery, retrying in {} ms",
+                    HdfsWatcherConstants.LOG_PREFIX_INOTIFY, HdfsWatcherConstants.INOTIFY_RECONNECT_DELAY_MS, e);
+                stream = null;
+                if (!fallBackToPolling()) {
+                    break;
+                }
+            }
+        }
+        watcherService.setEventDiscoveryActive(false);
+        logger.info("{} Event discovery stopped at txid {}", HdfsWatcherConstants.LOG_PREFIX_INOTIFY, lastTxid);
+    }
+
+    /**
+     * Lets scheduled polling cover discovery and waits before the stream is reopened.
+     *
+     * @return false if interrupted while waiting
+     */
+    private boolean fallBackToPolling() {
+        watcherService.setEventDiscoveryActive(false);
+        try {
+            Thread.sleep(HdfsWatcherConstants.INOTIFY_RECONNECT_DELAY_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Creates an HdfsAdmin as the configured HDFS user, mirroring how the FileSystem is opened.
+     */
+    private HdfsAdmin createAdmin() throws Exception {
+        FileSystem fileSystem = watcherService.getFileSystem();
+        URI uri = new URI(properties.getHdfsUri());
+        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(properties.getHdfsUser());
+        return ugi.doAs((PrivilegedExceptionAction<HdfsAdmin>) () -> new HdfsAdmin(uri, fileSystem.getConf()));
+    }
+
+    /**
+     * Opens the event stream, resuming after the last consumed txid when one is known.
+     * Without a txid the stream starts at the current edit log position and a reconciling
+     * listing picks up everything that arrived before it.
+     */
+    private DFSInotifyEventInputStream openStream(HdfsAdmin admin) throws IOException {
+        DFSInotifyEventInputStream stream;
+        if (lastTxid >= 0) {
+            logger.info("{} Resuming inotify stream after txid {}", HdfsWatcherConstants.LOG_PREFIX_INOTIFY, lastTxid);
+            stream = admin.getInotifyEventStream(lastTxid);
+            watcherService.setEventDiscoveryActive(true);
+        } else {
+            stream = admin.getInotifyEventStream();
+            watcherService.setEventDiscoveryActive(true);
+            // Open the stream before listing so nothing falls between the two
+            watcherService.reconcileHdfsDirectories();
+        }
+        return stream;
+    }
+
+    /**
+     * Handles a batch of events: closed files and files renamed into a watched directory
+     * are published; creations are only logged since the file is not complete yet.
+     */
+    void handleBatch(EventBatch batch) {
+        for (Event event : batch.getEvents()) {
+            switch (event.getEventType()) {
+                case CREATE -> {
+                    Event.CreateEvent create = (Event.CreateEvent) event;
+                    if (create.getiNodeType() == Event.CreateEvent.INodeType.FILE
+                        && findWatchedDirectory(create.getPath()) != null) {
+                        logger.debug("{} File created (waiting for close): {}",
+                            HdfsWatcherConstants.LOG_PREFIX_INOTIFY, create.getPath());
+                    }
+                }
+                case CLOSE -> publishIfWatched(((Event.CloseEvent) event).getPath(), false);
+                case RENAME -> publishIfWatched(((Event.RenameEvent) event).getDstPath(), true);
+                default -> {
+                    // Other event types do not affect discovery
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the file and runs it through the dedup-and-send path if it lives under one
+     * of the watched directories, passes that directory's file filter and belongs to this
+     * replica's shard.
+     */
+    private void publishIfWatched(String filePath, boolean checkClosed) {
+        String watchedDirectory = findWatchedDirectory(filePath);
+        if (watchedDirectory == null) {
+            return;
+        }
+        Path path = new Path(filePath);
+        if (!fileFilterService.accept(watchedDirectory, path.getName())) {
+            return;
+        }
+        if (!shardingService.owns(ShardingService.shardKey(normalizeDirectory(watchedDirectory), filePath))) {
+            return;
+        }
+        try {
+            FileSystem fileSystem = watcherService.getFileSystem();
+            FileStatus status = fileSystem.getFileStatus(path);
+            if (!status.isFile()) {
+                return;
+            }
+            // A file renamed while still open is published by its later CLOSE event
+            if (checkClosed && fileSystem instanceof DistributedFileSystem dfs && !dfs.isFileClosed(path)) {
+                return;
+            }
+            if (watcherService.processHdfsFile(watchedDirectory, status) == HdfsWatcherService.FileOutcome.FAILED) {
+                scheduleRetry(watchedDirectory, filePath);
+            }
+        } catch (FileNotFoundException e) {
+            logger.debug("{} File no longer exists: {}", HdfsWatcherConstants.LOG_PREFIX_INOTIFY, filePath);
+        } catch (IOException e) {
+            logger.warn("{} Could not stat file {}: {}",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, filePath, e.getMessage());
+            scheduleRetry(watchedDirectory, filePath);
+        }
+    }
+
+    /**
+     * Puts a watched directory on the retry list. The first failure holds the persisted
+     * txid at the last batch fully handled before it, which is still lastTxid here.
+     */
+    private void scheduleRetry(String watchedDirectory, String filePath) {
+        if (retryDirectories.isEmpty()) {
+            retryFromTxid = lastTxid;
+        }
+        if (retryDirectories.add(watchedDirectory)) {
+            logger.warn("{} Could not publish {}, retrying {} with a full listing",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, filePath, watchedDirectory);
+        }
+    }
+
+    /**
+     * Runs a reconciling listing of every directory on the retry list, at most once per
+     * retry interval. A directory stays on the list until its listing has no failures.
+     */
+    private void retryFailedDirectories() {
+        if (retryDirectories.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastRetryTime < HdfsWatcherConstants.INOTIFY_RETRY_INTERVAL_MS) {
+            return;
+        }
+        lastRetryTime = now;
+        for (String directory : retryDirectories) {
+            if (watcherService.reconcileHdfsDirectory(directory)) {
+                retryDirectories.remove(directory);
+            }
+        }
+        if (retryDirectories.isEmpty()) {
+            logger.info("{} All failed directories reconciled, resuming txid persistence at {}",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, lastTxid);
+        }
+    }
+
+    /**
+     * Finds the configured directory that contains the given path: directly, or in recursive
+     * mode through subdirectories within max-depth that pass the include/exclude rules.
+     *
+     * @return the configured path as written in hdfsPaths, or null if the path is not watched
+     */
+    String findWatchedDirectory(String filePath) {
+        if (filePath == null) {
+            return null;
+        }
+        int slash = filePath.lastIndexOf('/');
+        String parent = slash <= 0 ? "/" : filePath.substring(0, slash);
+        for (String configuredPath : properties.getHdfsPaths()) {
+            String root = normalizeDirectory(configuredPath);
+            if (root.equals(parent)) {
+                return configuredPath;
+            }
+            if (properties.isRecursive() && isWatchedSubdirectory(root, parent)) {
+                return configuredPath;
+            }
+        }
+        return null;
+    }
+
+    private boolean isWatchedSubdirectory(String root, String directory) {
+        String prefix = root.equals("/") ? "/" : root + "/";
+        if (!directory.startsWith(prefix)) {
+            return false;
+        }
+        String[] segments = directory.substring(prefix.length()).split("/");
+        if (segments.length > properties.getMaxDepth()) {
+            return false;
+        }
+        for (String segment : segments) {
+            if (!watcherService.isWatchedSubdirectory(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeDirectory(String directory) {
+        String normalized = directory.trim();
+        if (normalized.startsWith(HdfsWatcherConstants.HDFS_SCHEME)) {
+            normalized = new Path(normalized).toUri().getPath();
+        }
+        while (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * Reads the persisted transaction id.
+     *
+     * @return the persisted txid, or -1 if none is available
+     */
+    private long readPersistedTxid() {
+        java.nio.file.Path txidFile = txidFile();
+        if (txidFile == null || !Files.exists(txidFile)) {
+            return -1L;
+        }
+        try {
+            long txid = Long.parseLong(Files.readString(txidFile, StandardCharsets.UTF_8).trim());
+            logger.info("{} Loaded persisted inotify txid {} from {}",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, txid, txidFile);
+            return txid;
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("{} Ignoring unreadable txid file {}", HdfsWatcherConstants.LOG_PREFIX_INOTIFY, txidFile, e);
+            return -1L;
+        }
+    }
+
+    /**
+     * Persists the last consumed txid, or the txid held for pending retries, at most once
+     * per persist interval unless forced.
+     * Written to a temporary file and atomically moved so a crash never leaves a torn value.
+     */
+    private synchronized void persistTxid(boolean force) {
+        long txid = retryDirectories.isEmpty() ? lastTxid : retryFromTxid;
+        if (txid < 0 || txid == persistedTxid) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!force && now - lastPersistTime < HdfsWatcherConstants.INOTIFY_TXID_PERSIST_INTERVAL_MS) {
+            return;
+        }
+        java.nio.file.Path txidFile = txidFile();
+        if (txidFile == null) {
+            return;
+        }
+        try {
+            if (txidFile.getParent() != null) {
+                Files.createDirectories(txidFile.getParent());
+            }
+            java.nio.file.Path tmp = txidFile.resolveSibling(txidFile.getFileName() + ".tmp");
+            Files.writeString(tmp, Long.toString(txid), StandardCharsets.UTF_8);
+            Files.move(tmp, txidFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            persistedTxid = txid;
+            lastPersistTime = now;
+        } catch (IOException e) {
+            logger.warn("{} Failed to persist inotify txid {} to {}",
+                HdfsWatcherConstants.LOG_PREFIX_INOTIFY, txid, txidFile, e);
+        }
+    }
+
+    private java.nio.file.Path txidFile() {
+        String file = properties.getInotifyTxidFile();
+        return (file == null || file.isBlank()) ? null : java.nio.file.Paths.get(file);
+    }
+}
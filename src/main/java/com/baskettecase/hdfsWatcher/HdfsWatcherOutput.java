@@ -1,52 +1,326 @@
 package com.baskettecase.hdfsWatcher;
 
 import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 
+import java.net.URI;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 /**
  * Service for handling output operations with proper logging and validation.
+ * 
+ * Each file is sent as a {@link FileEvent}, written by a shared Jackson writer in the
+ * schema configured for the output binding: hdfswatcher.binding-event-schemas[binding],
+ * else hdfswatcher.event-schema.
+ * 
+ * Files go to the output binding of the watched directory they were found under
+ * (hdfswatcher.directory-options[dir].output-binding, else hdfswatcher.output-binding), so
+ * a busy directory can get its own destination and consumers. With
+ * hdfswatcher.partition-key set, each message also carries a partitionKey header derived
+ * from the file's directory, fingerprint or file name prefix, for the binding's
+ * partition-key-expression to spread files over partitions while keeping those with the
+ * same key on one consumer.
+ * 
+ * Files are normally sent one message each. With hdfswatcher.publish-batch-mode set,
+ * {@link #sendBatch} sends several files at once: array puts them all in one message,
+ * burst sends their single-file messages back to back from one thread.
+ * 
+ * With hdfswatcher.publish-confirms set, messages carry RabbitMQ correlation data and
+ * {@link #sendConfirmed} returns as soon as the message is handed to the binder, with a
+ * future for the broker's ack. Up to hdfswatcher.publish-confirm-window messages may await
+ * their confirm at once. {@link #send} then waits for the ack before it returns.
  */
 @Component
 public class HdfsWatcherOutput implements HealthIndicator {
     
     private static final Logger logger = LoggerFactory.getLogger(HdfsWatcherOutput.class);
     
+    // Fields outside the writer's view are left out, so each view is exactly one schema
+    private static final ObjectMapper EVENT_MAPPER = JsonMapper.builder()
+        .disable(MapperFeature.DEFAULT_VIEW_INCLUSION)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+    private static final ObjectWriter LEGACY_WRITER = EVENT_MAPPER.writerWithView(FileEvent.Views.Legacy.class);
+    private static final ObjectWriter V2_WRITER = EVENT_MAPPER.writerWithView(FileEvent.Views.V2.class);
+    private static final ObjectReader EVENT_READER = EVENT_MAPPER.readerFor(FileEvent.class);
+    
     private final StreamBridge streamBridge;
     private final HdfsWatcherProperties properties;
+    // Null unless hdfswatcher.publish-confirms is set
+    private final PublishConfirmWindow confirmWindow;
 
-    public HdfsWatcherOutput(StreamBridge streamBridge, HdfsWatcherProperties properties) {
+    public HdfsWatcherOutput(StreamBridge streamBridge, HdfsWatcherProperties properties, 
+                             MeterRegistry meterRegistry, Environment environment) {
         this.streamBridge = streamBridge;
         this.properties = validateProperties(properties);
-        logger.info("HdfsWatcherOutput initialized with StreamBridge and output binding: {}", 
-            this.properties.getOutputBinding());
+        String batchMode = this.properties.getPublishBatchMode();
+        if (batchMode == null ||
+            !(HdfsWatcherConstants.PUBLISH_BATCH_MODE_NONE.equals(batchMode) ||
+              HdfsWatcherConstants.PUBLISH_BATCH_MODE_ARRAY.equals(batchMode) ||
+              HdfsWatcherConstants.PUBLISH_BATCH_MODE_BURST.equals(batchMode))) {
+            throw new IllegalArgumentException("hdfswatcher.publish-batch-mode must be 'none', 'array' or 'burst'");
+        }
+        validateEventSchema(this.properties.getEventSchema(), "hdfswatcher.event-schema");
+        for (Map.Entry<String, String> schema : this.properties.getBindingEventSchemas().entrySet()) {
+            validateEventSchema(schema.getValue(), "hdfswatcher.binding-event-schemas[" + schema.getKey() + "]");
+        }
+        validatePartitionKey(this.properties, environment);
+        this.confirmWindow = this.properties.isPublishConfirms() 
+            ? createConfirmWindow(this.properties, meterRegistry, environment) : null;
+        logger.info("HdfsWatcherOutput initialized with StreamBridge and output binding: {} ({} events)", 
+            this.properties.getOutputBinding(), this.properties.getEventSchema(this.properties.getOutputBinding()));
+        if (outputBindings(this.properties).size() > 1) {
+            logger.info("Directories with their own output binding: {}", this.properties.getDirectoryOptions().entrySet()
+                .stream()
+                .filter(entry -> !this.properties.getOutputBinding().equals(this.properties.getOutputBinding(entry.getKey())))
+                .map(entry -> entry.getKey() + " -> " + this.properties.getOutputBinding(entry.getKey()))
+                .toList());
+        }
     }
 
     /**
-     * Sends file URL notification with proper validation and logging.
+     * Sends a file event with proper validation and logging.
      * 
-     * @param webhdfsUrl the file URL to send
+     * @param event the file event to send
      * @param mode the application mode (standalone or cloud)
      * @throws IllegalArgumentException if parameters are invalid
      */
-    public void send(String webhdfsUrl, String mode) {
-        validateSendParameters(webhdfsUrl, mode);
+    public void send(FileEvent event, String mode) {
+        validateSendParameters(event, mode);
         
-        String json = buildJsonMessage(webhdfsUrl);
+        String binding = bindingFor(event);
+        String json = buildJsonMessage(event, binding);
         
-        if (HdfsWatcherConstants.MODE_CLOUD.equalsIgnoreCase(mode) || 
-            "stream".equalsIgnoreCase(mode)) {
-            sendToStream(json);
+        if (isStreamMode(mode) && confirmWindow != null) {
+            awaitConfirm(binding, partitionKey(event), json);
+        } else if (isStreamMode(mode)) {
+            sendToStream(binding, partitionKey(event), json);
         } else {
             // standalone mode
             sendToConsole(json);
         }
     }
     
+    /**
+     * Sends a file event with a publisher confirm, waiting only while
+     * hdfswatcher.publish-confirm-window messages already await theirs.
+     * 
+     * @param event the file event to send
+     * @param mode the application mode (standalone or cloud)
+     * @return completes with true once the broker acks the message and false if it nacks it
+     *         or returns it as unroutable; completes exceptionally if the message could not
+     *         be sent or no confirm arrived within hdfswatcher.publish-confirm-timeout. In
+     *         standalone mode the message is logged and the future is already true.
+     * @throws IllegalArgumentException if parameters are invalid
+     * @throws IllegalStateException if hdfswatcher.publish-confirms is not set
+     * @throws InterruptedException if interrupted while waiting for room in the window
+     */
+    public CompletableFuture<Boolean> sendConfirmed(FileEvent event, String mode) throws InterruptedException {
+        validateSendParameters(event, mode);
+        String binding = bindingFor(event);
+        String json = buildJsonMessage(event, binding);
+        if (!isStreamMode(mode)) {
+            sendToConsole(json);
+            return CompletableFuture.completedFuture(true);
+        }
+        if (confirmWindow == null) {
+            throw new IllegalStateException("hdfswatcher.publish-confirms is not enabled");
+        }
+        String key = partitionKey(event);
+        return confirmWindow.publish(() -> sendToStreamWithConfirm(binding, key, json));
+    }
+    
+    /**
+     * Sends several file events as set by hdfswatcher.publish-batch-mode. In array mode each
+     * run of consecutive events with the same binding and partition key goes out as one
+     * message, which either reaches the output or not. In burst (or none) mode each event is
+     * its own message. Sending stops at the first failure, so the events that were sent are
+     * always the first ones of the list.
+     * 
+     * @param events the file events to send, in order
+     * @param mode the application mode (standalone or cloud)
+     * @return how many events from the start of the list were sent
+     * @throws IllegalArgumentException if parameters are invalid
+     */
+    public int sendBatch(List<FileEvent> events, String mode) {
+        for (FileEvent event : events) {
+            validateSendParameters(event, mode);
+        }
+        if (events.isEmpty()) {
+            return 0;
+        }
+        boolean stream = isStreamMode(mode);
+        if (HdfsWatcherConstants.PUBLISH_BATCH_MODE_ARRAY.equals(properties.getPublishBatchMode())) {
+            int sent = 0;
+            while (sent < events.size()) {
+                String binding = bindingFor(events.get(sent));
+                String key = partitionKey(events.get(sent));
+                int end = sent + 1;
+                while (end < events.size() && binding.equals(bindingFor(events.get(end)))
+                       && Objects.equals(key, partitionKey(events.get(end)))) {
+                    end++;
+                }
+                String json = buildBatchJsonMessage(events.subList(sent, end), binding);
+                if (!stream) {
+                    sendToConsole(json);
+                } else {
+                    try {
+                        sendToStream(binding, key, json);
+                    } catch (RuntimeException e) {
+                        break;
+                    }
+                }
+                sent = end;
+            }
+            return sent;
+        }
+        int sent = 0;
+        for (FileEvent event : events) {
+            String binding = bindingFor(event);
+            String json = buildJsonMessage(event, binding);
+            if (!stream) {
+                sendToConsole(json);
+            } else {
+                try {
+                    sendToStream(binding, partitionKey(event), json);
+                } catch (RuntimeException e) {
+                    break;
+                }
+            }
+            sent++;
+        }
+        return sent;
+    }
+    
+    /**
+     * Writes an event with every field it has, to be stored and sent later, e.g. by the
+     * outbox. The stored form does not depend on the schema of the binding it goes to.
+     */
+    public String encode(FileEvent event) {
+        return write(V2_WRITER, event);
+    }
+    
+    /**
+     * Reads an event written by {@link #encode}. A bare URL, as stored before events had
+     * fields, is read as an event with only that URL.
+     */
+    public FileEvent decode(String stored) {
+        if (!stored.startsWith("{")) {
+            return FileEvent.of(stored);
+        }
+        try {
+            return EVENT_READER.readValue(stored);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Not a stored file event: " + stored, e);
+        }
+    }
+    
+    private static void validateEventSchema(String schema, String property) {
+        if (!HdfsWatcherConstants.EVENT_SCHEMA_LEGACY.equals(schema) && !HdfsWatcherConstants.EVENT_SCHEMA_V2.equals(schema)) {
+            throw new IllegalArgumentException(property + " must be 'legacy' or 'v2'");
+        }
+    }
+    
+    private static void validatePartitionKey(HdfsWatcherProperties properties, Environment environment) {
+        String partitionKey = properties.getPartitionKey();
+        if (partitionKey == null ||
+            !(HdfsWatcherConstants.PARTITION_KEY_NONE.equals(partitionKey) ||
+              HdfsWatcherConstants.PARTITION_KEY_DIRECTORY.equals(partitionKey) ||
+              HdfsWatcherConstants.PARTITION_KEY_FINGERPRINT.equals(partitionKey) ||
+              HdfsWatcherConstants.PARTITION_KEY_FILENAME_PREFIX.equals(partitionKey))) {
+            throw new IllegalArgumentException(
+                "hdfswatcher.partition-key must be 'none', 'directory', 'fingerprint' or 'filename-prefix'");
+        }
+        if (HdfsWatcherConstants.PARTITION_KEY_FILENAME_PREFIX.equals(partitionKey)
+            && (properties.getPartitionKeyDelimiters() == null || properties.getPartitionKeyDelimiters().isEmpty())) {
+            throw new IllegalArgumentException("hdfswatcher.partition-key-delimiters cannot be empty");
+        }
+        if (HdfsWatcherConstants.PARTITION_KEY_NONE.equals(partitionKey)) {
+            return;
+        }
+        // The header alone does nothing; the binder partitions by its key expression
+        for (String binding : outputBindings(properties)) {
+            String producer = "spring.cloud.stream.bindings." + binding + ".producer.";
+            if (environment.getProperty(producer + "partition-key-expression", 
+                    environment.getProperty(producer + "partitionKeyExpression")) == null) {
+                logger.warn("hdfswatcher.partition-key is set but {}partition-key-expression is not; "
+                    + "set it to headers['{}'] to partition by the key", producer, HdfsWatcherConstants.PARTITION_KEY_HEADER);
+            }
+        }
+        logger.info("Partitioning messages by {}", partitionKey);
+    }
+    
+    /**
+     * Gets every binding files may be sent to.
+     */
+    private static Set<String> outputBindings(HdfsWatcherProperties properties) {
+        Set<String> bindings = new LinkedHashSet<>();
+        bindings.add(properties.getOutputBinding());
+        for (String directory : properties.getDirectoryOptions().keySet()) {
+            bindings.add(properties.getOutputBinding(directory));
+        }
+        return bindings;
+    }
+    
+    private static boolean isStreamMode(String mode) {
+        return HdfsWatcherConstants.MODE_CLOUD.equalsIgnoreCase(mode) || "stream".equalsIgnoreCase(mode);
+    }
+    
+    private static PublishConfirmWindow createConfirmWindow(HdfsWatcherProperties properties, 
+                                                            MeterRegistry meterRegistry, Environment environment) {
+        if (!HdfsWatcherConstants.PUBLISH_BATCH_MODE_NONE.equals(properties.getPublishBatchMode())) {
+            throw new IllegalArgumentException("hdfswatcher.publish-confirms cannot be combined with hdfswatcher.publish-batch-mode");
+        }
+        if (properties.getPublishConfirmWindow() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.publish-confirm-window must be at least 1");
+        }
+        if (properties.getPublishConfirmTimeout() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.publish-confirm-timeout must be at least 1 ms");
+        }
+        // Without these the binder never completes the correlation data and every send times out
+        String confirmType = environment.getProperty("spring.rabbitmq.publisher-confirm-type");
+        for (String binding : outputBindings(properties)) {
+            String producer = "spring.cloud.stream.rabbit.bindings." + binding + ".producer.";
+            String confirmHeader = environment.getProperty(producer + "use-confirm-header", 
+                environment.getProperty(producer + "useConfirmHeader"));
+            if (!"correlated".equalsIgnoreCase(confirmType) || !"true".equalsIgnoreCase(confirmHeader)) {
+                logger.warn("hdfswatcher.publish-confirms needs spring.rabbitmq.publisher-confirm-type=correlated and "
+                    + "{}use-confirm-header=true; without them no confirm will arrive", producer);
+            }
+        }
+        logger.info("Publishing with confirms: up to {} unconfirmed messages, {} ms timeout", 
+            properties.getPublishConfirmWindow(), properties.getPublishConfirmTimeout());
+        return new PublishConfirmWindow(properties.getPublishConfirmWindow(), properties.getPublishConfirmTimeout(), 
+            meterRegistry);
+    }
+    
     /**
      * Validates properties configuration.
      */
@@ -60,7 +334,11 @@ public class HdfsWatcherOutput implements HealthIndicator {
     /**
      * Validates send parameters.
      */
-    private void validateSendParameters(String url, String mode) {
+    private void validateSendParameters(FileEvent event, String mode) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event cannot be null");
+        }
+        String url = event.url();
         if (url == null || url.trim().isEmpty()) {
             throw new IllegalArgumentException("URL cannot be null or empty");
         }
@@ -70,20 +348,150 @@ public class HdfsWatcherOutput implements HealthIndicator {
     }
     
     /**
-     * Builds JSON message from URL.
+     * Builds JSON message from an event, in the schema of the binding it is sent to.
+     */
+    private String buildJsonMessage(FileEvent event, String binding) {
+        return write(schemaWriter(binding), event);
+    }
+    
+    /**
+     * Builds one JSON message holding the single-file message of every event.
+     */
+    private String buildBatchJsonMessage(List<FileEvent> events, String binding) {
+        return write(schemaWriter(binding), new FileEventBatch(HdfsWatcherConstants.BATCH_EVENT_TYPE, events.size(), events));
+    }
+    
+    private ObjectWriter schemaWriter(String binding) {
+        String schema = properties.getEventSchema(binding);
+        return HdfsWatcherConstants.EVENT_SCHEMA_LEGACY.equals(schema) ? LEGACY_WRITER : V2_WRITER;
+    }
+    
+    /**
+     * Gets the binding for an event: its watched directory's, else the output binding.
+     * Events without a directory, e.g. outbox records stored as a bare URL, go to the
+     * output binding.
+     */
+    private String bindingFor(FileEvent event) {
+        return properties.getOutputBinding(event.directory());
+    }
+    
+    /**
+     * Derives the partition key of an event as set by hdfswatcher.partition-key. Events that
+     * lack the field, e.g. outbox records stored as a bare URL, are keyed by their URL.
+     * 
+     * @return the key, or null when messages are not partitioned
+     */
+    private String partitionKey(FileEvent event) {
+        String key = switch (properties.getPartitionKey()) {
+            case HdfsWatcherConstants.PARTITION_KEY_DIRECTORY -> event.directory();
+            case HdfsWatcherConstants.PARTITION_KEY_FINGERPRINT -> event.fingerprint();
+            case HdfsWatcherConstants.PARTITION_KEY_FILENAME_PREFIX -> fileNamePrefix(event);
+            default -> null;
+        };
+        if (key == null && !HdfsWatcherConstants.PARTITION_KEY_NONE.equals(properties.getPartitionKey())) {
+            return event.url();
+        }
+        return key;
+    }
+    
+    /**
+     * Gets the file name up to its first hdfswatcher.partition-key-delimiters character,
+     * or the whole name if it has none.
+     */
+    private String fileNamePrefix(FileEvent event) {
+        String path = event.path();
+        if (path == null) {
+            try {
+                path = URI.create(event.url()).getPath();
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        String delimiters = properties.getPartitionKeyDelimiters();
+        for (int i = 0; i < name.length(); i++) {
+            if (i > 0 && delimiters.indexOf(name.charAt(i)) >= 0) {
+                return name.substring(0, i);
+            }
+        }
+        return name.isEmpty() ? null : name;
+    }
+    
+    private static String write(ObjectWriter writer, Object value) {
+        try {
+            return writer.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot write file event as JSON", e);
+        }
+    }
+    
+    /**
+     * The message of an array batch.
      */
-    private String buildJsonMessage(String url) {
-        return String.format("{\"type\":\"hdfs\",\"url\":\"%s\"}", url);
+    record FileEventBatch(
+            @JsonView(FileEvent.Views.Legacy.class) String type,
+            @JsonView(FileEvent.Views.Legacy.class) int count,
+            @JsonView(FileEvent.Views.Legacy.class) List<FileEvent> entries) {
     }
     
     /**
      * Sends message to stream for cloud mode.
      */
-    private void sendToStream(String json) {
+    private void sendToStream(String binding, String partitionKey, String json) {
+        Object message = partitionKey == null ? json : MessageBuilder.withPayload(json)
+            .setHeader(HdfsWatcherConstants.PARTITION_KEY_HEADER, partitionKey)
+            .build();
+        sendToStream(binding, message, json);
+    }
+    
+    /**
+     * Sends message to stream with correlation data the binder completes with the broker's confirm.
+     */
+    private CompletableFuture<Boolean> sendToStreamWithConfirm(String binding, String partitionKey, String json) {
+        CorrelationData correlation = new CorrelationData(UUID.randomUUID().toString());
+        MessageBuilder<String> builder = MessageBuilder.withPayload(json)
+            .setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlation);
+        if (partitionKey != null) {
+            builder.setHeader(HdfsWatcherConstants.PARTITION_KEY_HEADER, partitionKey);
+        }
+        Message<String> message = builder.build();
+        sendToStream(binding, message, json);
+        return correlation.getFuture().thenApply(confirm -> {
+            // An unroutable message is returned first and then acked
+            if (confirm.isAck() && correlation.getReturned() == null) {
+                return true;
+            }
+            logger.warn("Broker did not accept message {}: {}", json, 
+                confirm.isAck() ? "returned as unroutable" : confirm.getReason());
+            return false;
+        });
+    }
+    
+    /**
+     * Sends message to stream and waits for the broker's confirm.
+     */
+    private void awaitConfirm(String binding, String partitionKey, String json) {
+        boolean acked;
+        try {
+            acked = confirmWindow.publish(() -> sendToStreamWithConfirm(binding, partitionKey, json)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a publisher confirm", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("No publisher confirm for message: " + json, e.getCause());
+        }
+        if (!acked) {
+            throw new RuntimeException("Broker did not accept message: " + json);
+        }
+    }
+    
+    private void sendToStream(String binding, Object message, String json) {
         try {
-            String binding = properties.getOutputBinding();
             logger.info("{} {}", HdfsWatcherConstants.LOG_PREFIX_STREAM, json);
-            streamBridge.send(binding, json);
+            streamBridge.send(binding, message);
             logger.debug("Successfully sent message to binding: {}", binding);
         } catch (Exception e) {
             logger.error("Failed to send message to stream: {}", json, e);
@@ -98,6 +506,13 @@ public class HdfsWatcherOutput implements HealthIndicator {
         logger.info(json);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        if (confirmWindow != null) {
+            confirmWindow.shutdown();
+        }
+    }
+
     @Override
     public Health health() {
         // If streamBridge is present we assume binder configured; otherwise still OK in standalone
@@ -11,6 +11,8 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Map;
@@ -39,8 +41,155 @@ public class HdfsWatcherProperties {
     /** @deprecated Use hdfsPaths instead for multiple directory support */
     @Deprecated
     private String hdfsPath;
-    /** Poll interval in seconds */
+    /** Poll interval in seconds; the starting interval of each directory when adaptive polling is on */
     private int pollInterval = 60;
+    /** Back off idle directories and poll busy ones more often, within min/max poll interval */
+    private boolean adaptivePolling = false;
+    /** Shortest adaptive poll interval in seconds */
+    private int minPollInterval = HdfsWatcherConstants.DEFAULT_MIN_POLL_INTERVAL_SECONDS;
+    /** Longest adaptive poll interval in seconds */
+    private int maxPollInterval = HdfsWatcherConstants.DEFAULT_MAX_POLL_INTERVAL_SECONDS;
+    /**
+     * Per-directory overrides keyed by the watched path. Use bracket notation so the
+     * slashes are kept, e.g. hdfswatcher.directory-options[/policies].max-poll-interval=60
+     */
+    private Map<String, DirectoryOptions> directoryOptions = new LinkedHashMap<>();
+    /** Maximum number of directories listed against the NameNode at the same time */
+    private int directoryPollConcurrency = HdfsWatcherConstants.DEFAULT_DIRECTORY_POLL_CONCURRENCY;
+    /** Deadline in seconds for polling a single directory; the rest is resumed next cycle */
+    private int directoryPollTimeout = HdfsWatcherConstants.DEFAULT_DIRECTORY_POLL_TIMEOUT_SECONDS;
+    /** Skip listing unchanged directories and only hash entries newer than the last high-water mark */
+    private boolean incrementalListing = true;
+    /**
+     * Read the incremental-listing signature of a non-recursive directory with getContentSummary
+     * instead of counting its direct children. getContentSummary walks the whole subtree on the
+     * NameNode on every poll, which for a large subtree (such as the default path "/") costs more
+     * than the listing it is meant to skip. Recursive mode always uses it, since the change
+     * signature has to cover subdirectories.
+     */
+    private boolean contentSummarySignature = false;
+    /** Also watch subdirectories of each watched path, up to maxDepth levels down */
+    private boolean recursive = false;
+    /** Deepest subdirectory level visited in recursive mode (1 = direct children only) */
+    private int maxDepth = HdfsWatcherConstants.DEFAULT_MAX_DEPTH;
+    /** Glob patterns a subdirectory name must match to be visited (empty = all) */
+    private List<String> includeSubdirectories = new ArrayList<>();
+    /** Glob patterns for subdirectory names that are never visited; wins over includes */
+    private List<String> excludeSubdirectories = new ArrayList<>(HdfsWatcherConstants.DEFAULT_EXCLUDE_SUBDIRECTORIES);
+    /** Glob patterns a file name must match to be processed (empty = all) */
+    private List<String> includeFiles = new ArrayList<>();
+    /** Glob patterns for file names that are never processed; wins over includes */
+    private List<String> excludeFiles = new ArrayList<>(HdfsWatcherConstants.DEFAULT_EXCLUDE_FILES);
+    /** Regular expressions a file name must match to be processed (empty = all) */
+    private List<String> includeFilePatterns = new ArrayList<>();
+    /** Regular expressions for file names that are never processed; wins over includes */
+    private List<String> excludeFilePatterns = new ArrayList<>();
+    /**
+     * How replicas split the watch work: 'none', 'file-lock' (lock files in a shared local
+     * directory, for testing) or 'discovery' (service registry, e.g. Eureka)
+     */
+    private String shardingMode = HdfsWatcherConstants.SHARDING_MODE_NONE;
+    /** Id of this replica in the shard ring; derived from the host or registration when unset */
+    private String shardingMemberId;
+    /** Directory holding the member lock files in file-lock sharding mode */
+    private String shardingLockDirectory = HdfsWatcherConstants.DEFAULT_SHARDING_LOCK_DIRECTORY;
+    /** Registered service whose instances form the shard ring in discovery mode (default: spring.application.name) */
+    private String shardingServiceId;
+    /** Seconds between membership checks */
+    private int shardingRefreshInterval = HdfsWatcherConstants.DEFAULT_SHARDING_REFRESH_INTERVAL_SECONDS;
+    /** Points per replica on the consistent-hash ring */
+    private int shardingVirtualNodes = HdfsWatcherConstants.DEFAULT_SHARDING_VIRTUAL_NODES;
+    /** Files published per second across all directories and API calls (0 or less = unlimited) */
+    private double publishRate = HdfsWatcherConstants.DEFAULT_PUBLISH_RATE;
+    /** Files that may be published back-to-back before the publish rate applies */
+    private int publishBurst = HdfsWatcherConstants.DEFAULT_PUBLISH_BURST;
+    /** Files each pipeline stage queue holds before the stage in front of it blocks */
+    private int pipelineQueueCapacity = HdfsWatcherConstants.DEFAULT_PIPELINE_QUEUE_CAPACITY;
+    /** Workers hashing and checking listed files against the processed-files store */
+    private int pipelineDedupParallelism = HdfsWatcherConstants.DEFAULT_PIPELINE_DEDUP_PARALLELISM;
+    /** Workers building the message (WebHDFS URL) for each new file */
+    private int pipelineBuildParallelism = HdfsWatcherConstants.DEFAULT_PIPELINE_BUILD_PARALLELISM;
+    /** Workers sending messages to the output */
+    private int pipelinePublishParallelism = HdfsWatcherConstants.DEFAULT_PIPELINE_PUBLISH_PARALLELISM;
+    /** Workers marking sent files as processed */
+    private int pipelineMarkParallelism = HdfsWatcherConstants.DEFAULT_PIPELINE_MARK_PARALLELISM;
+    /** Files a dedup worker checks against the processed-files store in one bulk lookup */
+    private int pipelineDedupBatchSize = HdfsWatcherConstants.DEFAULT_PIPELINE_DEDUP_BATCH_SIZE;
+    /** How the publish stage sends files: none (one message each), array (one message per batch) or burst (one message each, sent back to back per batch) */
+    private String publishBatchMode = HdfsWatcherConstants.DEFAULT_PUBLISH_BATCH_MODE;
+    /** Files the publish stage sends together at most when batching */
+    private int publishBatchSize = HdfsWatcherConstants.DEFAULT_PUBLISH_BATCH_SIZE;
+    /** Milliseconds the publish stage waits for a batch to fill before sending what it has */
+    private long publishBatchLinger = HdfsWatcherConstants.DEFAULT_PUBLISH_BATCH_LINGER_MS;
+    /** Send files with RabbitMQ publisher confirms and mark them processed only once the broker acks them */
+    private boolean publishConfirms = false;
+    /** Messages that may await a publisher confirm at once */
+    private int publishConfirmWindow = HdfsWatcherConstants.DEFAULT_PUBLISH_CONFIRM_WINDOW;
+    /** Milliseconds to wait for a publisher confirm before sending the file again */
+    private long publishConfirmTimeout = HdfsWatcherConstants.DEFAULT_PUBLISH_CONFIRM_TIMEOUT_MS;
+    /** Times a nacked or unconfirmed file is sent again before it is left for the next poll */
+    private int publishConfirmRetries = HdfsWatcherConstants.DEFAULT_PUBLISH_CONFIRM_RETRIES;
+    /** Schema of file event messages: legacy (type and URL only) or v2 (versioned, with the file's metadata) */
+    private String eventSchema = HdfsWatcherConstants.DEFAULT_EVENT_SCHEMA;
+    /**
+     * Event schema per output binding, overriding event-schema,
+     * e.g. hdfswatcher.binding-event-schemas.output=legacy
+     */
+    private Map<String, String> bindingEventSchemas = new LinkedHashMap<>();
+    /** Include each file's block locations in v2 events; costs one NameNode call per new file */
+    private boolean eventBlockLocations = false;
+    /** What each message's partitionKey header is derived from: none, directory, fingerprint or filename-prefix */
+    private String partitionKey = HdfsWatcherConstants.DEFAULT_PARTITION_KEY;
+    /** Characters ending the file name prefix used as the key in filename-prefix mode */
+    private String partitionKeyDelimiters = HdfsWatcherConstants.DEFAULT_PARTITION_KEY_DELIMITERS;
+    /** Directory of the on-disk outbox that file events are spooled to before they are sent (empty = send directly) */
+    private String outboxDirectory = HdfsWatcherConstants.DEFAULT_OUTBOX_DIRECTORY;
+    /** Unsent outbox bytes after which discovery waits for the outbox to drain */
+    private long outboxMaxBytes = HdfsWatcherConstants.DEFAULT_OUTBOX_MAX_BYTES;
+    /** Size of each outbox segment file */
+    private int outboxSegmentBytes = HdfsWatcherConstants.DEFAULT_OUTBOX_SEGMENT_BYTES;
+    /** Milliseconds the outbox drainer waits after a failed send before retrying; doubled on each failure */
+    private long outboxRetryBackoff = HdfsWatcherConstants.DEFAULT_OUTBOX_RETRY_BACKOFF_MS;
+    /** Longest wait between outbox delivery retries, in milliseconds */
+    private long outboxMaxBackoff = HdfsWatcherConstants.DEFAULT_OUTBOX_MAX_BACKOFF_MS;
+    /** Directory holding the processed-files journal and snapshot (empty = keep processed files in memory only) */
+    private String processedFilesDirectory = HdfsWatcherConstants.DEFAULT_PROCESSED_FILES_DIRECTORY;
+    /** Milliseconds between fsyncs of the processed-files journal */
+    private long processedJournalSyncInterval = HdfsWatcherConstants.DEFAULT_PROCESSED_JOURNAL_SYNC_INTERVAL_MS;
+    /** Journal records after which the processed-files set is compacted into a snapshot */
+    private long processedJournalCompactionRecords = HdfsWatcherConstants.DEFAULT_PROCESSED_JOURNAL_COMPACTION_RECORDS;
+    /** Hash used to fingerprint files: sha256 or murmur3 */
+    private String fingerprintAlgorithm = HdfsWatcherConstants.DEFAULT_FINGERPRINT_ALGORITHM;
+    /** Independently locked stripes of the processed-files set (power of two) */
+    private int processedStoreStripes = HdfsWatcherConstants.DEFAULT_PROCESSED_STORE_STRIPES;
+    /** Whether a Bloom filter answers lookups for new files before the processed-files set */
+    private boolean processedFilterEnabled = HdfsWatcherConstants.DEFAULT_PROCESSED_FILTER_ENABLED;
+    /** Target false-positive rate of the processed-files Bloom filter */
+    private double processedFilterFalsePositiveRate = HdfsWatcherConstants.DEFAULT_PROCESSED_FILTER_FALSE_POSITIVE_RATE;
+    /** Whether processed entries of files deleted from HDFS are evicted by a background reconciler */
+    private boolean reconcileEnabled = HdfsWatcherConstants.DEFAULT_RECONCILE_ENABLED;
+    /** Milliseconds between reconciliation rounds */
+    private long reconcileInterval = HdfsWatcherConstants.DEFAULT_RECONCILE_INTERVAL_MS;
+    /** Seconds a file must be missing before its processed entry is evicted */
+    private long reconcileGracePeriod = HdfsWatcherConstants.DEFAULT_RECONCILE_GRACE_PERIOD_SECONDS;
+    /** Where processed files are recorded: memory, local (journal in processed-files-directory) or jdbc (shared by replicas) */
+    private String dedupBackend = HdfsWatcherConstants.DEFAULT_DEDUP_BACKEND;
+    /** Table used by the jdbc dedup backend */
+    private String dedupJdbcTable = HdfsWatcherConstants.DEFAULT_DEDUP_JDBC_TABLE;
+    /** Whether the jdbc dedup backend creates its table at startup if it does not exist */
+    private boolean dedupJdbcInitializeSchema = HdfsWatcherConstants.DEFAULT_DEDUP_JDBC_INITIALIZE_SCHEMA;
+    /** Processed marks the jdbc dedup backend buffers before writing them in one batch; also the bulk lookup size */
+    private int dedupJdbcBatchSize = HdfsWatcherConstants.DEFAULT_DEDUP_JDBC_BATCH_SIZE;
+    /** Seconds after which another replica may take over an unfinished claim on a file */
+    private long dedupClaimTimeout = HdfsWatcherConstants.DEFAULT_DEDUP_CLAIM_TIMEOUT_SECONDS;
+    /** File the processed set is exported to periodically and on shutdown, and seeded from at startup; empty to disable */
+    private String dedupSnapshotPath = "";
+    /** Milliseconds between exports of the processed set to dedup-snapshot-path */
+    private long dedupSnapshotInterval = HdfsWatcherConstants.DEFAULT_DEDUP_SNAPSHOT_INTERVAL_MS;
+    /** Files the hash-to-file index used by /api/process-now holds at most */
+    private long fileIndexMaxEntries = HdfsWatcherConstants.DEFAULT_FILE_INDEX_MAX_ENTRIES;
+    /** Seconds before a directory may be listed again to find a hash missing from the file index */
+    private long fileIndexRefreshInterval = HdfsWatcherConstants.DEFAULT_FILE_INDEX_REFRESH_INTERVAL_SECONDS;
     /** HDFS cluster URI */
     private String hdfsUri;
     /** HDFS user */
@@ -73,6 +222,18 @@ public class HdfsWatcherProperties {
      */
     private String localStoragePath = "/tmp/hdfsWatcher";
 
+    /**
+     * File discovery mode: 'poll' or 'event'.
+     *
+     * - 'poll': lists every watched directory each poll interval
+     * - 'event': tails the NameNode inotify stream (requires HDFS superuser) and only
+     *   falls back to a full listing on startup or when the stream has gaps
+     */
+    private String discoveryMode = HdfsWatcherConstants.DISCOVERY_MODE_POLL;
+
+    /** File used to persist the last consumed inotify transaction id across restarts */
+    private String inotifyTxidFile = HdfsWatcherConstants.DEFAULT_INOTIFY_TXID_FILE;
+
     // Add this field
     private String publicAppUri;
 
@@ -256,6 +417,13 @@ public class HdfsWatcherProperties {
     
     public String getLocalStoragePath() { return localStoragePath; }
     public void setLocalStoragePath(String localStoragePath) { this.localStoragePath = localStoragePath; }
+
+    public String getDiscoveryMode() { return discoveryMode; }
+    public void setDiscoveryMode(String discoveryMode) { this.discoveryMode = discoveryMode; }
+    public boolean isEventDiscovery() { return HdfsWatcherConstants.DISCOVERY_MODE_EVENT.equalsIgnoreCase(discoveryMode); }
+
+    public String getInotifyTxidFile() { return inotifyTxidFile; }
+    public void setInotifyTxidFile(String inotifyTxidFile) { this.inotifyTxidFile = inotifyTxidFile; }
     public void setOutputBinding(String outputBinding) { this.outputBinding = outputBinding; }
 
     public String getWebhdfsUri() { return webhdfsUri; }
@@ -295,6 +463,174 @@ public class HdfsWatcherProperties {
     
     public int getPollInterval() { return pollInterval; }
     public void setPollInterval(int pollInterval) { this.pollInterval = pollInterval; }
+    public int getDirectoryPollConcurrency() { return directoryPollConcurrency; }
+    public void setDirectoryPollConcurrency(int directoryPollConcurrency) { this.directoryPollConcurrency = directoryPollConcurrency; }
+    public int getDirectoryPollTimeout() { return directoryPollTimeout; }
+    public void setDirectoryPollTimeout(int directoryPollTimeout) { this.directoryPollTimeout = directoryPollTimeout; }
+    public boolean isAdaptivePolling() { return adaptivePolling; }
+    public void setAdaptivePolling(boolean adaptivePolling) { this.adaptivePolling = adaptivePolling; }
+    public int getMinPollInterval() { return minPollInterval; }
+    public void setMinPollInterval(int minPollInterval) { this.minPollInterval = minPollInterval; }
+    public int getMaxPollInterval() { return maxPollInterval; }
+    public void setMaxPollInterval(int maxPollInterval) { this.maxPollInterval = maxPollInterval; }
+    public Map<String, DirectoryOptions> getDirectoryOptions() { return directoryOptions; }
+    public void setDirectoryOptions(Map<String, DirectoryOptions> directoryOptions) { this.directoryOptions = directoryOptions; }
+    
+    /**
+     * Gets the overrides for a watched directory.
+     * 
+     * @param directory the watched path as configured in hdfs-paths
+     * @return the overrides, or null if the directory has none
+     */
+    public DirectoryOptions getDirectoryOptions(String directory) {
+        return directoryOptions.get(directory);
+    }
+    
+    /**
+     * Gets the output binding files found under a watched directory are sent to.
+     * 
+     * @param directory the watched path as configured in hdfs-paths, or null
+     * @return the directory's binding, or output-binding if it has none
+     */
+    public String getOutputBinding(String directory) {
+        DirectoryOptions options = directory != null ? directoryOptions.get(directory) : null;
+        if (options == null || options.getOutputBinding() == null || options.getOutputBinding().trim().isEmpty()) {
+            return outputBinding;
+        }
+        return options.getOutputBinding().trim();
+    }
+    
+    public List<String> getIncludeFiles() { return includeFiles; }
+    public void setIncludeFiles(List<String> includeFiles) { this.includeFiles = includeFiles; }
+    public List<String> getExcludeFiles() { return excludeFiles; }
+    public void setExcludeFiles(List<String> excludeFiles) { this.excludeFiles = excludeFiles; }
+    public List<String> getIncludeFilePatterns() { return includeFilePatterns; }
+    public void setIncludeFilePatterns(List<String> includeFilePatterns) { this.includeFilePatterns = includeFilePatterns; }
+    public List<String> getExcludeFilePatterns() { return excludeFilePatterns; }
+    public void setExcludeFilePatterns(List<String> excludeFilePatterns) { this.excludeFilePatterns = excludeFilePatterns; }
+    public String getShardingMode() { return shardingMode; }
+    public void setShardingMode(String shardingMode) { this.shardingMode = shardingMode; }
+    public String getShardingMemberId() { return shardingMemberId; }
+    public void setShardingMemberId(String shardingMemberId) { this.shardingMemberId = shardingMemberId; }
+    public String getShardingLockDirectory() { return shardingLockDirectory; }
+    public void setShardingLockDirectory(String shardingLockDirectory) { this.shardingLockDirectory = shardingLockDirectory; }
+    public String getShardingServiceId() { return shardingServiceId; }
+    public void setShardingServiceId(String shardingServiceId) { this.shardingServiceId = shardingServiceId; }
+    public int getShardingRefreshInterval() { return shardingRefreshInterval; }
+    public void setShardingRefreshInterval(int shardingRefreshInterval) { this.shardingRefreshInterval = shardingRefreshInterval; }
+    public int getShardingVirtualNodes() { return shardingVirtualNodes; }
+    public void setShardingVirtualNodes(int shardingVirtualNodes) { this.shardingVirtualNodes = shardingVirtualNodes; }
+    public double getPublishRate() { return publishRate; }
+    public void setPublishRate(double publishRate) { this.publishRate = publishRate; }
+    public int getPublishBurst() { return publishBurst; }
+    public void setPublishBurst(int publishBurst) { this.publishBurst = publishBurst; }
+    public int getPipelineQueueCapacity() { return pipelineQueueCapacity; }
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) { this.pipelineQueueCapacity = pipelineQueueCapacity; }
+    public int getPipelineDedupParallelism() { return pipelineDedupParallelism; }
+    public void setPipelineDedupParallelism(int pipelineDedupParallelism) { this.pipelineDedupParallelism = pipelineDedupParallelism; }
+    public int getPipelineBuildParallelism() { return pipelineBuildParallelism; }
+    public void setPipelineBuildParallelism(int pipelineBuildParallelism) { this.pipelineBuildParallelism = pipelineBuildParallelism; }
+    public int getPipelinePublishParallelism() { return pipelinePublishParallelism; }
+    public void setPipelinePublishParallelism(int pipelinePublishParallelism) { this.pipelinePublishParallelism = pipelinePublishParallelism; }
+    public int getPipelineMarkParallelism() { return pipelineMarkParallelism; }
+    public void setPipelineMarkParallelism(int pipelineMarkParallelism) { this.pipelineMarkParallelism = pipelineMarkParallelism; }
+    public int getPipelineDedupBatchSize() { return pipelineDedupBatchSize; }
+    public void setPipelineDedupBatchSize(int pipelineDedupBatchSize) { this.pipelineDedupBatchSize = pipelineDedupBatchSize; }
+    public String getPublishBatchMode() { return publishBatchMode; }
+    public void setPublishBatchMode(String publishBatchMode) { this.publishBatchMode = publishBatchMode; }
+    public int getPublishBatchSize() { return publishBatchSize; }
+    public void setPublishBatchSize(int publishBatchSize) { this.publishBatchSize = publishBatchSize; }
+    public long getPublishBatchLinger() { return publishBatchLinger; }
+    public void setPublishBatchLinger(long publishBatchLinger) { this.publishBatchLinger = publishBatchLinger; }
+    public boolean isPublishConfirms() { return publishConfirms; }
+    public void setPublishConfirms(boolean publishConfirms) { this.publishConfirms = publishConfirms; }
+    public int getPublishConfirmWindow() { return publishConfirmWindow; }
+    public void setPublishConfirmWindow(int publishConfirmWindow) { this.publishConfirmWindow = publishConfirmWindow; }
+    public long getPublishConfirmTimeout() { return publishConfirmTimeout; }
+    public void setPublishConfirmTimeout(long publishConfirmTimeout) { this.publishConfirmTimeout = publishConfirmTimeout; }
+    public int getPublishConfirmRetries() { return publishConfirmRetries; }
+    public void setPublishConfirmRetries(int publishConfirmRetries) { this.publishConfirmRetries = publishConfirmRetries; }
+    public String getEventSchema() { return eventSchema; }
+    public void setEventSchema(String eventSchema) { this.eventSchema = eventSchema; }
+    public Map<String, String> getBindingEventSchemas() { return bindingEventSchemas; }
+    public void setBindingEventSchemas(Map<String, String> bindingEventSchemas) { this.bindingEventSchemas = bindingEventSchemas; }
+    public boolean isEventBlockLocations() { return eventBlockLocations; }
+    public void setEventBlockLocations(boolean eventBlockLocations) { this.eventBlockLocations = eventBlockLocations; }
+    public String getPartitionKey() { return partitionKey; }
+    public void setPartitionKey(String partitionKey) { this.partitionKey = partitionKey; }
+    public String getPartitionKeyDelimiters() { return partitionKeyDelimiters; }
+    public void setPartitionKeyDelimiters(String partitionKeyDelimiters) { this.partitionKeyDelimiters = partitionKeyDelimiters; }
+    
+    /**
+     * Gets the event schema for an output binding.
+     * 
+     * @param binding the binding name
+     * @return the binding's schema, or event-schema if it has none
+     */
+    public String getEventSchema(String binding) {
+        return bindingEventSchemas.getOrDefault(binding, eventSchema);
+    }
+    
+    public String getOutboxDirectory() { return outboxDirectory; }
+    public void setOutboxDirectory(String outboxDirectory) { this.outboxDirectory = outboxDirectory; }
+    public long getOutboxMaxBytes() { return outboxMaxBytes; }
+    public void setOutboxMaxBytes(long outboxMaxBytes) { this.outboxMaxBytes = outboxMaxBytes; }
+    public int getOutboxSegmentBytes() { return outboxSegmentBytes; }
+    public void setOutboxSegmentBytes(int outboxSegmentBytes) { this.outboxSegmentBytes = outboxSegmentBytes; }
+    public long getOutboxRetryBackoff() { return outboxRetryBackoff; }
+    public void setOutboxRetryBackoff(long outboxRetryBackoff) { this.outboxRetryBackoff = outboxRetryBackoff; }
+    public long getOutboxMaxBackoff() { return outboxMaxBackoff; }
+    public void setOutboxMaxBackoff(long outboxMaxBackoff) { this.outboxMaxBackoff = outboxMaxBackoff; }
+    public String getProcessedFilesDirectory() { return processedFilesDirectory; }
+    public void setProcessedFilesDirectory(String processedFilesDirectory) { this.processedFilesDirectory = processedFilesDirectory; }
+    public long getProcessedJournalSyncInterval() { return processedJournalSyncInterval; }
+    public void setProcessedJournalSyncInterval(long processedJournalSyncInterval) { this.processedJournalSyncInterval = processedJournalSyncInterval; }
+    public long getProcessedJournalCompactionRecords() { return processedJournalCompactionRecords; }
+    public void setProcessedJournalCompactionRecords(long processedJournalCompactionRecords) { this.processedJournalCompactionRecords = processedJournalCompactionRecords; }
+    public String getFingerprintAlgorithm() { return fingerprintAlgorithm; }
+    public void setFingerprintAlgorithm(String fingerprintAlgorithm) { this.fingerprintAlgorithm = fingerprintAlgorithm; }
+    public int getProcessedStoreStripes() { return processedStoreStripes; }
+    public void setProcessedStoreStripes(int processedStoreStripes) { this.processedStoreStripes = processedStoreStripes; }
+    public boolean isProcessedFilterEnabled() { return processedFilterEnabled; }
+    public void setProcessedFilterEnabled(boolean processedFilterEnabled) { this.processedFilterEnabled = processedFilterEnabled; }
+    public double getProcessedFilterFalsePositiveRate() { return processedFilterFalsePositiveRate; }
+    public void setProcessedFilterFalsePositiveRate(double processedFilterFalsePositiveRate) { this.processedFilterFalsePositiveRate = processedFilterFalsePositiveRate; }
+    public boolean isReconcileEnabled() { return reconcileEnabled; }
+    public void setReconcileEnabled(boolean reconcileEnabled) { this.reconcileEnabled = reconcileEnabled; }
+    public long getReconcileInterval() { return reconcileInterval; }
+    public void setReconcileInterval(long reconcileInterval) { this.reconcileInterval = reconcileInterval; }
+    public long getReconcileGracePeriod() { return reconcileGracePeriod; }
+    public void setReconcileGracePeriod(long reconcileGracePeriod) { this.reconcileGracePeriod = reconcileGracePeriod; }
+    public String getDedupBackend() { return dedupBackend; }
+    public void setDedupBackend(String dedupBackend) { this.dedupBackend = dedupBackend; }
+    public String getDedupJdbcTable() { return dedupJdbcTable; }
+    public void setDedupJdbcTable(String dedupJdbcTable) { this.dedupJdbcTable = dedupJdbcTable; }
+    public boolean isDedupJdbcInitializeSchema() { return dedupJdbcInitializeSchema; }
+    public void setDedupJdbcInitializeSchema(boolean dedupJdbcInitializeSchema) { this.dedupJdbcInitializeSchema = dedupJdbcInitializeSchema; }
+    public int getDedupJdbcBatchSize() { return dedupJdbcBatchSize; }
+    public void setDedupJdbcBatchSize(int dedupJdbcBatchSize) { this.dedupJdbcBatchSize = dedupJdbcBatchSize; }
+    public long getDedupClaimTimeout() { return dedupClaimTimeout; }
+    public void setDedupClaimTimeout(long dedupClaimTimeout) { this.dedupClaimTimeout = dedupClaimTimeout; }
+    public String getDedupSnapshotPath() { return dedupSnapshotPath; }
+    public void setDedupSnapshotPath(String dedupSnapshotPath) { this.dedupSnapshotPath = dedupSnapshotPath; }
+    public long getDedupSnapshotInterval() { return dedupSnapshotInterval; }
+    public void setDedupSnapshotInterval(long dedupSnapshotInterval) { this.dedupSnapshotInterval = dedupSnapshotInterval; }
+    public long getFileIndexMaxEntries() { return fileIndexMaxEntries; }
+    public void setFileIndexMaxEntries(long fileIndexMaxEntries) { this.fileIndexMaxEntries = fileIndexMaxEntries; }
+    public long getFileIndexRefreshInterval() { return fileIndexRefreshInterval; }
+    public void setFileIndexRefreshInterval(long fileIndexRefreshInterval) { this.fileIndexRefreshInterval = fileIndexRefreshInterval; }
+    public boolean isIncrementalListing() { return incrementalListing; }
+    public void setIncrementalListing(boolean incrementalListing) { this.incrementalListing = incrementalListing; }
+    public boolean isContentSummarySignature() { return contentSummarySignature; }
+    public void setContentSummarySignature(boolean contentSummarySignature) { this.contentSummarySignature = contentSummarySignature; }
+    public boolean isRecursive() { return recursive; }
+    public void setRecursive(boolean recursive) { this.recursive = recursive; }
+    public int getMaxDepth() { return maxDepth; }
+    public void setMaxDepth(int maxDepth) { this.maxDepth = maxDepth; }
+    public List<String> getIncludeSubdirectories() { return includeSubdirectories; }
+    public void setIncludeSubdirectories(List<String> includeSubdirectories) { this.includeSubdirectories = includeSubdirectories; }
+    public List<String> getExcludeSubdirectories() { return excludeSubdirectories; }
+    public void setExcludeSubdirectories(List<String> excludeSubdirectories) { this.excludeSubdirectories = excludeSubdirectories; }
     public String getHdfsUri() { return hdfsUri; }
     public void setHdfsUri(String hdfsUri) { this.hdfsUri = hdfsUri; }
     public String getHdfsUser() { return hdfsUser; }
@@ -333,4 +669,40 @@ public class HdfsWatcherProperties {
         this.testProperty = testProperty;
         logger.debug("{} Test property set to: {}", HdfsWatcherConstants.LOG_PREFIX_PROPERTIES, testProperty);
     }
-}
\ No newline at end of file
+
+    /**
+     * Settings that can be overridden for a single watched directory.
+     * Unset values fall back to the global setting.
+     */
+    public static class DirectoryOptions {
+        /** Shortest adaptive poll interval in seconds for this directory */
+        private Integer minPollInterval;
+        /** Longest adaptive poll interval in seconds for this directory */
+        private Integer maxPollInterval;
+        /** Include globs for this directory; replaces the global include-files */
+        private List<String> includeFiles;
+        /** Exclude globs for this directory; replaces the global exclude-files */
+        private List<String> excludeFiles;
+        /** Include regular expressions for this directory; replaces the global include-file-patterns */
+        private List<String> includeFilePatterns;
+        /** Exclude regular expressions for this directory; replaces the global exclude-file-patterns */
+        private List<String> excludeFilePatterns;
+        /** Output binding this directory's files are sent to; replaces the global output-binding */
+        private String outputBinding;
+        
+        public Integer getMinPollInterval() { return minPollInterval; }
+        public void setMinPollInterval(Integer minPollInterval) { this.minPollInterval = minPollInterval; }
+        public Integer getMaxPollInterval() { return maxPollInterval; }
+        public void setMaxPollInterval(Integer maxPollInterval) { this.maxPollInterval = maxPollInterval; }
+        public List<String> getIncludeFiles() { return includeFiles; }
+        public void setIncludeFiles(List<String> includeFiles) { this.includeFiles = includeFiles; }
+        public List<String> getExcludeFiles() { return excludeFiles; }
+        public void setExcludeFiles(List<String> excludeFiles) { this.excludeFiles = excludeFiles; }
+        public List<String> getIncludeFilePatterns() { return includeFilePatterns; }
+        public void setIncludeFilePatterns(List<String> includeFilePatterns) { this.includeFilePatterns = includeFilePatterns; }
+        public List<String> getExcludeFilePatterns() { return excludeFilePatterns; }
+        public void setExcludeFilePatterns(List<String> excludeFilePatterns) { this.excludeFilePatterns = excludeFilePatterns; }
+        public String getOutputBinding() { return outputBinding; }
+        public void setOutputBinding(String outputBinding) { this.outputBinding = outputBinding; }
+    }
+}
@@ -1,28 +1,67 @@
 package com.baskettecase.hdfsWatcher;
 
+import com.baskettecase.hdfsWatcher.PollPipeline.PipelineItem;
+import com.baskettecase.hdfsWatcher.PollPipeline.PollBatch;
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.service.DirectoryWatermarkService;
+import com.baskettecase.hdfsWatcher.service.FileFilterService;
+import com.baskettecase.hdfsWatcher.service.FileIndexService;
+import com.baskettecase.hdfsWatcher.service.OutboxService;
+import com.baskettecase.hdfsWatcher.service.DirectoryWatermarkService.DirectoryListing;
+import com.baskettecase.hdfsWatcher.service.DirectoryWatermarkService.DirectorySignature;
+import com.baskettecase.hdfsWatcher.service.DirectoryWatermarkService.DirectoryWatermark;
+import com.baskettecase.hdfsWatcher.service.PollScheduleService;
 import com.baskettecase.hdfsWatcher.service.ProcessedFilesService;
+import com.baskettecase.hdfsWatcher.service.PublishRateLimiter;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import com.baskettecase.hdfsWatcher.service.ProcessingStateService;
+import com.baskettecase.hdfsWatcher.sharding.ShardingService;
 import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
 import com.baskettecase.hdfsWatcher.util.UrlUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PreDestroy;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-// removed unused imports
-import java.util.stream.Stream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 /**
  * Service responsible for monitoring HDFS or local directories for new files.
@@ -32,21 +71,49 @@ import java.util.stream.Stream;
 public class HdfsWatcherService {
     
     private static final Logger logger = LoggerFactory.getLogger(HdfsWatcherService.class);
+    private static final long UNKNOWN_MODIFICATION_TIME = -1L;
     
     private final HdfsWatcherProperties properties;
     private final FileSystem fileSystem;
     private final HdfsWatcherOutput output;
     private final ProcessedFilesService processedFilesService;
     private final ProcessingStateService processingStateService;
+    private final DirectoryWatermarkService watermarkService;
+    private final PollScheduleService pollScheduleService;
+    private final PublishRateLimiter publishRateLimiter;
+    private final FileFilterService fileFilterService;
+    private final ShardingService shardingService;
+    private final FileIndexService fileIndexService;
+    private final OutboxService outboxService;
+    private final MeterRegistry meterRegistry;
     private final boolean pseudoop;
     private final RabbitTemplate rabbitTemplate;
     private final com.baskettecase.hdfsWatcher.monitoring.MonitoringProperties monitoringProperties;
     private final java.nio.file.Path localWatchPath;
+    // Virtual threads park cheaply while waiting on the NameNode; the semaphore bounds how many list at once
+    private final ExecutorService directoryPollExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore namenodePermits;
+    // Directories with a scheduled poll in flight, so a slow directory is never polled twice at once
+    private final Map<String, DirectoryPoll> runningPolls = new ConcurrentHashMap<>();
+    private final Timer pollCycleTimer;
+    private final Map<String, Timer> directoryPollTimers = new ConcurrentHashMap<>();
+    private final List<Pattern> subdirectoryIncludes;
+    private final List<Pattern> subdirectoryExcludes;
+    private final PollPipeline pollPipeline;
+    // Null in pseudoop mode or when reconciliation is disabled
+    private final ProcessedFilesReconciler reconciler;
 
     public HdfsWatcherService(HdfsWatcherProperties properties,
                               HdfsWatcherOutput output,
                               ProcessedFilesService processedFilesService,
                               ProcessingStateService processingStateService,
+                              DirectoryWatermarkService watermarkService,
+                              PollScheduleService pollScheduleService,
+                              PublishRateLimiter publishRateLimiter,
+                              FileFilterService fileFilterService,
+                              ShardingService shardingService,
+                              FileIndexService fileIndexService,
+                              OutboxService outboxService,
                               MeterRegistry meterRegistry,
                               RabbitTemplate rabbitTemplate,
                               com.baskettecase.hdfsWatcher.monitoring.MonitoringProperties monitoringProperties) throws Exception {
@@ -54,6 +121,14 @@ public class HdfsWatcherService {
         this.output = validateOutput(output);
         this.processedFilesService = processedFilesService;
         this.processingStateService = processingStateService;
+        this.watermarkService = watermarkService;
+        this.pollScheduleService = pollScheduleService;
+        this.publishRateLimiter = publishRateLimiter;
+        this.fileFilterService = fileFilterService;
+        this.shardingService = shardingService;
+        this.fileIndexService = fileIndexService;
+        this.outboxService = outboxService;
+        this.meterRegistry = meterRegistry;
         this.pseudoop = properties.isPseudoop();
         this.rabbitTemplate = rabbitTemplate;
         this.monitoringProperties = monitoringProperties;
@@ -68,7 +143,38 @@ public class HdfsWatcherService {
             logger.info("HDFS connection initialized for: {}", properties.getHdfsUri());
         }
 
+        this.namenodePermits = new Semaphore(properties.getDirectoryPollConcurrency());
+        this.subdirectoryIncludes = compileGlobs(properties.getIncludeSubdirectories());
+        this.subdirectoryExcludes = compileGlobs(properties.getExcludeSubdirectories());
+        this.pollPipeline = new PollPipeline(properties.getPipelineQueueCapacity(), meterRegistry, this::completePipelineItem)
+            .addBatchStage("dedup", properties.getPipelineDedupParallelism(), properties.getPipelineDedupBatchSize(),
+                this::dedupStage)
+            .addStage("build", properties.getPipelineBuildParallelism(), this::buildStage);
+        if (outboxService.isEnabled()) {
+            this.pollPipeline.addBatchStage("spool", properties.getPipelinePublishParallelism(),
+                properties.getPublishBatchSize(), this::spoolStage);
+        } else if (properties.isPublishConfirms()) {
+            this.pollPipeline.addAsyncStage("publish", properties.getPipelinePublishParallelism(),
+                properties.getPublishConfirmRetries(), this::confirmedPublishStage);
+        } else if (HdfsWatcherConstants.PUBLISH_BATCH_MODE_NONE.equals(properties.getPublishBatchMode())) {
+            this.pollPipeline.addStage("publish", properties.getPipelinePublishParallelism(), this::publishStage);
+        } else {
+            this.pollPipeline.addBatchStage("publish", properties.getPipelinePublishParallelism(), 
+                properties.getPublishBatchSize(), properties.getPublishBatchLinger(), this::publishBatchStage);
+            logger.info("Publishing files in {} batches of up to {} (linger {} ms)", properties.getPublishBatchMode(),
+                properties.getPublishBatchSize(), properties.getPublishBatchLinger());
+        }
+        this.pollPipeline.addStage("mark", properties.getPipelineMarkParallelism(), this::markStage);
+        this.pollPipeline.start();
+        this.reconciler = !pseudoop && properties.isReconcileEnabled()
+            ? new ProcessedFilesReconciler(fileSystem, properties, processedFilesService, shardingService, 
+                this::isWatchedSubdirectory)
+            : null;
+
         // Metrics
+        this.pollCycleTimer = Timer.builder("hdfswatcher.poll.cycle.duration")
+            .description("Duration of a full poll cycle across all watched directories")
+            .register(meterRegistry);
         Gauge.builder("hdfswatcher.processing.enabled", () -> this.processingStateService.isProcessingEnabled() ? 1 : 0)
             .description("Processing enabled state (1/0)")
             .register(meterRegistry);
@@ -94,6 +200,67 @@ public class HdfsWatcherService {
                     HdfsWatcherConstants.MAX_POLL_INTERVAL));
         }
         
+        if (properties.getDirectoryPollConcurrency() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.directory-poll-concurrency must be at least 1");
+        }
+        if (properties.getDirectoryPollTimeout() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.directory-poll-timeout must be at least 1 second");
+        }
+        if (properties.getPipelineQueueCapacity() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.pipeline-queue-capacity must be at least 1");
+        }
+        if (properties.getPipelineDedupParallelism() < 1 || properties.getPipelineBuildParallelism() < 1 ||
+            properties.getPipelinePublishParallelism() < 1 || properties.getPipelineMarkParallelism() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.pipeline-*-parallelism must be at least 1");
+        }
+        if (properties.getPipelineDedupBatchSize() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.pipeline-dedup-batch-size must be at least 1");
+        }
+        if (properties.getPublishBatchSize() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.publish-batch-size must be at least 1");
+        }
+        if (properties.getPublishBatchLinger() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.publish-batch-linger must not be negative");
+        }
+        if (properties.getPublishConfirmRetries() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.publish-confirm-retries must not be negative");
+        }
+        if (properties.getReconcileInterval() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.reconcile-interval must be at least 1 ms");
+        }
+        if (properties.getReconcileGracePeriod() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.reconcile-grace-period must not be negative");
+        }
+        if (properties.getMaxDepth() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.max-depth must not be negative");
+        }
+        String shardingMode = properties.getShardingMode();
+        if (shardingMode == null ||
+            !(HdfsWatcherConstants.SHARDING_MODE_NONE.equalsIgnoreCase(shardingMode) ||
+              HdfsWatcherConstants.SHARDING_MODE_FILE_LOCK.equalsIgnoreCase(shardingMode) ||
+              HdfsWatcherConstants.SHARDING_MODE_DISCOVERY.equalsIgnoreCase(shardingMode))) {
+            throw new IllegalArgumentException(
+                String.format("hdfswatcher.sharding-mode must be '%s', '%s' or '%s'", 
+                    HdfsWatcherConstants.SHARDING_MODE_NONE, 
+                    HdfsWatcherConstants.SHARDING_MODE_FILE_LOCK, 
+                    HdfsWatcherConstants.SHARDING_MODE_DISCOVERY));
+        }
+        validatePollIntervalBounds("hdfswatcher", properties.getMinPollInterval(), properties.getMaxPollInterval());
+        properties.getDirectoryOptions().forEach((directory, options) -> validatePollIntervalBounds(
+            "hdfswatcher.directory-options[" + directory + "]",
+            options.getMinPollInterval() != null ? options.getMinPollInterval() : properties.getMinPollInterval(),
+            options.getMaxPollInterval() != null ? options.getMaxPollInterval() : properties.getMaxPollInterval()));
+        
+        String discoveryMode = properties.getDiscoveryMode();
+        if (discoveryMode == null ||
+            !(HdfsWatcherConstants.DISCOVERY_MODE_POLL.equalsIgnoreCase(discoveryMode) ||
+              HdfsWatcherConstants.DISCOVERY_MODE_EVENT.equalsIgnoreCase(discoveryMode))) {
+            throw new IllegalArgumentException(
+                String.format("hdfswatcher.discovery-mode must be '%s' or '%s'", 
+                    HdfsWatcherConstants.DISCOVERY_MODE_POLL, 
+                    HdfsWatcherConstants.DISCOVERY_MODE_EVENT));
+        }
+        
         if (!properties.isPseudoop()) {
             // Validate HDFS configuration
             if (properties.getHdfsPaths() == null || properties.getHdfsPaths().isEmpty()) {
@@ -124,6 +291,14 @@ public class HdfsWatcherService {
         return properties;
     }
     
+    private static void validatePollIntervalBounds(String prefix, int min, int max) {
+        if (min < HdfsWatcherConstants.MIN_POLL_INTERVAL || max > HdfsWatcherConstants.MAX_POLL_INTERVAL || min > max) {
+            throw new IllegalArgumentException(
+                String.format("%s.min-poll-interval and max-poll-interval must satisfy %d <= min <= max <= %d seconds", 
+                    prefix, HdfsWatcherConstants.MIN_POLL_INTERVAL, HdfsWatcherConstants.MAX_POLL_INTERVAL));
+        }
+    }
+    
     /**
      * Validates output configuration.
      */
@@ -171,6 +346,8 @@ public class HdfsWatcherService {
      */
     @PreDestroy
     public void cleanup() {
+        directoryPollExecutor.shutdownNow();
+        pollPipeline.shutdown();
         if (fileSystem != null) {
             try {
                 fileSystem.close();
@@ -181,14 +358,27 @@ public class HdfsWatcherService {
         }
     }
 
-    @Scheduled(fixedDelayString = "${hdfswatcher.pollInterval:60}000")
-    public void pollHdfsDirectory() {
+    /**
+     * Scheduler tick. Each watched directory runs on its own interval chosen by
+     * {@link PollScheduleService}; every tick starts the directories that are due and
+     * cancels polls that are stuck past their deadline. A directory is never polled
+     * twice at the same time.
+     */
+    @Scheduled(fixedDelay = HdfsWatcherConstants.POLL_SCHEDULER_TICK_MS)
+    public void pollDueDirectories() {
         try {
-            this.lastPollTimestamp = System.currentTimeMillis();
+            if (eventDiscoveryActive) {
+                // Event discovery publishes files as they arrive; nothing to list
+                return;
+            }
             if (pseudoop) {
-                pollLocalDirectory();
+                String directory = localWatchPath.toString();
+                if (pollScheduleService.isDue(directory)) {
+                    this.lastPollTimestamp = System.currentTimeMillis();
+                    pollScheduleService.recordPoll(directory, pollLocalDirectory());
+                }
             } else {
-                pollHdfsDirectories();
+                dispatchDueHdfsDirectories();
             }
         } catch (Exception e) {
             logger.error("Unexpected error during directory polling", e);
@@ -196,166 +386,774 @@ public class HdfsWatcherService {
     }
     
     /**
-     * Polls multiple HDFS directories for new files.
+     * Starts a reconciliation round, which evicts processed entries of files that have been
+     * deleted from the watched directories. Runs in the background; a round that is still
+     * going when the next one is due is not doubled up.
      */
-    private void pollHdfsDirectories() {
-        logger.debug("Starting HDFS polling for {} directories: {}", 
-            properties.getHdfsPaths().size(), properties.getHdfsPaths());
-        
+    @Scheduled(initialDelayString = "${hdfswatcher.reconcile-interval:3600000}", 
+               fixedDelayString = "${hdfswatcher.reconcile-interval:3600000}")
+    public void reconcileProcessedFiles() {
+        if (reconciler != null) {
+            reconciler.start();
+        }
+    }
+    
+    /**
+     * Starts a poll task for every HDFS directory that is due and not already being polled.
+     */
+    private void dispatchDueHdfsDirectories() {
         for (String hdfsPath : properties.getHdfsPaths()) {
+            DirectoryPoll running = runningPolls.get(hdfsPath);
+            if (running != null) {
+                if (cancelIfStuck(running)) {
+                    runningPolls.remove(hdfsPath, running);
+                    pollScheduleService.recordPoll(hdfsPath, 0);
+                }
+                continue;
+            }
+            if (!pollScheduleService.isDue(hdfsPath)) {
+                continue;
+            }
+            
+            DirectoryPoll poll = new DirectoryPoll(hdfsPath);
+            runningPolls.put(hdfsPath, poll);
+            this.lastPollTimestamp = System.currentTimeMillis();
             try {
-                logger.debug("Polling HDFS directory: '{}'", hdfsPath);
-                pollHdfsDirectory(hdfsPath);
-            } catch (Exception e) {
-                logger.error("Error polling HDFS directory: '{}'", hdfsPath, e);
-                // Continue with other directories even if one fails
+                poll.future = directoryPollExecutor.submit(() -> {
+                    try {
+                        pollScheduleService.recordPoll(hdfsPath, runDirectoryPoll(poll, false));
+                    } finally {
+                        runningPolls.remove(hdfsPath, poll);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                runningPolls.remove(hdfsPath, poll);
+                logger.warn("Directory poll executor is shut down, skipping: '{}'", hdfsPath);
             }
         }
     }
     
+    /**
+     * Polls multiple HDFS directories for new files. Each directory is polled as its own
+     * task on a virtual-thread executor, capped by a semaphore so at most
+     * directory-poll-concurrency listings hit the NameNode at once. Each task gets its own
+     * deadline; a task that overruns it is stopped and its directory is resumed next cycle.
+     */
+    private void pollHdfsDirectories(boolean fullListing) {
+        List<String> hdfsPaths = properties.getHdfsPaths();
+        logger.debug("Starting HDFS polling for {} directories: {}", hdfsPaths.size(), hdfsPaths);
+        
+        long cycleStart = System.nanoTime();
+        List<DirectoryPoll> polls = new ArrayList<>(hdfsPaths.size());
+        for (String hdfsPath : hdfsPaths) {
+            DirectoryPoll poll = new DirectoryPoll(hdfsPath);
+            try {
+                poll.future = directoryPollExecutor.submit(() -> runDirectoryPoll(poll, fullListing));
+                polls.add(poll);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Directory poll executor is shut down, skipping: '{}'", hdfsPath);
+            }
+        }
+        
+        for (DirectoryPoll poll : polls) {
+            awaitDirectoryPoll(poll);
+        }
+        
+        long elapsedNanos = System.nanoTime() - cycleStart;
+        pollCycleTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        logger.info("HDFS poll cycle completed for {} directories in {} ms", 
+            polls.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+    
+    /**
+     * Runs a single directory poll once a NameNode permit is available. The deadline starts
+     * when the permit is acquired, so time spent queued behind other directories does not count.
+     * 
+     * @return the number of files sent
+     */
+    private int runDirectoryPoll(DirectoryPoll poll, boolean fullListing) {
+        try {
+            namenodePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            poll.deadlineNanos = start + TimeUnit.SECONDS.toNanos(properties.getDirectoryPollTimeout());
+            poll.started = true;
+            logger.debug("Polling HDFS directory: '{}'", poll.hdfsPath);
+            return pollHdfsDirectory(poll.hdfsPath, poll.deadlineNanos, fullListing);
+        } catch (Exception e) {
+            logger.error("Error polling HDFS directory: '{}'", poll.hdfsPath, e);
+            // Other directories are unaffected
+            return 0;
+        } finally {
+            namenodePermits.release();
+            directoryPollTimers.computeIfAbsent(poll.hdfsPath, this::registerDirectoryPollTimer)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private Timer registerDirectoryPollTimer(String hdfsPath) {
+        return Timer.builder("hdfswatcher.directory.poll.duration")
+            .description("Duration of polling a single watched directory")
+            .tag("directory", hdfsPath)
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Waits for a directory task, cancelling it if it is stuck past its deadline
+     * (for example blocked in a NameNode call that never returns).
+     */
+    private void awaitDirectoryPoll(DirectoryPoll poll) {
+        while (true) {
+            try {
+                poll.future.get(HdfsWatcherConstants.DIRECTORY_POLL_WAIT_STEP_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                if (cancelIfStuck(poll)) {
+                    return;
+                }
+            } catch (CancellationException e) {
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Error polling HDFS directory: '{}'", poll.hdfsPath, e.getCause());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                poll.future.cancel(true);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Cancels a directory task that is stuck past its deadline plus a grace period
+     * (for example blocked in a NameNode call that never returns).
+     * 
+     * @return true if the task was cancelled
+     */
+    private boolean cancelIfStuck(DirectoryPoll poll) {
+        long overrun = System.nanoTime() - poll.deadlineNanos;
+        if (!poll.started || overrun <= TimeUnit.MILLISECONDS.toNanos(HdfsWatcherConstants.DIRECTORY_POLL_CANCEL_GRACE_MS)) {
+            return false;
+        }
+        logger.warn("Cancelling poll of HDFS directory '{}' stuck past its {}s deadline", 
+            poll.hdfsPath, properties.getDirectoryPollTimeout());
+        Future<?> future = poll.future;
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+    
     /**
      * Polls a single HDFS directory for new files with proper error handling and duplicate prevention.
+     * 
+     * With incremental listing enabled, the directory's change signature is compared to the
+     * watermark from the last complete poll: an unchanged directory is not listed at all, and a
+     * changed one only hashes entries at or above the last high-water mark. A full listing is
+     * still used after a reprocess/clear, every few incremental polls, and whenever the number of
+     * new entries does not account for the growth in file count (e.g. older files renamed in).
+     * 
+     * @param hdfsPath the directory to poll
+     * @param deadlineNanos System.nanoTime() value after which the poll stops early
+     * @param fullListing true to ignore the watermark and consider every entry
+     * @return the number of files sent
      */
-    private void pollHdfsDirectory(String hdfsPath) {
+    private int pollHdfsDirectory(String hdfsPath, long deadlineNanos, boolean fullListing) {
         try {
-            RemoteIterator<LocatedFileStatus> files = fileSystem.listFiles(
-                new Path(hdfsPath), 
-                false
-            );
-            int processedCount = 0;
-            int skippedCount = 0;
-            int batchSize = 0;
-            final int MAX_BATCH_SIZE = 5; // Process 5 files at a time
+            Path directory = new Path(hdfsPath);
+            long generation = processedFilesService.getGeneration();
+            DirectorySignature signature = properties.isIncrementalListing() ? readSignature(directory) : null;
+            DirectoryWatermark previous = signature != null ? watermarkService.get(hdfsPath) : null;
             
-            while (files.hasNext()) {
-                LocatedFileStatus fileStatus = files.next();
-                String filename = fileStatus.getPath().getName();
-                long fileSize = fileStatus.getLen();
-                long modificationTime = fileStatus.getModificationTime();
-                
-                // Generate unique hash for the file
-                String fileHash = processedFilesService.generateFileHash(filename, fileSize, modificationTime);
-                
-                // Check if file has already been processed
-                if (processedFilesService.isFileProcessed(fileHash)) {
-                    skippedCount++;
-                    continue;
+            long minModificationTime = Long.MIN_VALUE;
+            boolean pruneUnchanged = false;
+            if (previous != null && !fullListing && previous.processedGeneration() == generation) {
+                if (previous.signature().equals(signature)) {
+                    logger.debug("HDFS directory {} unchanged since last poll, skipping listing", hdfsPath);
+                    return 0;
                 }
-                
-                // Check if processing is enabled before sending to queue
-                if (!processingStateService.isProcessingEnabled()) {
-                    logger.debug("Processing is disabled, skipping file: {} (hash: {})", filename, fileHash);
-                    skippedCount++;
+                if (previous.incrementalPolls() < HdfsWatcherConstants.WATERMARK_FULL_LISTING_INTERVAL) {
+                    pruneUnchanged = true;
+                    if (signature.fileCount() >= previous.signature().fileCount()) {
+                        minModificationTime = previous.highWaterMark();
+                    }
+                }
+            }
+            
+            ListingPass pass = listAndProcess(hdfsPath, directory, deadlineNanos, minModificationTime, pruneUnchanged);
+            // Subtrees owned by other replicas are never listed here, so their growth cannot be
+            // accounted for; sharded recursive watching relies on the periodic full listing instead
+            boolean canCheckRenames = !(shardingService.isEnabled() && properties.isRecursive());
+            if (minModificationTime != Long.MIN_VALUE && pass.complete && canCheckRenames
+                && pass.consideredCount < signature.fileCount() - previous.signature().fileCount()) {
+                logger.debug("New entries in {} predate the high-water mark, falling back to a full listing", hdfsPath);
+                // The first pass may already have recorded the directories those entries sit in
+                minModificationTime = Long.MIN_VALUE;
+                pruneUnchanged = false;
+                pass = listAndProcess(hdfsPath, directory, deadlineNanos, minModificationTime, pruneUnchanged);
+            }
+            
+            if (pass.processedCount > 0 || pass.skippedCount > 0) {
+                logger.info("HDFS polling completed for {}: {} files processed, {} files skipped", 
+                    hdfsPath, pass.processedCount, pass.skippedCount);
+            }
+            if (pass.prunedCount > 0) {
+                logger.debug("Pruned {} unchanged subdirectories under {}", pass.prunedCount, hdfsPath);
+            }
+            
+            // Only advance the watermark when nothing was left behind for the next poll
+            if (signature != null && pass.complete && pass.failedCount == 0 && pass.deferredCount == 0) {
+                boolean incremental = pruneUnchanged || minModificationTime != Long.MIN_VALUE;
+                watermarkService.update(hdfsPath, new DirectoryWatermark(
+                    signature,
+                    pass.highWaterMark,
+                    generation,
+                    incremental ? previous.incrementalPolls() + 1 : 0));
+            }
+            return pass.processedCount;
+            
+        } catch (IOException e) {
+            logger.error("Error polling HDFS directory: {}", hdfsPath, e);
+        } catch (Exception e) {
+            logger.error("Unexpected error during HDFS polling for directory: {}", hdfsPath, e);
+        }
+        return 0;
+    }
+    
+    /**
+     * Reads the change signature of a directory: its mtime from getFileStatus, plus the
+     * number and total length of its entries. Outside recursive mode the direct children
+     * are counted from a listStatusIterator pass, which only touches this directory.
+     * getContentSummary walks the whole subtree on the NameNode, so it is only used in
+     * recursive mode or when content-summary-signature is enabled.
+     */
+    private DirectorySignature readSignature(Path directory) throws IOException {
+        FileStatus status = fileSystem.getFileStatus(directory);
+        if (properties.isRecursive() || properties.isContentSummarySignature()) {
+            ContentSummary summary = fileSystem.getContentSummary(directory);
+            return new DirectorySignature(
+                status.getModificationTime(),
+                summary.getFileCount(),
+                summary.getDirectoryCount(),
+                summary.getLength());
+        }
+        long fileCount = 0;
+        // Counts the directory itself, as getContentSummary does
+        long directoryCount = 1;
+        long length = 0;
+        RemoteIterator<FileStatus> children = fileSystem.listStatusIterator(directory);
+        while (children.hasNext()) {
+            FileStatus child = children.next();
+            if (child.isDirectory()) {
+                directoryCount++;
+            } else {
+                fileCount++;
+                length += child.getLen();
+            }
+        }
+        return new DirectorySignature(status.getModificationTime(), fileCount, directoryCount, length);
+    }
+    
+    /**
+     * Walks a watched directory once and runs every file at or above minModificationTime
+     * that passes the directory's file filter through the dedup-and-send path. Older or
+     * filtered files are not hashed.
+     * 
+     * Entries are streamed through {@link FileSystem#listStatusIterator(Path)}, one page at a
+     * time. In recursive mode subdirectories are visited depth-first, so only the open
+     * iterators along the current branch are held in memory. With pruneUnchanged set, a
+     * subdirectory whose mtime matches the last complete listing is not listed again; its
+     * remembered subdirectories are still visited, because HDFS does not propagate mtime
+     * changes to ancestors.
+     */
+    private ListingPass listAndProcess(String hdfsPath, Path directory, long deadlineNanos, 
+                                       long minModificationTime, boolean pruneUnchanged) throws IOException {
+        ListingPass pass = new ListingPass(minModificationTime);
+        PollBatch batch = new PollBatch();
+        // Listings of fully read subdirectories, recorded once their files have outcomes
+        List<TraversalFrame> listedFrames = new ArrayList<>();
+        PathFilter fileFilter = fileFilterService.pathFilter(hdfsPath);
+        boolean recursive = properties.isRecursive();
+        int maxDepth = recursive ? properties.getMaxDepth() : 0;
+        Deque<TraversalFrame> stack = new ArrayDeque<>();
+        stack.push(new TraversalFrame(directory, 0, UNKNOWN_MODIFICATION_TIME));
+        while (!stack.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                pass.complete = false;
+                break;
+            }
+            if (System.nanoTime() - deadlineNanos > 0) {
+                logger.warn("Polling of {} exceeded its {}s deadline; remaining files will be picked up next cycle", 
+                    hdfsPath, properties.getDirectoryPollTimeout());
+                pass.complete = false;
+                break;
+            }
+            TraversalFrame frame = stack.peek();
+            
+            if (frame.entries == null) {
+                if (recursive && !openFrame(frame, pruneUnchanged, pass)) {
+                    stack.pop();
+                    pushSubdirectories(stack, frame);
                     continue;
                 }
-                
-                // Process the file - send to queue first, then mark as processed
                 try {
-                    logger.error("DEBUGGING: Processing file from HDFS directory: {}, file path: {}, file name: {}", 
-                               hdfsPath, fileStatus.getPath(), fileStatus.getPath().getName());
-                    String webhdfsUrl = buildWebHdfsUrl(fileStatus.getPath());
-                    logger.error("DEBUGGING: Built WebHDFS URL: {}", webhdfsUrl);
-                    publishFileEvent("FILE_START", fileStatus.getPath().getName());
-                    output.send(webhdfsUrl, properties.getMode());
-                    publishFileEvent("FILE_COMPLETE", fileStatus.getPath().getName());
-                    
-                    // Only mark as processed after successful queue send
-                    processedFilesService.markFileAsProcessed(fileHash);
-                    processedCount++;
-                    logger.debug("Successfully processed file: {} (hash: {})", filename, fileHash);
-                } catch (Exception e) {
-                    logger.error("Failed to process file: {} (hash: {}). Error: {}", 
-                        filename, fileHash, e.getMessage());
-                    // Don't mark as processed if queue send failed
+                    frame.entries = fileSystem.listStatusIterator(frame.path);
+                } catch (FileNotFoundException e) {
+                    if (frame.depth == 0) {
+                        throw e;
+                    }
+                    // Subdirectory removed since its parent was listed
+                    stack.pop();
                     continue;
                 }
-                
-                batchSize++;
-                
-                // Add a small delay every 5 files to avoid log rate limits
-                if (batchSize >= MAX_BATCH_SIZE) {
-                    try {
-                        Thread.sleep(100); // 100ms delay
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                    batchSize = 0;
+            }
+            
+            if (!frame.entries.hasNext()) {
+                stack.pop();
+                if (recursive) {
+                    listedFrames.add(frame);
                 }
+                continue;
             }
             
-            if (processedCount > 0 || skippedCount > 0) {
-                logger.info("HDFS polling completed for {}: {} files processed, {} files skipped", 
-                    hdfsPath, processedCount, skippedCount);
+            FileStatus fileStatus = frame.entries.next();
+            // Entries directly under the watched directory are the shard keys; subtrees follow their root
+            if (frame.depth == 0 && !shardingService.owns(fileStatus.getPath().toUri().getPath())) {
+                if (fileStatus.isFile() && fileStatus.getModificationTime() >= minModificationTime) {
+                    pass.consideredCount++;
+                }
+                continue;
+            }
+            if (fileStatus.isDirectory()) {
+                String name = fileStatus.getPath().getName();
+                if (frame.depth < maxDepth && isWatchedSubdirectory(name)) {
+                    frame.subdirectories.add(name);
+                    stack.push(new TraversalFrame(fileStatus.getPath(), frame.depth + 1, 
+                        fileStatus.getModificationTime()));
+                }
+                continue;
+            }
+            if (!fileStatus.isFile()) {
+                continue;
+            }
+            long modificationTime = fileStatus.getModificationTime();
+            if (!fileFilter.accept(fileStatus.getPath())) {
+                // Still counts toward the rename check, but never moves the high-water mark
+                if (modificationTime >= minModificationTime) {
+                    pass.consideredCount++;
+                }
+                continue;
+            }
+            pass.highWaterMark = Math.max(pass.highWaterMark, modificationTime);
+            if (modificationTime < minModificationTime) {
+                continue;
             }
+            pass.consideredCount++;
             
+            try {
+                // Blocks while the pipeline is full, which throttles the listing to the publish rate
+                pollPipeline.submit(new PipelineItem(hdfsPath, fileStatus, batch, frame.problems));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pass.complete = false;
+                break;
+            }
+        }
+        
+        boolean drained = false;
+        try {
+            drained = batch.awaitDrained(deadlineNanos);
+            if (!drained) {
+                logger.warn("Files listed from {} were still in the pipeline at the {}s deadline", 
+                    hdfsPath, properties.getDirectoryPollTimeout());
+                pass.complete = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pass.complete = false;
+        }
+        pass.processedCount = batch.getProcessedCount();
+        pass.skippedCount = batch.getSkippedCount();
+        pass.deferredCount = batch.getDeferredCount();
+        pass.failedCount = batch.getFailedCount();
+        if (drained) {
+            for (TraversalFrame listed : listedFrames) {
+                if (listed.problems.get() == 0) {
+                    watermarkService.recordListing(listed.path.toString(), 
+                        new DirectoryListing(listed.modificationTime, listed.subdirectories));
+                }
+            }
+        }
+        return pass;
+    }
+    
+    /**
+     * Resolves the frame's directory mtime and decides whether it has to be listed.
+     * 
+     * @return true to list the directory, false if it was pruned (its remembered
+     *         subdirectories are then copied into the frame) or no longer exists
+     */
+    private boolean openFrame(TraversalFrame frame, boolean pruneUnchanged, ListingPass pass) throws IOException {
+        if (frame.modificationTime == UNKNOWN_MODIFICATION_TIME) {
+            try {
+                frame.modificationTime = fileSystem.getFileStatus(frame.path).getModificationTime();
+            } catch (FileNotFoundException e) {
+                if (frame.depth == 0) {
+                    throw e;
+                }
+                // Remembered subdirectory has been removed; nothing to list or descend into
+                return false;
+            }
+        }
+        if (!pruneUnchanged) {
+            return true;
+        }
+        DirectoryListing listing = watermarkService.getListing(frame.path.toString());
+        if (listing == null || listing.modificationTime() != frame.modificationTime) {
+            return true;
+        }
+        frame.subdirectories.addAll(listing.subdirectories());
+        pass.prunedCount++;
+        return false;
+    }
+    
+    /**
+     * Queues the remembered subdirectories of a pruned directory. Their mtimes are read
+     * lazily when each one is reached.
+     */
+    private void pushSubdirectories(Deque<TraversalFrame> stack, TraversalFrame frame) {
+        for (String name : frame.subdirectories) {
+            stack.push(new TraversalFrame(new Path(frame.path, name), frame.depth + 1, UNKNOWN_MODIFICATION_TIME));
+        }
+    }
+    
+    /**
+     * Checks a subdirectory name against hdfswatcher.include-subdirectories and
+     * hdfswatcher.exclude-subdirectories. Excludes win over includes.
+     * 
+     * @param name the subdirectory name (last path segment)
+     * @return true if the subdirectory should be watched in recursive mode
+     */
+    boolean isWatchedSubdirectory(String name) {
+        for (Pattern exclude : subdirectoryExcludes) {
+            if (exclude.matcher(name).matches()) {
+                return false;
+            }
+        }
+        if (subdirectoryIncludes.isEmpty()) {
+            return true;
+        }
+        for (Pattern include : subdirectoryIncludes) {
+            if (include.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static List<Pattern> compileGlobs(List<String> globs) {
+        List<Pattern> patterns = new ArrayList<>();
+        if (globs == null) {
+            return patterns;
+        }
+        for (String glob : globs) {
+            if (glob != null && !glob.trim().isEmpty()) {
+                // GlobPattern compiles to re2j; reuse its translated regex with java.util.regex
+                patterns.add(Pattern.compile(GlobPattern.compile(glob.trim()).pattern()));
+            }
+        }
+        return patterns;
+    }
+    
+    /**
+     * Runs the dedup-and-send path for a single HDFS file on the calling thread: skips it if
+     * it was already processed or processing is disabled, otherwise sends it to the output
+     * and only then marks it as processed. Used by inotify discovery; directory polls feed
+     * the same stages through {@link PollPipeline}.
+     * 
+     * @param hdfsPath the configured directory the file was discovered in
+     * @param fileStatus the file status
+     * @return the outcome for this file
+     */
+    FileOutcome processHdfsFile(String hdfsPath, FileStatus fileStatus) {
+        return pollPipeline.runInline(new PipelineItem(hdfsPath, fileStatus, null, null));
+    }
+    
+    /**
+     * Pipeline stage: fingerprints a batch of listed files, looks them up in the processed-files
+     * store together and claims each one unless it was already processed, is being sent by
+     * another thread or replica, or processing is disabled.
+     */
+    private FileOutcome[] dedupStage(List<PipelineItem> items) {
+        FileOutcome[] outcomes = new FileOutcome[items.size()];
+        Fingerprint[] fingerprints = new Fingerprint[items.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            FileStatus fileStatus = items.get(i).fileStatus;
+            // Fingerprint the file; no hex string is built unless something is logged
+            fingerprints[i] = processedFilesService.fingerprintFile(fileStatus.getPath().getName(), 
+                fileStatus.getLen(), fileStatus.getModificationTime());
+            items.get(i).fingerprint = fingerprints[i];
+            // Lets /api/process-now find the file by hash without listing
+            if (!fileIndexService.contains(fingerprints[i])) {
+                fileIndexService.record(fingerprints[i], fileStatus.getPath().getParent().toUri().getPath(),
+                    fileStatus.getPath().getName(), fileStatus.getLen(), fileStatus.getModificationTime());
+            }
+        }
+        
+        // One bulk lookup for the batch; a shared store answers it in a single round trip
+        boolean[] processed = processedFilesService.areFilesProcessed(fingerprints);
+        boolean processingEnabled = processingStateService.isProcessingEnabled();
+        for (int i = 0; i < outcomes.length; i++) {
+            PipelineItem item = items.get(i);
+            if (processed[i]) {
+                outcomes[i] = FileOutcome.SKIPPED;
+            } else if (!processingEnabled) {
+                logger.debug("Processing is disabled, skipping file: {} (hash: {})", 
+                    item.fileStatus.getPath().getName(), item.fingerprint);
+                outcomes[i] = FileOutcome.DEFERRED;
+            } else if (!processedFilesService.tryClaim(item.fingerprint)) {
+                // Another directory task or replica may be sending a file with the same hash right now
+                outcomes[i] = FileOutcome.SKIPPED;
+            } else {
+                item.claimed = true;
+            }
+        }
+        return outcomes;
+    }
+    
+    /**
+     * Pipeline stage: builds the event that is sent for the file, around its WebHDFS URL.
+     */
+    private FileOutcome buildStage(PipelineItem item) throws IOException {
+        FileStatus fileStatus = item.fileStatus;
+        String url = buildWebHdfsUrl(fileStatus.getPath());
+        item.event = FileEvent.of(url, fileStatus, item.hdfsPath, 
+            item.fingerprint != null ? item.fingerprint.toHex() : null, blockLocations(fileStatus));
+        return null;
+    }
+    
+    /**
+     * Gets a file's block locations for its event, if hdfswatcher.event-block-locations is set.
+     * 
+     * @return the locations, or null to send the event without them
+     */
+    private BlockLocation[] blockLocations(FileStatus fileStatus) {
+        if (!properties.isEventBlockLocations()) {
+            return null;
+        }
+        if (fileStatus instanceof LocatedFileStatus located && located.getBlockLocations() != null) {
+            return located.getBlockLocations();
+        }
+        try {
+            return fileSystem.getFileBlockLocations(fileStatus, 0, fileStatus.getLen());
         } catch (IOException e) {
-            logger.error("Error polling HDFS directory: {}", hdfsPath, e);
+            // Consumers can still look the blocks up themselves
+            logger.warn("Could not get block locations of {}: {}", fileStatus.getPath(), e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Pipeline stage: waits for a publish permit and sends the file to the output.
+     */
+    private FileOutcome publishStage(PipelineItem item) throws InterruptedException {
+        publishRateLimiter.acquire();
+        String filename = item.fileStatus.getPath().getName();
+        try {
+            publishFileEvent("FILE_START", filename);
+            output.send(item.event, properties.getMode());
+            publishFileEvent("FILE_COMPLETE", filename);
+            return null;
         } catch (Exception e) {
-            logger.error("Unexpected error during HDFS polling for directory: {}", hdfsPath, e);
+            logger.error("Failed to process file: {} (hash: {}). Error: {}", 
+                filename, item.fingerprint, e.getMessage());
+            // Don't mark as processed if queue send failed
+            return FileOutcome.FAILED;
+        }
+    }
+    
+    /**
+     * Pipeline stage used when hdfswatcher.outbox-directory is set: spools the files' events
+     * to the outbox in one write. The files go on to be marked once their events are on
+     * disk; the outbox drainer sends them. Waits while the outbox is full.
+     */
+    private FileOutcome[] spoolStage(List<PipelineItem> items) throws IOException, InterruptedException {
+        List<FileEvent> events = new ArrayList<>(items.size());
+        for (PipelineItem item : items) {
+            events.add(item.event);
+        }
+        outboxService.append(events);
+        return new FileOutcome[items.size()];
+    }
+    
+    /**
+     * Pipeline stage used when hdfswatcher.publish-confirms is set: waits for a publish
+     * permit, sends the file and moves on without waiting for the broker. The file goes on
+     * to be marked once the broker acks it; a nack or a missing confirm fails the future,
+     * and the pipeline sends the file again.
+     */
+    private CompletableFuture<FileOutcome> confirmedPublishStage(PipelineItem item) throws InterruptedException {
+        publishRateLimiter.acquire();
+        String filename = item.fileStatus.getPath().getName();
+        if (item.attempts == 0) {
+            publishFileEvent("FILE_START", filename);
+        }
+        return output.sendConfirmed(item.event, properties.getMode()).thenApply(acked -> {
+            if (!acked) {
+                throw new CompletionException(new IOException("Broker did not accept the message for " + filename));
+            }
+            publishFileEvent("FILE_COMPLETE", filename);
+            return null;
+        });
+    }
+    
+    /**
+     * Pipeline stage used when hdfswatcher.publish-batch-mode is set: takes a publish permit
+     * per file and sends the files together. Files that were not sent fail on their own and
+     * are not marked; the ones that were sent go on to be marked as usual.
+     */
+    private FileOutcome[] publishBatchStage(List<PipelineItem> items) throws InterruptedException {
+        List<FileEvent> events = new ArrayList<>(items.size());
+        for (PipelineItem item : items) {
+            publishRateLimiter.acquire();
+            events.add(item.event);
+        }
+        publishBatchEvent("BATCH_START", items.size());
+        int sent = output.sendBatch(events, properties.getMode());
+        publishBatchEvent("BATCH_COMPLETE", sent);
+        FileOutcome[] outcomes = new FileOutcome[items.size()];
+        for (int i = sent; i < items.size(); i++) {
+            PipelineItem item = items.get(i);
+            logger.error("Failed to process file: {} (hash: {}). Not sent with its batch of {}", 
+                item.fileStatus.getPath().getName(), item.fingerprint, items.size());
+            outcomes[i] = FileOutcome.FAILED;
         }
+        return outcomes;
     }
     
     /**
-     * @deprecated Use pollHdfsDirectories() instead for multiple directory support
+     * Pipeline stage: marks the file as processed. Only reached after a successful send.
+     */
+    private FileOutcome markStage(PipelineItem item) {
+        // Recorded under its directory so the reconciler can evict it once the file is deleted
+        processedFilesService.markFileAsProcessed(item.fingerprint, 
+            item.fileStatus.getPath().getParent().toUri().getPath());
+        logger.debug("Successfully processed file: {} (hash: {})", item.fileStatus.getPath().getName(), item.fingerprint);
+        return FileOutcome.PROCESSED;
+    }
+    
+    private void completePipelineItem(PipelineItem item, FileOutcome outcome) {
+        if (item.claimed) {
+            processedFilesService.releaseClaim(item.fingerprint);
+        }
+    }
+    
+    /**
+     * Runs one full listing of every configured HDFS directory, regardless of the
+     * discovery mode. Used by event discovery to catch up on startup and after gaps.
+     */
+    void reconcileHdfsDirectories() {
+        if (fileSystem == null) {
+            return;
+        }
+        logger.info("Reconciling {} HDFS directories with a full listing", properties.getHdfsPaths().size());
+        pollHdfsDirectories(true);
+    }
+    
+    /**
+     * Runs one full listing of a single configured HDFS directory, regardless of the
+     * discovery mode. Used by event discovery to retry files whose send or stat failed.
+     * 
+     * @return true if the listing completed and no file in it failed to send
+     */
+    boolean reconcileHdfsDirectory(String hdfsPath) {
+        if (fileSystem == null) {
+            return false;
+        }
+        try {
+            namenodePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(properties.getDirectoryPollTimeout());
+            ListingPass pass = listAndProcess(hdfsPath, new Path(hdfsPath), deadlineNanos, Long.MIN_VALUE, false);
+            logger.info("Reconciled HDFS directory {}: {} files processed, {} failed", 
+                hdfsPath, pass.processedCount, pass.failedCount);
+            return pass.complete && pass.failedCount == 0;
+        } catch (IOException e) {
+            logger.warn("Could not reconcile HDFS directory {}: {}", hdfsPath, e.getMessage());
+            return false;
+        } finally {
+            namenodePermits.release();
+        }
+    }
+    
+    /**
+     * Switches scheduled listing off while event discovery is delivering files.
+     */
+    void setEventDiscoveryActive(boolean active) {
+        this.eventDiscoveryActive = active;
+        logger.info("Event discovery {}, scheduled directory listing {}", 
+            active ? "active" : "inactive", active ? "suspended" : "resumed");
+    }
+    
+    /**
+     * Gets the HDFS FileSystem, or null in pseudoop mode.
+     */
+    FileSystem getFileSystem() {
+        return fileSystem;
+    }
+    
+    /**
+     * @deprecated Use pollHdfsDirectories(boolean) instead for multiple directory support
      */
     @Deprecated
     private void pollHdfs() {
         // For backward compatibility, poll the first HDFS path
         if (!properties.getHdfsPaths().isEmpty()) {
-            pollHdfsDirectory(properties.getHdfsPaths().get(0));
+            pollHdfsDirectory(properties.getHdfsPaths().get(0), 
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(properties.getDirectoryPollTimeout()), true);
         }
     }
     
     /**
      * Polls local directory for new files with proper error handling and duplicate prevention.
+     * Reads all attributes with a single stat per entry.
+     * 
+     * @return the number of files sent
      */
-    private void pollLocalDirectory() {
-        try (Stream<java.nio.file.Path> stream = Files.list(localWatchPath)) {
+    private int pollLocalDirectory() {
+        try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(localWatchPath)) {
             int processedCount = 0;
             int skippedCount = 0;
             
-            for (java.nio.file.Path file : stream.filter(Files::isRegularFile).toList()) {
-                String fileName = file.getFileName().toString();
-                long fileSize = Files.size(file);
-                long modificationTime = Files.getLastModifiedTime(file).toMillis();
-                
-                // Generate unique hash for the file
-                String fileHash = processedFilesService.generateFileHash(fileName, fileSize, modificationTime);
-                
-                // Check if file has already been processed
-                if (processedFilesService.isFileProcessed(fileHash)) {
-                    skippedCount++;
+            String directory = localWatchPath.toString();
+            for (java.nio.file.Path file : stream) {
+                if (!fileFilterService.accept(directory, file.getFileName().toString())) {
                     continue;
                 }
-                
-                // Check if processing is enabled before sending to queue
-                if (!processingStateService.isProcessingEnabled()) {
-                    logger.debug("Processing is disabled, skipping local file: {} (hash: {})", fileName, fileHash);
-                    skippedCount++;
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    logger.debug("Skipping local entry that could not be read: {}", file);
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
                     continue;
                 }
                 
-                // Process the file - send to queue first, then mark as processed
-                try {
-                    String fileUrl = UrlUtils.buildFileUrl(
-                        properties.getPublicAppUri(), 
-                        HdfsWatcherConstants.FILES_PATH, 
-                        fileName
-                    );
-                    publishFileEvent("FILE_START", fileName);
-                    output.send(fileUrl, properties.getMode());
-                    publishFileEvent("FILE_COMPLETE", fileName);
-                    
-                    // Only mark as processed after successful queue send
-                    processedFilesService.markFileAsProcessed(fileHash);
+                FileOutcome outcome = processLocalFile(file, attributes);
+                if (outcome == FileOutcome.PROCESSED) {
                     processedCount++;
-                    logger.debug("Successfully processed local file: {} (hash: {})", fileName, fileHash);
-                } catch (Exception e) {
-                    logger.error("Failed to process local file: {} (hash: {}). Error: {}", 
-                        fileName, fileHash, e.getMessage());
-                    // Don't mark as processed if queue send failed
-                    continue;
+                } else if (outcome == FileOutcome.SKIPPED || outcome == FileOutcome.DEFERRED) {
+                    skippedCount++;
                 }
             }
             
@@ -363,14 +1161,116 @@ public class HdfsWatcherService {
                 logger.info("Local polling completed: {} files processed, {} files skipped", 
                     processedCount, skippedCount);
             }
+            return processedCount;
         } catch (IOException e) {
             logger.error("Error polling local directory: {}", localWatchPath, e);
         } catch (Exception e) {
             logger.error("Unexpected error during local polling", e);
         }
+        return 0;
+    }
+    
+    /**
+     * Runs the dedup-and-send path for a single local file. Shared by local polling,
+     * the local watch service and uploads.
+     * 
+     * @param file the local file
+     * @param attributes the file attributes read by the caller
+     * @return the outcome for this file
+     */
+    FileOutcome processLocalFile(java.nio.file.Path file, BasicFileAttributes attributes) {
+        String fileName = file.getFileName().toString();
+        long fileSize = attributes.size();
+        long modificationTime = attributes.lastModifiedTime().toMillis();
+        
+        // Fingerprint the file; no hex string is built unless it is sent or logged
+        Fingerprint fingerprint = processedFilesService.fingerprintFile(fileName, fileSize, modificationTime);
+        if (!fileIndexService.contains(fingerprint)) {
+            fileIndexService.record(fingerprint, file.toAbsolutePath().getParent().toString(), fileName, 
+                fileSize, modificationTime);
+        }
+        
+        // Check if file has already been processed
+        if (processedFilesService.isFileProcessed(fingerprint)) {
+            return FileOutcome.SKIPPED;
+        }
+        
+        // Check if processing is enabled before sending to queue
+        if (!processingStateService.isProcessingEnabled()) {
+            logger.debug("Processing is disabled, skipping local file: {} (hash: {})", fileName, fingerprint);
+            return FileOutcome.DEFERRED;
+        }
+        
+        // An upload and a watch event may race on the same file
+        if (!processedFilesService.tryClaim(fingerprint)) {
+            return FileOutcome.SKIPPED;
+        }
+        
+        // Process the file - send to queue (or spool it) first, then mark as processed
+        try {
+            String fileUrl = UrlUtils.buildFileUrl(
+                properties.getPublicAppUri(), 
+                HdfsWatcherConstants.FILES_PATH, 
+                fileName
+            );
+            java.nio.file.Path absolute = file.toAbsolutePath();
+            FileEvent event = FileEvent.ofLocalFile(fileUrl, absolute.toString(), absolute.getParent().toString(),
+                fileSize, modificationTime, fingerprint.toHex());
+            if (outboxService.isEnabled()) {
+                outboxService.append(List.of(event));
+            } else {
+                publishRateLimiter.acquire();
+                publishFileEvent("FILE_START", fileName);
+                output.send(event, properties.getMode());
+                publishFileEvent("FILE_COMPLETE", fileName);
+            }
+            
+            // Only mark as processed after successful queue send
+            processedFilesService.markFileAsProcessed(fingerprint);
+            logger.debug("Successfully processed local file: {} (hash: {})", fileName, fingerprint);
+            return FileOutcome.PROCESSED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FileOutcome.DEFERRED;
+        } catch (Exception e) {
+            logger.error("Failed to process local file: {} (hash: {}). Error: {}", 
+                fileName, fingerprint, e.getMessage());
+            // Don't mark as processed if queue send failed
+            return FileOutcome.FAILED;
+        } finally {
+            processedFilesService.releaseClaim(fingerprint);
+        }
+    }
+    
+    /**
+     * Runs one full scan of the local watch directory, regardless of the discovery mode.
+     * Used by the local watch service on startup and after an event overflow.
+     */
+    void reconcileLocalDirectory() {
+        if (localWatchPath == null) {
+            return;
+        }
+        logger.info("Reconciling local directory with a full scan: {}", localWatchPath);
+        pollLocalDirectory();
+    }
+    
+    /**
+     * Gets the local watch directory, or null in HDFS mode.
+     */
+    java.nio.file.Path getLocalWatchPath() {
+        return localWatchPath;
     }
 
     private void publishFileEvent(String eventType, String filename) {
+        publishMonitoringEvent(eventType, "filename", filename);
+    }
+
+    // One event per publish batch instead of two per file
+    private void publishBatchEvent(String eventType, int fileCount) {
+        publishMonitoringEvent(eventType, "fileCount", fileCount);
+    }
+
+    private void publishMonitoringEvent(String eventType, String field, Object value) {
         try {
             if (monitoringProperties != null && monitoringProperties.isRabbitmqEnabled()) {
                 java.util.Map<String, Object> evt = new java.util.LinkedHashMap<>();
@@ -388,7 +1288,7 @@ public class HdfsWatcherService {
                 if (properties.getPublicHostname() != null) {
                     evt.put("publicHostname", properties.getPublicHostname());
                 }
-                evt.put("filename", filename);
+                evt.put(field, value);
 
                 java.util.Map<String, Object> meta = new java.util.LinkedHashMap<>();
                 meta.put("service", "hdfsWatcher");
@@ -436,12 +1336,9 @@ public class HdfsWatcherService {
      */
     private String extractRelativePath(org.apache.hadoop.fs.Path path) {
         String fullPath = path.toString();
-        logger.error("DEBUGGING: Extracting relative path from full path: {}", fullPath);
-        logger.error("DEBUGGING: Configured HDFS paths: {}", properties.getHdfsPaths());
         
         // Check which configured HDFS path this file belongs to
         for (String configuredPath : properties.getHdfsPaths()) {
-            logger.error("DEBUGGING: Checking if '{}' starts with '{}'", fullPath, configuredPath);
             if (fullPath.startsWith(configuredPath)) {
                 // Return the path relative to the configured directory
                 String relativePath = fullPath.substring(configuredPath.length());
@@ -449,18 +1346,81 @@ public class HdfsWatcherService {
                 if (!relativePath.startsWith("/")) {
                     relativePath = "/" + relativePath;
                 }
-                logger.error("DEBUGGING: MATCH FOUND! File {} belongs to configured path {}, relative path: {}", 
-                           fullPath, configuredPath, relativePath);
                 return relativePath;
             }
         }
         
         // Fallback: use the full path if no configured path matches
-        logger.error("DEBUGGING: NO MATCH! No configured HDFS path matches file: {}, using full path", fullPath);
+        logger.debug("No configured HDFS path matches file: {}, using full path", fullPath);
         return fullPath;
     }
 
     private volatile long lastPollTimestamp = 0L;
+    private volatile boolean eventDiscoveryActive = false;
+    
+    /**
+     * Tracks one directory task within a poll cycle.
+     */
+    private static final class DirectoryPoll {
+        private final String hdfsPath;
+        private volatile boolean started = false;
+        private volatile long deadlineNanos;
+        private Future<?> future;
+        
+        private DirectoryPoll(String hdfsPath) {
+            this.hdfsPath = hdfsPath;
+        }
+    }
+    
+    /**
+     * Result of running a single file through the dedup-and-send path.
+     */
+    enum FileOutcome {
+        PROCESSED,
+        /** Already processed, or being sent by another thread */
+        SKIPPED,
+        /** Left for later because processing is disabled or the poll was interrupted before sending */
+        DEFERRED,
+        FAILED
+    }
+    
+    /**
+     * Counters for a single listing pass over one directory.
+     */
+    private static final class ListingPass {
+        private int processedCount = 0;
+        private int skippedCount = 0;
+        private int deferredCount = 0;
+        private int failedCount = 0;
+        private int prunedCount = 0;
+        private long consideredCount = 0;
+        // Files below the starting mark were already seen, so the mark never moves backwards
+        private long highWaterMark;
+        private boolean complete = true;
+        
+        private ListingPass(long highWaterMark) {
+            this.highWaterMark = highWaterMark;
+        }
+    }
+    
+    /**
+     * One directory on the depth-first traversal stack.
+     */
+    private static final class TraversalFrame {
+        private final Path path;
+        private final int depth;
+        private final List<String> subdirectories = new ArrayList<>();
+        private long modificationTime;
+        private RemoteIterator<FileStatus> entries;
+        // Failed or deferred files listed from this directory, counted as the pipeline finishes them
+        private final AtomicInteger problems = new AtomicInteger();
+        
+        private TraversalFrame(Path path, int depth, long modificationTime) {
+            this.path = path;
+            this.depth = depth;
+            this.modificationTime = modificationTime;
+        }
+    }
     
     /**
      * Determines the base URI for WebHDFS operations.
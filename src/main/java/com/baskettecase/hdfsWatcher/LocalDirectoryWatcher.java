@@ -0,0 +1,210 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.service.FileFilterService;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven discovery for pseudoop mode built on {@link WatchService}.
+ *
+ * Active only when hdfswatcher.discovery-mode=event in pseudoop mode. Created and modified
+ * files are published once they have been quiet for a short settle delay, so a file that
+ * is still being written is not sent once per write. An OVERFLOW event triggers one full
+ * rescan. Uploads stored through {@link LocalFileService} call {@link #fileStored(Path)}
+ * and are published directly without waiting for the filesystem event.
+ */
+@Service
+public class LocalDirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalDirectoryWatcher.class);
+
+    private final HdfsWatcherProperties properties;
+    private final HdfsWatcherService watcherService;
+    private final FileFilterService fileFilterService;
+    private final Object publishLock = new Object();
+    // Only touched by the watch thread
+    private final Map<Path, Long> pendingFiles = new HashMap<>();
+
+    private volatile boolean running = false;
+    private volatile WatchService watchService;
+    private volatile Thread worker;
+
+    public LocalDirectoryWatcher(HdfsWatcherProperties properties,
+                                 HdfsWatcherService watcherService,
+                                 FileFilterService fileFilterService) {
+        this.properties = properties;
+        this.watcherService = watcherService;
+        this.fileFilterService = fileFilterService;
+    }
+
+    /**
+     * Registers the watch and starts the event loop once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isPseudoop() || !properties.isEventDiscovery()) {
+            return;
+        }
+        Path directory = watcherService.getLocalWatchPath();
+        try {
+            WatchService service = directory.getFileSystem().newWatchService();
+            directory.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = service;
+        } catch (IOException e) {
+            logger.error("Could not watch local directory {}, staying on scheduled polling", directory, e);
+            return;
+        }
+
+        running = true;
+        watcherService.setEventDiscoveryActive(true);
+        Thread thread = new Thread(this::run, "local-watch");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+        logger.info("Local event discovery started for: {}", directory);
+
+        // Catch up on files that arrived before the watch was registered
+        synchronized (publishLock) {
+            watcherService.reconcileLocalDirectory();
+        }
+    }
+
+    /**
+     * Stops the event loop and closes the watch service.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                logger.debug("Error closing local watch service", e);
+            }
+        }
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Publishes a file that was just stored by an upload, without waiting for the
+     * filesystem event. No-op unless local event discovery is running.
+     *
+     * @param file the stored file
+     */
+    public void fileStored(Path file) {
+        if (!running) {
+            return;
+        }
+        publish(file);
+    }
+
+    private void run() {
+        Path directory = watcherService.getLocalWatchPath();
+        try {
+            while (running) {
+                WatchKey key = watchService.poll(nextWaitMillis(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            logger.warn("Local watch events overflowed, rescanning {}", directory);
+                            pendingFiles.clear();
+                            synchronized (publishLock) {
+                                watcherService.reconcileLocalDirectory();
+                            }
+                            continue;
+                        }
+                        Path file = directory.resolve((Path) event.context());
+                        pendingFiles.put(file, System.currentTimeMillis() + HdfsWatcherConstants.LOCAL_WATCH_SETTLE_MS);
+                    }
+                    if (!key.reset()) {
+                        logger.error("Local watch directory {} is no longer accessible", directory);
+                        break;
+                    }
+                }
+                publishSettledFiles();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed by stop()
+        } catch (Exception e) {
+            logger.error("Unexpected error in local event discovery", e);
+        } finally {
+            running = false;
+            watcherService.setEventDiscoveryActive(false);
+            logger.info("Local event discovery stopped for: {}", directory);
+        }
+    }
+
+    /**
+     * Waits until the earliest pending file settles, or the idle poll time if none is pending.
+     */
+    private long nextWaitMillis() {
+        if (pendingFiles.isEmpty()) {
+            return HdfsWatcherConstants.LOCAL_WATCH_IDLE_POLL_MS;
+        }
+        long now = System.currentTimeMillis();
+        long wait = HdfsWatcherConstants.LOCAL_WATCH_SETTLE_MS;
+        for (long due : pendingFiles.values()) {
+            wait = Math.min(wait, due - now);
+        }
+        return Math.max(1, wait);
+    }
+
+    private void publishSettledFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> it = pendingFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                it.remove();
+                publish(entry.getKey());
+            }
+        }
+    }
+
+    private void publish(Path file) {
+        if (!fileFilterService.accept(watcherService.getLocalWatchPath().toString(), file.getFileName().toString())) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return;
+            }
+            synchronized (publishLock) {
+                watcherService.processLocalFile(file, attributes);
+            }
+        } catch (NoSuchFileException e) {
+            logger.debug("Local file no longer exists: {}", file);
+        } catch (IOException e) {
+            logger.warn("Could not read local file {}: {}", file, e.getMessage());
+        }
+    }
+}
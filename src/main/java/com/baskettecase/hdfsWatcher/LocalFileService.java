@@ -33,9 +33,11 @@ public class LocalFileService {
     
     private final Path rootLocation;
     private final HdfsWatcherProperties properties;
+    private final LocalDirectoryWatcher directoryWatcher;
 
-    public LocalFileService(HdfsWatcherProperties properties) {
+    public LocalFileService(HdfsWatcherProperties properties, LocalDirectoryWatcher directoryWatcher) {
         this.properties = validateProperties(properties);
+        this.directoryWatcher = directoryWatcher;
         this.rootLocation = Paths.get(this.properties.getLocalStoragePath());
         logger.info("LocalFileService initialized with storage path: {}", this.rootLocation);
     }
@@ -75,8 +77,11 @@ public class LocalFileService {
         validateFile(file, originalFilename);
         
         try (InputStream inputStream = file.getInputStream()) {
-            Files.copy(inputStream, this.rootLocation.resolve(originalFilename),
-                StandardCopyOption.REPLACE_EXISTING);
+            Path target = this.rootLocation.resolve(originalFilename);
+            Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+            
+            // Publish right away instead of waiting for the filesystem event
+            directoryWatcher.fileStored(target);
             
             String publicUrl = UrlUtils.buildFileUrl(
                 properties.getPublicAppUri(), 
@@ -0,0 +1,631 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherService.FileOutcome;
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hadoop.fs.FileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Chain of processing stages connected by bounded queues, fed by the directory listing.
+ *
+ * Each stage has its own pool of virtual-thread workers. A worker takes an item from its
+ * stage's queue, runs the stage and either hands the item to the next stage or finishes it
+ * with an outcome. Handing over blocks while the next queue is full, so a slow broker
+ * backs up the publish queue, then the earlier stages, and finally stalls the listing
+ * itself instead of buffering files in memory. Workers of a batch stage take every item
+ * waiting in the queue, up to a limit, and run the stage for them together; a batch stage
+ * with a linger also waits a little for more items to arrive before it runs.
+ *
+ * Workers of an async stage only start the work and move on to the next item; the item
+ * moves on when the work completes. Work that completes exceptionally puts the item back
+ * at the end of the same stage's queue, up to the stage's retry limit.
+ */
+final class PollPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(PollPipeline.class);
+
+    /**
+     * A single processing step.
+     */
+    @FunctionalInterface
+    interface Stage {
+        /**
+         * Processes an item.
+         *
+         * @return null to pass the item to the next stage, or the item's final outcome
+         */
+        FileOutcome apply(PipelineItem item) throws Exception;
+    }
+
+    /**
+     * A processing step that handles the items waiting in its queue together, e.g. to look
+     * them all up in one round trip.
+     */
+    @FunctionalInterface
+    interface BatchStage {
+        /**
+         * Processes items in the order they were queued.
+         *
+         * @return per item, null to pass it to the next stage or the item's final outcome
+         */
+        FileOutcome[] apply(List<PipelineItem> items) throws Exception;
+    }
+
+    /**
+     * A processing step that completes later, e.g. once a remote system acknowledges it.
+     */
+    @FunctionalInterface
+    interface AsyncStage {
+        /**
+         * Starts processing an item.
+         *
+         * @return completes with null to pass the item to the next stage or with its final
+         *         outcome; completes exceptionally to retry the item
+         */
+        CompletableFuture<FileOutcome> apply(PipelineItem item) throws Exception;
+    }
+
+    private final int queueCapacity;
+    private final MeterRegistry meterRegistry;
+    private final BiConsumer<PipelineItem, FileOutcome> completion;
+    private final Counter listedCounter;
+    private final List<StageWorkers> stages = new ArrayList<>();
+    // Runs what follows an async stage, off whatever thread completed its work
+    private final ExecutorService continuations = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean running = false;
+
+    /**
+     * @param queueCapacity capacity of each stage's input queue
+     * @param meterRegistry registry for queue depth and throughput metrics
+     * @param completion called exactly once per item with its outcome
+     */
+    PollPipeline(int queueCapacity, MeterRegistry meterRegistry, BiConsumer<PipelineItem, FileOutcome> completion) {
+        this.queueCapacity = queueCapacity;
+        this.meterRegistry = meterRegistry;
+        this.completion = completion;
+        this.listedCounter = stageCounter("list");
+    }
+
+    /**
+     * Appends a stage. Stages run in the order they are added.
+     */
+    PollPipeline addStage(String name, int parallelism, Stage stage) {
+        return register(new StageWorkers(name, parallelism, stage, null, null, 1, 0, 0,
+            new ArrayBlockingQueue<>(queueCapacity)));
+    }
+
+    /**
+     * Appends a stage whose workers each take up to maxBatch queued items at a time. A
+     * worker never waits for a batch to fill: it takes whatever is queued once at least
+     * one item is.
+     */
+    PollPipeline addBatchStage(String name, int parallelism, int maxBatch, BatchStage stage) {
+        return addBatchStage(name, parallelism, maxBatch, 0, stage);
+    }
+
+    /**
+     * Appends a batch stage whose workers, once they have taken the first item, wait up to
+     * lingerMillis for the batch to fill to maxBatch items. Trades that much latency for
+     * fewer, larger batches.
+     */
+    PollPipeline addBatchStage(String name, int parallelism, int maxBatch, long lingerMillis, BatchStage stage) {
+        return register(new StageWorkers(name, parallelism, null, stage, null, maxBatch, lingerMillis, 0,
+            new ArrayBlockingQueue<>(queueCapacity)));
+    }
+
+    /**
+     * Appends a stage whose workers start an item's work and take the next item without
+     * waiting for it to complete; bound the work in flight inside the stage. An item whose
+     * work fails is queued for the stage again, at most maxRetries times, and then fails.
+     */
+    PollPipeline addAsyncStage(String name, int parallelism, int maxRetries, AsyncStage stage) {
+        return register(new StageWorkers(name, parallelism, null, null, stage, 1, 0, maxRetries,
+            new ArrayBlockingQueue<>(queueCapacity)));
+    }
+
+    private PollPipeline register(StageWorkers workers) {
+        Gauge.builder("hdfswatcher.pipeline.queue.depth", workers.queue, BlockingQueue::size)
+            .description("Items waiting in front of a pipeline stage")
+            .tag("stage", workers.name)
+            .register(meterRegistry);
+        stages.add(workers);
+        return this;
+    }
+
+    /**
+     * Starts the stage workers.
+     */
+    void start() {
+        running = true;
+        for (int i = 0; i < stages.size(); i++) {
+            StageWorkers workers = stages.get(i);
+            StageWorkers next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            for (int w = 0; w < workers.parallelism; w++) {
+                workers.threads.add(Thread.ofVirtual()
+                    .name("pipeline-" + workers.name + "-" + w)
+                    .start(() -> runWorker(workers, next)));
+            }
+        }
+        logger.info("Poll pipeline started: {}", stages.stream()
+            .map(s -> s.name + "x" + s.parallelism).toList());
+    }
+
+    /**
+     * Stops all workers. Items still queued are dropped, and so are items whose async work
+     * completes afterwards.
+     */
+    void shutdown() {
+        running = false;
+        for (StageWorkers workers : stages) {
+            workers.threads.forEach(Thread::interrupt);
+        }
+        continuations.shutdownNow();
+    }
+
+    /**
+     * Feeds a listed file into the first stage, waiting while its queue is full.
+     *
+     * @throws InterruptedException if interrupted while waiting; the item is not queued
+     */
+    void submit(PipelineItem item) throws InterruptedException {
+        if (item.batch != null) {
+            item.batch.add();
+        }
+        try {
+            stages.get(0).queue.put(item);
+            listedCounter.increment();
+        } catch (InterruptedException e) {
+            if (item.batch != null) {
+                item.batch.complete(FileOutcome.DEFERRED);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs every stage for one item on the calling thread, bypassing the queues.
+     * Used for single files from event discovery, where latency matters more than throughput.
+     *
+     * @return the item's outcome
+     */
+    FileOutcome runInline(PipelineItem item) {
+        FileOutcome outcome = null;
+        for (StageWorkers workers : stages) {
+            if (workers.batchStage != null) {
+                outcome = applyBatch(workers, List.of(item))[0];
+            } else if (workers.asyncStage != null) {
+                outcome = awaitAsync(workers, item);
+            } else {
+                outcome = applyStage(workers, item);
+            }
+            if (outcome != null) {
+                break;
+            }
+        }
+        if (outcome == null) {
+            outcome = FileOutcome.PROCESSED;
+        }
+        finish(item, outcome);
+        return outcome;
+    }
+
+    private void runWorker(StageWorkers workers, StageWorkers next) {
+        if (workers.batchStage != null) {
+            runBatchWorker(workers, next);
+            return;
+        }
+        if (workers.asyncStage != null) {
+            runAsyncWorker(workers, next);
+            return;
+        }
+        while (running) {
+            PipelineItem item;
+            try {
+                item = workers.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            FileOutcome outcome = applyStage(workers, item);
+            if (outcome == null && next != null) {
+                try {
+                    next.queue.put(item);
+                    continue;
+                } catch (InterruptedException e) {
+                    finish(item, FileOutcome.DEFERRED);
+                    return;
+                }
+            }
+            finish(item, outcome != null ? outcome : FileOutcome.PROCESSED);
+        }
+    }
+
+    private void runBatchWorker(StageWorkers workers, StageWorkers next) {
+        List<PipelineItem> items = new ArrayList<>(workers.maxBatch);
+        while (running) {
+            items.clear();
+            try {
+                items.add(workers.queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            workers.queue.drainTo(items, workers.maxBatch - 1);
+            if (workers.lingerNanos > 0) {
+                linger(workers, items);
+            }
+            FileOutcome[] outcomes = applyBatch(workers, items);
+            for (int i = 0; i < items.size(); i++) {
+                PipelineItem item = items.get(i);
+                if (outcomes[i] == null && next != null) {
+                    try {
+                        next.queue.put(item);
+                        continue;
+                    } catch (InterruptedException e) {
+                        for (int rest = i; rest < items.size(); rest++) {
+                            finish(items.get(rest), outcomes[rest] != null ? outcomes[rest] : FileOutcome.DEFERRED);
+                        }
+                        return;
+                    }
+                }
+                finish(item, outcomes[i] != null ? outcomes[i] : FileOutcome.PROCESSED);
+            }
+        }
+    }
+
+    private void runAsyncWorker(StageWorkers workers, StageWorkers next) {
+        while (running) {
+            PipelineItem item;
+            try {
+                item = workers.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            CompletableFuture<FileOutcome> work;
+            try {
+                work = workers.asyncStage.apply(item);
+            } catch (InterruptedException e) {
+                workers.throughput.increment();
+                finish(item, FileOutcome.DEFERRED);
+                return;
+            } catch (Exception e) {
+                logger.error("Pipeline stage '{}' failed for file: {}", workers.name, item.fileStatus.getPath(), e);
+                workers.throughput.increment();
+                finish(item, FileOutcome.FAILED);
+                continue;
+            }
+            work.whenCompleteAsync((outcome, error) -> settleAsync(workers, next, item, outcome, error), continuations);
+        }
+    }
+
+    /**
+     * Moves an item on once its async work has completed. Runs on a continuation thread, so
+     * waiting for room in a queue here never holds up the stage's workers.
+     */
+    private void settleAsync(StageWorkers workers, StageWorkers next, PipelineItem item, 
+                             FileOutcome outcome, Throwable error) {
+        workers.throughput.increment();
+        StageWorkers target = next;
+        if (error != null) {
+            if (!running) {
+                finish(item, FileOutcome.DEFERRED);
+                return;
+            }
+            if (item.attempts >= workers.maxRetries) {
+                logger.error("Pipeline stage '{}' failed for file: {} after {} attempts: {}", workers.name,
+                    item.fileStatus.getPath(), item.attempts + 1, cause(error));
+                finish(item, FileOutcome.FAILED);
+                return;
+            }
+            item.attempts++;
+            logger.warn("Pipeline stage '{}' failed for file: {} ({}); retrying", workers.name,
+                item.fileStatus.getPath(), cause(error));
+            target = workers;
+        } else if (outcome != null || next == null) {
+            finish(item, outcome != null ? outcome : FileOutcome.PROCESSED);
+            return;
+        }
+        try {
+            target.queue.put(item);
+        } catch (InterruptedException e) {
+            finish(item, FileOutcome.DEFERRED);
+        }
+    }
+
+    /**
+     * Runs an async stage for one item and waits for it, retrying in place.
+     */
+    private FileOutcome awaitAsync(StageWorkers workers, PipelineItem item) {
+        while (true) {
+            try {
+                return workers.asyncStage.apply(item).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return FileOutcome.DEFERRED;
+            } catch (ExecutionException e) {
+                if (item.attempts >= workers.maxRetries) {
+                    logger.error("Pipeline stage '{}' failed for file: {} after {} attempts: {}", workers.name,
+                        item.fileStatus.getPath(), item.attempts + 1, cause(e));
+                    return FileOutcome.FAILED;
+                }
+                item.attempts++;
+                logger.warn("Pipeline stage '{}' failed for file: {} ({}); retrying", workers.name,
+                    item.fileStatus.getPath(), cause(e));
+            } catch (Exception e) {
+                logger.error("Pipeline stage '{}' failed for file: {}", workers.name, item.fileStatus.getPath(), e);
+                return FileOutcome.FAILED;
+            } finally {
+                workers.throughput.increment();
+            }
+        }
+    }
+
+    /**
+     * Tops the batch up until it is full or the linger has passed since its first item.
+     * An interrupt ends the wait; the batch is still run and the worker stops afterwards.
+     */
+    private void linger(StageWorkers workers, List<PipelineItem> items) {
+        long deadline = System.nanoTime() + workers.lingerNanos;
+        while (items.size() < workers.maxBatch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PipelineItem item;
+            try {
+                item = workers.queue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (item == null) {
+                return;
+            }
+            items.add(item);
+            workers.queue.drainTo(items, workers.maxBatch - items.size());
+        }
+    }
+
+    private FileOutcome[] applyBatch(StageWorkers workers, List<PipelineItem> items) {
+        try {
+            FileOutcome[] outcomes = workers.batchStage.apply(items);
+            if (outcomes.length != items.size()) {
+                throw new IllegalStateException("Stage returned " + outcomes.length + " outcomes for " 
+                    + items.size() + " items");
+            }
+            return outcomes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return filled(items.size(), FileOutcome.DEFERRED);
+        } catch (Exception e) {
+            logger.error("Pipeline stage '{}' failed for {} files starting with: {}", 
+                workers.name, items.size(), items.get(0).fileStatus.getPath(), e);
+            return filled(items.size(), FileOutcome.FAILED);
+        } finally {
+            workers.throughput.increment(items.size());
+        }
+    }
+
+    // The failure an async stage's future was completed with, for logging
+    private static String cause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) 
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error.toString();
+    }
+
+    private static FileOutcome[] filled(int size, FileOutcome outcome) {
+        FileOutcome[] outcomes = new FileOutcome[size];
+        Arrays.fill(outcomes, outcome);
+        return outcomes;
+    }
+
+    private FileOutcome applyStage(StageWorkers workers, PipelineItem item) {
+        try {
+            return workers.stage.apply(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FileOutcome.DEFERRED;
+        } catch (Exception e) {
+            logger.error("Pipeline stage '{}' failed for file: {}", workers.name, item.fileStatus.getPath(), e);
+            return FileOutcome.FAILED;
+        } finally {
+            workers.throughput.increment();
+        }
+    }
+
+    private void finish(PipelineItem item, FileOutcome outcome) {
+        if (item.problems != null && (outcome == FileOutcome.FAILED || outcome == FileOutcome.DEFERRED)) {
+            item.problems.incrementAndGet();
+        }
+        try {
+            completion.accept(item, outcome);
+        } finally {
+            if (item.batch != null) {
+                item.batch.complete(outcome);
+            }
+        }
+    }
+
+    private Counter stageCounter(String stage) {
+        return Counter.builder("hdfswatcher.pipeline.stage.items")
+            .description("Items that went through a pipeline stage")
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    /**
+     * One file moving through the pipeline. Stages fill in the fields they produce.
+     */
+    static final class PipelineItem {
+        final String hdfsPath;
+        final FileStatus fileStatus;
+        final PollBatch batch;
+        final AtomicInteger problems;
+        Fingerprint fingerprint;
+        boolean claimed;
+        FileEvent event;
+        // Times an async stage has retried the item
+        int attempts;
+
+        /**
+         * @param hdfsPath the configured directory the file was discovered in
+         * @param fileStatus the file status
+         * @param batch the poll the file belongs to, or null for a single event
+         * @param problems counter of failed or deferred files shared with the file's siblings, or null
+         */
+        PipelineItem(String hdfsPath, FileStatus fileStatus, PollBatch batch, AtomicInteger problems) {
+            this.hdfsPath = hdfsPath;
+            this.fileStatus = fileStatus;
+            this.batch = batch;
+            this.problems = problems;
+        }
+    }
+
+    /**
+     * Outcome counters for the files one directory poll fed into the pipeline.
+     */
+    static final class PollBatch {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition drained = lock.newCondition();
+        private int outstanding = 0;
+        private int processedCount = 0;
+        private int skippedCount = 0;
+        private int deferredCount = 0;
+        private int failedCount = 0;
+
+        private void add() {
+            lock.lock();
+            try {
+                outstanding++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void complete(FileOutcome outcome) {
+            lock.lock();
+            try {
+                switch (outcome) {
+                    case PROCESSED -> processedCount++;
+                    case SKIPPED -> skippedCount++;
+                    case DEFERRED -> {
+                        skippedCount++;
+                        deferredCount++;
+                    }
+                    case FAILED -> failedCount++;
+                }
+                if (--outstanding == 0) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits until every submitted file has an outcome.
+         *
+         * @param deadlineNanos System.nanoTime() value to stop waiting at
+         * @return true if drained, false if the deadline passed first
+         */
+        boolean awaitDrained(long deadlineNanos) throws InterruptedException {
+            lock.lock();
+            try {
+                while (outstanding > 0) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    drained.awaitNanos(remaining);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getProcessedCount() {
+            lock.lock();
+            try {
+                return processedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getSkippedCount() {
+            lock.lock();
+            try {
+                return skippedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getDeferredCount() {
+            lock.lock();
+            try {
+                return deferredCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getFailedCount() {
+            lock.lock();
+            try {
+                return failedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class StageWorkers {
+        private final String name;
+        private final int parallelism;
+        private final Stage stage;
+        private final BatchStage batchStage;
+        private final AsyncStage asyncStage;
+        private final int maxBatch;
+        private final long lingerNanos;
+        private final int maxRetries;
+        private final BlockingQueue<PipelineItem> queue;
+        private final Counter throughput;
+        private final List<Thread> threads = new ArrayList<>();
+
+        private StageWorkers(String name, int parallelism, Stage stage, BatchStage batchStage, AsyncStage asyncStage,
+                             int maxBatch, long lingerMillis, int maxRetries, BlockingQueue<PipelineItem> queue) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.stage = stage;
+            this.batchStage = batchStage;
+            this.asyncStage = asyncStage;
+            this.maxBatch = maxBatch;
+            this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+            this.maxRetries = maxRetries;
+            this.queue = queue;
+            this.throughput = stageCounter(name);
+        }
+    }
+}
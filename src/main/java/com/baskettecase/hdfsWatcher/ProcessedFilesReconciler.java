@@ -0,0 +1,166 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.service.ProcessedFilesService;
+import com.baskettecase.hdfsWatcher.sharding.ShardingService;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Removes processed entries for files that have been deleted from HDFS.
+ *
+ * A round lists every watched directory (and, in recursive mode, every watched
+ * subdirectory this replica owns) one directory at a time, fingerprints the files it finds
+ * and hands them to {@link ProcessedFilesService#reconcileDirectory}. Directories that
+ * still have entries but were not reached by the walk, e.g. removed or no longer watched
+ * ones, are listed afterwards. Only a round in which every listing succeeded ends with a
+ * sweep of entries no directory has claimed.
+ *
+ * Memory is bounded by the largest single directory: 16 bytes per live file, plus a sorted
+ * copy of that directory's entries.
+ */
+final class ProcessedFilesReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessedFilesReconciler.class);
+
+    private final FileSystem fileSystem;
+    private final HdfsWatcherProperties properties;
+    private final ProcessedFilesService processedFilesService;
+    private final ShardingService shardingService;
+    private final Predicate<String> watchedSubdirectory;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * @param watchedSubdirectory the poller's include/exclude check for subdirectory names
+     */
+    ProcessedFilesReconciler(FileSystem fileSystem, HdfsWatcherProperties properties,
+                             ProcessedFilesService processedFilesService, ShardingService shardingService,
+                             Predicate<String> watchedSubdirectory) {
+        this.fileSystem = fileSystem;
+        this.properties = properties;
+        this.processedFilesService = processedFilesService;
+        this.shardingService = shardingService;
+        this.watchedSubdirectory = watchedSubdirectory;
+    }
+
+    /**
+     * Starts a round on a virtual thread unless one is still running.
+     */
+    void start() {
+        if (!running.compareAndSet(false, true)) {
+            logger.debug("Previous reconciliation round still running; skipping");
+            return;
+        }
+        Thread.ofVirtual().name("processed-files-reconciler").start(() -> {
+            try {
+                runRound();
+            } catch (Exception e) {
+                logger.error("Processed-files reconciliation failed", e);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    void runRound() {
+        long startNanos = System.nanoTime();
+        long graceMillis = properties.getReconcileGracePeriod() * 1000L;
+        Set<String> visited = new HashSet<>();
+        boolean complete = true;
+        int evicted = 0;
+        for (String hdfsPath : properties.getHdfsPaths()) {
+            Deque<Path> stack = new ArrayDeque<>();
+            stack.push(new Path(hdfsPath.trim()));
+            while (!stack.isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                Path directory = stack.pop();
+                long[] live = list(directory, depthBelow(hdfsPath, directory), stack);
+                if (live == null) {
+                    complete = false;
+                    continue;
+                }
+                String key = directory.toUri().getPath();
+                visited.add(key);
+                evicted += processedFilesService.reconcileDirectory(key, live, graceMillis);
+            }
+        }
+        for (String key : processedFilesService.getPartitionedDirectories()) {
+            if (visited.contains(key)) {
+                continue;
+            }
+            long[] live = list(new Path(key), Integer.MAX_VALUE, null);
+            if (live == null) {
+                complete = false;
+                continue;
+            }
+            evicted += processedFilesService.reconcileDirectory(key, live, graceMillis);
+        }
+        if (complete) {
+            evicted += processedFilesService.sweepUnpartitioned(graceMillis);
+        }
+        logger.info("{} Reconciled {} directories in {} ms: {} entries evicted{}",
+            HdfsWatcherConstants.LOG_PREFIX_RECONCILER, visited.size(), (System.nanoTime() - startNanos) / 1_000_000,
+            evicted, complete ? "" : " (some listings failed; unclaimed entries not swept)");
+    }
+
+    /**
+     * Lists one directory, fingerprinting its files and queueing the subdirectories the
+     * poller would descend into.
+     *
+     * @param subdirectories receives subdirectories to visit, or null to not descend
+     * @return fingerprints of the files as (high, low) pairs, empty if the directory no
+     *         longer exists, or null if the listing failed
+     */
+    private long[] list(Path directory, int depth, Deque<Path> subdirectories) {
+        long[] live = new long[64];
+        int length = 0;
+        try {
+            RemoteIterator<FileStatus> entries = fileSystem.listStatusIterator(directory);
+            while (entries.hasNext()) {
+                FileStatus status = entries.next();
+                if (status.isFile()) {
+                    if (length == live.length) {
+                        live = Arrays.copyOf(live, length * 2);
+                    }
+                    Fingerprint fingerprint = processedFilesService.fingerprintFile(status.getPath().getName(),
+                        status.getLen(), status.getModificationTime());
+                    live[length++] = fingerprint.high();
+                    live[length++] = fingerprint.low();
+                } else if (status.isDirectory() && subdirectories != null && properties.isRecursive()
+                        && depth < properties.getMaxDepth() && watchedSubdirectory.test(status.getPath().getName())
+                        && (depth > 0 || shardingService.owns(status.getPath().toUri().getPath()))) {
+                    subdirectories.push(status.getPath());
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Deleted directory: every entry recorded for it is now missing
+            return new long[0];
+        } catch (IOException e) {
+            logger.warn("{} Could not list {} for reconciliation: {}",
+                HdfsWatcherConstants.LOG_PREFIX_RECONCILER, directory, e.getMessage());
+            return null;
+        }
+        return Arrays.copyOf(live, length);
+    }
+
+    private static int depthBelow(String root, Path directory) {
+        return directory.depth() - new Path(root.trim()).depth();
+    }
+}
@@ -0,0 +1,124 @@
+package com.baskettecase.hdfsWatcher;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounds the number of messages sent but not yet confirmed by the broker.
+ *
+ * {@link #publish} waits for a free slot, starts the send and returns at once with a
+ * future for the broker's answer: true for an ack, false for a nack, or a
+ * {@link TimeoutException} when no answer came within the timeout. The slot is freed when
+ * the answer (or the timeout) arrives. Futures complete on virtual threads, never on the
+ * connection thread that delivered the confirm, so callers may block or publish again in
+ * their continuations.
+ *
+ * Knows nothing about AMQP itself: the send is passed in, so a broker stand-in that acks
+ * or nacks on demand can drive it.
+ */
+final class PublishConfirmWindow {
+
+    /**
+     * Starts one send.
+     */
+    @FunctionalInterface
+    interface ConfirmedSend {
+        /**
+         * @return completes with true when the broker acks the message, false when it nacks it
+         */
+        CompletableFuture<Boolean> start() throws Exception;
+    }
+
+    private final Semaphore slots;
+    private final int window;
+    private final long timeoutMillis;
+    private final ExecutorService callbackExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter acks;
+    private final Counter nacks;
+    private final Counter timeouts;
+    private final Counter errors;
+
+    /**
+     * @param window messages that may await a confirm at once
+     * @param timeoutMillis how long to wait for a confirm before giving up on it
+     */
+    PublishConfirmWindow(int window, long timeoutMillis, MeterRegistry meterRegistry) {
+        this.window = window;
+        this.slots = new Semaphore(window);
+        this.timeoutMillis = timeoutMillis;
+        this.acks = confirmCounter(meterRegistry, "ack");
+        this.nacks = confirmCounter(meterRegistry, "nack");
+        this.timeouts = confirmCounter(meterRegistry, "timeout");
+        this.errors = confirmCounter(meterRegistry, "error");
+        Gauge.builder("hdfswatcher.publish.inflight", this, PublishConfirmWindow::inFlight)
+            .description("Messages sent and still awaiting a broker confirm")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Sends a message once a slot is free.
+     *
+     * @return the broker's answer; completes exceptionally if the send failed or timed out
+     * @throws InterruptedException if interrupted while waiting for a slot; nothing is sent
+     */
+    CompletableFuture<Boolean> publish(ConfirmedSend send) throws InterruptedException {
+        slots.acquire();
+        CompletableFuture<Boolean> confirm;
+        try {
+            confirm = send.start();
+        } catch (Exception e) {
+            slots.release();
+            errors.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+        // A late confirm for a send that timed out is ignored; the message is sent again
+        return confirm.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .whenCompleteAsync((acked, error) -> {
+                slots.release();
+                if (error == null) {
+                    (acked ? acks : nacks).increment();
+                } else if (unwrap(error) instanceof TimeoutException) {
+                    timeouts.increment();
+                } else {
+                    errors.increment();
+                }
+            }, callbackExecutor);
+    }
+
+    /**
+     * Gets the number of messages awaiting a confirm.
+     */
+    int inFlight() {
+        return window - slots.availablePermits();
+    }
+
+    /**
+     * Stops running continuations. Confirms that arrive afterwards are dropped.
+     */
+    void shutdown() {
+        callbackExecutor.shutdownNow();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static Counter confirmCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("hdfswatcher.publish.confirms")
+            .description("Publisher confirms by result; timeout means no answer within publish-confirm-timeout")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,200 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import com.baskettecase.hdfsWatcher.util.UrlUtils;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+
+/**
+ * Lazily pages through a WebHDFS directory with LISTSTATUS_BATCH.
+ *
+ * Each page is requested with the last name of the previous page as the startAfter cursor
+ * and read straight off the response stream with a Jackson {@link JsonParser}, so neither
+ * the response body nor a JSON tree is ever held in memory. Only the entries of the current
+ * page (bounded by the NameNode's dfs.ls.limit) are kept. Entries rejected by the filter are
+ * dropped while parsing but still move the cursor. NameNodes that predate LISTSTATUS_BATCH
+ * answer the first request with 400; the iterator then falls back to a single streamed
+ * LISTSTATUS.
+ *
+ * Records have the same shape as the rest of {@link WebHdfsService}: filename, size,
+ * modificationTime, permission, owner, group and type.
+ */
+final class WebHdfsListingIterator implements Iterator<Map<String, Object>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebHdfsListingIterator.class);
+
+    private final RestTemplate restTemplate;
+    private final JsonFactory jsonFactory;
+    private final String directoryUrl;
+    private final String user;
+    private final BiPredicate<String, String> filter;
+
+    private Iterator<Map<String, Object>> page = Collections.emptyIterator();
+    private String startAfter = "";
+    private boolean lastPage = false;
+    private boolean batchSupported = true;
+    private int pageCount = 0;
+
+    /**
+     * @param restTemplate client used for every page request
+     * @param jsonFactory factory for the streaming parsers
+     * @param directoryUrl WebHDFS URL of the directory, without query string
+     * @param user HDFS user sent as user.name
+     * @param filter called with (type, name) for every entry; false drops the entry
+     */
+    WebHdfsListingIterator(RestTemplate restTemplate, JsonFactory jsonFactory, String directoryUrl,
+                           String user, BiPredicate<String, String> filter) {
+        this.restTemplate = restTemplate;
+        this.jsonFactory = jsonFactory;
+        this.directoryUrl = directoryUrl;
+        this.user = user;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !lastPage) {
+            fetchPage();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    private void fetchPage() {
+        ListingPage result;
+        if (batchSupported) {
+            try {
+                result = request(HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS_BATCH);
+            } catch (HttpClientErrorException.BadRequest e) {
+                if (pageCount > 0) {
+                    throw e;
+                }
+                logger.info("{} LISTSTATUS_BATCH not supported for {}, falling back to LISTSTATUS",
+                    HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, directoryUrl);
+                batchSupported = false;
+                result = request(HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS);
+            }
+        } else {
+            result = request(HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS);
+        }
+        pageCount++;
+        page = result.entries.iterator();
+        lastPage = !batchSupported || result.remainingEntries == 0 || result.lastName == null;
+        startAfter = result.lastName;
+        logger.debug("{} Read page {} of {} ({} entries kept, {} remaining)",
+            HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, pageCount, directoryUrl,
+            result.entries.size(), result.remainingEntries);
+    }
+
+    private ListingPage request(String op) {
+        StringBuilder url = new StringBuilder(directoryUrl)
+            .append("?op=").append(op)
+            .append("&user.name=").append(user);
+        if (HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS_BATCH.equals(op) && !startAfter.isEmpty()) {
+            url.append("&startAfter=").append(UrlUtils.encodePathSegment(startAfter));
+        }
+        ListingPage result = restTemplate.execute(URI.create(url.toString()), HttpMethod.GET, null, this::parsePage);
+        if (result == null) {
+            throw new IllegalStateException("WebHDFS " + op + " returned no body for " + directoryUrl);
+        }
+        return result;
+    }
+
+    /**
+     * Reads one LISTSTATUS or LISTSTATUS_BATCH body. Both nest the entries under a
+     * "FileStatus" array; only the batch form carries "remainingEntries".
+     */
+    private ListingPage parsePage(ClientHttpResponse response) throws IOException {
+        ListingPage result = new ListingPage();
+        try (JsonParser parser = jsonFactory.createParser(response.getBody())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
+                String field = parser.currentName();
+                token = parser.nextToken();
+                if ("FileStatus".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseEntry(parser, result);
+                    }
+                } else if ("remainingEntries".equals(field)) {
+                    result.remainingEntries = parser.getValueAsLong();
+                }
+            }
+        }
+        return result;
+    }
+
+    private void parseEntry(JsonParser parser, ListingPage result) throws IOException {
+        String name = null;
+        String type = null;
+        long length = 0;
+        long modificationTime = 0;
+        String permission = "";
+        String owner = "";
+        String group = "";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "pathSuffix" -> name = parser.getValueAsString();
+                case "type" -> type = parser.getValueAsString();
+                case "length" -> length = parser.getValueAsLong();
+                case "modificationTime" -> modificationTime = parser.getValueAsLong();
+                case "permission" -> permission = parser.getValueAsString("");
+                case "owner" -> owner = parser.getValueAsString("");
+                case "group" -> group = parser.getValueAsString("");
+                default -> parser.skipChildren();
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        result.lastName = name;
+        if (!filter.test(type, name)) {
+            return;
+        }
+        Map<String, Object> fileInfo = new HashMap<>();
+        fileInfo.put("filename", name);
+        fileInfo.put("size", length);
+        fileInfo.put("modificationTime", modificationTime);
+        fileInfo.put("permission", permission);
+        fileInfo.put("owner", owner);
+        fileInfo.put("group", group);
+        fileInfo.put("type", type != null ? type : "");
+        result.entries.add(fileInfo);
+    }
+
+    private static final class ListingPage {
+        private final List<Map<String, Object>> entries = new ArrayList<>();
+        private long remainingEntries = 0;
+        // Last name on the page, kept or not; the cursor for the next page
+        private String lastName;
+    }
+}
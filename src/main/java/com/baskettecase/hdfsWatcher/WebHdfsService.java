@@ -1,5 +1,6 @@
 package com.baskettecase.hdfsWatcher;
 
+import com.baskettecase.hdfsWatcher.service.FileFilterService;
 import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,9 +17,12 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Service for WebHDFS operations with proper logging and validation.
@@ -29,11 +33,13 @@ public class WebHdfsService implements HealthIndicator {
     private static final Logger logger = LoggerFactory.getLogger(WebHdfsService.class);
     
     private final HdfsWatcherProperties properties;
+    private final FileFilterService fileFilterService;
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public WebHdfsService(HdfsWatcherProperties properties) {
+    public WebHdfsService(HdfsWatcherProperties properties, FileFilterService fileFilterService) {
         this.properties = validateProperties(properties);
+        this.fileFilterService = fileFilterService;
         this.restTemplate = new RestTemplate();
         logger.info("WebHdfsService initialized with WebHDFS URI: {}", 
             this.properties.getWebhdfsUri());
@@ -49,36 +55,15 @@ public class WebHdfsService implements HealthIndicator {
     public List<String> listFiles() {
         validateConfiguration();
         
-        String baseUrl = properties.getWebhdfsUri();
         String hdfsPath = properties.getHdfsPath();
-        String user = properties.getHdfsUser();
-        
-        // Normalize URLs
-        baseUrl = baseUrl.replaceAll("/+$", "");
-        if (!hdfsPath.startsWith("/")) {
-            hdfsPath = "/" + hdfsPath;
-        }
-        
-        String url = String.format("%s%s%s?op=%s&user.name=%s", 
-            baseUrl, 
-            HdfsWatcherConstants.WEBHDFS_PATH,
-            hdfsPath, 
-            HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS, 
-            user);
-        
-        logger.debug("{} Listing files from URL: {}", HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, url);
-        
         try {
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            
-            if (response.getStatusCode().is2xxSuccessful()) {
-                List<String> files = parseFileListResponse(response.getBody());
-                logger.info("Successfully listed {} files from WebHDFS path: {}", files.size(), hdfsPath);
-                return files;
-            } else {
-                logger.error("WebHDFS LISTSTATUS failed with status: {}", response.getStatusCode());
-                throw new RuntimeException("WebHDFS LISTSTATUS failed: " + response.getStatusCode());
+            List<String> files = new ArrayList<>();
+            Iterator<Map<String, Object>> entries = iterateFilesWithDetails(hdfsPath);
+            while (entries.hasNext()) {
+                files.add((String) entries.next().get("filename"));
             }
+            logger.info("Successfully listed {} files from WebHDFS path: {}", files.size(), hdfsPath);
+            return files;
         } catch (Exception e) {
             logger.error("Failed to list files from WebHDFS path: {}", hdfsPath, e);
             throw new RuntimeException("Failed to list files from WebHDFS", e);
@@ -87,43 +72,16 @@ public class WebHdfsService implements HealthIndicator {
 
     /**
      * Lists files with detailed metadata from multiple WebHDFS directories.
+     * Holds every entry in memory; prefer {@link #iterateFilesWithDetailsFromMultipleDirectories()}
+     * for large directories.
      * 
      * @return list of file details with metadata and source directory
      * @throws IllegalStateException if configuration is invalid
      * @throws RuntimeException if WebHDFS operation fails
      */
     public List<Map<String, Object>> listFilesWithDetailsFromMultipleDirectories() {
-        validateConfiguration();
-        
         List<Map<String, Object>> allFileDetails = new ArrayList<>();
-        
-        for (String hdfsPath : properties.getHdfsPaths()) {
-            try {
-                List<Map<String, Object>> directoryFiles = listFilesWithDetailsFromDirectory(hdfsPath);
-                
-                // Add source directory information to each file
-                for (Map<String, Object> file : directoryFiles) {
-                    // Extract just the directory name (e.g., "policies" from "/policies")
-                    String sourceDir = hdfsPath;
-                    if (sourceDir.startsWith("/")) {
-                        sourceDir = sourceDir.substring(1);
-                    }
-                    if (sourceDir.isEmpty()) {
-                        sourceDir = "root";
-                    }
-                    file.put("source", sourceDir);
-                }
-                
-                allFileDetails.addAll(directoryFiles);
-                logger.debug("{} Added {} files from directory: {}", 
-                    HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, directoryFiles.size(), hdfsPath);
-                    
-            } catch (Exception e) {
-                logger.error("{} Failed to list files from directory: {}", 
-                    HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, hdfsPath, e);
-                // Continue with other directories even if one fails
-            }
-        }
+        iterateFilesWithDetailsFromMultipleDirectories().forEachRemaining(allFileDetails::add);
         
         logger.info("{} Successfully listed {} total files from {} directories", 
             HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, allFileDetails.size(), properties.getHdfsPaths().size());
@@ -132,50 +90,38 @@ public class WebHdfsService implements HealthIndicator {
     }
     
     /**
-     * Lists files with detailed metadata from a specific WebHDFS directory.
+     * Iterates files with detailed metadata from every configured WebHDFS directory, one
+     * LISTSTATUS_BATCH page at a time. Each record carries a "source" entry naming its
+     * directory. A directory that fails to list is logged and skipped, like in
+     * {@link #listFilesWithDetailsFromMultipleDirectories()}.
+     * 
+     * @return a lazy iterator over file details; memory use is bounded by one page
+     * @throws IllegalStateException if configuration is invalid
+     */
+    public Iterator<Map<String, Object>> iterateFilesWithDetailsFromMultipleDirectories() {
+        validateConfiguration();
+        return new MultiDirectoryIterator(properties.getHdfsPaths().iterator());
+    }
+    
+    /**
+     * Iterates files with detailed metadata from a specific WebHDFS directory, one
+     * LISTSTATUS_BATCH page at a time. Files rejected by the directory's file filter are
+     * dropped while the page is parsed.
      * 
      * @param hdfsPath the HDFS directory path to list
-     * @return list of file details with metadata
-     * @throws RuntimeException if WebHDFS operation fails
+     * @return a lazy iterator over file details; memory use is bounded by one page
+     * @throws RuntimeException from hasNext() if a WebHDFS page request fails
      */
-    private List<Map<String, Object>> listFilesWithDetailsFromDirectory(String hdfsPath) {
-        String baseUrl = properties.getWebhdfsUri();
-        String user = properties.getHdfsUser();
-        
-        // Normalize URLs
-        baseUrl = baseUrl.replaceAll("/+$", "");
-        if (!hdfsPath.startsWith("/")) {
-            hdfsPath = "/" + hdfsPath;
-        }
-        
-        String url = String.format("%s%s%s?op=%s&user.name=%s", 
-            baseUrl, 
-            HdfsWatcherConstants.WEBHDFS_PATH,
-            hdfsPath, 
-            HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS, 
-            user);
+    public Iterator<Map<String, Object>> iterateFilesWithDetails(String hdfsPath) {
+        String baseUrl = properties.getWebhdfsUri().replaceAll("/+$", "");
+        String normalizedPath = hdfsPath.startsWith("/") ? hdfsPath : "/" + hdfsPath;
+        String directoryUrl = baseUrl + HdfsWatcherConstants.WEBHDFS_PATH + normalizedPath;
         
         logger.debug("{} Listing files with details from directory: {} URL: {}", 
-            HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, hdfsPath, url);
+            HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, normalizedPath, directoryUrl);
         
-        try {
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            
-            if (response.getStatusCode().is2xxSuccessful()) {
-                List<Map<String, Object>> fileDetails = parseFileListWithDetailsResponse(response.getBody());
-                logger.debug("{} Successfully listed {} files from directory: {}", 
-                    HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, fileDetails.size(), hdfsPath);
-                return fileDetails;
-            } else {
-                logger.error("{} WebHDFS LISTSTATUS failed for directory {} with status: {}", 
-                    HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, hdfsPath, response.getStatusCode());
-                throw new RuntimeException("WebHDFS LISTSTATUS failed: " + response.getStatusCode());
-            }
-        } catch (Exception e) {
-            logger.error("{} Failed to list files from directory: {}", 
-                HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, hdfsPath, e);
-            throw new RuntimeException("Failed to list files from directory: " + hdfsPath, e);
-        }
+        return new WebHdfsListingIterator(restTemplate, objectMapper.getFactory(), directoryUrl,
+            properties.getHdfsUser(), (type, filename) -> isAccepted(hdfsPath, type, filename));
     }
 
     /**
@@ -251,49 +197,10 @@ public class WebHdfsService implements HealthIndicator {
     }
     
     /**
-     * Parses the WebHDFS file list response.
-     */
-    private List<String> parseFileListResponse(String responseBody) throws IOException {
-        JsonNode root = objectMapper.readTree(responseBody);
-        List<String> files = new ArrayList<>();
-        
-        JsonNode fileStatuses = root.path("FileStatuses").path("FileStatus");
-        for (JsonNode fileNode : fileStatuses) {
-            String filename = fileNode.path("pathSuffix").asText();
-            if (filename != null && !filename.isEmpty()) {
-                files.add(filename);
-            }
-        }
-        
-        return files;
-    }
-
-    /**
-     * Parses the WebHDFS file list response with detailed metadata.
+     * Applies the directory's file filter to FILE entries; directories are always kept.
      */
-    private List<Map<String, Object>> parseFileListWithDetailsResponse(String responseBody) throws IOException {
-        JsonNode root = objectMapper.readTree(responseBody);
-        List<Map<String, Object>> fileDetails = new ArrayList<>();
-        
-        JsonNode fileStatuses = root.path("FileStatuses").path("FileStatus");
-        for (JsonNode fileNode : fileStatuses) {
-            Map<String, Object> fileInfo = new HashMap<>();
-            
-            String filename = fileNode.path("pathSuffix").asText();
-            if (filename != null && !filename.isEmpty()) {
-                fileInfo.put("filename", filename);
-                fileInfo.put("size", fileNode.path("length").asLong());
-                fileInfo.put("modificationTime", fileNode.path("modificationTime").asLong());
-                fileInfo.put("permission", fileNode.path("permission").asText());
-                fileInfo.put("owner", fileNode.path("owner").asText());
-                fileInfo.put("group", fileNode.path("group").asText());
-                fileInfo.put("type", fileNode.path("type").asText());
-                
-                fileDetails.add(fileInfo);
-            }
-        }
-        
-        return fileDetails;
+    private boolean isAccepted(String directory, String type, String filename) {
+        return !"FILE".equals(type) || fileFilterService.accept(directory, filename);
     }
 
     /**
@@ -507,7 +414,7 @@ public class WebHdfsService implements HealthIndicator {
             if (properties.isPseudoop()) {
                 return Health.up().withDetail("mode", "pseudoop").build();
             }
-            // Attempt a lightweight LISTSTATUS to check connectivity
+            // GETFILESTATUS on the directory checks connectivity without listing it
             validateConfiguration();
             String baseUrl = properties.getWebhdfsUri();
             String hdfsPath = properties.getHdfsPath();
@@ -517,7 +424,7 @@ public class WebHdfsService implements HealthIndicator {
                 hdfsPath = "/" + hdfsPath;
             }
             String url = String.format("%s%s%s?op=%s&user.name=%s",
-                baseUrl, HdfsWatcherConstants.WEBHDFS_PATH, hdfsPath, HdfsWatcherConstants.WEBHDFS_OP_LISTSTATUS, user);
+                baseUrl, HdfsWatcherConstants.WEBHDFS_PATH, hdfsPath, HdfsWatcherConstants.WEBHDFS_OP_GETFILESTATUS, user);
             ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
             if (response.getStatusCode().is2xxSuccessful()) {
                 return Health.up().withDetail("webhdfs", "reachable").build();
@@ -527,4 +434,54 @@ public class WebHdfsService implements HealthIndicator {
             return Health.down(e).build();
         }
     }
+
+    /**
+     * Chains the per-directory listings and tags each record with its source directory.
+     */
+    private final class MultiDirectoryIterator implements Iterator<Map<String, Object>> {
+        private final Iterator<String> directories;
+        private String currentPath;
+        private String currentSource;
+        private Iterator<Map<String, Object>> current = Collections.emptyIterator();
+        
+        private MultiDirectoryIterator(Iterator<String> directories) {
+            this.directories = directories;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                try {
+                    if (current.hasNext()) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    logger.error("{} Failed to list files from directory: {}", 
+                        HdfsWatcherConstants.LOG_PREFIX_WEBHDFS_SERVICE, currentPath, e);
+                    // Continue with other directories even if one fails
+                    current = Collections.emptyIterator();
+                }
+                if (!directories.hasNext()) {
+                    return false;
+                }
+                currentPath = directories.next();
+                // Extract just the directory name (e.g., "policies" from "/policies")
+                currentSource = currentPath.startsWith("/") ? currentPath.substring(1) : currentPath;
+                if (currentSource.isEmpty()) {
+                    currentSource = "root";
+                }
+                current = iterateFilesWithDetails(currentPath);
+            }
+        }
+        
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map<String, Object> file = current.next();
+            file.put("source", currentSource);
+            return file;
+        }
+    }
 }
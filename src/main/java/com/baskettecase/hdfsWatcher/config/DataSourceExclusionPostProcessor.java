@@ -0,0 +1,45 @@
+package com.baskettecase.hdfsWatcher.config;
+
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps Spring Boot from creating a DataSource unless hdfswatcher.dedup-backend=jdbc.
+ *
+ * spring-boot-starter-jdbc and H2 are on the classpath for the jdbc backend, so without
+ * this every deployment would start a Hikari pool on an embedded database and report a
+ * db health indicator, although only the jdbc backend uses them. Exclusions the user set
+ * in spring.autoconfigure.exclude are kept.
+ */
+public class DataSourceExclusionPostProcessor implements EnvironmentPostProcessor {
+
+    static final String PROPERTY_SOURCE_NAME = "hdfswatcherDataSourceExclusion";
+    private static final String EXCLUDE_PROPERTY = "spring.autoconfigure.exclude";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        String backend = Binder.get(environment)
+            .bind("hdfswatcher.dedup-backend", String.class)
+            .orElse(HdfsWatcherConstants.DEFAULT_DEDUP_BACKEND);
+        if (HdfsWatcherConstants.DEDUP_BACKEND_JDBC.equals(backend)) {
+            return;
+        }
+        // Bound as a list so comma-separated and indexed exclusions are both carried over
+        List<String> exclusions = new ArrayList<>(Binder.get(environment)
+            .bind(EXCLUDE_PROPERTY, Bindable.listOf(String.class))
+            .orElse(List.of()));
+        exclusions.add(DataSourceAutoConfiguration.class.getName());
+        environment.getPropertySources().addFirst(new MapPropertySource(PROPERTY_SOURCE_NAME,
+            Map.of(EXCLUDE_PROPERTY, String.join(",", exclusions))));
+    }
+}
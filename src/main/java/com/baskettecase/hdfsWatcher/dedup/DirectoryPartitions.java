@@ -0,0 +1,271 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Processed fingerprints grouped by the directory their file was found in, so that the
+ * entries for deleted files can be found by comparing one directory listing at a time.
+ *
+ * A reconciliation sorts the fingerprints of a directory's live files and merges them
+ * with the sorted entries of its partition:
+ * <ul>
+ *   <li>an entry with a live file stays;</li>
+ *   <li>an entry without one becomes a candidate, and is evicted once it has been missing
+ *       for the grace period on every reconciliation since;</li>
+ *   <li>a live file that is processed but in no partition (for example, recovered from the
+ *       journal after a restart) is adopted into the partition.</li>
+ * </ul>
+ * Entries that stay in no partition after a full round are swept the same way by
+ * {@link #sweepUnpartitioned}.
+ *
+ * Partitions are kept in memory only and rebuilt by adoption after a restart. Each
+ * partition is guarded by its own monitor.
+ */
+public final class DirectoryPartitions {
+
+    /**
+     * Exact membership test for a fingerprint, e.g. the processed set.
+     */
+    @FunctionalInterface
+    public interface Lookup {
+        boolean contains(long high, long low);
+    }
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    // Unpartitioned entries seen by the last sweep, with the time they were first seen
+    private Map<Fingerprint, Long> unpartitionedSince = new HashMap<>();
+
+    /**
+     * Records that a processed fingerprint belongs to a directory.
+     */
+    public void add(String directory, long high, long low) {
+        while (true) {
+            Partition partition = partitions.computeIfAbsent(directory, d -> new Partition());
+            synchronized (partition) {
+                // A reconciliation may have dropped the partition after we looked it up
+                if (!partition.removed) {
+                    partition.entries.add(high, low);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every partition, e.g. after the processed set was cleared.
+     */
+    public void clear() {
+        partitions.clear();
+        synchronized (this) {
+            unpartitionedSince = new HashMap<>();
+        }
+    }
+
+    /**
+     * @return the directories that currently have a partition
+     */
+    public Set<String> directories() {
+        return Set.copyOf(partitions.keySet());
+    }
+
+    /**
+     * Checks whether any partition holds a fingerprint. Files with the same name, size and
+     * mtime in two directories share a fingerprint, so an entry evicted from one partition
+     * may still be needed by another.
+     */
+    public boolean isPartitioned(long high, long low) {
+        for (Partition partition : partitions.values()) {
+            synchronized (partition) {
+                if (partition.entries.contains(high, low)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int partitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Gets the number of partitioned entries.
+     */
+    public long size() {
+        long size = 0;
+        for (Partition partition : partitions.values()) {
+            synchronized (partition) {
+                size += partition.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Merges a directory's live files with its partition.
+     *
+     * @param directory the directory that was listed
+     * @param live fingerprints of every file in the directory as (high, low) pairs, in any
+     *             order; sorted in place. Empty if the directory no longer exists
+     * @param nowMillis the time of the listing
+     * @param graceMillis how long an entry must be missing before it is evicted
+     * @param stored processed-set lookup used to adopt live, unpartitioned files
+     * @return the fingerprints evicted from the partition as (high, low) pairs; the caller
+     *         removes those that are not {@link #isPartitioned partitioned} elsewhere from
+     *         the processed set
+     */
+    public long[] reconcile(String directory, long[] live, long nowMillis, long graceMillis, Lookup stored) {
+        ProcessedFilesJournal.sortPairs(live);
+        long[] entries = new long[0];
+        Map<Fingerprint, Long> previouslyMissing = Map.of();
+        Partition existing = partitions.get(directory);
+        if (existing != null) {
+            synchronized (existing) {
+                entries = existing.entries.snapshot().packed();
+                previouslyMissing = existing.missingSince;
+            }
+            ProcessedFilesJournal.sortPairs(entries);
+        }
+
+        Map<Fingerprint, Long> missing = new HashMap<>();
+        long[] evicted = new long[16];
+        int evictedCount = 0;
+        long[] adopted = new long[16];
+        int adoptedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < entries.length || j < live.length) {
+            int order = i >= entries.length ? 1
+                : j >= live.length ? -1
+                : ProcessedFilesJournal.compare(entries[i], entries[i + 1], live[j], live[j + 1]);
+            if (order == 0) {
+                i += 2;
+                j += 2;
+            } else if (order < 0) {
+                // Partitioned, but its file is gone
+                Fingerprint fingerprint = new Fingerprint(entries[i], entries[i + 1]);
+                long since = previouslyMissing.getOrDefault(fingerprint, nowMillis);
+                if (nowMillis - since >= graceMillis) {
+                    evicted = append(evicted, evictedCount, entries[i], entries[i + 1]);
+                    evictedCount += 2;
+                } else {
+                    missing.put(fingerprint, since);
+                }
+                i += 2;
+            } else {
+                // Live file without a partition entry; adopt it if it was processed
+                if (stored.contains(live[j], live[j + 1])) {
+                    adopted = append(adopted, adoptedCount, live[j], live[j + 1]);
+                    adoptedCount += 2;
+                }
+                j += 2;
+            }
+        }
+
+        if (existing != null || adoptedCount > 0) {
+            apply(directory, evicted, evictedCount, adopted, adoptedCount, missing);
+        }
+        return Arrays.copyOf(evicted, evictedCount);
+    }
+
+    /**
+     * Finds processed entries that belong to no partition. Only meaningful right after
+     * every watched directory was reconciled, since those adopt all live files.
+     *
+     * @param stored snapshot of the processed set
+     * @param nowMillis the time of the sweep
+     * @param graceMillis how long an entry must stay unpartitioned before it is evicted
+     * @return the evicted fingerprints as (high, low) pairs
+     */
+    public synchronized long[] sweepUnpartitioned(FingerprintSet.Snapshot stored, long nowMillis, long graceMillis) {
+        long[] all = stored.packed();
+        ProcessedFilesJournal.sortPairs(all);
+        long[] partitioned = sortedUnion();
+
+        Map<Fingerprint, Long> unpartitioned = new HashMap<>();
+        long[] evicted = new long[16];
+        int evictedCount = 0;
+        int j = 0;
+        for (int i = 0; i < all.length; i += 2) {
+            while (j < partitioned.length
+                    && ProcessedFilesJournal.compare(partitioned[j], partitioned[j + 1], all[i], all[i + 1]) < 0) {
+                j += 2;
+            }
+            if (j < partitioned.length && partitioned[j] == all[i] && partitioned[j + 1] == all[i + 1]) {
+                continue;
+            }
+            Fingerprint fingerprint = new Fingerprint(all[i], all[i + 1]);
+            long since = unpartitionedSince.getOrDefault(fingerprint, nowMillis);
+            if (nowMillis - since >= graceMillis) {
+                evicted = append(evicted, evictedCount, all[i], all[i + 1]);
+                evictedCount += 2;
+            } else {
+                unpartitioned.put(fingerprint, since);
+            }
+        }
+        unpartitionedSince = unpartitioned;
+        return Arrays.copyOf(evicted, evictedCount);
+    }
+
+    private void apply(String directory, long[] evicted, int evictedCount, long[] adopted, int adoptedCount,
+                       Map<Fingerprint, Long> missing) {
+        while (true) {
+            Partition partition = partitions.computeIfAbsent(directory, d -> new Partition());
+            synchronized (partition) {
+                if (partition.removed) {
+                    continue;
+                }
+                for (int k = 0; k < evictedCount; k += 2) {
+                    partition.entries.remove(evicted[k], evicted[k + 1]);
+                }
+                for (int k = 0; k < adoptedCount; k += 2) {
+                    partition.entries.add(adopted[k], adopted[k + 1]);
+                }
+                partition.missingSince = missing;
+                if (partition.entries.isEmpty()) {
+                    partition.removed = true;
+                    partitions.remove(directory, partition);
+                }
+                return;
+            }
+        }
+    }
+
+    private long[] sortedUnion() {
+        long[] union = new long[0];
+        int length = 0;
+        for (Partition partition : partitions.values()) {
+            synchronized (partition) {
+                long[] packed = partition.entries.snapshot().packed();
+                if (length + packed.length > union.length) {
+                    union = Arrays.copyOf(union, Math.max(length + packed.length, union.length * 2));
+                }
+                System.arraycopy(packed, 0, union, length, packed.length);
+                length += packed.length;
+            }
+        }
+        union = Arrays.copyOf(union, length);
+        ProcessedFilesJournal.sortPairs(union);
+        return union;
+    }
+
+    private static long[] append(long[] packed, int length, long high, long low) {
+        if (length + 2 > packed.length) {
+            packed = Arrays.copyOf(packed, packed.length * 2);
+        }
+        packed[length] = high;
+        packed[length + 1] = low;
+        return packed;
+    }
+
+    private static final class Partition {
+        private final FingerprintSet entries = new FingerprintSet();
+        // Entries whose file was missing from the last listing, with the time it first was
+        private Map<Fingerprint, Long> missingSince = new HashMap<>();
+        private boolean removed;
+    }
+}
@@ -0,0 +1,101 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 128-bit file fingerprint, the unit stored by {@link FingerprintSet}.
+ *
+ * File hashes are hex strings. The first 32 hex digits (128 bits) of a hash become the
+ * fingerprint, so a full 64-digit SHA-256 hash and its 32-digit prefix name the same file.
+ * Strings that are not hex are digested first. {@link FingerprintEngine}s produce
+ * fingerprints directly from file metadata.
+ *
+ * @param high the first 64 bits
+ * @param low the second 64 bits
+ */
+public record Fingerprint(long high, long low) {
+
+    private static final int HEX_DIGITS = 32;
+
+    /**
+     * Converts a file hash into a fingerprint.
+     *
+     * @param hash the file hash
+     * @return the fingerprint
+     * @throws IllegalArgumentException if hash is null or empty
+     */
+    public static Fingerprint fromHash(String hash) {
+        if (hash == null || hash.isEmpty()) {
+            throw new IllegalArgumentException("File hash cannot be null or empty");
+        }
+        if (hash.length() >= HEX_DIGITS && isHex(hash)) {
+            return new Fingerprint(Long.parseUnsignedLong(hash, 0, 16, 16),
+                Long.parseUnsignedLong(hash, 16, 32, 16));
+        }
+        return fromBytes(sha256(hash));
+    }
+
+    /**
+     * Reads a fingerprint from the first 16 bytes of a digest.
+     *
+     * @param digest at least 16 bytes
+     * @return the fingerprint
+     */
+    public static Fingerprint fromBytes(byte[] digest) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (digest[i] & 0xff);
+            low = (low << 8) | (digest[i + 8] & 0xff);
+        }
+        return new Fingerprint(high, low);
+    }
+
+    /**
+     * Formats the fingerprint as 32 lowercase hex digits.
+     *
+     * @return the hex form
+     */
+    public String toHex() {
+        return toHex(high, low);
+    }
+
+    /**
+     * Returns the hex form, so fingerprints can be passed to log statements as they are.
+     */
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    /**
+     * Formats a fingerprint given as two longs as 32 lowercase hex digits.
+     */
+    public static String toHex(long high, long low) {
+        char[] chars = new char[HEX_DIGITS];
+        for (int i = 0; i < 16; i++) {
+            chars[15 - i] = Character.forDigit((int) (high >>> (i * 4)) & 0xf, 16);
+            chars[31 - i] = Character.forDigit((int) (low >>> (i * 4)) & 0xf, 16);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isHex(String hash) {
+        for (int i = 0; i < HEX_DIGITS; i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    }
+}
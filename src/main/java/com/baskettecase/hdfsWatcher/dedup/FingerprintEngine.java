@@ -0,0 +1,56 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+/**
+ * Computes the 128-bit {@link Fingerprint} that identifies a version of a file from its
+ * name, size and modification time.
+ *
+ * Engines are stateless from the caller's point of view and safe to share; any scratch
+ * state they need is kept per thread. Switching engines changes every fingerprint, so
+ * files that were processed under the old engine are sent once more.
+ */
+public interface FingerprintEngine {
+
+    String SHA256 = "sha256";
+    String MURMUR3 = "murmur3";
+
+    /**
+     * @return the engine's configuration name
+     */
+    String name();
+
+    /**
+     * Computes the fingerprint of a file version.
+     *
+     * @param filename the file name
+     * @param fileSize the file size in bytes
+     * @param modificationTime the file modification time
+     * @return the fingerprint
+     */
+    Fingerprint fingerprint(String filename, long fileSize, long modificationTime);
+
+    /**
+     * Computes the hex hash exposed by the API for a file version. Defaults to the
+     * fingerprint's 32 hex digits.
+     */
+    default String hash(String filename, long fileSize, long modificationTime) {
+        return fingerprint(filename, fileSize, modificationTime).toHex();
+    }
+
+    /**
+     * Looks up an engine by its configuration name.
+     *
+     * @param name sha256 or murmur3
+     * @return the engine
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static FingerprintEngine forName(String name) {
+        if (SHA256.equalsIgnoreCase(name)) {
+            return new Sha256FingerprintEngine();
+        }
+        if (MURMUR3.equalsIgnoreCase(name)) {
+            return new Murmur3FingerprintEngine();
+        }
+        throw new IllegalArgumentException(
+            String.format("Unknown fingerprint algorithm '%s'; expected '%s' or '%s'", name, SHA256, MURMUR3));
+    }
+}
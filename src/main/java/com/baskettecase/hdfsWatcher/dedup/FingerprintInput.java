@@ -0,0 +1,104 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per-thread byte buffer that fingerprint engines encode their input into, so hashing a
+ * file does not build intermediate strings or byte arrays.
+ */
+final class FingerprintInput {
+
+    private static final ThreadLocal<FingerprintInput> CURRENT = ThreadLocal.withInitial(FingerprintInput::new);
+
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    static FingerprintInput current() {
+        FingerprintInput input = CURRENT.get();
+        input.length = 0;
+        return input;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of a string. ASCII is encoded in place; anything else
+     * falls back to the JDK encoder.
+     */
+    FingerprintInput appendUtf8(String value) {
+        int n = value.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Discard the partial ASCII copy; length has not moved yet
+                return appendBytes(value.getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[length + i] = (byte) c;
+        }
+        length += n;
+        return this;
+    }
+
+    FingerprintInput appendByte(byte value) {
+        ensure(1);
+        bytes[length++] = value;
+        return this;
+    }
+
+    /**
+     * Appends the decimal digits of a value, as {@link Long#toString(long)} would.
+     */
+    FingerprintInput appendDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return appendUtf8(Long.toString(value));
+        }
+        ensure(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            bytes[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = tmp;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a value as 8 little-endian bytes.
+     */
+    FingerprintInput appendLong(long value) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[length++] = (byte) (value >>> (8 * i));
+        }
+        return this;
+    }
+
+    private FingerprintInput appendBytes(byte[] value) {
+        ensure(value.length);
+        System.arraycopy(value, 0, bytes, length, value.length);
+        length += value.length;
+        return this;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+/**
+ * Open-addressing hash set of 128-bit fingerprints stored in two parallel long arrays.
+ *
+ * Slot i holds one fingerprint as (highs[i], lows[i]); (0, 0) marks an empty slot, and the
+ * real fingerprint (0, 0) is tracked by a separate flag. Collisions are resolved with
+ * linear probing and removal shifts the following entries back, so there are no
+ * tombstones and lookups never slow down after many removals. The table doubles when it
+ * is more than three quarters full.
+ *
+ * Memory is 16 bytes per slot. Between resizes the table is 3/8 to 3/4 full, which gives:
+ * <pre>
+ *   entries   slots    table      bytes/entry
+ *   1M        2^21     32 MiB     33.6
+ *   10M       2^24     256 MiB    26.8
+ *   50M       2^26     1 GiB      21.5
+ * </pre>
+ * A resize briefly holds the old and the new table. For comparison, a concurrent set of
+ * 64-character hex strings costs about 150 bytes per entry (String, byte[] and map node).
+ *
+ * Not thread-safe; callers synchronize. {@link StripedFingerprintSet} is the locked,
+ * concurrent form.
+ */
+public final class FingerprintSet {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] highs;
+    private long[] lows;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsZero;
+
+    /**
+     * Creates a set sized for the expected number of entries.
+     *
+     * @param expectedSize entries the set should hold without resizing
+     */
+    public FingerprintSet(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    public FingerprintSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @return true if the fingerprint is in the set
+     */
+    public boolean contains(long high, long low) {
+        if ((high | low) == 0) {
+            return containsZero;
+        }
+        int slot = slot(high, low);
+        while (true) {
+            long h = highs[slot];
+            long l = lows[slot];
+            if ((h | l) == 0) {
+                return false;
+            }
+            if (h == high && l == low) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return true if the fingerprint was added, false if it was already present
+     */
+    public boolean add(long high, long low) {
+        if ((high | low) == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = slot(high, low);
+        while (true) {
+            long h = highs[slot];
+            long l = lows[slot];
+            if ((h | l) == 0) {
+                break;
+            }
+            if (h == high && l == low) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        highs[slot] = high;
+        lows[slot] = low;
+        if (++size > resizeThreshold) {
+            resize(highs.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the fingerprint was removed, false if it was not present
+     */
+    public boolean remove(long high, long low) {
+        if ((high | low) == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int slot = slot(high, low);
+        while (true) {
+            long h = highs[slot];
+            long l = lows[slot];
+            if ((h | l) == 0) {
+                return false;
+            }
+            if (h == high && l == low) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    public boolean contains(Fingerprint fingerprint) {
+        return contains(fingerprint.high(), fingerprint.low());
+    }
+
+    public boolean add(Fingerprint fingerprint) {
+        return add(fingerprint.high(), fingerprint.low());
+    }
+
+    public boolean remove(Fingerprint fingerprint) {
+        return remove(fingerprint.high(), fingerprint.low());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry and shrinks the table back to its minimum size.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        containsZero = false;
+    }
+
+    /**
+     * Grows the table so it can hold the given number of entries without resizing.
+     *
+     * @param expectedSize entries the set should hold
+     */
+    public void ensureCapacity(int expectedSize) {
+        int needed = capacityFor(expectedSize);
+        if (needed > highs.length) {
+            resize(needed);
+        }
+    }
+
+    /**
+     * Gets the number of slots in the table.
+     */
+    public int capacity() {
+        return highs.length;
+    }
+
+    /**
+     * Gets the heap used by the table arrays.
+     *
+     * @return bytes held by the two slot arrays
+     */
+    public long memoryBytes() {
+        return 2L * Long.BYTES * highs.length;
+    }
+
+    /**
+     * Copies the current entries into a packed array. The copy is independent of the set,
+     * so it can be iterated without holding the caller's lock.
+     *
+     * @return a cursor over the entries at the time of the call
+     */
+    public Snapshot snapshot() {
+        long[] packed = new long[2 * size];
+        copyTo(packed, 0);
+        return new Snapshot(packed);
+    }
+
+    /**
+     * Writes every entry as a (high, low) pair into an array.
+     *
+     * @param packed destination with room for 2 * size() longs from offset
+     * @param offset index of the first long to write
+     * @return the index after the last long written
+     */
+    int copyTo(long[] packed, int offset) {
+        int n = offset;
+        if (containsZero) {
+            n += 2;
+        }
+        for (int i = 0; i < highs.length; i++) {
+            if ((highs[i] | lows[i]) != 0) {
+                packed[n++] = highs[i];
+                packed[n++] = lows[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Removes the entry at a slot and moves later entries of the same probe run back into
+     * the gap, so every remaining entry stays reachable from its home slot.
+     */
+    private void shiftBack(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long h = highs[slot];
+            long l = lows[slot];
+            if ((h | l) == 0) {
+                break;
+            }
+            int home = slot(h, l);
+            // Move the entry unless its home lies cyclically in (gap, slot]
+            boolean reachable = gap <= slot
+                ? gap < home && home <= slot
+                : gap < home || home <= slot;
+            if (!reachable) {
+                highs[gap] = h;
+                lows[gap] = l;
+                gap = slot;
+            }
+        }
+        highs[gap] = 0;
+        lows[gap] = 0;
+    }
+
+    private void resize(int newCapacity) {
+        if (highs.length == MAX_CAPACITY) {
+            throw new IllegalStateException("FingerprintSet cannot grow beyond " + MAX_CAPACITY + " slots");
+        }
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        allocate(newCapacity);
+        for (int i = 0; i < oldHighs.length; i++) {
+            long h = oldHighs[i];
+            long l = oldLows[i];
+            if ((h | l) != 0) {
+                int slot = slot(h, l);
+                while ((highs[slot] | lows[slot]) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                highs[slot] = h;
+                lows[slot] = l;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * 3L / 4);
+    }
+
+    private int slot(long high, long low) {
+        // Fingerprints are already well mixed; the extra step protects against weak hash engines
+        long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = Math.max(MIN_CAPACITY, (expectedSize * 4L + 2) / 3);
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Expected size too large: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    /**
+     * Point-in-time copy of a {@link FingerprintSet}, read with {@link #next()}.
+     */
+    public static final class Snapshot {
+        private final long[] packed;
+        private int position = -2;
+
+        Snapshot(long[] packed) {
+            this.packed = packed;
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return false when there are no more entries
+         */
+        public boolean next() {
+            if (position + 2 >= packed.length) {
+                return false;
+            }
+            position += 2;
+            return true;
+        }
+
+        public long high() {
+            return packed[position];
+        }
+
+        public long low() {
+            return packed[position + 1];
+        }
+
+        public int size() {
+            return packed.length / 2;
+        }
+
+        // Raw (high, low) pairs, for writing snapshots
+        long[] packed() {
+            return packed;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Processed-files store in a relational database, shared by every replica that points at
+ * the same table. Uses the application's DataSource (spring.datasource.*); without a URL
+ * Spring Boot starts an embedded H2 database, which is only useful for trying it out.
+ *
+ * Each file is one row keyed by its fingerprint, in one of two states:
+ * <ul>
+ *   <li>C, claimed: a replica is sending the file. A claim is taken with a plain insert, so
+ *       when two replicas race on the same file the primary key lets exactly one of them
+ *       win. A claim older than hdfswatcher.dedup-claim-timeout, left behind by a replica
+ *       that died mid-send, may be taken over by a conditional update.</li>
+ *   <li>P, processed: the file was sent.</li>
+ * </ul>
+ *
+ * Marks are buffered in memory and written in one JDBC batch per
+ * hdfswatcher.dedup-jdbc-batch-size marks, or on the next sync. The claim row stays
+ * until then, so other replicas still skip the file. Lookups for a whole poll go through
+ * {@link #containsAll}, which asks for up to a batch of fingerprints per query.
+ */
+@Component
+@ConditionalOnProperty(prefix = "hdfswatcher", name = "dedup-backend", havingValue = "jdbc")
+public class JdbcProcessedFilesStore implements ProcessedFilesStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcProcessedFilesStore.class);
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+    private static final int MAX_OWNER_LENGTH = 128;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String owner;
+    private final int batchSize;
+    private final long claimTimeoutMillis;
+    // Marks not yet written; guarded by its own monitor
+    private final FingerprintSet pending = new FingerprintSet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long processedCount;
+    private volatile long countedAt;
+
+    public JdbcProcessedFilesStore(JdbcTemplate jdbcTemplate, HdfsWatcherProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = properties.getDedupJdbcTable();
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("hdfswatcher.dedup-jdbc-table must be a plain [schema.]table name: " + table);
+        }
+        this.batchSize = properties.getDedupJdbcBatchSize();
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("hdfswatcher.dedup-jdbc-batch-size must be at least 1");
+        }
+        if (properties.getDedupClaimTimeout() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.dedup-claim-timeout must be at least 1 second");
+        }
+        this.claimTimeoutMillis = properties.getDedupClaimTimeout() * 1000L;
+        String id = properties.getHostname() + "-" + ProcessHandle.current().pid();
+        this.owner = id.length() > MAX_OWNER_LENGTH ? id.substring(0, MAX_OWNER_LENGTH) : id;
+        if (properties.isDedupJdbcInitializeSchema()) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + "fp_high BIGINT NOT NULL, "
+                + "fp_low BIGINT NOT NULL, "
+                + "status CHAR(1) NOT NULL, "
+                + "claimed_by VARCHAR(" + MAX_OWNER_LENGTH + ") NOT NULL, "
+                + "updated_at BIGINT NOT NULL, "
+                + "PRIMARY KEY (fp_high, fp_low))");
+        }
+        refreshCount();
+        logger.info("Recording processed files in table {} ({} entries) as {}", table, processedCount, owner);
+    }
+
+    @Override
+    public String name() {
+        return "jdbc";
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public boolean contains(long high, long low) {
+        synchronized (pending) {
+            if (pending.contains(high, low)) {
+                return true;
+            }
+        }
+        Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table
+            + " WHERE fp_high = ? AND fp_low = ? AND status = 'P'", Integer.class, high, low);
+        return rows != null && rows > 0;
+    }
+
+    /**
+     * Looks fingerprints up with one query per hdfswatcher.dedup-jdbc-batch-size entries.
+     * The query selects by the leading key column only and the lows are matched here, so
+     * it stays a plain IN list every database can serve from the primary key.
+     */
+    @Override
+    public boolean[] containsAll(long[] packed) {
+        int count = packed.length / 2;
+        boolean[] result = new boolean[count];
+        int[] unresolved = new int[count];
+        int unresolvedCount = 0;
+        synchronized (pending) {
+            for (int i = 0; i < count; i++) {
+                if (pending.contains(packed[2 * i], packed[2 * i + 1])) {
+                    result[i] = true;
+                } else {
+                    unresolved[unresolvedCount++] = i;
+                }
+            }
+        }
+        for (int start = 0; start < unresolvedCount; start += batchSize) {
+            int end = Math.min(unresolvedCount, start + batchSize);
+            Object[] highs = new Object[end - start];
+            for (int k = start; k < end; k++) {
+                highs[k - start] = packed[2 * unresolved[k]];
+            }
+            FingerprintSet found = new FingerprintSet(highs.length);
+            String placeholders = String.join(", ", Collections.nCopies(highs.length, "?"));
+            jdbcTemplate.query("SELECT fp_high, fp_low FROM " + table
+                    + " WHERE status = 'P' AND fp_high IN (" + placeholders + ")",
+                rs -> {
+                    found.add(rs.getLong(1), rs.getLong(2));
+                }, highs);
+            for (int k = start; k < end; k++) {
+                int i = unresolved[k];
+                result[i] = found.contains(packed[2 * i], packed[2 * i + 1]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean tryClaim(long high, long low) {
+        synchronized (pending) {
+            if (pending.contains(high, low)) {
+                return false;
+            }
+        }
+        long now = System.currentTimeMillis();
+        try {
+            jdbcTemplate.update("INSERT INTO " + table + " (fp_high, fp_low, status, claimed_by, updated_at) "
+                + "VALUES (?, ?, 'C', ?, ?)", high, low, owner, now);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Processed, or claimed by someone else; only a claim that has timed out can be taken over
+            return jdbcTemplate.update("UPDATE " + table + " SET claimed_by = ?, updated_at = ? "
+                + "WHERE fp_high = ? AND fp_low = ? AND status = 'C' AND updated_at < ?",
+                owner, now, high, low, now - claimTimeoutMillis) == 1;
+        }
+    }
+
+    @Override
+    public void releaseClaim(long high, long low) {
+        synchronized (pending) {
+            // The buffered mark turns the claim row into a processed row when it is written
+            if (pending.contains(high, low)) {
+                return;
+            }
+        }
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE fp_high = ? AND fp_low = ? AND status = 'C' "
+            + "AND claimed_by = ?", high, low, owner);
+    }
+
+    @Override
+    public boolean add(long high, long low, StripedFingerprintSet.ChangeListener listener) {
+        boolean added;
+        int buffered;
+        synchronized (pending) {
+            added = pending.add(high, low);
+            buffered = pending.size();
+        }
+        if (added && listener != null) {
+            listener.changed(ProcessedFilesJournal.OP_ADD, high, low);
+        }
+        if (buffered >= batchSize) {
+            try {
+                flush();
+            } catch (DataAccessException e) {
+                // The marks stay buffered and are retried on the next sync
+                logger.warn("Failed to write {} processed marks to {}: {}", buffered, table, e.getMessage());
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public boolean remove(long high, long low, StripedFingerprintSet.ChangeListener listener) {
+        boolean removed;
+        synchronized (pending) {
+            removed = pending.remove(high, low);
+        }
+        removed |= jdbcTemplate.update("DELETE FROM " + table + " WHERE fp_high = ? AND fp_low = ? AND status = 'P'",
+            high, low) > 0;
+        if (removed && listener != null) {
+            listener.changed(ProcessedFilesJournal.OP_REMOVE, high, low);
+        }
+        return removed;
+    }
+
+    @Override
+    public int clear(StripedFingerprintSet.ChangeListener listener) {
+        int count;
+        synchronized (pending) {
+            count = pending.size();
+            pending.clear();
+        }
+        count += jdbcTemplate.update("DELETE FROM " + table + " WHERE status = 'P'");
+        processedCount = 0;
+        if (listener != null) {
+            listener.changed(ProcessedFilesJournal.OP_CLEAR, 0, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of processed rows as of the last count, refreshed on sync every
+     * {@value HdfsWatcherConstants#DEDUP_JDBC_COUNT_REFRESH_MS} ms, plus the buffered marks.
+     */
+    @Override
+    public long size() {
+        synchronized (pending) {
+            return processedCount + pending.size();
+        }
+    }
+
+    /**
+     * Gets the heap held by buffered marks; the rows themselves live in the database.
+     */
+    @Override
+    public long memoryBytes() {
+        synchronized (pending) {
+            return pending.memoryBytes();
+        }
+    }
+
+    @Override
+    public FingerprintSet.Snapshot snapshot() {
+        FingerprintSet all = new FingerprintSet((int) Math.min(Integer.MAX_VALUE / 2, processedCount));
+        jdbcTemplate.query("SELECT fp_high, fp_low FROM " + table + " WHERE status = 'P'", rs -> {
+            all.add(rs.getLong(1), rs.getLong(2));
+        });
+        FingerprintSet.Snapshot buffered;
+        synchronized (pending) {
+            buffered = pending.snapshot();
+        }
+        while (buffered.next()) {
+            all.add(buffered.high(), buffered.low());
+        }
+        return all.snapshot();
+    }
+
+    /**
+     * Writes buffered marks. Every {@value HdfsWatcherConstants#DEDUP_JDBC_COUNT_REFRESH_MS}
+     * ms it also recounts the processed rows and deletes claims that have timed out, e.g.
+     * those of replicas that died mid-send on files that were deleted since.
+     */
+    @Override
+    public void sync() throws IOException {
+        try {
+            flush();
+            if (System.currentTimeMillis() - countedAt >= HdfsWatcherConstants.DEDUP_JDBC_COUNT_REFRESH_MS) {
+                jdbcTemplate.update("DELETE FROM " + table + " WHERE status = 'C' AND updated_at < ?",
+                    System.currentTimeMillis() - claimTimeoutMillis);
+                refreshCount();
+            }
+        } catch (DataAccessException e) {
+            throw new IOException("Failed to sync processed files to " + table, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+    }
+
+    /**
+     * Turns buffered marks into processed rows with one batched update per
+     * hdfswatcher.dedup-jdbc-batch-size marks. Rows that did not exist (marks made without
+     * a claim) are inserted. Marks leave the buffer only once written.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            long[] batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending.snapshot().packed();
+            }
+            long now = System.currentTimeMillis();
+            String update = "UPDATE " + table + " SET status = 'P', claimed_by = ?, updated_at = ? "
+                + "WHERE fp_high = ? AND fp_low = ?";
+            for (int start = 0; start < batch.length; start += 2 * batchSize) {
+                int end = Math.min(batch.length, start + 2 * batchSize);
+                List<Object[]> rows = new ArrayList<>((end - start) / 2);
+                for (int i = start; i < end; i += 2) {
+                    rows.add(new Object[] {owner, now, batch[i], batch[i + 1]});
+                }
+                int[] updated = jdbcTemplate.batchUpdate(update, rows);
+                for (int r = 0; r < updated.length; r++) {
+                    // SUCCESS_NO_INFO means the driver applied the row without counting it
+                    if (updated[r] == 0) {
+                        insertProcessed(batch[start + 2 * r], batch[start + 2 * r + 1], now, update);
+                    } else if (updated[r] != Statement.SUCCESS_NO_INFO && updated[r] < 0) {
+                        throw new IllegalStateException("Batch update of processed marks failed at row " + r);
+                    }
+                }
+                synchronized (pending) {
+                    for (int i = start; i < end; i += 2) {
+                        pending.remove(batch[i], batch[i + 1]);
+                    }
+                    processedCount += (end - start) / 2;
+                }
+            }
+            logger.debug("Wrote {} processed marks to {}", batch.length / 2, table);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void insertProcessed(long high, long low, long now, String update) {
+        try {
+            jdbcTemplate.update("INSERT INTO " + table + " (fp_high, fp_low, status, claimed_by, updated_at) "
+                + "VALUES (?, ?, 'P', ?, ?)", high, low, owner, now);
+        } catch (DuplicateKeyException e) {
+            // Claimed by another replica since the batch ran; the file was sent, so it is processed
+            jdbcTemplate.update(update, owner, now, high, low);
+        }
+    }
+
+    private void refreshCount() {
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE status = 'P'", Long.class);
+        processedCount = rows != null ? rows : 0;
+        countedAt = System.currentTimeMillis();
+    }
+}
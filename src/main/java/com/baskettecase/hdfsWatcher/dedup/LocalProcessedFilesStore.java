@@ -0,0 +1,185 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Processed-files store kept in this process's heap: the memory and local backends.
+ *
+ * Entries live in a {@link StripedFingerprintSet}. With a journal directory (the local
+ * backend) every change is also appended to a {@link ProcessedFilesJournal} while its
+ * stripe is locked, so a restart recovers the set; the journal is compacted into a
+ * snapshot once it holds the configured number of records. Without one (the memory
+ * backend) the set starts empty on every restart.
+ *
+ * Claims are held in a concurrent set, so they only exclude other threads of this process.
+ */
+public final class LocalProcessedFilesStore implements ProcessedFilesStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalProcessedFilesStore.class);
+
+    private final StripedFingerprintSet processedFiles;
+    // Fingerprints currently being sent, so two tasks that see the same file only send it once
+    private final Set<Fingerprint> inFlightFiles = ConcurrentHashMap.newKeySet();
+    // Null for the memory backend
+    private final ProcessedFilesJournal journal;
+    private final long compactionRecords;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    /**
+     * @param stripes stripes of the processed set; a power of two between 1 and 1024
+     * @param journalDirectory directory to journal changes to, or null to keep the set in memory only
+     * @param compactionRecords journal records after which the set is compacted into a snapshot
+     * @throws IOException if the journal cannot be opened or recovered
+     */
+    public LocalProcessedFilesStore(int stripes, Path journalDirectory, long compactionRecords) throws IOException {
+        this.processedFiles = new StripedFingerprintSet(stripes);
+        this.compactionRecords = compactionRecords;
+        this.journal = journalDirectory != null ? ProcessedFilesJournal.open(journalDirectory, processedFiles) : null;
+    }
+
+    @Override
+    public String name() {
+        return journal != null ? "local" : "memory";
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    /**
+     * @return the journal, or null for the memory backend
+     */
+    public ProcessedFilesJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public boolean contains(long high, long low) {
+        return processedFiles.contains(high, low);
+    }
+
+    @Override
+    public boolean tryClaim(long high, long low) {
+        Fingerprint fingerprint = new Fingerprint(high, low);
+        if (processedFiles.contains(high, low) || !inFlightFiles.add(fingerprint)) {
+            return false;
+        }
+        // Re-check: the previous owner may have marked it and released between our two checks
+        if (processedFiles.contains(high, low)) {
+            inFlightFiles.remove(fingerprint);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void releaseClaim(long high, long low) {
+        inFlightFiles.remove(new Fingerprint(high, low));
+    }
+
+    @Override
+    public boolean add(long high, long low, StripedFingerprintSet.ChangeListener listener) {
+        return processedFiles.add(high, low, journaling(listener));
+    }
+
+    @Override
+    public boolean remove(long high, long low, StripedFingerprintSet.ChangeListener listener) {
+        return processedFiles.remove(high, low, journaling(listener));
+    }
+
+    @Override
+    public int clear(StripedFingerprintSet.ChangeListener listener) {
+        // Swaps in empty tables under all stripe locks; pollers wait microseconds, not for a copy
+        return processedFiles.clear(journaling(listener));
+    }
+
+    @Override
+    public long size() {
+        return processedFiles.size();
+    }
+
+    @Override
+    public long memoryBytes() {
+        return processedFiles.memoryBytes();
+    }
+
+    @Override
+    public FingerprintSet.Snapshot snapshot() {
+        return processedFiles.snapshot();
+    }
+
+    /**
+     * Copies every entry and runs an action before any further update can happen.
+     *
+     * @see StripedFingerprintSet#snapshot(StripedFingerprintSet.LockedAction)
+     */
+    public <E extends Exception> FingerprintSet.Snapshot snapshot(StripedFingerprintSet.LockedAction<E> whileLocked)
+            throws E {
+        return processedFiles.snapshot(whileLocked);
+    }
+
+    /**
+     * Fsyncs the journal, and starts a compaction once it has grown past the configured
+     * number of records.
+     */
+    @Override
+    public void sync() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.sync();
+        if (journal.getRecordsSinceSnapshot() >= compactionRecords && compacting.compareAndSet(false, true)) {
+            // Writing a large snapshot takes seconds; keep it off the shared scheduler thread
+            Thread.ofVirtual().name("processed-files-compaction").start(this::compactJournal);
+        }
+    }
+
+    /**
+     * Writes the current set as a snapshot and drops the journals it covers. The set is
+     * only locked while it is copied and the journal is rolled over.
+     */
+    void compactJournal() {
+        try {
+            long startNanos = System.nanoTime();
+            long[] nextSequence = new long[1];
+            // Rolling while the copy is still locked makes the new journal start exactly at the snapshot
+            FingerprintSet.Snapshot snapshot = processedFiles.snapshot(() -> nextSequence[0] = journal.roll());
+            ProcessedFilesJournal.writeSnapshot(journal.getDirectory(), snapshot, nextSequence[0]);
+            logger.info("Compacted processed-files journal: {} entries in {} ms",
+                snapshot.size(), (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (IOException e) {
+            logger.error("Failed to compact processed-files journal in {}", journal.getDirectory(), e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    // The journal record is appended before the caller's listener runs, both under the stripe lock
+    private StripedFingerprintSet.ChangeListener journaling(StripedFingerprintSet.ChangeListener listener) {
+        if (journal == null) {
+            return listener;
+        }
+        if (listener == null) {
+            return journal::append;
+        }
+        return (op, high, low) -> {
+            journal.append(op, high, low);
+            listener.changed(op, high, low);
+        };
+    }
+}
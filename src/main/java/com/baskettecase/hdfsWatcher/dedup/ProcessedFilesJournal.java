@@ -0,0 +1,500 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only on-disk log of changes to the processed-files set, plus a compacted snapshot.
+ *
+ * Layout of the state directory:
+ * <pre>
+ *   processed.snapshot        sorted fingerprints up to some journal sequence
+ *   processed-&lt;seq&gt;.journal   changes made after it, one file per sequence
+ * </pre>
+ * Journal records are 21 bytes: op (1), high (8), low (8) and a CRC32C of those 17 bytes
+ * (4). Appends only go to an in-memory buffer. {@link #sync()} swaps in an empty buffer,
+ * then writes the full one and forces it to disk without blocking further appends, so one
+ * fsync covers every change made since the previous sync.
+ *
+ * Snapshot layout: magic (4), version (4), next journal sequence (8), entry count (8),
+ * entries sorted by unsigned (high, low) at 16 bytes each, then a CRC32C of everything
+ * before it (8). The snapshot is written to a temporary file, forced, and moved over the
+ * old one, so a reader sees either the old or the new snapshot, never a partial one.
+ *
+ * The same format, with a sequence of 0, is used for standalone snapshot files that seed
+ * one instance from another ({@link #writeSnapshotFile}, {@link #readSnapshotFile}).
+ *
+ * Recovery memory-maps the snapshot, verifies its checksum, loads it and replays every
+ * journal from the snapshot's sequence on. A journal whose tail is torn or fails its
+ * checksum is truncated at the last good record; journals older than the snapshot are
+ * deleted.
+ *
+ * Appends and syncs may come from different threads. Callers must append in the same
+ * order as they apply the changes, and must not append while {@link #roll()} runs.
+ */
+public final class ProcessedFilesJournal implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessedFilesJournal.class);
+
+    public static final byte OP_ADD = 1;
+    public static final byte OP_REMOVE = 2;
+    public static final byte OP_CLEAR = 3;
+
+    static final int SNAPSHOT_MAGIC = 0x48574650; // "HWFP"
+    static final int SNAPSHOT_VERSION = 1;
+    static final int SNAPSHOT_HEADER_BYTES = 24;
+    static final String SNAPSHOT_FILE = "processed.snapshot";
+
+    private static final int RECORD_BYTES = 21;
+    private static final int INITIAL_BUFFER_RECORDS = 4096;
+    private static final Pattern JOURNAL_NAME = Pattern.compile("processed-(\\d+)\\.journal");
+
+    /**
+     * Receives the entries of a snapshot file once its checksum has been verified.
+     */
+    public interface SnapshotSink {
+        /**
+         * Called once before the entries, e.g. to presize the target.
+         *
+         * @param count the number of entries that follow
+         */
+        default void expect(long count) {
+        }
+
+        void entry(long high, long low);
+    }
+
+    private final Path directory;
+    private final CRC32C crc = new CRC32C();
+    // Serializes writers to the channel; taken before the monitor, never after
+    private final Object syncLock = new Object();
+    // Guarded by this
+    private ByteBuffer buffer = newBuffer(INITIAL_BUFFER_RECORDS);
+    private ByteBuffer spare = newBuffer(INITIAL_BUFFER_RECORDS);
+    private FileChannel channel;
+    private long sequence;
+    private long recordsSinceSnapshot;
+
+    private ProcessedFilesJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the state directory, creating it if needed, and loads its contents into a set.
+     *
+     * @param directory the state directory
+     * @param target set to load into; normally empty
+     * @return the journal, positioned to append after the recovered state
+     * @throws IOException if the directory cannot be read or the snapshot is corrupt
+     */
+    public static ProcessedFilesJournal open(Path directory, StripedFingerprintSet target) throws IOException {
+        Files.createDirectories(directory);
+        ProcessedFilesJournal journal = new ProcessedFilesJournal(directory);
+        journal.recover(target);
+        return journal;
+    }
+
+    /**
+     * Appends a change. It is durable once {@link #sync()} returns.
+     *
+     * @param op one of OP_ADD, OP_REMOVE, OP_CLEAR
+     */
+    public synchronized void append(byte op, long high, long low) {
+        if (buffer.remaining() < RECORD_BYTES) {
+            // Grow instead of writing here, so records reach the file in append order
+            ByteBuffer larger = newBuffer(buffer.capacity() / RECORD_BYTES * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int start = buffer.position();
+        buffer.put(op).putLong(high).putLong(low);
+        crc.reset();
+        crc.update(buffer.array(), start, RECORD_BYTES - 4);
+        buffer.putInt((int) crc.getValue());
+        recordsSinceSnapshot++;
+    }
+
+    /**
+     * Writes buffered records and forces them to disk.
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            ByteBuffer pending;
+            FileChannel target;
+            synchronized (this) {
+                if (buffer.position() == 0) {
+                    return;
+                }
+                pending = buffer;
+                buffer = spare;
+                spare = pending;
+                target = channel;
+            }
+            pending.flip();
+            while (pending.hasRemaining()) {
+                target.write(pending);
+            }
+            pending.clear();
+            target.force(false);
+        }
+    }
+
+    /**
+     * Gets the number of records appended since the last snapshot, i.e. the journal length
+     * a restart would replay.
+     */
+    public synchronized long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * Starts a new journal file so the current set contents can be written as a snapshot
+     * without blocking appends. Call under the same lock as the appends, together with
+     * taking the set snapshot that {@link #writeSnapshot} will store.
+     *
+     * @return the sequence of the new journal; pass it to {@link #writeSnapshot}
+     */
+    public long roll() throws IOException {
+        synchronized (syncLock) {
+            sync();
+            synchronized (this) {
+                channel.close();
+                sequence++;
+                channel = openJournal(sequence);
+                recordsSinceSnapshot = 0;
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot covering every journal before nextSequence and deletes those
+     * journals. Safe to call without the append lock.
+     *
+     * @param directory the state directory
+     * @param snapshot the set contents at the time of {@link #roll()}
+     * @param nextSequence the value returned by {@link #roll()}
+     */
+    public static void writeSnapshot(Path directory, FingerprintSet.Snapshot snapshot, long nextSequence) throws IOException {
+        writeSnapshotFile(directory.resolve(SNAPSHOT_FILE), snapshot, nextSequence);
+        for (JournalFile journal : listJournals(directory)) {
+            if (journal.sequence < nextSequence) {
+                Files.deleteIfExists(journal.path);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot file atomically: the entries go to a temporary file next to it,
+     * which is forced and then moved over the target.
+     *
+     * @param file the snapshot file
+     * @param snapshot the entries; sorted in place
+     * @param nextSequence the first journal sequence not covered, or 0 for a standalone file
+     * @return the number of entries written
+     */
+    public static int writeSnapshotFile(Path file, FingerprintSet.Snapshot snapshot, long nextSequence) throws IOException {
+        long[] packed = snapshot.packed();
+        sortPairs(packed);
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32C checksum = new CRC32C();
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 20).order(ByteOrder.BIG_ENDIAN);
+            chunk.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextSequence).putLong(packed.length / 2);
+            for (long value : packed) {
+                if (chunk.remaining() < Long.BYTES) {
+                    flushChunk(out, chunk, checksum);
+                }
+                chunk.putLong(value);
+            }
+            flushChunk(out, chunk, checksum);
+            chunk.putLong(checksum.getValue());
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                out.write(chunk);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(directory);
+        return packed.length / 2;
+    }
+
+    /**
+     * Reads a snapshot file with one memory mapping. The header and checksum are verified
+     * before the first entry reaches the sink, so a corrupt file changes nothing.
+     *
+     * @param file the snapshot file
+     * @param sink receives the entries in sorted order
+     * @return the first journal sequence not covered by the snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static long readSnapshotFile(Path file, SnapshotSink sink) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = in.size();
+            if (fileSize < SNAPSHOT_HEADER_BYTES + Long.BYTES) {
+                throw new IOException("Processed-files snapshot is truncated: " + file);
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Processed-files snapshot is larger than 2 GiB and cannot be mapped: " + file);
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.getInt(0) != SNAPSHOT_MAGIC || mapped.getInt(4) != SNAPSHOT_VERSION) {
+                throw new IOException("Not a processed-files snapshot (or unsupported version): " + file);
+            }
+            long nextSequence = mapped.getLong(8);
+            long count = mapped.getLong(16);
+            if (count < 0 || fileSize != SNAPSHOT_HEADER_BYTES + count * 16 + Long.BYTES) {
+                throw new IOException("Processed-files snapshot size does not match its header: " + file);
+            }
+            CRC32C checksum = new CRC32C();
+            checksum.update(mapped.slice(0, (int) (fileSize - Long.BYTES)));
+            if (checksum.getValue() != mapped.getLong((int) (fileSize - Long.BYTES))) {
+                throw new IOException("Processed-files snapshot checksum mismatch: " + file);
+            }
+            sink.expect(count);
+            for (int offset = SNAPSHOT_HEADER_BYTES; offset < SNAPSHOT_HEADER_BYTES + count * 16; offset += 16) {
+                sink.entry(mapped.getLong(offset), mapped.getLong(offset + 8));
+            }
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Gets the state directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            sync();
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    private void recover(StripedFingerprintSet target) throws IOException {
+        long startNanos = System.nanoTime();
+        long firstSequence = loadSnapshot(target);
+        int snapshotEntries = target.size();
+        long replayed = 0;
+        long lastSequence = firstSequence;
+        for (JournalFile journal : listJournals(directory)) {
+            if (journal.sequence < firstSequence) {
+                // Already covered by the snapshot; left behind by a crash after the snapshot move
+                Files.deleteIfExists(journal.path);
+                continue;
+            }
+            replayed += replay(journal.path, target);
+            lastSequence = journal.sequence;
+        }
+        sequence = lastSequence;
+        channel = openJournal(sequence);
+        recordsSinceSnapshot = replayed;
+        logger.info("Recovered {} processed files from {} in {} ms ({} from snapshot, {} journal records)",
+            target.size(), directory, (System.nanoTime() - startNanos) / 1_000_000, snapshotEntries, replayed);
+    }
+
+    /**
+     * @return the first journal sequence not covered by the snapshot (0 without a snapshot)
+     */
+    private long loadSnapshot(StripedFingerprintSet target) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        return readSnapshotFile(path, new SnapshotSink() {
+            @Override
+            public void expect(long count) {
+                target.ensureCapacity((int) count);
+            }
+
+            @Override
+            public void entry(long high, long low) {
+                target.add(high, low, null);
+            }
+        });
+    }
+
+    private long replay(Path path, StripedFingerprintSet target) throws IOException {
+        long records = 0;
+        long validBytes = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = in.size();
+            if (fileSize == 0) {
+                return 0;
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            byte[] record = new byte[RECORD_BYTES];
+            CRC32C checksum = new CRC32C();
+            while (validBytes + RECORD_BYTES <= fileSize) {
+                mapped.get((int) validBytes, record);
+                checksum.reset();
+                checksum.update(record, 0, RECORD_BYTES - 4);
+                ByteBuffer view = ByteBuffer.wrap(record).order(ByteOrder.BIG_ENDIAN);
+                if ((int) checksum.getValue() != view.getInt(RECORD_BYTES - 4)) {
+                    break;
+                }
+                long high = view.getLong(1);
+                long low = view.getLong(9);
+                switch (record[0]) {
+                    case OP_ADD -> target.add(high, low, null);
+                    case OP_REMOVE -> target.remove(high, low, null);
+                    case OP_CLEAR -> target.clear(null);
+                    default -> throw new IOException("Unknown journal op " + record[0] + " in " + path);
+                }
+                validBytes += RECORD_BYTES;
+                records++;
+            }
+            if (validBytes < fileSize) {
+                logger.warn("Truncating {} at byte {} of {}: torn or corrupt record after the last fsync",
+                    path, validBytes, fileSize);
+                in.truncate(validBytes);
+                in.force(true);
+            }
+        }
+        return records;
+    }
+
+    private static ByteBuffer newBuffer(int records) {
+        return ByteBuffer.allocate(RECORD_BYTES * records).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private FileChannel openJournal(long journalSequence) throws IOException {
+        Path path = directory.resolve("processed-" + journalSequence + ".journal");
+        FileChannel opened = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        forceDirectory(directory);
+        return opened;
+    }
+
+    private static void flushChunk(FileChannel out, ByteBuffer chunk, CRC32C checksum) throws IOException {
+        chunk.flip();
+        checksum.update(chunk.duplicate());
+        while (chunk.hasRemaining()) {
+            out.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    private static void forceDirectory(Path directory) {
+        // Makes the rename/create itself durable; not supported on every platform
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.debug("Could not fsync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static List<JournalFile> listJournals(Path directory) throws IOException {
+        List<JournalFile> journals = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "processed-*.journal")) {
+            for (Path path : stream) {
+                Matcher matcher = JOURNAL_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    journals.add(new JournalFile(Long.parseLong(matcher.group(1)), path));
+                }
+            }
+        }
+        journals.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return journals;
+    }
+
+    /**
+     * Sorts (high, low) pairs of a packed array by unsigned value. Iterative quicksort with
+     * an insertion sort for short ranges, so it needs no extra memory.
+     */
+    static void sortPairs(long[] packed) {
+        int[] stack = new int[128];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = packed.length / 2 - 1;
+        while (top > 0) {
+            int hi = stack[--top];
+            int lo = stack[--top];
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                // Median of three into lo
+                if (comparePairs(packed, mid, lo) < 0) swapPairs(packed, mid, lo);
+                if (comparePairs(packed, hi, lo) < 0) swapPairs(packed, hi, lo);
+                if (comparePairs(packed, hi, mid) < 0) swapPairs(packed, hi, mid);
+                swapPairs(packed, lo, mid);
+                long pivotHigh = packed[2 * lo];
+                long pivotLow = packed[2 * lo + 1];
+                int i = lo;
+                int j = hi + 1;
+                while (true) {
+                    do { i++; } while (i <= hi && compare(packed[2 * i], packed[2 * i + 1], pivotHigh, pivotLow) < 0);
+                    do { j--; } while (compare(packed[2 * j], packed[2 * j + 1], pivotHigh, pivotLow) > 0);
+                    if (i >= j) {
+                        break;
+                    }
+                    swapPairs(packed, i, j);
+                }
+                swapPairs(packed, lo, j);
+                // Recurse into the smaller side later, loop on the larger, keeping the stack shallow
+                if (j - lo < hi - j) {
+                    stack[top++] = j + 1;
+                    stack[top++] = hi;
+                    hi = j - 1;
+                } else {
+                    stack[top++] = lo;
+                    stack[top++] = j - 1;
+                    lo = j + 1;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int k = i; k > lo && comparePairs(packed, k, k - 1) < 0; k--) {
+                    swapPairs(packed, k, k - 1);
+                }
+            }
+        }
+    }
+
+    private static int comparePairs(long[] packed, int a, int b) {
+        return compare(packed[2 * a], packed[2 * a + 1], packed[2 * b], packed[2 * b + 1]);
+    }
+
+    static int compare(long highA, long lowA, long highB, long lowB) {
+        int result = Long.compareUnsigned(highA, highB);
+        return result != 0 ? result : Long.compareUnsigned(lowA, lowB);
+    }
+
+    private static void swapPairs(long[] packed, int a, int b) {
+        long high = packed[2 * a];
+        long low = packed[2 * a + 1];
+        packed[2 * a] = packed[2 * b];
+        packed[2 * a + 1] = packed[2 * b + 1];
+        packed[2 * b] = high;
+        packed[2 * b + 1] = low;
+    }
+
+    private record JournalFile(long sequence, Path path) {
+    }
+}
@@ -0,0 +1,119 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.io.IOException;
+
+/**
+ * Exact record of which file fingerprints have been processed, and which are being sent.
+ *
+ * The backend is selected with hdfswatcher.dedup-backend: memory and local are served by
+ * {@link LocalProcessedFilesStore}, jdbc by {@link JdbcProcessedFilesStore}; any other
+ * bean of this type can be supplied instead. Stores must be thread-safe.
+ *
+ * Updates accept a {@link StripedFingerprintSet.ChangeListener} that must be told about
+ * every change this process makes. A local store calls it while the change is still
+ * locked; a shared store calls it once the change is recorded. Changes made by other
+ * processes are not reported.
+ */
+public interface ProcessedFilesStore extends AutoCloseable {
+
+    /**
+     * Gets the backend name shown in logs and metrics.
+     */
+    String name();
+
+    /**
+     * Checks whether other processes write to the same store. For shared stores a
+     * negative answer from a local cache is only a hint; {@link #tryClaim} decides.
+     */
+    boolean isShared();
+
+    /**
+     * @return true if the fingerprint is recorded as processed
+     */
+    boolean contains(long high, long low);
+
+    /**
+     * Looks up many fingerprints at once, in as few round trips as the backend allows.
+     *
+     * @param packed fingerprints as (high, low) pairs
+     * @return one flag per pair, true if processed
+     */
+    default boolean[] containsAll(long[] packed) {
+        boolean[] result = new boolean[packed.length / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = contains(packed[2 * i], packed[2 * i + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Claims a file for sending. Fails if the file is already processed or claimed by
+     * anyone sharing the store, so two senders racing on the same file send it once.
+     * Every successful claim is ended with {@link #releaseClaim} after the file has been
+     * marked as processed (or failed).
+     *
+     * @return true if the caller now owns the send of this file
+     */
+    boolean tryClaim(long high, long low);
+
+    /**
+     * Ends a claim. The entry stays if the file was marked as processed meanwhile.
+     */
+    void releaseClaim(long high, long low);
+
+    /**
+     * Records a fingerprint as processed. Shared stores may batch the write; it is visible
+     * to this process at once and to others after the next {@link #sync()}.
+     *
+     * @param listener told about the change, or null
+     * @return true if the fingerprint was not recorded before
+     */
+    boolean add(long high, long low, StripedFingerprintSet.ChangeListener listener);
+
+    /**
+     * Forgets a processed fingerprint.
+     *
+     * @param listener told about the change, or null
+     * @return true if the fingerprint was recorded
+     */
+    boolean remove(long high, long low, StripedFingerprintSet.ChangeListener listener);
+
+    /**
+     * Forgets every processed fingerprint.
+     *
+     * @param listener told about the change, or null
+     * @return the number of entries removed
+     */
+    int clear(StripedFingerprintSet.ChangeListener listener);
+
+    /**
+     * Gets the number of processed entries. Shared stores may return a cached count.
+     */
+    long size();
+
+    /**
+     * Gets the heap held by the store.
+     */
+    long memoryBytes();
+
+    /**
+     * Copies every processed fingerprint.
+     *
+     * @return a cursor over the entries
+     */
+    FingerprintSet.Snapshot snapshot();
+
+    /**
+     * Makes buffered changes durable. Called every hdfswatcher.processed-journal-sync-interval
+     * milliseconds.
+     *
+     * @throws IOException if the changes cannot be written; they are retried on the next sync
+     */
+    void sync() throws IOException;
+
+    /**
+     * Flushes and releases resources on shutdown.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,68 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 over "filename|size|mtime", the hash the watcher has always used. The fingerprint
+ * is the first 128 bits of the digest, so full hashes held by existing /api/reprocess
+ * clients still match. {@link #hash} returns all 64 hex digits as before.
+ *
+ * The MessageDigest and output buffers are reused per thread.
+ */
+final class Sha256FingerprintEngine implements FingerprintEngine {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    @Override
+    public String name() {
+        return SHA256;
+    }
+
+    @Override
+    public Fingerprint fingerprint(String filename, long fileSize, long modificationTime) {
+        return Fingerprint.fromBytes(digest(filename, fileSize, modificationTime).digest);
+    }
+
+    @Override
+    public String hash(String filename, long fileSize, long modificationTime) {
+        State state = digest(filename, fileSize, modificationTime);
+        for (int i = 0; i < state.digest.length; i++) {
+            state.hex[2 * i] = HEX[(state.digest[i] >> 4) & 0xf];
+            state.hex[2 * i + 1] = HEX[state.digest[i] & 0xf];
+        }
+        return new String(state.hex);
+    }
+
+    private static State digest(String filename, long fileSize, long modificationTime) {
+        State state = STATE.get();
+        FingerprintInput input = FingerprintInput.current()
+            .appendUtf8(filename).appendByte((byte) '|')
+            .appendDecimal(fileSize).appendByte((byte) '|')
+            .appendDecimal(modificationTime);
+        state.messageDigest.update(input.bytes(), 0, input.length());
+        try {
+            state.messageDigest.digest(state.digest, 0, state.digest.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256 digest failed", e);
+        }
+        return state;
+    }
+
+    private static final class State {
+        private final MessageDigest messageDigest;
+        private final byte[] digest = new byte[32];
+        private final char[] hex = new char[64];
+
+        private State() {
+            try {
+                this.messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 algorithm not available", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe set of 128-bit fingerprints, split into independently locked stripes.
+ *
+ * Each fingerprint lives in one {@link FingerprintSet} stripe chosen from its bits, guarded
+ * by that stripe's read-write lock. Pollers marking files and API threads checking them
+ * only contend when they hit the same stripe, and a table resize only pauses the stripe
+ * that grows.
+ *
+ * Whole-set operations take every stripe lock in index order, so they are atomic with
+ * respect to single-entry updates:
+ * <ul>
+ *   <li>{@link #clear(ChangeListener)} swaps every stripe for an empty table; it never
+ *       copies or walks the entries.</li>
+ *   <li>{@link #snapshot()} copies all stripes under their read locks, so the copy is a
+ *       consistent point-in-time view. Lookups keep running while it copies; updates
+ *       wait for the copy (about 8 ms per million entries).</li>
+ * </ul>
+ *
+ * Updates accept a {@link ChangeListener} that runs while the stripe is still locked, so
+ * a journal sees the changes to any fingerprint in the order they were applied.
+ */
+public final class StripedFingerprintSet {
+
+    /**
+     * Observes a change while the affected stripe (or, for a clear, every stripe) is locked.
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * @param op one of {@link ProcessedFilesJournal#OP_ADD}, OP_REMOVE or OP_CLEAR
+         * @param high the fingerprint's first 64 bits (0 for a clear)
+         * @param low the fingerprint's second 64 bits (0 for a clear)
+         */
+        void changed(byte op, long high, long low);
+    }
+
+    /**
+     * Work done while every stripe is read-locked, e.g. rolling a journal over so that it
+     * starts exactly where a snapshot ends.
+     */
+    @FunctionalInterface
+    public interface LockedAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    private static final int MAX_STRIPES = 1024;
+
+    private final FingerprintSet[] stripes;
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripeCount number of stripes; a power of two between 1 and 1024
+     */
+    public StripedFingerprintSet(int stripeCount) {
+        if (stripeCount < 1 || stripeCount > MAX_STRIPES || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException(
+                "Stripe count must be a power of two between 1 and " + MAX_STRIPES + ": " + stripeCount);
+        }
+        this.stripes = new FingerprintSet[stripeCount];
+        this.locks = new ReentrantReadWriteLock[stripeCount];
+        this.mask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new FingerprintSet();
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @return true if the fingerprint is in the set
+     */
+    public boolean contains(long high, long low) {
+        int stripe = stripe(high, low);
+        ReentrantReadWriteLock.ReadLock lock = locks[stripe].readLock();
+        lock.lock();
+        try {
+            return stripes[stripe].contains(high, low);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a fingerprint.
+     *
+     * @param listener told about the addition, or null
+     * @return true if the fingerprint was added, false if it was already present
+     */
+    public boolean add(long high, long low, ChangeListener listener) {
+        int stripe = stripe(high, low);
+        ReentrantReadWriteLock.WriteLock lock = locks[stripe].writeLock();
+        lock.lock();
+        try {
+            if (!stripes[stripe].add(high, low)) {
+                return false;
+            }
+            if (listener != null) {
+                listener.changed(ProcessedFilesJournal.OP_ADD, high, low);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a fingerprint.
+     *
+     * @param listener told about the removal, or null
+     * @return true if the fingerprint was removed, false if it was not present
+     */
+    public boolean remove(long high, long low, ChangeListener listener) {
+        int stripe = stripe(high, low);
+        ReentrantReadWriteLock.WriteLock lock = locks[stripe].writeLock();
+        lock.lock();
+        try {
+            if (!stripes[stripe].remove(high, low)) {
+                return false;
+            }
+            if (listener != null) {
+                listener.changed(ProcessedFilesJournal.OP_REMOVE, high, low);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(Fingerprint fingerprint) {
+        return contains(fingerprint.high(), fingerprint.low());
+    }
+
+    public boolean add(Fingerprint fingerprint, ChangeListener listener) {
+        return add(fingerprint.high(), fingerprint.low(), listener);
+    }
+
+    public boolean remove(Fingerprint fingerprint, ChangeListener listener) {
+        return remove(fingerprint.high(), fingerprint.low(), listener);
+    }
+
+    /**
+     * Atomically removes every entry. Concurrent updates land entirely before or after it.
+     *
+     * @param listener told about the clear, or null
+     * @return the number of entries removed
+     */
+    public int clear(ChangeListener listener) {
+        lockAll(true);
+        try {
+            int count = 0;
+            for (FingerprintSet stripe : stripes) {
+                count += stripe.size();
+                stripe.clear();
+            }
+            if (listener != null) {
+                listener.changed(ProcessedFilesJournal.OP_CLEAR, 0, 0);
+            }
+            return count;
+        } finally {
+            unlockAll(true);
+        }
+    }
+
+    /**
+     * Gets the number of entries. Stripes are counted one at a time, so the result may
+     * be off by concurrent updates; use {@link #snapshot()} for an exact count.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].readLock().lock();
+            try {
+                size += stripes[i].size();
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the heap used by the stripe tables.
+     *
+     * @return bytes held by the slot arrays of all stripes
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].readLock().lock();
+            try {
+                bytes += stripes[i].memoryBytes();
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Grows the stripes so the set can hold about the given number of entries without
+     * resizing. Used before bulk loads.
+     *
+     * @param expectedSize total entries the set should hold
+     */
+    public void ensureCapacity(int expectedSize) {
+        // Stripes fill unevenly; leave an eighth of headroom on each
+        int perStripe = (int) Math.min(Integer.MAX_VALUE / 2, (long) expectedSize / stripes.length * 9 / 8 + 16);
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].writeLock().lock();
+            try {
+                stripes[i].ensureCapacity(perStripe);
+            } finally {
+                locks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies every entry into a consistent point-in-time snapshot.
+     *
+     * @return a cursor over the entries at the time of the call
+     */
+    public FingerprintSet.Snapshot snapshot() {
+        return snapshot(() -> { });
+    }
+
+    /**
+     * Copies every entry into a consistent snapshot and runs an action before any further
+     * update can happen.
+     *
+     * @param whileLocked runs after the copy, with every stripe still read-locked
+     * @return a cursor over the entries at the time of the call
+     * @throws E if the action fails; the snapshot is discarded
+     */
+    public <E extends Exception> FingerprintSet.Snapshot snapshot(LockedAction<E> whileLocked) throws E {
+        lockAll(false);
+        try {
+            long total = 0;
+            for (FingerprintSet stripe : stripes) {
+                total += stripe.size();
+            }
+            long[] packed = new long[Math.toIntExact(2 * total)];
+            int offset = 0;
+            for (FingerprintSet stripe : stripes) {
+                offset = stripe.copyTo(packed, offset);
+            }
+            whileLocked.run();
+            return new FingerprintSet.Snapshot(packed);
+        } finally {
+            unlockAll(false);
+        }
+    }
+
+    private int stripe(long high, long low) {
+        // FingerprintSet picks slots from a multiplicative mix of all bits, so reusing raw
+        // bits here does not cluster entries within a stripe
+        return (int) ((high ^ low) >>> 32) & mask;
+    }
+
+    private void lockAll(boolean write) {
+        for (ReentrantReadWriteLock lock : locks) {
+            if (write) {
+                lock.writeLock().lock();
+            } else {
+                lock.readLock().lock();
+            }
+        }
+    }
+
+    private void unlockAll(boolean write) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            if (write) {
+                locks[i].writeLock().unlock();
+            } else {
+                locks[i].readLock().unlock();
+            }
+        }
+    }
+}
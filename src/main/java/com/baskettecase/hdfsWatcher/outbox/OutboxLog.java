@@ -0,0 +1,467 @@
+package com.baskettecase.hdfsWatcher.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable first-in, first-out queue of outgoing messages, kept in memory-mapped,
+ * append-only segment files.
+ *
+ * Layout of the outbox directory:
+ * <pre>
+ *   outbox-&lt;position&gt;.segment   records starting at that log position
+ *   outbox.cursor                 position of the first record not yet delivered
+ * </pre>
+ * Positions are byte offsets into the log as a whole; segments follow each other without
+ * gaps, so a segment's position plus its file size is the position of the next one.
+ * Records are length (4), a CRC32C of the timestamp and payload (4), the append time in
+ * epoch millis (8) and the UTF-8 payload. A record never spans segments: one that does not
+ * fit starts a new segment, and the rest of the old one is skipped.
+ *
+ * {@link #append} writes a batch through the mapping and forces it to disk before it
+ * returns, so one msync covers the batch. It waits while the undelivered part of the log
+ * would exceed the byte limit, which holds up whoever is appending. {@link #peek} reads
+ * from the cursor without moving it; {@link #commit} moves it, forces the cursor file and
+ * deletes the segments it has left behind. A crash between a delivery and its commit
+ * delivers those records again.
+ *
+ * Recovery scans every segment for its last valid record; a torn or corrupt record ends
+ * its segment. Appends and reads may come from different threads.
+ */
+public final class OutboxLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxLog.class);
+
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final String CURSOR_FILE = "outbox.cursor";
+
+    private static final int CURSOR_BYTES = 12;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("outbox-(\\d+)\\.segment");
+
+    /**
+     * A record read from the log.
+     *
+     * @param position the record's log position
+     * @param next the position of the record after it; pass to {@link #commit}
+     * @param timestamp when the record was appended, in epoch millis
+     * @param payload the message
+     */
+    public record Entry(long position, long next, long timestamp, String payload) {
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final CRC32C crc = new CRC32C();
+    // All fields below are guarded by lock
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private MappedByteBuffer cursorBuffer;
+    private Segment tail;
+    private long appendPosition;
+    private long cursor;
+    private long pending;
+
+    private OutboxLog(Path directory, int segmentBytes, long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the outbox directory, creating it if needed, and recovers the records not yet
+     * delivered.
+     *
+     * @param directory the outbox directory
+     * @param segmentBytes size of new segment files
+     * @param maxBytes undelivered bytes after which appends wait
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    public static OutboxLog open(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        OutboxLog log = new OutboxLog(directory, segmentBytes, maxBytes);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Appends messages in order and forces them to disk. Waits while the undelivered part
+     * of the log is too large to take them, unless nothing is undelivered.
+     *
+     * @param payloads the messages; none may be empty
+     * @throws IOException if a new segment cannot be created; the messages written before
+     *                     the failure are kept
+     * @throws InterruptedException if interrupted while waiting for room; nothing is written
+     */
+    public void append(List<String> payloads) throws IOException, InterruptedException {
+        List<byte[]> encoded = new ArrayList<>(payloads.size());
+        long needed = 0;
+        for (String payload : payloads) {
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0 || RECORD_HEADER_BYTES + bytes.length > segmentBytes) {
+                throw new IllegalArgumentException("Outbox message must be between 1 and "
+                    + (segmentBytes - RECORD_HEADER_BYTES) + " bytes: " + bytes.length);
+            }
+            encoded.add(bytes);
+            needed += RECORD_HEADER_BYTES + bytes.length;
+        }
+        lock.lockInterruptibly();
+        try {
+            while (pending > 0 && appendPosition - cursor + needed > maxBytes) {
+                notFull.await();
+            }
+            long timestamp = System.currentTimeMillis();
+            Segment forced = tail;
+            int forcedFrom = tail.limit;
+            try {
+                for (byte[] bytes : encoded) {
+                    if (tail.limit + RECORD_HEADER_BYTES + bytes.length > tail.capacity) {
+                        forced.force(forcedFrom);
+                        roll();
+                        forced = tail;
+                        forcedFrom = 0;
+                    }
+                    write(tail, bytes, timestamp);
+                    pending++;
+                }
+            } finally {
+                forced.force(forcedFrom);
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads records from the cursor on without delivering them.
+     *
+     * @param max records to read at most
+     * @param timeoutMillis how long to wait for a first record
+     * @return the records in append order; empty if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Entry> peek(int max, long timeoutMillis) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending == 0) {
+                if (remaining <= 0) {
+                    return List.of();
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            List<Entry> entries = new ArrayList<>((int) Math.min(max, pending));
+            long position = normalize(cursor);
+            while (entries.size() < max && position < appendPosition) {
+                Segment segment = segments.floorEntry(position).getValue();
+                int offset = (int) (position - segment.base);
+                byte[] payload = new byte[segment.buffer.getInt(offset)];
+                segment.buffer.get(offset + RECORD_HEADER_BYTES, payload);
+                long next = normalize(position + RECORD_HEADER_BYTES + payload.length);
+                entries.add(new Entry(position, next, segment.buffer.getLong(offset + 8),
+                    new String(payload, StandardCharsets.UTF_8)));
+                position = next;
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks records as delivered: moves the cursor, forces it to disk and deletes the
+     * segments before it.
+     *
+     * @param next the {@link Entry#next()} of the last delivered record
+     * @param count the number of records delivered, for the depth count
+     */
+    public void commit(long next, int count) throws IOException {
+        lock.lock();
+        try {
+            if (next <= cursor || next > appendPosition || count > pending) {
+                throw new IllegalArgumentException("Outbox commit past position " + next + " of " + count
+                    + " records does not follow cursor " + cursor);
+            }
+            cursor = normalize(next);
+            pending -= count;
+            writeCursor(cursor);
+            long current = segments.floorKey(cursor);
+            while (segments.firstKey() < current) {
+                Segment drained = segments.pollFirstEntry().getValue();
+                // The mapping stays valid until it is collected; the space is freed then
+                Files.deleteIfExists(drained.path);
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records not yet delivered.
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the log bytes not yet delivered, including the skipped ends of segments.
+     */
+    public long usedBytes() {
+        lock.lock();
+        try {
+            return appendPosition - cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the append time of the oldest record not yet delivered.
+     *
+     * @return epoch millis, or -1 if every record has been delivered
+     */
+    public long oldestTimestamp() {
+        lock.lock();
+        try {
+            if (pending == 0) {
+                return -1;
+            }
+            long position = normalize(cursor);
+            Segment segment = segments.floorEntry(position).getValue();
+            return segment.buffer.getLong((int) (position - segment.base) + 8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the outbox directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            tail.buffer.force();
+            cursorBuffer.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(Segment segment, byte[] payload, long timestamp) {
+        int offset = segment.limit;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset, payload.length);
+        buffer.putLong(offset + 8, timestamp);
+        buffer.put(offset + RECORD_HEADER_BYTES, payload);
+        crc.reset();
+        crc.update(buffer.slice(offset + 8, 8 + payload.length));
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        segment.limit += RECORD_HEADER_BYTES + payload.length;
+        appendPosition = segment.base + segment.limit;
+    }
+
+    // Skips the unused end of a finished segment; positions in the tail are returned as they are
+    private long normalize(long position) {
+        while (position < appendPosition) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+            Segment segment = entry.getValue();
+            if (position - segment.base < segment.limit) {
+                return position;
+            }
+            position = segments.higherKey(entry.getKey());
+        }
+        return appendPosition;
+    }
+
+    private void roll() throws IOException {
+        long base = tail.base + tail.capacity;
+        tail = createSegment(base);
+        segments.put(base, tail);
+        appendPosition = base;
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("outbox-%020d.segment", base));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Mapping past the end grows the (sparse) file to the segment size
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        forceDirectory(directory);
+        return new Segment(base, path, buffer, segmentBytes);
+    }
+
+    private void recover() throws IOException {
+        long startNanos = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(directory.resolve(CURSOR_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            cursorBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_BYTES);
+            cursorBuffer.order(ByteOrder.BIG_ENDIAN);
+        }
+        long stored = readCursor();
+        for (Map.Entry<Long, Path> file : listSegments(directory).entrySet()) {
+            try (FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                if (size < RECORD_HEADER_BYTES || size > Integer.MAX_VALUE) {
+                    throw new IOException("Outbox segment has an invalid size (" + size + " bytes): " + file.getValue());
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                segments.put(file.getKey(), new Segment(file.getKey(), file.getValue(), buffer, (int) size));
+            }
+        }
+        if (segments.isEmpty()) {
+            long base = Math.max(stored, 0);
+            tail = createSegment(base);
+            segments.put(base, tail);
+            appendPosition = base;
+            cursor = base;
+            writeCursor(cursor);
+            logger.info("Created outbox in {}", directory);
+            return;
+        }
+        long start = Math.max(stored, segments.firstKey());
+        for (Segment segment : segments.values()) {
+            pending += scan(segment, start);
+        }
+        tail = segments.lastEntry().getValue();
+        appendPosition = tail.base + tail.limit;
+        cursor = normalize(Math.min(start, appendPosition));
+        long current = segments.floorKey(cursor);
+        while (segments.firstKey() < current) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue().path);
+        }
+        logger.info("Recovered outbox in {} in {} ms: {} undelivered records in {} segments",
+            directory, (System.nanoTime() - startNanos) / 1_000_000, pending, segments.size());
+    }
+
+    /**
+     * Finds the end of a segment's valid records.
+     *
+     * @return the number of records at or after position start
+     */
+    private long scan(Segment segment, long start) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32C checksum = new CRC32C();
+        long records = 0;
+        int offset = 0;
+        while (offset + RECORD_HEADER_BYTES <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > segment.capacity - offset - RECORD_HEADER_BYTES) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(buffer.slice(offset + 8, 8 + length));
+            if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+                logger.warn("Outbox segment {} ends at byte {}: torn or corrupt record", segment.path, offset);
+                break;
+            }
+            if (segment.base + offset >= start) {
+                records++;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        segment.limit = offset;
+        return records;
+    }
+
+    private long readCursor() {
+        long position = cursorBuffer.getLong(0);
+        crc.reset();
+        crc.update(cursorBuffer.slice(0, Long.BYTES));
+        if ((int) crc.getValue() != cursorBuffer.getInt(Long.BYTES)) {
+            // A new outbox, or a cursor torn by a crash; delivering from the oldest segment is safe
+            return -1;
+        }
+        return position;
+    }
+
+    private void writeCursor(long position) {
+        cursorBuffer.putLong(0, position);
+        crc.reset();
+        crc.update(cursorBuffer.slice(0, Long.BYTES));
+        cursorBuffer.putInt(Long.BYTES, (int) crc.getValue());
+        cursorBuffer.force();
+    }
+
+    private static void forceDirectory(Path directory) {
+        // Makes the file creation itself durable; not supported on every platform
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.debug("Could not fsync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "outbox-*.segment")) {
+            for (Path path : stream) {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), path);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static final class Segment {
+        private final long base;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        // Offset just past the last record
+        private int limit;
+
+        private Segment(long base, Path path, MappedByteBuffer buffer, int capacity) {
+            this.base = base;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        private void force(int from) {
+            if (limit > from) {
+                buffer.force(from, limit - from);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service to remember, per watched directory, what the directory looked like after the
+ * last complete poll, so unchanged directories can skip listing entirely and changed
+ * ones only need to consider entries newer than the last high-water mark.
+ */
+@Service
+public class DirectoryWatermarkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatermarkService.class);
+
+    private final Map<String, DirectoryWatermark> watermarks = new ConcurrentHashMap<>();
+    // Keyed by full subdirectory path; only names of subdirectories are kept, never files
+    private final Map<String, DirectoryListing> listings = new ConcurrentHashMap<>();
+
+    /**
+     * Cheap change signature of a directory: its mtime from getFileStatus, and the count and
+     * length of its entries, either of its direct children or (recursive mode) of the whole
+     * subtree from getContentSummary. The directory mtime changes when entries are added,
+     * removed or renamed; the length changes when a file is appended to or closed.
+     */
+    public record DirectorySignature(long modificationTime, long fileCount, long directoryCount, long length) {
+    }
+
+    /**
+     * State recorded after a complete poll of a directory.
+     *
+     * @param signature the directory signature read before the listing
+     * @param highWaterMark the newest file modification time seen in the listing
+     * @param processedGeneration the processed-files generation the listing was made against
+     * @param incrementalPolls the number of incremental listings since the last full one
+     */
+    public record DirectoryWatermark(DirectorySignature signature,
+                                     long highWaterMark,
+                                     long processedGeneration,
+                                     int incrementalPolls) {
+    }
+
+    /**
+     * What a subdirectory looked like the last time it was listed in full during a
+     * recursive poll.
+     *
+     * @param modificationTime the directory mtime read before it was listed
+     * @param subdirectories names of the watched subdirectories it contained
+     */
+    public record DirectoryListing(long modificationTime, List<String> subdirectories) {
+        public DirectoryListing {
+            subdirectories = List.copyOf(subdirectories);
+        }
+    }
+
+    /**
+     * Gets the watermark for a directory.
+     *
+     * @param directory the configured directory path
+     * @return the watermark, or null if the directory has not been fully polled yet
+     */
+    public DirectoryWatermark get(String directory) {
+        return watermarks.get(directory);
+    }
+
+    /**
+     * Records the watermark for a directory after a complete poll.
+     *
+     * @param directory the configured directory path
+     * @param watermark the new watermark
+     */
+    public void update(String directory, DirectoryWatermark watermark) {
+        watermarks.put(directory, watermark);
+        logger.debug("Updated watermark for {}: {}", directory, watermark);
+    }
+
+    /**
+     * Gets the last complete listing of a subdirectory.
+     *
+     * @param path the full subdirectory path
+     * @return the listing, or null if the subdirectory has not been listed yet
+     */
+    public DirectoryListing getListing(String path) {
+        return listings.get(path);
+    }
+
+    /**
+     * Records a subdirectory listing after all of its files were handled.
+     *
+     * @param path the full subdirectory path
+     * @param listing the listing
+     */
+    public void recordListing(String path, DirectoryListing listing) {
+        listings.put(path, listing);
+    }
+
+    /**
+     * Forgets the watermark for a directory and the listings below it, so the next
+     * poll lists it in full.
+     *
+     * @param directory the configured directory path
+     */
+    public void invalidate(String directory) {
+        watermarks.remove(directory);
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        listings.keySet().removeIf(path -> path.equals(directory) || path.contains(prefix));
+    }
+
+    /**
+     * Forgets all watermarks so the next poll lists every directory in full.
+     */
+    public void invalidateAll() {
+        watermarks.clear();
+        listings.clear();
+        logger.debug("Cleared all directory watermarks");
+    }
+}
@@ -0,0 +1,151 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties.DirectoryOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hadoop.fs.GlobPattern;
+import org.apache.hadoop.fs.PathFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Service to decide which file names in a watched directory are worth looking at.
+ *
+ * Each directory has include and exclude rules, given as globs and/or regular expressions
+ * and matched against the file name only. A file is accepted when it matches no exclude
+ * rule and, if any include rules exist, at least one of them. Rules set under
+ * hdfswatcher.directory-options[path] replace the global ones for that directory. Rules
+ * are compiled once per directory, and every rejected name is counted in the
+ * hdfswatcher.files.filtered counter tagged with the directory.
+ */
+@Service
+public class FileFilterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileFilterService.class);
+
+    private final HdfsWatcherProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CompiledFilter> filters = new ConcurrentHashMap<>();
+
+    public FileFilterService(HdfsWatcherProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        // Compile up front so a bad pattern fails startup instead of the first poll
+        for (String directory : properties.getHdfsPaths()) {
+            filter(directory);
+        }
+    }
+
+    /**
+     * Checks a file name against the rules of a watched directory.
+     *
+     * @param directory the configured directory path
+     * @param filename the file name (last path segment)
+     * @return true if the file should be hashed and processed
+     */
+    public boolean accept(String directory, String filename) {
+        CompiledFilter filter = filter(directory);
+        if (filter.matches(filename)) {
+            return true;
+        }
+        filter.rejected.increment();
+        return false;
+    }
+
+    /**
+     * Gets the rules of a watched directory as a Hadoop {@link PathFilter}.
+     *
+     * @param directory the configured directory path
+     * @return a filter over the last path segment
+     */
+    public PathFilter pathFilter(String directory) {
+        return path -> accept(directory, path.getName());
+    }
+
+    /**
+     * Gets the number of names rejected so far for a directory.
+     *
+     * @param directory the configured directory path
+     * @return the rejected count
+     */
+    public long getFilteredCount(String directory) {
+        return (long) filter(directory).rejected.count();
+    }
+
+    private CompiledFilter filter(String directory) {
+        return filters.computeIfAbsent(directory, this::compile);
+    }
+
+    private CompiledFilter compile(String directory) {
+        DirectoryOptions options = properties.getDirectoryOptions(directory);
+        List<Pattern> includes = new ArrayList<>();
+        List<Pattern> excludes = new ArrayList<>();
+        addGlobs(includes, options != null && options.getIncludeFiles() != null
+            ? options.getIncludeFiles() : properties.getIncludeFiles());
+        addRegexes(includes, options != null && options.getIncludeFilePatterns() != null
+            ? options.getIncludeFilePatterns() : properties.getIncludeFilePatterns());
+        addGlobs(excludes, options != null && options.getExcludeFiles() != null
+            ? options.getExcludeFiles() : properties.getExcludeFiles());
+        addRegexes(excludes, options != null && options.getExcludeFilePatterns() != null
+            ? options.getExcludeFilePatterns() : properties.getExcludeFilePatterns());
+
+        Counter rejected = Counter.builder("hdfswatcher.files.filtered")
+            .description("Directory entries rejected by include/exclude rules")
+            .tag("directory", directory)
+            .register(meterRegistry);
+        logger.debug("Compiled file filter for {}: {} include rules, {} exclude rules",
+            directory, includes.size(), excludes.size());
+        return new CompiledFilter(includes, excludes, rejected);
+    }
+
+    private static void addGlobs(List<Pattern> patterns, List<String> globs) {
+        if (globs == null) {
+            return;
+        }
+        for (String glob : globs) {
+            if (glob != null && !glob.trim().isEmpty()) {
+                // GlobPattern compiles to re2j; the include/exclude rules share java.util.regex
+                patterns.add(Pattern.compile(GlobPattern.compile(glob.trim()).pattern()));
+            }
+        }
+    }
+
+    private static void addRegexes(List<Pattern> patterns, List<String> regexes) {
+        if (regexes == null) {
+            return;
+        }
+        for (String regex : regexes) {
+            if (regex != null && !regex.isEmpty()) {
+                patterns.add(Pattern.compile(regex));
+            }
+        }
+    }
+
+    private record CompiledFilter(List<Pattern> includes, List<Pattern> excludes, Counter rejected) {
+
+        private boolean matches(String filename) {
+            for (Pattern exclude : excludes) {
+                if (exclude.matcher(filename).matches()) {
+                    return false;
+                }
+            }
+            if (includes.isEmpty()) {
+                return true;
+            }
+            for (Pattern include : includes) {
+                if (include.matcher(filename).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.WebHdfsService;
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Service to find a file from its hash without listing every watched directory.
+ *
+ * Maps each file fingerprint to the directory, name, size and modification time the file
+ * was last seen with. The index is fed by the poller and event discovery (every file they
+ * fingerprint) and by uploads, and is kept in memory only.
+ *
+ * A lookup that misses triggers one refresh for all of its missing hashes. The refresh
+ * lists the configured directories and then the other directories the index knows of,
+ * one at a time, and stops as soon as every missing hash has been found. A directory is
+ * listed by a refresh at most once per hdfswatcher.file-index-refresh-interval seconds,
+ * so repeated misses for files that no longer exist cost nothing. A refresh also drops
+ * the entries of files that are gone from the directories it listed.
+ */
+@Service
+public class FileIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileIndexService.class);
+
+    /**
+     * Where a file was last seen.
+     *
+     * @param directory the absolute path of the directory holding the file
+     * @param filename the file name
+     * @param size the file size in bytes
+     * @param modificationTime the file modification time
+     */
+    public record FileLocation(String directory, String filename, long size, long modificationTime) {
+    }
+
+    private final HdfsWatcherProperties properties;
+    private final ProcessedFilesService processedFilesService;
+    private final WebHdfsService webHdfsService;
+    private final Map<Fingerprint, FileLocation> locations = new ConcurrentHashMap<>();
+    // Every directory that has entries, so refreshes can reach subdirectories too
+    private final Set<String> directories = ConcurrentHashMap.newKeySet();
+    // Directories listed by a refresh, with the time of the listing
+    private final Map<String, Long> refreshedAt = new ConcurrentHashMap<>();
+    // One refresh at a time; a request that waited reuses what the previous one found
+    private final Object refreshLock = new Object();
+    private final long maxEntries;
+    private final long refreshIntervalMillis;
+    private final Counter hits;
+    private final Counter refreshedHits;
+    private final Counter misses;
+    private final Counter refreshListings;
+    private volatile boolean fullLogged = false;
+
+    public FileIndexService(HdfsWatcherProperties properties, ProcessedFilesService processedFilesService,
+                            WebHdfsService webHdfsService, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.processedFilesService = processedFilesService;
+        this.webHdfsService = webHdfsService;
+        if (properties.getFileIndexMaxEntries() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.file-index-max-entries must not be negative");
+        }
+        if (properties.getFileIndexRefreshInterval() < 0) {
+            throw new IllegalArgumentException("hdfswatcher.file-index-refresh-interval must not be negative");
+        }
+        this.maxEntries = properties.getFileIndexMaxEntries();
+        this.refreshIntervalMillis = properties.getFileIndexRefreshInterval() * 1000L;
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.refreshedHits = lookupCounter(meterRegistry, "refreshed");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.refreshListings = Counter.builder("hdfswatcher.file.index.refresh.listings")
+            .description("Directories listed to find hashes missing from the file index")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.file.index.entries", locations, Map::size)
+            .description("Files in the hash-to-file index")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Checks whether a file is indexed, so callers can skip building its directory path.
+     *
+     * @param fingerprint the file fingerprint
+     * @return true if the index has a location for it
+     */
+    public boolean contains(Fingerprint fingerprint) {
+        return locations.containsKey(fingerprint);
+    }
+
+    /**
+     * Records where a file was seen, replacing any earlier location. Ignored once the
+     * index holds hdfswatcher.file-index-max-entries files; lookups for files that did not
+     * fit fall back to a refresh.
+     *
+     * @param fingerprint the file fingerprint
+     * @param directory the absolute path of the directory holding the file
+     * @param filename the file name
+     * @param size the file size in bytes
+     * @param modificationTime the file modification time
+     */
+    public void record(Fingerprint fingerprint, String directory, String filename, long size, long modificationTime) {
+        if (locations.size() >= maxEntries && !locations.containsKey(fingerprint)) {
+            if (!fullLogged) {
+                fullLogged = true;
+                logger.warn("File index is full ({} entries); further files are found by listing", maxEntries);
+            }
+            return;
+        }
+        String normalized = normalize(directory);
+        directories.add(normalized);
+        locations.put(fingerprint, new FileLocation(normalized, filename, size, modificationTime));
+    }
+
+    /**
+     * Records where a file was seen, fingerprinting it first; for uploads.
+     *
+     * @see #record(Fingerprint, String, String, long, long)
+     */
+    public void record(String directory, String filename, long size, long modificationTime) {
+        record(processedFilesService.fingerprintFile(filename, size, modificationTime),
+            directory, filename, size, modificationTime);
+    }
+
+    /**
+     * Finds the files for a set of fingerprints. Fingerprints missing from the index are
+     * looked for with one refresh.
+     *
+     * @param fingerprints the fingerprints to look up
+     * @return the location of every fingerprint that was found
+     */
+    public Map<Fingerprint, FileLocation> resolve(Collection<Fingerprint> fingerprints) {
+        Map<Fingerprint, FileLocation> found = new HashMap<>();
+        Set<Fingerprint> missing = new HashSet<>();
+        for (Fingerprint fingerprint : fingerprints) {
+            FileLocation location = locations.get(fingerprint);
+            if (location != null) {
+                found.put(fingerprint, location);
+            } else {
+                missing.add(fingerprint);
+            }
+        }
+        hits.increment(found.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+        int before = found.size();
+        refresh(missing, found);
+        refreshedHits.increment(found.size() - before);
+        misses.increment(missing.size());
+        return found;
+    }
+
+    /**
+     * Gets the number of indexed files.
+     *
+     * @return the index size
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    // Moves what it finds from missing to found; found files are returned even if the index is full
+    private void refresh(Set<Fingerprint> missing, Map<Fingerprint, FileLocation> found) {
+        synchronized (refreshLock) {
+            // A refresh that ran while we waited may already have found them
+            for (Iterator<Fingerprint> it = missing.iterator(); it.hasNext(); ) {
+                Fingerprint fingerprint = it.next();
+                FileLocation location = locations.get(fingerprint);
+                if (location != null) {
+                    found.put(fingerprint, location);
+                    it.remove();
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (String directory : refreshCandidates()) {
+                if (missing.isEmpty()) {
+                    return;
+                }
+                Long listedAt = refreshedAt.get(directory);
+                if (listedAt != null && now - listedAt < refreshIntervalMillis) {
+                    continue;
+                }
+                try {
+                    int listed = properties.isPseudoop()
+                        ? listLocal(directory, missing, found) : listHdfs(directory, missing, found);
+                    refreshedAt.put(directory, now);
+                    refreshListings.increment();
+                    logger.debug("Indexed {} files in {} ({} hashes still missing)", listed, directory, missing.size());
+                } catch (Exception e) {
+                    logger.warn("Could not list {} to refresh the file index: {}", directory, e.getMessage());
+                }
+            }
+            if (!missing.isEmpty()) {
+                logger.info("{} hashes not found in any watched directory", missing.size());
+            }
+        }
+    }
+
+    private List<String> refreshCandidates() {
+        Set<String> candidates = new LinkedHashSet<>();
+        if (properties.isPseudoop()) {
+            candidates.add(normalize(Paths.get(properties.getLocalStoragePath()).toAbsolutePath().toString()));
+        } else {
+            for (String hdfsPath : properties.getHdfsPaths()) {
+                candidates.add(normalize(hdfsPath));
+            }
+        }
+        candidates.addAll(directories);
+        return new ArrayList<>(candidates);
+    }
+
+    private int listHdfs(String directory, Set<Fingerprint> missing, Map<Fingerprint, FileLocation> found) {
+        Set<Fingerprint> seen = new HashSet<>();
+        Iterator<Map<String, Object>> files = webHdfsService.iterateFilesWithDetails(directory);
+        while (files.hasNext()) {
+            Map<String, Object> file = files.next();
+            if (!"FILE".equals(file.get("type"))) {
+                continue;
+            }
+            index(directory, (String) file.get("filename"), (Long) file.get("size"),
+                (Long) file.get("modificationTime"), seen, missing, found);
+        }
+        dropMissing(directory, seen);
+        return seen.size();
+    }
+
+    private int listLocal(String directory, Set<Fingerprint> missing, Map<Fingerprint, FileLocation> found)
+            throws IOException {
+        Set<Fingerprint> seen = new HashSet<>();
+        try (Stream<Path> files = Files.list(Paths.get(directory))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    index(directory, file.getFileName().toString(), Files.size(file),
+                        Files.getLastModifiedTime(file).toMillis(), seen, missing, found);
+                }
+            }
+        }
+        dropMissing(directory, seen);
+        return seen.size();
+    }
+
+    private void index(String directory, String filename, long size, long modificationTime,
+                       Set<Fingerprint> seen, Set<Fingerprint> missing, Map<Fingerprint, FileLocation> found) {
+        Fingerprint fingerprint = processedFilesService.fingerprintFile(filename, size, modificationTime);
+        record(fingerprint, directory, filename, size, modificationTime);
+        seen.add(fingerprint);
+        if (missing.remove(fingerprint)) {
+            found.put(fingerprint, new FileLocation(directory, filename, size, modificationTime));
+        }
+    }
+
+    // A complete listing of a directory shows which of its entries are gone
+    private void dropMissing(String directory, Set<Fingerprint> seen) {
+        locations.entrySet().removeIf(entry ->
+            entry.getValue().directory().equals(directory) && !seen.contains(entry.getKey()));
+    }
+
+    private static String normalize(String directory) {
+        String normalized = directory.trim();
+        if (!normalized.startsWith("/")) {
+            normalized = "/" + normalized;
+        }
+        while (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("hdfswatcher.file.index.lookups")
+            .description("Hash-to-file lookups by result; refreshed means found by listing after a miss")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+}
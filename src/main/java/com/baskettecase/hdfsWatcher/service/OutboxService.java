@@ -0,0 +1,247 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.FileEvent;
+import com.baskettecase.hdfsWatcher.HdfsWatcherOutput;
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.outbox.OutboxLog;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Service that decouples discovering files from delivering their messages.
+ *
+ * With hdfswatcher.outbox-directory set, the poller appends each new file's event to an
+ * {@link OutboxLog} there instead of sending it, and the file counts as processed once
+ * the event is on disk. Events are stored with all their fields and written in the
+ * binding's schema when sent. A single drainer thread sends them through
+ * {@link HdfsWatcherOutput} in the order they were appended, taking a publish permit for
+ * each. While the broker is unavailable the drainer retries the oldest event with an
+ * exponential backoff from hdfswatcher.outbox-retry-backoff up to
+ * hdfswatcher.outbox-max-backoff, and polls keep spooling instead of re-listing and
+ * re-failing every file. Once hdfswatcher.outbox-max-bytes are waiting, appends block,
+ * which stalls the poll pipeline and with it discovery. Nothing is drained while
+ * processing is stopped.
+ *
+ * With publisher confirms enabled the drainer sends up to hdfswatcher.publish-confirm-window
+ * events and then waits for their confirms, moving past an event only once it is acked. Events
+ * are delivered at least once: a crash or failure between a send and its commit sends them again.
+ */
+@Service
+public class OutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxService.class);
+
+    private final HdfsWatcherProperties properties;
+    private final HdfsWatcherOutput output;
+    private final ProcessingStateService processingStateService;
+    private final PublishRateLimiter publishRateLimiter;
+    // Null when the outbox is disabled
+    private final OutboxLog outbox;
+    private final Thread drainer;
+    private final Counter delivered;
+    private final Counter deliveryFailures;
+    private volatile boolean running = true;
+
+    public OutboxService(HdfsWatcherProperties properties, HdfsWatcherOutput output,
+                         ProcessingStateService processingStateService, PublishRateLimiter publishRateLimiter,
+                         MeterRegistry meterRegistry) throws IOException {
+        this.properties = properties;
+        this.output = output;
+        this.processingStateService = processingStateService;
+        this.publishRateLimiter = publishRateLimiter;
+        if (properties.getOutboxSegmentBytes() < HdfsWatcherConstants.MIN_OUTBOX_SEGMENT_BYTES
+            || properties.getOutboxSegmentBytes() > HdfsWatcherConstants.MAX_OUTBOX_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("hdfswatcher.outbox-segment-bytes must be between 64 KiB and 1 GiB");
+        }
+        if (properties.getOutboxMaxBytes() < properties.getOutboxSegmentBytes()) {
+            throw new IllegalArgumentException("hdfswatcher.outbox-max-bytes must be at least hdfswatcher.outbox-segment-bytes");
+        }
+        if (properties.getOutboxRetryBackoff() < 1 || properties.getOutboxMaxBackoff() < properties.getOutboxRetryBackoff()) {
+            throw new IllegalArgumentException(
+                "hdfswatcher.outbox-retry-backoff must be at least 1 ms and at most hdfswatcher.outbox-max-backoff");
+        }
+        this.delivered = Counter.builder("hdfswatcher.outbox.delivered")
+            .description("Messages sent from the outbox")
+            .register(meterRegistry);
+        this.deliveryFailures = Counter.builder("hdfswatcher.outbox.delivery.failures")
+            .description("Outbox deliveries that failed and were retried after a backoff")
+            .register(meterRegistry);
+        String directory = properties.getOutboxDirectory();
+        if (directory == null || directory.trim().isEmpty()) {
+            this.outbox = null;
+            this.drainer = null;
+            return;
+        }
+        if (!HdfsWatcherConstants.PUBLISH_BATCH_MODE_NONE.equals(properties.getPublishBatchMode())) {
+            throw new IllegalArgumentException("hdfswatcher.outbox-directory cannot be combined with hdfswatcher.publish-batch-mode");
+        }
+        this.outbox = OutboxLog.open(Paths.get(directory.trim()), properties.getOutboxSegmentBytes(),
+            properties.getOutboxMaxBytes());
+        Gauge.builder("hdfswatcher.outbox.depth", outbox, OutboxLog::size)
+            .description("Messages in the outbox waiting to be sent")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.outbox.bytes", outbox, OutboxLog::usedBytes)
+            .description("Outbox bytes waiting to be sent")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.outbox.age", outbox, OutboxService::oldestAgeSeconds)
+            .description("Time the oldest message in the outbox has been waiting")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+        this.drainer = Thread.ofVirtual().name("outbox-drainer").start(this::drain);
+        logger.info("Spooling file events through the outbox in {} ({} undelivered)",
+            outbox.getDirectory(), outbox.size());
+    }
+
+    /**
+     * Checks whether files are spooled through the outbox instead of being sent directly.
+     */
+    public boolean isEnabled() {
+        return outbox != null;
+    }
+
+    /**
+     * Spools file events for delivery; they are on disk when this returns. Waits while the
+     * outbox holds hdfswatcher.outbox-max-bytes.
+     *
+     * @param events the file events, in the order to send them
+     * @throws IOException if the outbox cannot be written
+     * @throws InterruptedException if interrupted while waiting for room; nothing is spooled
+     */
+    public void append(List<FileEvent> events) throws IOException, InterruptedException {
+        if (outbox == null) {
+            throw new IllegalStateException("hdfswatcher.outbox-directory is not set");
+        }
+        List<String> encoded = new ArrayList<>(events.size());
+        for (FileEvent event : events) {
+            encoded.add(output.encode(event));
+        }
+        outbox.append(encoded);
+    }
+
+    /**
+     * Gets the number of messages waiting in the outbox, or 0 when it is disabled.
+     */
+    public long getDepth() {
+        return outbox != null ? outbox.size() : 0;
+    }
+
+    private void drain() {
+        long backoff = properties.getOutboxRetryBackoff();
+        int batch = properties.isPublishConfirms() ? properties.getPublishConfirmWindow()
+            : HdfsWatcherConstants.OUTBOX_DRAIN_BATCH;
+        while (running) {
+            try {
+                if (!processingStateService.isProcessingEnabled()) {
+                    Thread.sleep(HdfsWatcherConstants.OUTBOX_IDLE_WAIT_MS);
+                    continue;
+                }
+                List<OutboxLog.Entry> entries = outbox.peek(batch, HdfsWatcherConstants.OUTBOX_IDLE_WAIT_MS);
+                if (entries.isEmpty()) {
+                    continue;
+                }
+                int sent = deliver(entries);
+                if (sent > 0) {
+                    outbox.commit(entries.get(sent - 1).next(), sent);
+                    delivered.increment(sent);
+                }
+                if (sent == entries.size()) {
+                    backoff = properties.getOutboxRetryBackoff();
+                    continue;
+                }
+                deliveryFailures.increment();
+                logger.warn("Outbox delivery failed; retrying {} waiting messages in {} ms", outbox.size(), backoff);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, properties.getOutboxMaxBackoff());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.error("Outbox drainer failed; retrying in {} ms", backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends entries in order and stops at the first one that fails.
+     *
+     * @return how many entries from the start of the list were delivered
+     */
+    private int deliver(List<OutboxLog.Entry> entries) throws InterruptedException {
+        String mode = properties.getMode();
+        if (!properties.isPublishConfirms()) {
+            for (int i = 0; i < entries.size(); i++) {
+                publishRateLimiter.acquire();
+                try {
+                    output.send(output.decode(entries.get(i).payload()), mode);
+                } catch (RuntimeException e) {
+                    logger.debug("Failed to send outbox message {}: {}", entries.get(i).payload(), e.getMessage());
+                    return i;
+                }
+            }
+            return entries.size();
+        }
+        List<CompletableFuture<Boolean>> confirms = new ArrayList<>(entries.size());
+        for (OutboxLog.Entry entry : entries) {
+            publishRateLimiter.acquire();
+            try {
+                confirms.add(output.sendConfirmed(output.decode(entry.payload()), mode));
+            } catch (RuntimeException e) {
+                logger.debug("Failed to send outbox message {}: {}", entry.payload(), e.getMessage());
+                break;
+            }
+        }
+        for (int i = 0; i < confirms.size(); i++) {
+            try {
+                if (!confirms.get(i).get()) {
+                    return i;
+                }
+            } catch (ExecutionException e) {
+                logger.debug("No confirm for outbox message {}: {}", entries.get(i).payload(), e.getCause().toString());
+                return i;
+            }
+        }
+        return confirms.size();
+    }
+
+    private static double oldestAgeSeconds(OutboxLog outbox) {
+        long oldest = outbox.oldestTimestamp();
+        return oldest < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
+    }
+
+    /**
+     * Stops the drainer and flushes the outbox on shutdown. Messages not yet sent are sent
+     * after the next start.
+     */
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (drainer == null) {
+            return;
+        }
+        drainer.interrupt();
+        try {
+            drainer.join(HdfsWatcherConstants.OUTBOX_IDLE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        outbox.close();
+    }
+}
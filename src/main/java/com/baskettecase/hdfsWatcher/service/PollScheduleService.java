@@ -0,0 +1,120 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties.DirectoryOptions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service to decide when each watched directory is polled next.
+ *
+ * Every directory starts at hdfswatcher.poll-interval. With adaptive polling enabled, a poll
+ * that found no new files doubles the directory's interval up to its maximum, and a poll
+ * that sent files halves it down to its minimum. Bounds come from
+ * hdfswatcher.directory-options[path] and fall back to the global min/max poll interval.
+ * The current interval of each directory is published as the hdfswatcher.poll.interval gauge.
+ */
+@Service
+public class PollScheduleService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PollScheduleService.class);
+
+    private final HdfsWatcherProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, DirectorySchedule> schedules = new ConcurrentHashMap<>();
+
+    public PollScheduleService(HdfsWatcherProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Checks whether a directory should be polled now. A directory that has never been
+     * polled is always due.
+     *
+     * @param directory the configured directory path
+     * @return true if the directory's next poll time has passed
+     */
+    public boolean isDue(String directory) {
+        return System.nanoTime() - schedule(directory).nextPollNanos >= 0;
+    }
+
+    /**
+     * Records the result of a poll and schedules the next one, one interval after now.
+     *
+     * @param directory the configured directory path
+     * @param newFiles the number of files the poll sent
+     */
+    public void recordPoll(String directory, int newFiles) {
+        DirectorySchedule schedule = schedule(directory);
+        synchronized (schedule) {
+            long previous = schedule.intervalMillis;
+            if (properties.isAdaptivePolling()) {
+                long next = newFiles > 0 ? previous / 2 : previous * 2;
+                schedule.intervalMillis = Math.max(minIntervalMillis(directory), Math.min(maxIntervalMillis(directory), next));
+            }
+            schedule.nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(schedule.intervalMillis);
+            if (schedule.intervalMillis != previous) {
+                logger.debug("Poll interval for {} changed from {} ms to {} ms ({} new files)",
+                    directory, previous, schedule.intervalMillis, newFiles);
+            }
+        }
+    }
+
+    /**
+     * Gets the interval currently used for a directory.
+     *
+     * @param directory the configured directory path
+     * @return the interval in milliseconds
+     */
+    public long getIntervalMillis(String directory) {
+        return schedule(directory).intervalMillis;
+    }
+
+    private DirectorySchedule schedule(String directory) {
+        return schedules.computeIfAbsent(directory, this::register);
+    }
+
+    private DirectorySchedule register(String directory) {
+        long initial = TimeUnit.SECONDS.toMillis(properties.getPollInterval());
+        if (properties.isAdaptivePolling()) {
+            initial = Math.max(minIntervalMillis(directory), Math.min(maxIntervalMillis(directory), initial));
+        }
+        DirectorySchedule schedule = new DirectorySchedule(initial);
+        Gauge.builder("hdfswatcher.poll.interval", schedule, s -> s.intervalMillis / 1000.0)
+            .description("Current poll interval of a watched directory (seconds)")
+            .baseUnit("seconds")
+            .tag("directory", directory)
+            .register(meterRegistry);
+        return schedule;
+    }
+
+    private long minIntervalMillis(String directory) {
+        DirectoryOptions options = properties.getDirectoryOptions(directory);
+        Integer seconds = options != null ? options.getMinPollInterval() : null;
+        return TimeUnit.SECONDS.toMillis(seconds != null ? seconds : properties.getMinPollInterval());
+    }
+
+    private long maxIntervalMillis(String directory) {
+        DirectoryOptions options = properties.getDirectoryOptions(directory);
+        Integer seconds = options != null ? options.getMaxPollInterval() : null;
+        return TimeUnit.SECONDS.toMillis(seconds != null ? seconds : properties.getMaxPollInterval());
+    }
+
+    private static final class DirectorySchedule {
+        private volatile long intervalMillis;
+        // Due immediately on first sight
+        private volatile long nextPollNanos = System.nanoTime();
+
+        private DirectorySchedule(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+    }
+}
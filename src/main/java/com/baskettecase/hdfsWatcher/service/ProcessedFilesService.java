@@ -1,28 +1,209 @@
 package com.baskettecase.hdfsWatcher.service;
 
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.dedup.DirectoryPartitions;
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.dedup.FingerprintEngine;
+import com.baskettecase.hdfsWatcher.dedup.FingerprintFilter;
+import com.baskettecase.hdfsWatcher.dedup.FingerprintSet;
+import com.baskettecase.hdfsWatcher.dedup.LocalProcessedFilesStore;
+import com.baskettecase.hdfsWatcher.dedup.ProcessedFilesJournal;
+import com.baskettecase.hdfsWatcher.dedup.ProcessedFilesStore;
+import com.baskettecase.hdfsWatcher.dedup.StripedFingerprintSet;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Service to track processed files to avoid duplicate processing.
  * Uses file hash (filename + size + modification time) for unique identification.
+ * 
+ * Files are fingerprinted by the {@link FingerprintEngine} named by
+ * hdfswatcher.fingerprint-algorithm. Processed files are kept as 128-bit
+ * {@link Fingerprint}s in the {@link ProcessedFilesStore} selected by
+ * hdfswatcher.dedup-backend:
+ * <ul>
+ *   <li>memory: a {@link StripedFingerprintSet}, whose stripes are locked independently
+ *       (about 22-34 bytes per file instead of ~150 for a set of hex strings). Clearing
+ *       and snapshots take every stripe, so they are atomic.</li>
+ *   <li>local (default): the same set, with every add, remove and clear also appended to
+ *       a {@link ProcessedFilesJournal} in hdfswatcher.processed-files-directory. The
+ *       journal is fsynced every hdfswatcher.processed-journal-sync-interval milliseconds
+ *       and compacted into a snapshot once it holds
+ *       hdfswatcher.processed-journal-compaction-records records, so a restart recovers
+ *       the set instead of re-sending every file. An empty directory means memory.</li>
+ *   <li>jdbc: a table shared by every replica, so scaling out or failing over does not
+ *       re-send files; see {@link com.baskettecase.hdfsWatcher.dedup.JdbcProcessedFilesStore}.</li>
+ * </ul>
+ * 
+ * For the local backends, unless hdfswatcher.processed-filter-enabled is false, a
+ * {@link FingerprintFilter} in front of the store answers most lookups for new files
+ * without touching it. A shared store is changed by other replicas too, so the filter
+ * is not used there; polls look their files up in bulk with {@link #areFilesProcessed}.
+ * The string API is an adapter over all of this: any hash is reduced to its first 128
+ * bits, and {@link #getAllProcessedFingerprints()} returns those as 32-digit hex strings.
+ * 
+ * With hdfswatcher.dedup-snapshot-path set, the whole set is also exported to that file
+ * in the journal's snapshot format every hdfswatcher.dedup-snapshot-interval milliseconds
+ * (when it changed) and on shutdown. An empty store is seeded from the file at startup,
+ * so a restarted or replacement instance does not re-send what its predecessor sent.
  */
 @Service
 public class ProcessedFilesService {
     
     private static final Logger logger = LoggerFactory.getLogger(ProcessedFilesService.class);
     
-    private final Set<String> processedFiles = new HashSet<>();
+    // Mutated concurrently by directory poll tasks, event discovery and API requests
+    private final ProcessedFilesStore processedFiles;
+    // Bumped whenever files become unprocessed again, so directory watermarks know to rescan
+    private final AtomicLong generation = new AtomicLong();
+    private final FingerprintEngine fingerprintEngine;
+    // Hoisted so updates do not allocate a method reference each time
+    private final StripedFingerprintSet.ChangeListener changeListener = this::onChange;
+    // Bloom filter in front of processedFiles; null when disabled. Swapped, never cleared in place
+    private volatile FingerprintFilter filter;
+    // Receives adds while a replacement filter is being built; swaps are guarded by filterLock
+    private volatile FingerprintFilter rebuildTarget;
+    private final Object filterLock = new Object();
+    private final double filterFalsePositiveRate;
+    // Removals since the current filter was built; their bits linger as false positives
+    private final AtomicLong filterStaleEntries = new AtomicLong();
+    private final AtomicBoolean rebuildingFilter = new AtomicBoolean(false);
+    private final Counter filterNegatives;
+    private final Counter filterPositives;
+    private final Counter filterFalsePositives;
+    // Processed entries grouped by directory, for reconciliation against listings
+    private final DirectoryPartitions partitions = new DirectoryPartitions();
+    private final Counter evictedDeleted;
+    private final Counter evictedUnpartitioned;
+    // Null when snapshot export is disabled
+    private final Path snapshotFile;
+    // Changes made through this service, so unchanged sets are not exported again
+    private final LongAdder changes = new LongAdder();
+    private volatile long snapshotChanges = -1;
+    private final Object snapshotLock = new Object();
     
     /**
-     * Generates a unique hash for a file based on its metadata.
+     * @param storeProvider the jdbc backend, or a custom store bean; the memory and local
+     *                      backends are created here when there is none
+     */
+    public ProcessedFilesService(HdfsWatcherProperties properties, MeterRegistry meterRegistry,
+                                 ObjectProvider<ProcessedFilesStore> storeProvider) throws IOException {
+        this.fingerprintEngine = FingerprintEngine.forName(properties.getFingerprintAlgorithm());
+        logger.info("Fingerprinting files with {}", fingerprintEngine.name());
+        String backend = properties.getDedupBackend();
+        if (backend == null ||
+            !(HdfsWatcherConstants.DEDUP_BACKEND_MEMORY.equals(backend) ||
+              HdfsWatcherConstants.DEDUP_BACKEND_LOCAL.equals(backend) ||
+              HdfsWatcherConstants.DEDUP_BACKEND_JDBC.equals(backend))) {
+            throw new IllegalArgumentException("hdfswatcher.dedup-backend must be 'memory', 'local' or 'jdbc'");
+        }
+        if (properties.getProcessedJournalSyncInterval() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.processed-journal-sync-interval must be at least 1 ms");
+        }
+        if (properties.getProcessedJournalCompactionRecords() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.processed-journal-compaction-records must be at least 1");
+        }
+        if (properties.getDedupSnapshotInterval() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.dedup-snapshot-interval must be at least 1 ms");
+        }
+        String snapshotPath = properties.getDedupSnapshotPath();
+        this.snapshotFile = snapshotPath != null && !snapshotPath.trim().isEmpty() ? Paths.get(snapshotPath.trim()) : null;
+        int stripes = properties.getProcessedStoreStripes();
+        if (stripes < 1 || stripes > 1024 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("hdfswatcher.processed-store-stripes must be a power of two between 1 and 1024");
+        }
+        this.filterFalsePositiveRate = properties.getProcessedFilterFalsePositiveRate();
+        if (!(filterFalsePositiveRate > 0 && filterFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException("hdfswatcher.processed-filter-false-positive-rate must be between 0 and 1");
+        }
+        ProcessedFilesStore configured = storeProvider.getIfAvailable();
+        if (configured != null) {
+            this.processedFiles = configured;
+        } else if (HdfsWatcherConstants.DEDUP_BACKEND_JDBC.equals(backend)) {
+            throw new IllegalStateException("hdfswatcher.dedup-backend is 'jdbc' but no processed-files store was created");
+        } else {
+            String directory = properties.getProcessedFilesDirectory();
+            boolean journaled = HdfsWatcherConstants.DEDUP_BACKEND_LOCAL.equals(backend) 
+                && directory != null && !directory.trim().isEmpty();
+            LocalProcessedFilesStore local = new LocalProcessedFilesStore(stripes, 
+                journaled ? Paths.get(directory.trim()) : null, properties.getProcessedJournalCompactionRecords());
+            if (local.getJournal() != null) {
+                Gauge.builder("hdfswatcher.processed.journal.records", local.getJournal(), 
+                        ProcessedFilesJournal::getRecordsSinceSnapshot)
+                    .description("Journal records written since the last snapshot")
+                    .register(meterRegistry);
+            } else {
+                logger.info("Processed-files persistence disabled; the processed set starts empty on every restart");
+            }
+            this.processedFiles = local;
+        }
+        logger.info("Processed files are recorded in the {} store", processedFiles.name());
+        if (snapshotFile != null && Files.exists(snapshotFile) && processedFiles.size() == 0) {
+            // Before the filter is built, so it covers the seeded entries
+            importSnapshot(snapshotFile);
+            // The file already holds exactly this set
+            snapshotChanges = changes.sum();
+        }
+        // The filter is only kept in step with stores whose every change passes through here
+        boolean filtered = processedFiles instanceof LocalProcessedFilesStore;
+        if (properties.isProcessedFilterEnabled() && !filtered) {
+            logger.info("Processed-files filter disabled: the {} store can change outside this process", 
+                processedFiles.name());
+        }
+        if (properties.isProcessedFilterEnabled() && filtered) {
+            long startNanos = System.nanoTime();
+            FingerprintSet.Snapshot snapshot = processedFiles.snapshot();
+            this.filter = buildFilter(snapshot);
+            logger.info("Built processed-files filter for {} entries in {} ms ({} KiB)", 
+                snapshot.size(), (System.nanoTime() - startNanos) / 1_000_000, filter.memoryBytes() >> 10);
+            Gauge.builder("hdfswatcher.processed.filter.memory", this, ProcessedFilesService::getFilterMemoryBytes)
+                .description("Heap used by the processed-files Bloom filter")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+            Gauge.builder("hdfswatcher.processed.filter.false.positive.rate", this, 
+                    ProcessedFilesService::getFilterFalsePositiveRate)
+                .description("Estimated chance that an unprocessed file passes the filter and needs an exact lookup")
+                .register(meterRegistry);
+        }
+        this.filterNegatives = filterLookupCounter(meterRegistry, "negative");
+        this.filterPositives = filterLookupCounter(meterRegistry, "positive");
+        this.filterFalsePositives = filterLookupCounter(meterRegistry, "false-positive");
+        this.evictedDeleted = evictionCounter(meterRegistry, "deleted");
+        this.evictedUnpartitioned = evictionCounter(meterRegistry, "unpartitioned");
+        Gauge.builder("hdfswatcher.processed.partitions", partitions, DirectoryPartitions::partitionCount)
+            .description("Directories with processed entries tracked for reconciliation")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.processed.files", this, ProcessedFilesService::getProcessedFilesCount)
+            .description("Files currently tracked as processed")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.processed.memory", this, ProcessedFilesService::getMemoryBytes)
+            .description("Heap used by the processed-files table")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Generates a unique hash for a file based on its metadata, using the configured
+     * fingerprint engine.
      * 
      * @param filename the file name
      * @param fileSize the file size in bytes
@@ -30,24 +211,29 @@ public class ProcessedFilesService {
      * @return a unique hash string for the file
      */
     public String generateFileHash(String filename, long fileSize, long modificationTime) {
-        String fileData = filename + "|" + fileSize + "|" + modificationTime;
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(fileData.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("SHA-256 algorithm not available, using fallback hash", e);
-            // Fallback to simple hash
-            return Integer.toString(fileData.hashCode());
-        }
+        return fingerprintEngine.hash(filename, fileSize, modificationTime);
+    }
+    
+    /**
+     * Computes a file's fingerprint without building its hex hash. Used on the polling hot
+     * path, where most files turn out to be processed already.
+     * 
+     * @param filename the file name
+     * @param fileSize the file size in bytes
+     * @param modificationTime the file modification time
+     * @return the file's fingerprint
+     */
+    public Fingerprint fingerprintFile(String filename, long fileSize, long modificationTime) {
+        return fingerprintEngine.fingerprint(filename, fileSize, modificationTime);
+    }
+    
+    /**
+     * Checks whether the processed files store is shared with other replicas.
+     * 
+     * @return true for the jdbc backend
+     */
+    public boolean isStoreShared() {
+        return processedFiles.isShared();
     }
     
     /**
@@ -57,7 +243,67 @@ public class ProcessedFilesService {
      * @return true if the file has been processed, false otherwise
      */
     public boolean isFileProcessed(String fileHash) {
-        return processedFiles.contains(fileHash);
+        return isFileProcessed(Fingerprint.fromHash(fileHash));
+    }
+    
+    /**
+     * Checks if a file has been processed.
+     * 
+     * @param fingerprint the file fingerprint to check
+     * @return true if the file has been processed, false otherwise
+     */
+    public boolean isFileProcessed(Fingerprint fingerprint) {
+        FingerprintFilter current = filter;
+        if (current == null) {
+            return processedFiles.contains(fingerprint.high(), fingerprint.low());
+        }
+        if (!current.mightContain(fingerprint.high(), fingerprint.low())) {
+            filterNegatives.increment();
+            return false;
+        }
+        boolean processed = processedFiles.contains(fingerprint.high(), fingerprint.low());
+        (processed ? filterPositives : filterFalsePositives).increment();
+        return processed;
+    }
+    
+    /**
+     * Checks many files at once. Files the filter rules out are answered locally; the rest
+     * are looked up with one bulk call to the store, which for the jdbc backend is one
+     * query per hdfswatcher.dedup-jdbc-batch-size files instead of one per file.
+     * 
+     * @param fingerprints the file fingerprints to check
+     * @return one flag per fingerprint, true if the file has been processed
+     */
+    public boolean[] areFilesProcessed(Fingerprint[] fingerprints) {
+        int count = fingerprints.length;
+        boolean[] processed = new boolean[count];
+        FingerprintFilter current = filter;
+        int[] candidates = new int[count];
+        long[] packed = new long[2 * count];
+        int candidateCount = 0;
+        for (int i = 0; i < count; i++) {
+            Fingerprint fingerprint = fingerprints[i];
+            if (current != null && !current.mightContain(fingerprint.high(), fingerprint.low())) {
+                filterNegatives.increment();
+                continue;
+            }
+            candidates[candidateCount] = i;
+            packed[2 * candidateCount] = fingerprint.high();
+            packed[2 * candidateCount + 1] = fingerprint.low();
+            candidateCount++;
+        }
+        if (candidateCount == 0) {
+            return processed;
+        }
+        boolean[] stored = processedFiles.containsAll(
+            candidateCount == count ? packed : Arrays.copyOf(packed, 2 * candidateCount));
+        for (int k = 0; k < candidateCount; k++) {
+            processed[candidates[k]] = stored[k];
+            if (current != null) {
+                (stored[k] ? filterPositives : filterFalsePositives).increment();
+            }
+        }
+        return processed;
     }
     
     /**
@@ -66,8 +312,148 @@ public class ProcessedFilesService {
      * @param fileHash the file hash to mark as processed
      */
     public void markFileAsProcessed(String fileHash) {
-        processedFiles.add(fileHash);
-        logger.debug("Marked file as processed: {}", fileHash);
+        markFileAsProcessed(Fingerprint.fromHash(fileHash));
+    }
+    
+    /**
+     * Marks a file as processed.
+     * 
+     * @param fingerprint the file fingerprint to mark as processed
+     */
+    public void markFileAsProcessed(Fingerprint fingerprint) {
+        processedFiles.add(fingerprint.high(), fingerprint.low(), changeListener);
+        logger.debug("Marked file as processed: {}", fingerprint.toHex());
+    }
+    
+    /**
+     * Marks a file as processed and records the directory it was found in, so the entry
+     * can be evicted by {@link #reconcileDirectory} once the file is deleted.
+     * 
+     * @param fingerprint the file fingerprint to mark as processed
+     * @param directory the directory holding the file
+     */
+    public void markFileAsProcessed(Fingerprint fingerprint, String directory) {
+        processedFiles.add(fingerprint.high(), fingerprint.low(), changeListener);
+        partitions.add(directory, fingerprint.high(), fingerprint.low());
+        logger.debug("Marked file as processed: {} in {}", fingerprint, directory);
+    }
+    
+    /**
+     * Compares a directory listing with the entries recorded for that directory. Entries
+     * whose file has been missing for the grace period are removed from the processed set;
+     * processed live files that no directory claims yet are recorded under this one.
+     * 
+     * @param directory the listed directory
+     * @param live fingerprints of all files in the directory as (high, low) pairs; empty if
+     *             the directory is gone. Sorted in place
+     * @param graceMillis how long a file must be missing before its entry is evicted
+     * @return the number of entries evicted
+     */
+    public int reconcileDirectory(String directory, long[] live, long graceMillis) {
+        // One bulk lookup for the whole listing instead of a store round trip per live file
+        boolean[] stored = processedFiles.containsAll(live);
+        FingerprintSet processedLive = new FingerprintSet(stored.length);
+        for (int i = 0; i < stored.length; i++) {
+            if (stored[i]) {
+                processedLive.add(live[2 * i], live[2 * i + 1]);
+            }
+        }
+        long[] evicted = partitions.reconcile(directory, live, System.currentTimeMillis(), graceMillis, 
+            processedLive::contains);
+        int count = 0;
+        for (int i = 0; i < evicted.length; i += 2) {
+            if (!partitions.isPartitioned(evicted[i], evicted[i + 1])
+                    && processedFiles.remove(evicted[i], evicted[i + 1], changeListener)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            evictedDeleted.increment(count);
+            logger.info("Evicted {} processed entries for files deleted from {}", count, directory);
+        }
+        return count;
+    }
+    
+    /**
+     * Evicts processed entries that no directory has claimed for the grace period. Call
+     * only after every watched directory has been reconciled, since that is what claims
+     * the entries of live files. Does nothing for a shared store, whose entries include
+     * those of directories other replicas watch.
+     * 
+     * @param graceMillis how long an entry must stay unclaimed before it is evicted
+     * @return the number of entries evicted
+     */
+    public int sweepUnpartitioned(long graceMillis) {
+        if (processedFiles.isShared()) {
+            return 0;
+        }
+        long[] evicted = partitions.sweepUnpartitioned(processedFiles.snapshot(), System.currentTimeMillis(), 
+            graceMillis);
+        int count = 0;
+        for (int i = 0; i < evicted.length; i += 2) {
+            if (processedFiles.remove(evicted[i], evicted[i + 1], changeListener)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            evictedUnpartitioned.increment(count);
+            logger.info("Evicted {} processed entries whose files were not found in any watched directory", count);
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the directories that have processed entries recorded for reconciliation.
+     * 
+     * @return a copy of the directory paths
+     */
+    public Set<String> getPartitionedDirectories() {
+        return partitions.directories();
+    }
+    
+    /**
+     * Claims a file for sending. Fails if the file is already processed or another
+     * thread (or, for a shared store, another replica) currently holds the claim. Every successful claim must be released with
+     * {@link #releaseClaim(String)} after the file has been marked as processed (or failed).
+     * 
+     * @param fileHash the file hash to claim
+     * @return true if the caller now owns the send of this file
+     */
+    public boolean tryClaim(String fileHash) {
+        return tryClaim(Fingerprint.fromHash(fileHash));
+    }
+    
+    /**
+     * Claims a file for sending; see {@link #tryClaim(String)}.
+     * 
+     * @param fingerprint the file fingerprint to claim
+     * @return true if the caller now owns the send of this file
+     */
+    public boolean tryClaim(Fingerprint fingerprint) {
+        FingerprintFilter current = filter;
+        if (current != null && current.mightContain(fingerprint.high(), fingerprint.low()) 
+                && processedFiles.contains(fingerprint.high(), fingerprint.low())) {
+            return false;
+        }
+        return processedFiles.tryClaim(fingerprint.high(), fingerprint.low());
+    }
+    
+    /**
+     * Releases a claim taken with {@link #tryClaim(String)}.
+     * 
+     * @param fileHash the file hash to release
+     */
+    public void releaseClaim(String fileHash) {
+        releaseClaim(Fingerprint.fromHash(fileHash));
+    }
+    
+    /**
+     * Releases a claim taken with {@link #tryClaim(Fingerprint)}.
+     * 
+     * @param fingerprint the file fingerprint to release
+     */
+    public void releaseClaim(Fingerprint fingerprint) {
+        processedFiles.releaseClaim(fingerprint.high(), fingerprint.low());
     }
     
     /**
@@ -76,7 +462,9 @@ public class ProcessedFilesService {
      * @param fileHash the file hash to mark for reprocessing
      */
     public void markFileForReprocessing(String fileHash) {
-        processedFiles.remove(fileHash);
+        Fingerprint fingerprint = Fingerprint.fromHash(fileHash);
+        processedFiles.remove(fingerprint.high(), fingerprint.low(), changeListener);
+        generation.incrementAndGet();
         logger.debug("Marked file for reprocessing: {}", fileHash);
     }
     
@@ -86,27 +474,276 @@ public class ProcessedFilesService {
      * @return the number of files that were cleared
      */
     public int clearAllProcessedFiles() {
-        int count = processedFiles.size();
-        processedFiles.clear();
+        int count = processedFiles.clear(changeListener);
+        partitions.clear();
+        generation.incrementAndGet();
         logger.info("Cleared {} processed files from tracking", count);
         return count;
     }
     
+    /**
+     * Gets the generation of the processed set. It changes whenever a file is marked
+     * for reprocessing or the set is cleared, i.e. whenever a file that was skipped
+     * before could now be sent again.
+     * 
+     * @return the current generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+    
     /**
      * Gets the current number of processed files.
      * 
      * @return the number of processed files
      */
     public int getProcessedFilesCount() {
-        return processedFiles.size();
+        return (int) Math.min(Integer.MAX_VALUE, processedFiles.size());
+    }
+    
+    /**
+     * Gets the heap used by the processed-files store.
+     * 
+     * @return the store's size in bytes
+     */
+    public long getMemoryBytes() {
+        return processedFiles.memoryBytes();
     }
     
     /**
-     * Gets all processed file hashes (for debugging/admin purposes).
+     * Gets the fingerprints of all processed files (for debugging/admin purposes). Only the
+     * first 128 bits of each hash are kept, so entries are 32-digit hex strings: the prefix
+     * of the hash {@link #generateFileHash} returns, not the hash itself.
      * 
      * @return a copy of the processed files set
      */
-    public Set<String> getAllProcessedFiles() {
-        return new HashSet<>(processedFiles);
+    public Set<String> getAllProcessedFingerprints() {
+        FingerprintSet.Snapshot snapshot = processedFiles.snapshot();
+        // Strings are built from the copy, so pollers are not blocked by a large export
+        Set<String> hashes = new HashSet<>(Math.max(16, snapshot.size() * 4 / 3 + 1));
+        while (snapshot.next()) {
+            hashes.add(Fingerprint.toHex(snapshot.high(), snapshot.low()));
+        }
+        return hashes;
+    }
+    
+    /**
+     * Makes buffered changes durable: fsyncs the local journal (compacting it once it has
+     * grown past hdfswatcher.processed-journal-compaction-records), or writes the jdbc
+     * backend's buffered marks.
+     */
+    @Scheduled(fixedDelayString = "${hdfswatcher.processed-journal-sync-interval:100}")
+    public void syncJournal() {
+        try {
+            processedFiles.sync();
+        } catch (IOException e) {
+            logger.error("Failed to sync the {} processed-files store", processedFiles.name(), e);
+        }
+    }
+    
+    /**
+     * Exports the processed set to hdfswatcher.dedup-snapshot-path if it changed since the
+     * last export.
+     */
+    @Scheduled(fixedDelayString = "${hdfswatcher.dedup-snapshot-interval:300000}")
+    public void writeSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            long changed = changes.sum();
+            if (changed == snapshotChanges) {
+                return;
+            }
+            exportSnapshot(snapshotFile);
+            snapshotChanges = changed;
+        } catch (IOException e) {
+            logger.error("Failed to write processed-files snapshot to {}", snapshotFile, e);
+        }
+    }
+    
+    /**
+     * Writes every processed fingerprint to a snapshot file, replacing it atomically.
+     * 
+     * @param file the file to write
+     * @return the number of entries written
+     * @throws IOException if the file cannot be written
+     */
+    public int exportSnapshot(Path file) throws IOException {
+        synchronized (snapshotLock) {
+            long startNanos = System.nanoTime();
+            int count = ProcessedFilesJournal.writeSnapshotFile(file, processedFiles.snapshot(), 0);
+            logger.info("Exported {} processed files to {} in {} ms", 
+                count, file, (System.nanoTime() - startNanos) / 1_000_000);
+            return count;
+        }
+    }
+    
+    /**
+     * Adds every fingerprint in a snapshot file to the processed set, e.g. one exported by
+     * another instance. Entries already present are kept; nothing is removed. The added
+     * entries are durable when this returns.
+     * 
+     * @param file the snapshot file
+     * @return the number of entries that were not processed before
+     * @throws IOException if the file is not a valid snapshot or the store cannot be synced
+     */
+    public long importSnapshot(Path file) throws IOException {
+        long startNanos = System.nanoTime();
+        long[] counts = new long[2];
+        ProcessedFilesJournal.readSnapshotFile(file, (high, low) -> {
+            counts[0]++;
+            if (processedFiles.add(high, low, changeListener)) {
+                counts[1]++;
+            }
+        });
+        processedFiles.sync();
+        logger.info("Imported {} of {} processed files from {} in {} ms", 
+            counts[1], counts[0], file, (System.nanoTime() - startNanos) / 1_000_000);
+        return counts[1];
+    }
+    
+    /**
+     * Writes a final snapshot if enabled, then flushes and closes the store on shutdown.
+     */
+    @PreDestroy
+    public void closeJournal() {
+        writeSnapshot();
+        try {
+            processedFiles.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the {} processed-files store", processedFiles.name(), e);
+        }
+    }
+    
+    // For the local stores this runs under the stripe lock (every stripe lock for a clear),
+    // after the journal record, so the filter never misses a stored entry
+    private void onChange(byte op, long high, long low) {
+        changes.increment();
+        if (filter == null) {
+            return;
+        }
+        switch (op) {
+            case ProcessedFilesJournal.OP_ADD -> {
+                // Read the rebuild target first: once it is null, the new filter is already current
+                FingerprintFilter target = rebuildTarget;
+                FingerprintFilter current = filter;
+                current.put(high, low);
+                if (target != null && target != current) {
+                    target.put(high, low);
+                }
+            }
+            case ProcessedFilesJournal.OP_REMOVE -> filterStaleEntries.incrementAndGet();
+            case ProcessedFilesJournal.OP_CLEAR -> {
+                synchronized (filterLock) {
+                    filter = FingerprintFilter.create(filter.capacity(), filterFalsePositiveRate);
+                    rebuildTarget = null;
+                    filterStaleEntries.set(0);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown change op " + op);
+        }
+    }
+    
+    /**
+     * Rebuilds the Bloom filter once it has taken more entries than it was sized for, or
+     * once files marked for reprocessing have left too many stale bits in it.
+     */
+    @Scheduled(fixedDelay = HdfsWatcherConstants.PROCESSED_FILTER_CHECK_INTERVAL_MS)
+    public void maintainFilter() {
+        FingerprintFilter current = filter;
+        if (current == null) {
+            return;
+        }
+        long entries = current.entries();
+        long stale = filterStaleEntries.get();
+        boolean full = entries > current.capacity();
+        boolean polluted = stale > 0 && stale * HdfsWatcherConstants.PROCESSED_FILTER_MAX_STALE_DIVISOR > entries;
+        if ((full || polluted) && rebuildingFilter.compareAndSet(false, true)) {
+            logger.info("Rebuilding processed-files filter ({} entries, capacity {}, {} stale)", 
+                entries, current.capacity(), stale);
+            Thread.ofVirtual().name("processed-files-filter").start(this::rebuildFilter);
+        }
+    }
+    
+    /**
+     * Builds a replacement filter from a snapshot of the set while updates continue. Adds
+     * made after the replacement is registered go into both filters, so swapping it in
+     * never loses an entry. A clear that happens meanwhile discards the replacement.
+     */
+    void rebuildFilter() {
+        try {
+            long startNanos = System.nanoTime();
+            FingerprintFilter next = FingerprintFilter.create(filterCapacityFor(processedFiles.size()), 
+                filterFalsePositiveRate);
+            synchronized (filterLock) {
+                rebuildTarget = next;
+            }
+            // Removals after this point are stale for the new filter too
+            FingerprintSet.Snapshot snapshot = ((LocalProcessedFilesStore) processedFiles)
+                .snapshot(() -> filterStaleEntries.set(0));
+            while (snapshot.next()) {
+                next.put(snapshot.high(), snapshot.low());
+            }
+            synchronized (filterLock) {
+                if (rebuildTarget != next) {
+                    logger.info("Processed set was cleared during the filter rebuild; keeping the fresh filter");
+                    return;
+                }
+                filter = next;
+                rebuildTarget = null;
+            }
+            logger.info("Rebuilt processed-files filter for {} entries in {} ms ({} KiB)", 
+                snapshot.size(), (System.nanoTime() - startNanos) / 1_000_000, next.memoryBytes() >> 10);
+        } finally {
+            rebuildingFilter.set(false);
+        }
+    }
+    
+    /**
+     * Gets the heap used by the Bloom filter.
+     * 
+     * @return the filter size in bytes, or 0 when the filter is disabled
+     */
+    public long getFilterMemoryBytes() {
+        FingerprintFilter current = filter;
+        return current != null ? current.memoryBytes() : 0;
+    }
+    
+    /**
+     * Estimates the Bloom filter's current false-positive rate from its fill.
+     * 
+     * @return the estimated rate, or 0 when the filter is disabled
+     */
+    public double getFilterFalsePositiveRate() {
+        FingerprintFilter current = filter;
+        return current != null ? current.estimatedFalsePositiveRate() : 0;
+    }
+    
+    private FingerprintFilter buildFilter(FingerprintSet.Snapshot snapshot) {
+        FingerprintFilter built = FingerprintFilter.create(filterCapacityFor(snapshot.size()), filterFalsePositiveRate);
+        while (snapshot.next()) {
+            built.put(snapshot.high(), snapshot.low());
+        }
+        return built;
+    }
+    
+    // Leaves room to double before the next rebuild
+    private static long filterCapacityFor(long entries) {
+        return Math.max(HdfsWatcherConstants.PROCESSED_FILTER_MIN_CAPACITY, entries * 2);
+    }
+    
+    private static Counter evictionCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("hdfswatcher.processed.evicted")
+            .description("Processed entries evicted because their files no longer exist")
+            .tag("reason", reason)
+            .register(meterRegistry);
+    }
+    
+    private static Counter filterLookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("hdfswatcher.processed.filter.lookups")
+            .description("Processed-file lookups by Bloom filter result; false-positive means the exact check said no")
+            .tag("result", result)
+            .register(meterRegistry);
     }
 } 
\ No newline at end of file
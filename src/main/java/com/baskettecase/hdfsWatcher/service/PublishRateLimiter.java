@@ -0,0 +1,111 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by every path that publishes file events: directory polls,
+ * event discovery, /api/process-now and pending-file processing.
+ *
+ * The bucket refills at hdfswatcher.publish-rate permits per second and holds at most
+ * hdfswatcher.publish-burst permits. A caller that finds the bucket empty reserves the
+ * next free slot under the lock and then sleeps outside it, so waiters are served in
+ * arrival order and never hold the lock. Directory polls run on virtual threads, where
+ * the sleep unmounts the thread instead of pinning a carrier. A rate of 0 or less
+ * disables limiting.
+ */
+@Service
+public class PublishRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublishRateLimiter.class);
+
+    private final boolean unlimited;
+    private final double nanosPerPermit;
+    private final double burst;
+    private final Timer waitTimer;
+
+    // Guarded by this; goes negative while callers are waiting on reserved permits
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    public PublishRateLimiter(HdfsWatcherProperties properties, MeterRegistry meterRegistry) {
+        double rate = properties.getPublishRate();
+        if (rate > 0 && properties.getPublishBurst() < 1) {
+            throw new IllegalArgumentException("hdfswatcher.publish-burst must be at least 1");
+        }
+        this.unlimited = rate <= 0;
+        this.nanosPerPermit = unlimited ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+        this.burst = properties.getPublishBurst();
+        this.storedPermits = burst;
+        this.lastRefillNanos = System.nanoTime();
+
+        this.waitTimer = Timer.builder("hdfswatcher.publish.permit.wait")
+            .description("Time spent waiting for a publish permit")
+            .register(meterRegistry);
+        Gauge.builder("hdfswatcher.publish.permits.available", this, PublishRateLimiter::availablePermits)
+            .description("Publish permits currently available without waiting")
+            .register(meterRegistry);
+
+        if (unlimited) {
+            logger.info("Publish rate limiting disabled");
+        } else {
+            logger.info("Publish rate limited to {} files/s with a burst of {}", rate, properties.getPublishBurst());
+        }
+    }
+
+    /**
+     * Takes one publish permit, waiting until it is available.
+     *
+     * @throws InterruptedException if interrupted while waiting; the reserved permit is returned
+     */
+    public void acquire() throws InterruptedException {
+        if (unlimited) {
+            return;
+        }
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+        }
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of permits that can be taken right now without waiting.
+     *
+     * @return the available permits, 0 while callers are waiting
+     */
+    public synchronized double availablePermits() {
+        if (unlimited) {
+            return burst;
+        }
+        refill(System.nanoTime());
+        return Math.max(0, storedPermits);
+    }
+
+    private synchronized long reserve() {
+        refill(System.nanoTime());
+        storedPermits -= 1;
+        return storedPermits >= 0 ? 0 : (long) (-storedPermits * nanosPerPermit);
+    }
+
+    private synchronized void release() {
+        storedPermits = Math.min(burst, storedPermits + 1);
+    }
+
+    private void refill(long now) {
+        storedPermits = Math.min(burst, storedPermits + (now - lastRefillNanos) / nanosPerPermit);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,77 @@
+package com.baskettecase.hdfsWatcher.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent-hash ring over replica ids.
+ *
+ * Each member is placed on the ring at virtualNodes points so the keyspace splits
+ * evenly, and adding or removing a member only moves the keys next to its points.
+ */
+public final class ConsistentHashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> members;
+
+    /**
+     * Builds a ring.
+     *
+     * @param members the member ids; must not be empty
+     * @param virtualNodes the number of points per member
+     */
+    public ConsistentHashRing(List<String> members, int virtualNodes) {
+        if (members == null || members.isEmpty()) {
+            throw new IllegalArgumentException("Hash ring needs at least one member");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Hash ring needs at least one virtual node per member");
+        }
+        this.members = List.copyOf(members);
+        for (String member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * Gets the member that owns a key: the first ring point at or after the key's hash.
+     *
+     * @param key the key
+     * @return the owning member id
+     */
+    public String ownerOf(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Gets the members of this ring.
+     *
+     * @return the member ids
+     */
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 fmix64 step so
+     * that similar keys (e.g. part-00001, part-00002) land far apart.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
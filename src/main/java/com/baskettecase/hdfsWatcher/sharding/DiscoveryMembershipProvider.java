@@ -0,0 +1,78 @@
+package com.baskettecase.hdfsWatcher.sharding;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Membership from the service registry (Eureka in production) through the Spring Cloud
+ * {@link DiscoveryClient}.
+ *
+ * Members are the registered instances of hdfswatcher.sharding-service-id, which defaults
+ * to spring.application.name. This replica is always counted as a member, even before its
+ * own registration has propagated, so it never owns nothing while starting up.
+ */
+@Component
+@ConditionalOnProperty(prefix = "hdfswatcher", name = "sharding-mode", havingValue = "discovery")
+public class DiscoveryMembershipProvider implements ShardMembershipProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiscoveryMembershipProvider.class);
+
+    private final DiscoveryClient discoveryClient;
+    private final String serviceId;
+    private final String memberId;
+
+    public DiscoveryMembershipProvider(HdfsWatcherProperties properties,
+                                       DiscoveryClient discoveryClient,
+                                       ObjectProvider<Registration> registration,
+                                       Environment environment) {
+        this.discoveryClient = discoveryClient;
+        String configuredServiceId = properties.getShardingServiceId();
+        this.serviceId = configuredServiceId != null && !configuredServiceId.isBlank()
+            ? configuredServiceId
+            : environment.getProperty("spring.application.name", "hdfsWatcher");
+
+        Registration local = registration.getIfAvailable();
+        if (properties.getShardingMemberId() != null && !properties.getShardingMemberId().isBlank()) {
+            this.memberId = properties.getShardingMemberId();
+        } else if (local != null) {
+            this.memberId = instanceId(local);
+        } else {
+            throw new IllegalStateException(
+                "hdfswatcher.sharding-mode=discovery needs service registration or hdfswatcher.sharding-member-id");
+        }
+        logger.info("Using service registry membership for '{}' as {}", serviceId, memberId);
+    }
+
+    @Override
+    public String localMemberId() {
+        return memberId;
+    }
+
+    @Override
+    public List<String> members() {
+        List<String> members = new ArrayList<>();
+        for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+            members.add(instanceId(instance));
+        }
+        if (!members.contains(memberId)) {
+            members.add(memberId);
+        }
+        return members;
+    }
+
+    private static String instanceId(ServiceInstance instance) {
+        String id = instance.getInstanceId();
+        return id != null && !id.isBlank() ? id : instance.getHost() + ":" + instance.getPort();
+    }
+}
@@ -0,0 +1,114 @@
+package com.baskettecase.hdfsWatcher.sharding;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Membership through lock files in a shared directory, for running several replicas on
+ * one host (or on a filesystem with reliable POSIX locks).
+ *
+ * Each replica creates {@code <member-id>.member} in hdfswatcher.sharding-lock-directory
+ * and holds an exclusive lock on it for as long as it runs. The operating system drops the
+ * lock when the process dies, so a member file whose lock can be taken belongs to a dead
+ * replica and is removed.
+ */
+@Component
+@ConditionalOnProperty(prefix = "hdfswatcher", name = "sharding-mode", havingValue = "file-lock")
+public class FileLockMembershipProvider implements ShardMembershipProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileLockMembershipProvider.class);
+    private static final String MEMBER_SUFFIX = ".member";
+
+    private final Path directory;
+    private final String memberId;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    public FileLockMembershipProvider(HdfsWatcherProperties properties) throws IOException {
+        this.directory = Paths.get(properties.getShardingLockDirectory());
+        this.memberId = properties.getShardingMemberId() != null && !properties.getShardingMemberId().isBlank()
+            ? properties.getShardingMemberId()
+            : properties.getHostname() + "-" + ProcessHandle.current().pid();
+        Files.createDirectories(directory);
+
+        Path memberFile = directory.resolve(memberId + MEMBER_SUFFIX);
+        this.channel = FileChannel.open(memberFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired = channel.tryLock();
+        if (acquired == null) {
+            channel.close();
+            throw new IllegalStateException("Sharding member id already in use: " + memberId);
+        }
+        this.lock = acquired;
+        logger.info("Joined shard membership as {} in {}", memberId, directory);
+    }
+
+    @Override
+    public String localMemberId() {
+        return memberId;
+    }
+
+    @Override
+    public List<String> members() throws IOException {
+        List<String> members = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + MEMBER_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                String id = name.substring(0, name.length() - MEMBER_SUFFIX.length());
+                if (id.equals(memberId) || isHeld(file)) {
+                    members.add(id);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Checks whether another process still holds the lock on a member file, removing
+     * the file if its owner is gone.
+     */
+    private boolean isHeld(Path file) {
+        try (FileChannel other = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            FileLock probe = other.tryLock();
+            if (probe == null) {
+                return true;
+            }
+            probe.release();
+            Files.deleteIfExists(file);
+            logger.info("Removed stale shard member file {}", file.getFileName());
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // Held by another provider in this JVM
+            return true;
+        } catch (IOException e) {
+            // Removed by its owner or another replica in the meantime
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            lock.release();
+            channel.close();
+            Files.deleteIfExists(directory.resolve(memberId + MEMBER_SUFFIX));
+            logger.info("Left shard membership as {}", memberId);
+        } catch (IOException e) {
+            logger.warn("Error leaving shard membership as {}", memberId, e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.baskettecase.hdfsWatcher.sharding;
+
+import java.util.List;
+
+/**
+ * Source of the set of hdfsWatcher replicas that share the watch work.
+ *
+ * Implementations are selected with hdfswatcher.sharding-mode; any other bean of this
+ * type can be supplied instead. {@link ShardingService} calls {@link #members()}
+ * periodically and rebuilds its hash ring whenever the result changes.
+ */
+public interface ShardMembershipProvider {
+
+    /**
+     * Gets the id of this replica. Must be stable for the life of the process and
+     * appear in {@link #members()} once membership has been established.
+     *
+     * @return the local member id
+     */
+    String localMemberId();
+
+    /**
+     * Gets the ids of all live replicas, including this one.
+     *
+     * @return the member ids, in any order
+     * @throws Exception if membership cannot be read; the previous ring is kept
+     */
+    List<String> members() throws Exception;
+
+    /**
+     * Leaves the membership. Called once on shutdown.
+     */
+    default void close() {
+    }
+}
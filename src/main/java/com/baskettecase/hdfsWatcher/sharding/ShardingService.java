@@ -0,0 +1,141 @@
+package com.baskettecase.hdfsWatcher.sharding;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.service.DirectoryWatermarkService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits watch work across hdfsWatcher replicas with a consistent-hash ring.
+ *
+ * Active when a {@link ShardMembershipProvider} bean exists (hdfswatcher.sharding-mode is
+ * file-lock or discovery). Keys are HDFS paths: files directly under a watched directory
+ * are owned by their own path, and everything below a first-level subdirectory is owned
+ * by that subdirectory's path, so in recursive mode each replica only lists its own
+ * subtrees. Membership is re-read every hdfswatcher.sharding-refresh-interval seconds;
+ * when it changes the ring is rebuilt and all directory watermarks are dropped so each
+ * replica does one full listing of its new slice.
+ */
+@Service
+public class ShardingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardingService.class);
+
+    private final ShardMembershipProvider membershipProvider;
+    private final DirectoryWatermarkService watermarkService;
+    private final int virtualNodes;
+    private volatile ConsistentHashRing ring;
+
+    public ShardingService(HdfsWatcherProperties properties,
+                           ObjectProvider<ShardMembershipProvider> membershipProvider,
+                           DirectoryWatermarkService watermarkService,
+                           MeterRegistry meterRegistry) {
+        this.membershipProvider = membershipProvider.getIfAvailable();
+        this.watermarkService = watermarkService;
+        this.virtualNodes = properties.getShardingVirtualNodes();
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("hdfswatcher.sharding-virtual-nodes must be at least 1");
+        }
+
+        if (this.membershipProvider != null) {
+            this.ring = new ConsistentHashRing(List.of(this.membershipProvider.localMemberId()), virtualNodes);
+            refreshMembership();
+            Gauge.builder("hdfswatcher.shard.members", () -> this.ring.getMembers().size())
+                .description("Number of replicas sharing the watch work")
+                .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Checks whether sharding is active.
+     *
+     * @return true if a membership provider is configured
+     */
+    public boolean isEnabled() {
+        return membershipProvider != null;
+    }
+
+    /**
+     * Checks whether this replica owns a shard key.
+     *
+     * @param key the shard key (see {@link #shardKey(String, String)})
+     * @return true if sharding is off or this replica owns the key
+     */
+    public boolean owns(String key) {
+        ConsistentHashRing current = ring;
+        return current == null || current.ownerOf(key).equals(membershipProvider.localMemberId());
+    }
+
+    /**
+     * Gets the shard key of a path below a watched directory: the path itself if it sits
+     * directly in the directory, otherwise the path of its first-level subdirectory.
+     *
+     * @param watchedDirectory the normalized watched directory, e.g. /policies
+     * @param path the normalized path of the file or directory, e.g. /policies/2024/a.pdf
+     * @return the shard key
+     */
+    public static String shardKey(String watchedDirectory, String path) {
+        String prefix = watchedDirectory.endsWith("/") ? watchedDirectory : watchedDirectory + "/";
+        if (!path.startsWith(prefix)) {
+            return path;
+        }
+        int slash = path.indexOf('/', prefix.length());
+        return slash < 0 ? path : path.substring(0, slash);
+    }
+
+    /**
+     * Gets the current members, sorted.
+     *
+     * @return the member ids, or an empty list when sharding is off
+     */
+    public List<String> getMembers() {
+        ConsistentHashRing current = ring;
+        return current != null ? current.getMembers() : List.of();
+    }
+
+    /**
+     * Re-reads membership and rebuilds the ring if it changed.
+     */
+    @Scheduled(fixedDelayString = "${hdfswatcher.sharding-refresh-interval:10}000")
+    public void refreshMembership() {
+        if (membershipProvider == null) {
+            return;
+        }
+        List<String> members;
+        try {
+            members = new ArrayList<>(membershipProvider.members());
+        } catch (Exception e) {
+            logger.warn("Could not read shard membership, keeping {} members: {}", getMembers().size(), e.getMessage());
+            return;
+        }
+        if (!members.contains(membershipProvider.localMemberId())) {
+            members.add(membershipProvider.localMemberId());
+        }
+        Collections.sort(members);
+        if (members.equals(ring.getMembers())) {
+            return;
+        }
+
+        logger.info("Shard membership changed from {} to {}", ring.getMembers(), members);
+        ring = new ConsistentHashRing(members, virtualNodes);
+        // Files this replica now owns may sit in directories it has already marked unchanged
+        watermarkService.invalidateAll();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (membershipProvider != null) {
+            membershipProvider.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.baskettecase.hdfsWatcher.util;
 
+import java.util.List;
+
 /**
  * Constants used throughout the HDFS Watcher application.
  * Eliminates magic numbers and hardcoded values.
@@ -18,11 +20,109 @@ public final class HdfsWatcherConstants {
     public static final String DEFAULT_OUTPUT_BINDING = "output";
     public static final String DEFAULT_MAX_FILE_SIZE = "512MB";
     public static final String DEFAULT_MAX_REQUEST_SIZE = "512MB";
+    public static final int DEFAULT_DIRECTORY_POLL_CONCURRENCY = 4;
+    public static final int DEFAULT_DIRECTORY_POLL_TIMEOUT_SECONDS = 300;
+    public static final int DEFAULT_MAX_DEPTH = 10;
+    public static final int DEFAULT_MIN_POLL_INTERVAL_SECONDS = 5;
+    public static final int DEFAULT_MAX_POLL_INTERVAL_SECONDS = 600;
+    public static final double DEFAULT_PUBLISH_RATE = 50.0;
+    public static final int DEFAULT_PUBLISH_BURST = 5;
+    public static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_PIPELINE_DEDUP_PARALLELISM = 2;
+    public static final int DEFAULT_PIPELINE_BUILD_PARALLELISM = 1;
+    public static final int DEFAULT_PIPELINE_PUBLISH_PARALLELISM = 4;
+    public static final int DEFAULT_PIPELINE_MARK_PARALLELISM = 1;
+    public static final int DEFAULT_PIPELINE_DEDUP_BATCH_SIZE = 256;
+    public static final String PUBLISH_BATCH_MODE_NONE = "none";
+    public static final String PUBLISH_BATCH_MODE_ARRAY = "array";
+    public static final String PUBLISH_BATCH_MODE_BURST = "burst";
+    public static final String DEFAULT_PUBLISH_BATCH_MODE = PUBLISH_BATCH_MODE_NONE;
+    public static final int DEFAULT_PUBLISH_BATCH_SIZE = 100;
+    public static final long DEFAULT_PUBLISH_BATCH_LINGER_MS = 50;
+    public static final int DEFAULT_PUBLISH_CONFIRM_WINDOW = 256;
+    public static final long DEFAULT_PUBLISH_CONFIRM_TIMEOUT_MS = 30_000;
+    public static final int DEFAULT_PUBLISH_CONFIRM_RETRIES = 3;
+    public static final String EVENT_SCHEMA_LEGACY = "legacy";
+    public static final String EVENT_SCHEMA_V2 = "v2";
+    public static final String DEFAULT_EVENT_SCHEMA = EVENT_SCHEMA_V2;
+    public static final String BATCH_EVENT_TYPE = "hdfs-batch";
+    public static final String PARTITION_KEY_NONE = "none";
+    public static final String PARTITION_KEY_DIRECTORY = "directory";
+    public static final String PARTITION_KEY_FINGERPRINT = "fingerprint";
+    public static final String PARTITION_KEY_FILENAME_PREFIX = "filename-prefix";
+    public static final String DEFAULT_PARTITION_KEY = PARTITION_KEY_NONE;
+    public static final String DEFAULT_PARTITION_KEY_DELIMITERS = "_-.";
+    public static final String PARTITION_KEY_HEADER = "partitionKey";
+    public static final String DEFAULT_OUTBOX_DIRECTORY = "";
+    public static final long DEFAULT_OUTBOX_MAX_BYTES = 1L << 30;
+    public static final int DEFAULT_OUTBOX_SEGMENT_BYTES = 64 << 20;
+    public static final int MIN_OUTBOX_SEGMENT_BYTES = 64 << 10;
+    public static final int MAX_OUTBOX_SEGMENT_BYTES = 1 << 30;
+    public static final long DEFAULT_OUTBOX_RETRY_BACKOFF_MS = 1000;
+    public static final long DEFAULT_OUTBOX_MAX_BACKOFF_MS = 60_000;
+    public static final int OUTBOX_DRAIN_BATCH = 256;
+    public static final long OUTBOX_IDLE_WAIT_MS = 1000;
+    public static final String DEFAULT_PROCESSED_FILES_DIRECTORY = "/tmp/hdfsWatcher-processed";
+    public static final long DEFAULT_PROCESSED_JOURNAL_SYNC_INTERVAL_MS = 100;
+    public static final long DEFAULT_PROCESSED_JOURNAL_COMPACTION_RECORDS = 1_000_000;
+    public static final String DEFAULT_FINGERPRINT_ALGORITHM = "sha256";
+    public static final int DEFAULT_PROCESSED_STORE_STRIPES = 16;
+    public static final boolean DEFAULT_PROCESSED_FILTER_ENABLED = true;
+    public static final double DEFAULT_PROCESSED_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    public static final long PROCESSED_FILTER_MIN_CAPACITY = 65_536;
+    public static final long PROCESSED_FILTER_CHECK_INTERVAL_MS = 10_000;
+    // Rebuild once more than 1/N of the filter's entries have been removed from the set
+    public static final long PROCESSED_FILTER_MAX_STALE_DIVISOR = 5;
+    public static final boolean DEFAULT_RECONCILE_ENABLED = true;
+    public static final long DEFAULT_RECONCILE_INTERVAL_MS = 3_600_000;
+    public static final long DEFAULT_RECONCILE_GRACE_PERIOD_SECONDS = 86_400;
+    public static final String DEDUP_BACKEND_MEMORY = "memory";
+    public static final String DEDUP_BACKEND_LOCAL = "local";
+    public static final String DEDUP_BACKEND_JDBC = "jdbc";
+    public static final String DEFAULT_DEDUP_BACKEND = DEDUP_BACKEND_LOCAL;
+    public static final String DEFAULT_DEDUP_JDBC_TABLE = "hdfswatcher_processed";
+    public static final boolean DEFAULT_DEDUP_JDBC_INITIALIZE_SCHEMA = true;
+    public static final int DEFAULT_DEDUP_JDBC_BATCH_SIZE = 500;
+    public static final long DEFAULT_DEDUP_CLAIM_TIMEOUT_SECONDS = 600;
+    public static final long DEFAULT_DEDUP_SNAPSHOT_INTERVAL_MS = 300_000;
+    // How long the shared store's row count may be reused before it is queried again
+    public static final long DEDUP_JDBC_COUNT_REFRESH_MS = 30_000;
+    public static final long DEFAULT_FILE_INDEX_MAX_ENTRIES = 1_000_000;
+    public static final long DEFAULT_FILE_INDEX_REFRESH_INTERVAL_SECONDS = 60;
+    // Hidden and underscore-prefixed directories hold staging/temporary output (e.g. _temporary, .hive-staging)
+    public static final List<String> DEFAULT_EXCLUDE_SUBDIRECTORIES = List.of(".*", "_*");
+    // In-progress copies from 'hdfs dfs -put', checksum side files and hidden files
+    public static final List<String> DEFAULT_EXCLUDE_FILES = List.of("*._COPYING_", "*.crc", ".*");
     
     // Application modes
     public static final String MODE_STANDALONE = "standalone";
     public static final String MODE_CLOUD = "cloud";
     
+    // Discovery modes
+    public static final String DISCOVERY_MODE_POLL = "poll";
+    public static final String DISCOVERY_MODE_EVENT = "event";
+    public static final String DEFAULT_INOTIFY_TXID_FILE = "/tmp/hdfsWatcher-inotify.txid";
+    public static final long INOTIFY_POLL_TIMEOUT_MS = 1000;
+    public static final long INOTIFY_TXID_PERSIST_INTERVAL_MS = 1000;
+    public static final long INOTIFY_RECONNECT_DELAY_MS = 5000;
+    public static final long INOTIFY_RETRY_INTERVAL_MS = 30000;
+    public static final long LOCAL_WATCH_SETTLE_MS = 100;
+    public static final long LOCAL_WATCH_IDLE_POLL_MS = 1000;
+    
+    // Directory polling
+    public static final long DIRECTORY_POLL_WAIT_STEP_MS = 1000;
+    public static final long DIRECTORY_POLL_CANCEL_GRACE_MS = 5000;
+    public static final int WATERMARK_FULL_LISTING_INTERVAL = 10;
+    public static final long POLL_SCHEDULER_TICK_MS = 1000;
+    
+    // Sharding
+    public static final String SHARDING_MODE_NONE = "none";
+    public static final String SHARDING_MODE_FILE_LOCK = "file-lock";
+    public static final String SHARDING_MODE_DISCOVERY = "discovery";
+    public static final String DEFAULT_SHARDING_LOCK_DIRECTORY = "/tmp/hdfsWatcher-members";
+    public static final int DEFAULT_SHARDING_REFRESH_INTERVAL_SECONDS = 10;
+    public static final int DEFAULT_SHARDING_VIRTUAL_NODES = 128;
+    
     // URL patterns and schemes
     public static final String HDFS_SCHEME = "hdfs://";
     public static final String HTTP_SCHEME = "http://";
@@ -46,6 +146,7 @@ public final class HdfsWatcherConstants {
     
     // File operation values
     public static final String WEBHDFS_OP_LISTSTATUS = "LISTSTATUS";
+    public static final String WEBHDFS_OP_LISTSTATUS_BATCH = "LISTSTATUS_BATCH";
     public static final String WEBHDFS_OP_CREATE = "CREATE";
     public static final String WEBHDFS_OP_OPEN = "OPEN";
     public static final String WEBHDFS_OP_GETFILESTATUS = "GETFILESTATUS";
@@ -64,6 +165,8 @@ public final class HdfsWatcherConstants {
     public static final String LOG_PREFIX_WEBHDFS_SERVICE = "[WebHdfsService]";
     public static final String LOG_PREFIX_PROPERTIES = "[HdfsWatcherProperties]";
     public static final String LOG_PREFIX_STREAM = "[STREAM]";
+    public static final String LOG_PREFIX_INOTIFY = "[HdfsInotify]";
+    public static final String LOG_PREFIX_RECONCILER = "[Reconciler]";
     
     // Error messages
     public static final String ERROR_EMPTY_FILE = "Cannot store empty file";
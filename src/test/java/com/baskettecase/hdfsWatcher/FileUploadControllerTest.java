@@ -0,0 +1,234 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.dedup.ProcessedFilesStore;
+import com.baskettecase.hdfsWatcher.service.FileIndexService;
+import com.baskettecase.hdfsWatcher.service.ProcessedFilesService;
+import com.baskettecase.hdfsWatcher.service.ProcessingStateService;
+import com.baskettecase.hdfsWatcher.service.PublishRateLimiter;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the events the API endpoints send. The output is a mock that captures them; the
+ * processed set is a real in-memory one.
+ */
+class FileUploadControllerTest {
+
+    private static final String WEBHDFS = "http://namenode:9870";
+    private static final String WATCHED = "/landing";
+
+    @TempDir
+    Path tempDir;
+
+    private final HdfsWatcherProperties properties = new HdfsWatcherProperties();
+    private final LocalFileService storageService = mock(LocalFileService.class);
+    private final WebHdfsService webHdfsService = mock(WebHdfsService.class);
+    private final HdfsWatcherOutput output = mock(HdfsWatcherOutput.class);
+    private final FileIndexService fileIndexService = mock(FileIndexService.class);
+    private ProcessedFilesService processedFilesService;
+    private FileUploadController controller;
+
+    @BeforeEach
+    void createController() throws Exception {
+        properties.setWebhdfsUri(WEBHDFS);
+        properties.setHdfsUser("hdfs");
+        properties.setHdfsPaths(List.of(WATCHED));
+        properties.setDedupBackend(HdfsWatcherConstants.DEDUP_BACKEND_MEMORY);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<ProcessedFilesStore> noStore = mock(ObjectProvider.class);
+        processedFilesService = new ProcessedFilesService(properties, new SimpleMeterRegistry(), noStore);
+        controller = new FileUploadController(storageService, properties, webHdfsService, output,
+            mock(HdfsWatcherService.class), processedFilesService, mock(ProcessingStateService.class),
+            mock(PublishRateLimiter.class), fileIndexService);
+    }
+
+    @Test
+    void processNowSendsTheIndexedFileWithItsMetadata() {
+        String hash = processedFilesService.generateFileHash("a.csv", 42, 1_000);
+        Fingerprint fingerprint = Fingerprint.fromHash(hash);
+        when(fileIndexService.resolve(any())).thenReturn(
+            Map.of(fingerprint, new FileIndexService.FileLocation(WATCHED, "a.csv", 42, 1_000)));
+
+        controller.processFilesNow(Map.of("fileHashes", List.of(hash)));
+
+        FileEvent event = sentEvent();
+        assertEquals(WEBHDFS + "/webhdfs/v1/landing/a.csv", event.url());
+        assertEquals("/landing/a.csv", event.path());
+        assertEquals(WATCHED, event.directory());
+        assertEquals(42L, event.size());
+        assertEquals(1_000L, event.modificationTime());
+        assertEquals(fingerprint.toHex(), event.fingerprint());
+        assertTrue(processedFilesService.isFileProcessed(hash));
+    }
+
+    @Test
+    void startProcessingSendsPendingFilesWithTheirListingDetails() {
+        processedFilesService.markFileAsProcessed(processedFilesService.fingerprintFile("done.csv", 1, 1));
+        when(webHdfsService.iterateFilesWithDetailsFromMultipleDirectories()).thenReturn(List.of(
+            listing("done.csv", 1, 1),
+            listing("new.csv", 7, 2_000)).iterator());
+
+        controller.startProcessing();
+
+        FileEvent event = sentEvent();
+        assertEquals("/landing/new.csv", event.path());
+        assertEquals(WATCHED, event.directory());
+        assertEquals(7L, event.size());
+        assertEquals(2_000L, event.modificationTime());
+        assertEquals("etl", event.owner());
+        assertEquals("analytics", event.group());
+        Fingerprint fingerprint = processedFilesService.fingerprintFile("new.csv", 7, 2_000);
+        assertEquals(fingerprint.toHex(), event.fingerprint());
+        assertTrue(processedFilesService.isFileProcessed(fingerprint));
+    }
+
+    @Test
+    void hdfsUploadSendsTheUploadedFileDetails() throws Exception {
+        when(webHdfsService.getFileDetails("up.csv")).thenReturn(Map.of(
+            "size", 5L, "modificationTime", 3_000L, "owner", "etl", "group", "analytics"));
+
+        controller.handleFileUploadApi(upload("up.csv"));
+
+        FileEvent event = sentEvent();
+        assertEquals(WEBHDFS + "/webhdfs/v1/landing/up.csv?op=OPEN&user.name=hdfs", event.url());
+        assertEquals("/landing/up.csv", event.path());
+        assertEquals(WATCHED, event.directory());
+        assertEquals(5L, event.size());
+        assertEquals("etl", event.owner());
+        assertEquals(processedFilesService.fingerprintFile("up.csv", 5, 3_000).toHex(), event.fingerprint());
+    }
+
+    @Test
+    void hdfsUploadWithoutDetailsStillSendsWhereTheFileIs() throws Exception {
+        when(webHdfsService.getFileDetails(anyString())).thenThrow(new IllegalStateException("namenode down"));
+
+        controller.handleFileUploadApi(upload("up.csv"));
+
+        FileEvent event = sentEvent();
+        assertEquals("/landing/up.csv", event.path());
+        assertEquals(WATCHED, event.directory());
+        assertNull(event.size());
+        assertNull(event.fingerprint());
+    }
+
+    @Test
+    void localUploadSendsTheStoredFile() throws Exception {
+        properties.setPseudoop(true);
+        Path stored = Files.writeString(tempDir.resolve("up.csv"), "hello");
+        when(storageService.store(any())).thenReturn("http://watcher:8080/files/up.csv");
+        when(storageService.load("up.csv")).thenReturn(stored);
+
+        controller.handleFileUploadApi(upload("up.csv"));
+
+        FileEvent event = sentEvent();
+        assertEquals("http://watcher:8080/files/up.csv", event.url());
+        assertEquals(stored.toAbsolutePath().toString(), event.path());
+        assertEquals(tempDir.toAbsolutePath().toString(), event.directory());
+        assertEquals(5L, event.size());
+        long modificationTime = Files.getLastModifiedTime(stored).toMillis();
+        assertEquals(processedFilesService.fingerprintFile("up.csv", 5, modificationTime).toHex(),
+            event.fingerprint());
+    }
+
+    @Test
+    void processNowOfAFileBelowTheWatchedPathIsRoutedByThatPath() {
+        properties.setHdfsPaths(List.of("/other", WATCHED, "/landing-archive"));
+        routeToOwnBinding(WATCHED);
+        String hash = processedFilesService.generateFileHash("a.csv", 42, 1_000);
+        // The index records the file's own directory; in recursive mode that is a subdirectory
+        when(fileIndexService.resolve(any())).thenReturn(Map.of(Fingerprint.fromHash(hash),
+            new FileIndexService.FileLocation("/landing/2024/06", "a.csv", 42, 1_000)));
+
+        controller.processFilesNow(Map.of("fileHashes", List.of(hash)));
+
+        FileEvent event = sentEvent();
+        assertEquals(WEBHDFS + "/webhdfs/v1/landing/2024/06/a.csv", event.url());
+        assertEquals("/landing/2024/06/a.csv", event.path());
+        assertEquals(WATCHED, event.directory());
+        assertEquals("landing-out", properties.getOutputBinding(event.directory()));
+    }
+
+    @Test
+    void processNowOfAFileOutsideEveryWatchedPathKeepsItsDirectory() {
+        routeToOwnBinding(WATCHED);
+        String hash = processedFilesService.generateFileHash("a.csv", 42, 1_000);
+        when(fileIndexService.resolve(any())).thenReturn(Map.of(Fingerprint.fromHash(hash),
+            new FileIndexService.FileLocation("/landing-old", "a.csv", 42, 1_000)));
+
+        controller.processFilesNow(Map.of("fileHashes", List.of(hash)));
+
+        FileEvent event = sentEvent();
+        assertEquals("/landing-old", event.directory());
+        assertEquals(properties.getOutputBinding(), properties.getOutputBinding(event.directory()));
+    }
+
+    @Test
+    void pendingFilesAreRoutedByTheirConfiguredPath() {
+        properties.setHdfsPaths(List.of("/other", WATCHED));
+        routeToOwnBinding(WATCHED);
+        when(webHdfsService.iterateFilesWithDetailsFromMultipleDirectories())
+            .thenReturn(List.of(listing("new.csv", 7, 2_000)).iterator());
+
+        controller.startProcessing();
+
+        assertEquals("landing-out", properties.getOutputBinding(sentEvent().directory()));
+    }
+
+    @Test
+    void uploadIsRoutedByThePathAsConfigured() throws Exception {
+        // Without the leading slash the URL is normalized, but the settings stay under this key
+        properties.setHdfsPaths(List.of("landing"));
+        routeToOwnBinding("landing");
+        when(webHdfsService.getFileDetails("up.csv")).thenReturn(Map.of("size", 5L, "modificationTime", 3_000L));
+
+        controller.handleFileUploadApi(upload("up.csv"));
+
+        FileEvent event = sentEvent();
+        assertEquals("/landing/up.csv", event.path());
+        assertEquals("landing", event.directory());
+        assertEquals("landing-out", properties.getOutputBinding(event.directory()));
+    }
+
+    private FileEvent sentEvent() {
+        ArgumentCaptor<FileEvent> event = ArgumentCaptor.forClass(FileEvent.class);
+        verify(output, times(1)).send(event.capture(), anyString());
+        return event.getValue();
+    }
+
+    private void routeToOwnBinding(String configuredPath) {
+        HdfsWatcherProperties.DirectoryOptions options = new HdfsWatcherProperties.DirectoryOptions();
+        options.setOutputBinding("landing-out");
+        properties.getDirectoryOptions().put(configuredPath, options);
+    }
+
+    private static Map<String, Object> listing(String filename, long size, long modificationTime) {
+        return Map.of("filename", filename, "size", size, "modificationTime", modificationTime,
+            "owner", "etl", "group", "analytics", "source", "landing");
+    }
+
+    private static MockMultipartFile upload(String filename) {
+        return new MockMultipartFile("file", filename, "text/csv", "hello".getBytes());
+    }
+}
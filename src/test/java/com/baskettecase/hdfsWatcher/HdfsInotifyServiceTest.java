@@ -0,0 +1,209 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.service.FileFilterService;
+import com.baskettecase.hdfsWatcher.sharding.ShardingService;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tails the inotify stream of an in-process HDFS cluster. The watcher service is a mock that
+ * records the files handed to the dedup-and-send path, so every event shows up as one call.
+ */
+class HdfsInotifyServiceTest {
+
+    private static final String WATCHED = "/watched";
+    private static final long WAIT_MILLIS = 30_000;
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem fileSystem;
+    private HdfsWatcherService watcherService;
+    private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+    private final List<HdfsInotifyService> services = new ArrayList<>();
+
+    @BeforeEach
+    void startCluster() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, tempDir.resolve("dfs").toString());
+        // Keep only the edit segment a checkpoint closes, so rolling first and checkpointing opens a gap
+        conf.setInt(DFSConfigKeys.DFS_NAMENODE_NUM_CHECKPOINTS_RETAINED_KEY, 1);
+        conf.setInt(DFSConfigKeys.DFS_NAMENODE_MAX_EXTRA_EDITS_SEGMENTS_RETAINED_KEY, 1);
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+        fileSystem = cluster.getFileSystem();
+        fileSystem.mkdirs(new Path(WATCHED));
+        fileSystem.mkdirs(new Path("/staging"));
+        fileSystem.mkdirs(new Path("/other"));
+
+        watcherService = recordingWatcherService();
+    }
+
+    @AfterEach
+    void stopCluster() {
+        services.forEach(HdfsInotifyService::stop);
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    @Test
+    void closedAndRenamedFilesArePublishedOnce() throws Exception {
+        startService();
+        verify(watcherService, timeout(WAIT_MILLIS)).setEventDiscoveryActive(true);
+        // Without a persisted txid the stream starts at the current position and one listing covers the rest
+        verify(watcherService, timeout(WAIT_MILLIS)).reconcileHdfsDirectories();
+
+        write(WATCHED + "/closed.txt");
+        write("/staging/renamed.txt");
+        fileSystem.rename(new Path("/staging/renamed.txt"), new Path(WATCHED + "/renamed.txt"));
+        write("/other/unwatched.txt");
+        FSDataOutputStream open = fileSystem.create(new Path(WATCHED + "/open.txt"));
+        open.write("partial".getBytes(StandardCharsets.UTF_8));
+        open.hflush();
+
+        awaitPublished(WATCHED + "/closed.txt", WATCHED + "/renamed.txt");
+        assertFalse(published.contains(WATCHED + "/open.txt"), "a file still being written was published");
+
+        open.close();
+        awaitPublished(WATCHED + "/open.txt");
+        // Give the stream time to deliver anything it would publish twice
+        Thread.sleep(3 * HdfsWatcherConstants.INOTIFY_POLL_TIMEOUT_MS);
+
+        assertEquals(List.of(WATCHED + "/closed.txt", WATCHED + "/renamed.txt", WATCHED + "/open.txt"),
+            List.copyOf(published));
+    }
+
+    @Test
+    void restartResumesAfterThePersistedTxid() throws Exception {
+        HdfsInotifyService first = startService();
+        verify(watcherService, timeout(WAIT_MILLIS)).setEventDiscoveryActive(true);
+        write(WATCHED + "/before.txt");
+        awaitPublished(WATCHED + "/before.txt");
+        first.stop();
+        long persisted = Long.parseLong(Files.readString(txidFile()).trim());
+        assertEquals(first.getLastTxid(), persisted);
+
+        // Arrives while no watcher is running
+        write(WATCHED + "/while-stopped.txt");
+        published.clear();
+        watcherService = recordingWatcherService();
+        HdfsInotifyService second = startService();
+        awaitPublished(WATCHED + "/while-stopped.txt");
+        write(WATCHED + "/after.txt");
+        awaitPublished(WATCHED + "/after.txt");
+
+        assertEquals(List.of(WATCHED + "/while-stopped.txt", WATCHED + "/after.txt"), List.copyOf(published));
+        assertTrue(second.getLastTxid() > persisted);
+        // The stream resumed where the last run stopped, so no listing was needed
+        verify(watcherService, never()).reconcileHdfsDirectories();
+    }
+
+    @Test
+    void gapInTheStreamTriggersAReconcilingListing() throws Exception {
+        write(WATCHED + "/old.txt");
+        // A txid whose edits the checkpoint below purges
+        Files.writeString(txidFile(), "1");
+        fileSystem.rollEdits();
+        fileSystem.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_ENTER);
+        fileSystem.saveNamespace();
+        fileSystem.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_LEAVE);
+        write(WATCHED + "/new.txt");
+
+        startService();
+
+        verify(watcherService, timeout(WAIT_MILLIS)).reconcileHdfsDirectories();
+        write(WATCHED + "/after-gap.txt");
+        awaitPublished(WATCHED + "/after-gap.txt");
+    }
+
+    private HdfsInotifyService startService() throws Exception {
+        HdfsWatcherProperties properties = new HdfsWatcherProperties();
+        properties.setHdfsUri(fileSystem.getUri().toString());
+        properties.setHdfsUser(UserGroupInformation.getCurrentUser().getShortUserName());
+        properties.setHdfsPaths(List.of(WATCHED));
+        properties.setDiscoveryMode(HdfsWatcherConstants.DISCOVERY_MODE_EVENT);
+        properties.setInotifyTxidFile(txidFile().toString());
+
+        FileFilterService fileFilterService = mock(FileFilterService.class);
+        when(fileFilterService.accept(anyString(), anyString())).thenReturn(true);
+        ShardingService shardingService = mock(ShardingService.class);
+        when(shardingService.owns(anyString())).thenReturn(true);
+
+        HdfsInotifyService service = new HdfsInotifyService(properties, watcherService, fileFilterService,
+            shardingService);
+        services.add(service);
+        service.start();
+        return service;
+    }
+
+    private HdfsWatcherService recordingWatcherService() {
+        HdfsWatcherService service = mock(HdfsWatcherService.class);
+        when(service.getFileSystem()).thenReturn(fileSystem);
+        when(service.processHdfsFile(anyString(), any(FileStatus.class))).thenAnswer(invocation -> {
+            assertEquals(WATCHED, invocation.getArgument(0));
+            published.add(invocation.<FileStatus>getArgument(1).getPath().toUri().getPath());
+            return HdfsWatcherService.FileOutcome.PROCESSED;
+        });
+        return service;
+    }
+
+    private void write(String path) throws Exception {
+        try (FSDataOutputStream out = fileSystem.create(new Path(path))) {
+            out.write(path.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private java.nio.file.Path txidFile() {
+        return tempDir.resolve("inotify.txid");
+    }
+
+    private void awaitPublished(String... paths) throws InterruptedException {
+        await(() -> published.containsAll(List.of(paths)), "files not published: " + List.of(paths)
+            + ", published so far: " + published);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(50);
+        }
+    }
+}
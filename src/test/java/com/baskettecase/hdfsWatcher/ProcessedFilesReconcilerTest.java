@@ -0,0 +1,146 @@
+package com.baskettecase.hdfsWatcher;
+
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.dedup.ProcessedFilesStore;
+import com.baskettecase.hdfsWatcher.service.ProcessedFilesService;
+import com.baskettecase.hdfsWatcher.sharding.ShardingService;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs reconciliation rounds over the local file system, which the reconciler lists
+ * through the same Hadoop FileSystem API as HDFS.
+ */
+class ProcessedFilesReconcilerTest {
+
+    private static final long ONE_HOUR_SECONDS = 3600;
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private FileSystem fileSystem;
+    private HdfsWatcherProperties properties;
+    private ProcessedFilesService processedFilesService;
+    private ProcessedFilesReconciler reconciler;
+    private String watched;
+
+    @BeforeEach
+    void createReconciler() throws Exception {
+        fileSystem = FileSystem.getLocal(new Configuration());
+        watched = Files.createDirectories(tempDir.resolve("watched")).toString();
+
+        properties = new HdfsWatcherProperties();
+        properties.setHdfsPaths(List.of(watched));
+        properties.setDedupBackend(HdfsWatcherConstants.DEDUP_BACKEND_MEMORY);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<ProcessedFilesStore> noStore = mock(ObjectProvider.class);
+        processedFilesService = new ProcessedFilesService(properties, new SimpleMeterRegistry(), noStore);
+
+        ShardingService shardingService = mock(ShardingService.class);
+        when(shardingService.owns(anyString())).thenReturn(true);
+        reconciler = new ProcessedFilesReconciler(fileSystem, properties, processedFilesService, shardingService,
+            name -> true);
+    }
+
+    @Test
+    void deletedFileIsEvictedOnlyAfterTheGracePeriod() throws Exception {
+        Fingerprint kept = markProcessed(write(watched, "kept.csv"), watched);
+        Fingerprint deleted = markProcessed(write(watched, "deleted.csv"), watched);
+        Files.delete(java.nio.file.Path.of(watched, "deleted.csv"));
+
+        properties.setReconcileGracePeriod(ONE_HOUR_SECONDS);
+        reconciler.runRound();
+        assertTrue(processedFilesService.isFileProcessed(deleted));
+
+        properties.setReconcileGracePeriod(0);
+        reconciler.runRound();
+        assertFalse(processedFilesService.isFileProcessed(deleted));
+        assertTrue(processedFilesService.isFileProcessed(kept));
+        assertEquals(1, processedFilesService.getProcessedFilesCount());
+    }
+
+    @Test
+    void entriesRecoveredWithoutADirectoryAreAdoptedOrSwept() throws Exception {
+        // As after a restart: processed, but not yet recorded under any directory
+        Fingerprint listed = markProcessed(write(watched, "listed.csv"), null);
+        Fingerprint nowhere = processedFilesService.fingerprintFile("nowhere.csv", 10, 1_000);
+        processedFilesService.markFileAsProcessed(nowhere);
+        properties.setReconcileGracePeriod(0);
+
+        reconciler.runRound();
+
+        assertTrue(processedFilesService.isFileProcessed(listed));
+        assertFalse(processedFilesService.isFileProcessed(nowhere));
+        assertEquals(Set.of(key(watched)), processedFilesService.getPartitionedDirectories());
+    }
+
+    @Test
+    void directoryThatIsNoLongerWatchedIsStillReconciled() throws Exception {
+        String dropped = Files.createDirectories(tempDir.resolve("dropped")).toString();
+        Fingerprint stillThere = markProcessed(write(dropped, "still-there.csv"), dropped);
+        Fingerprint removed = markProcessed(write(dropped, "removed.csv"), dropped);
+        Files.delete(java.nio.file.Path.of(dropped, "removed.csv"));
+        properties.setReconcileGracePeriod(0);
+
+        reconciler.runRound();
+
+        assertTrue(processedFilesService.isFileProcessed(stillThere));
+        assertFalse(processedFilesService.isFileProcessed(removed));
+    }
+
+    @Test
+    void recursiveRoundReconcilesSubdirectories() throws Exception {
+        properties.setRecursive(true);
+        String nested = Files.createDirectories(tempDir.resolve("watched/2024/06")).toString();
+        Fingerprint kept = markProcessed(write(nested, "kept.csv"), nested);
+        Fingerprint deleted = markProcessed(write(nested, "deleted.csv"), nested);
+        Files.delete(java.nio.file.Path.of(nested, "deleted.csv"));
+        properties.setReconcileGracePeriod(0);
+
+        reconciler.runRound();
+
+        assertTrue(processedFilesService.isFileProcessed(kept));
+        assertFalse(processedFilesService.isFileProcessed(deleted));
+        assertEquals(Set.of(key(nested)), processedFilesService.getPartitionedDirectories());
+    }
+
+    private FileStatus write(String directory, String name) throws Exception {
+        java.nio.file.Path file = Files.writeString(java.nio.file.Path.of(directory, name), name);
+        return fileSystem.getFileStatus(new Path(file.toUri()));
+    }
+
+    private Fingerprint markProcessed(FileStatus status, String directory) {
+        Fingerprint fingerprint = processedFilesService.fingerprintFile(status.getPath().getName(), status.getLen(),
+            status.getModificationTime());
+        if (directory == null) {
+            processedFilesService.markFileAsProcessed(fingerprint);
+        } else {
+            processedFilesService.markFileAsProcessed(fingerprint, key(directory));
+        }
+        return fingerprint;
+    }
+
+    // The partition key the reconciler derives from a listed directory
+    private static String key(String directory) {
+        return new Path(directory).toUri().getPath();
+    }
+}
@@ -0,0 +1,144 @@
+package com.baskettecase.hdfsWatcher;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the window with CorrelationData completed by hand in place of the broker,
+ * mapped to acked/not acked the way HdfsWatcherOutput maps the binder's confirms.
+ */
+class PublishConfirmWindowTest {
+
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PublishConfirmWindow window = new PublishConfirmWindow(2, TIMEOUT_MILLIS, meterRegistry);
+
+    @AfterEach
+    void shutdown() {
+        window.shutdown();
+    }
+
+    @Test
+    void ackCompletesWithTrueAndFreesTheSlot() throws Exception {
+        CorrelationData correlation = new CorrelationData("ack");
+        CompletableFuture<Boolean> confirm = window.publish(() -> mapped(correlation));
+        assertEquals(1, window.inFlight());
+
+        correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+
+        assertTrue(confirm.get(5, TimeUnit.SECONDS));
+        assertEquals(0, window.inFlight());
+        assertEquals(1, confirms("ack"));
+    }
+
+    @Test
+    void nackCompletesWithFalse() throws Exception {
+        CorrelationData correlation = new CorrelationData("nack");
+        CompletableFuture<Boolean> confirm = window.publish(() -> mapped(correlation));
+
+        correlation.getFuture().complete(new CorrelationData.Confirm(false, "queue full"));
+
+        assertFalse(confirm.get(5, TimeUnit.SECONDS));
+        assertEquals(0, window.inFlight());
+        assertEquals(1, confirms("nack"));
+        assertEquals(0, confirms("ack"));
+    }
+
+    @Test
+    void returnedMessageIsNotAcceptedEvenThoughAcked() throws Exception {
+        CorrelationData correlation = new CorrelationData("returned");
+        CompletableFuture<Boolean> confirm = window.publish(() -> mapped(correlation));
+
+        correlation.setReturned(new ReturnedMessage(new Message(new byte[0]), 312, "NO_ROUTE", "files", ""));
+        correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+
+        assertFalse(confirm.get(5, TimeUnit.SECONDS));
+        assertEquals(1, confirms("nack"));
+    }
+
+    @Test
+    void missingConfirmTimesOutAndFreesTheSlot() throws Exception {
+        CorrelationData correlation = new CorrelationData("lost");
+        CompletableFuture<Boolean> confirm = window.publish(() -> mapped(correlation));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> confirm.get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        assertEquals(0, window.inFlight());
+        assertEquals(1, confirms("timeout"));
+
+        // The late confirm changes nothing; the caller already resent the message
+        correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+        assertEquals(0, confirms("ack"));
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    void failedSendFreesTheSlotAtOnce() throws Exception {
+        CompletableFuture<Boolean> confirm = window.publish(() -> {
+            throw new IllegalStateException("binder down");
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> confirm.get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertEquals(0, window.inFlight());
+        assertEquals(1, confirms("error"));
+    }
+
+    @Test
+    void fullWindowHoldsTheNextSendUntilAConfirmArrives() throws Exception {
+        CorrelationData first = new CorrelationData("first");
+        CorrelationData second = new CorrelationData("second");
+        window.publish(() -> mapped(first));
+        window.publish(() -> mapped(second));
+        assertEquals(2, window.inFlight());
+
+        CountDownLatch thirdSent = new CountDownLatch(1);
+        CorrelationData third = new CorrelationData("third");
+        Thread publisher = new Thread(() -> {
+            try {
+                window.publish(() -> {
+                    thirdSent.countDown();
+                    return mapped(third);
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        publisher.start();
+        // Well under the confirm timeout, so the slots are still held
+        assertFalse(thirdSent.await(TIMEOUT_MILLIS / 4, TimeUnit.MILLISECONDS));
+
+        first.getFuture().complete(new CorrelationData.Confirm(true, null));
+
+        assertTrue(thirdSent.await(5, TimeUnit.SECONDS));
+        publisher.join(5000);
+    }
+
+    private static CompletableFuture<Boolean> mapped(CorrelationData correlation) {
+        return correlation.getFuture()
+            .thenApply(confirm -> confirm.isAck() && correlation.getReturned() == null);
+    }
+
+    private double confirms(String result) {
+        return meterRegistry.get("hdfswatcher.publish.confirms").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,49 @@
+package com.baskettecase.hdfsWatcher.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DataSourceExclusionPostProcessorTest {
+
+    private static final String DATA_SOURCE_AUTO_CONFIGURATION =
+        "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration";
+
+    private final DataSourceExclusionPostProcessor postProcessor = new DataSourceExclusionPostProcessor();
+
+    @Test
+    void excludesDataSourceForTheDefaultBackend() {
+        MockEnvironment environment = new MockEnvironment();
+
+        postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+        assertEquals(DATA_SOURCE_AUTO_CONFIGURATION, environment.getProperty("spring.autoconfigure.exclude"));
+    }
+
+    @Test
+    void keepsTheUsersExclusions() {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("hdfswatcher.dedup-backend", "local")
+            .withProperty("spring.autoconfigure.exclude[0]", "com.example.FirstAutoConfiguration")
+            .withProperty("spring.autoconfigure.exclude[1]", "com.example.SecondAutoConfiguration");
+
+        postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+        assertEquals("com.example.FirstAutoConfiguration,com.example.SecondAutoConfiguration,"
+            + DATA_SOURCE_AUTO_CONFIGURATION, environment.getProperty("spring.autoconfigure.exclude"));
+    }
+
+    @Test
+    void leavesTheDataSourceToTheJdbcBackend() {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("hdfswatcher.dedup-backend", "jdbc");
+
+        postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+        assertNull(environment.getPropertySources().get(DataSourceExclusionPostProcessor.PROPERTY_SOURCE_NAME));
+        assertNull(environment.getProperty("spring.autoconfigure.exclude"));
+    }
+}
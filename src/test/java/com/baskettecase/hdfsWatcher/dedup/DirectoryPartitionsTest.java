@@ -0,0 +1,171 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryPartitionsTest {
+
+    private static final String DIRECTORY = "/landing";
+    private static final long GRACE = 100;
+    private static final DirectoryPartitions.Lookup NOTHING_STORED = (high, low) -> false;
+
+    private final DirectoryPartitions partitions = new DirectoryPartitions();
+
+    // Sign bits set on some, so the merge has to order them the way sortPairs does
+    private final Fingerprint a = new Fingerprint(-1, 1);
+    private final Fingerprint b = new Fingerprint(1, -1);
+    private final Fingerprint c = new Fingerprint(1, 2);
+
+    @Test
+    void missingEntryIsEvictedOnlyOnceTheGracePeriodHasPassed() {
+        add(DIRECTORY, a, b, c);
+
+        assertEquals(Set.of(), reconcile(DIRECTORY, 1_000, b, c));
+        assertEquals(Set.of(), reconcile(DIRECTORY, 1_000 + GRACE - 1, c, b));
+        assertEquals(Set.of(a), reconcile(DIRECTORY, 1_000 + GRACE, b, c));
+
+        // Listed files stay however long the rounds go on
+        assertEquals(Set.of(), reconcile(DIRECTORY, 1_000_000, b, c));
+        assertTrue(partitions.isPartitioned(b.high(), b.low()));
+        assertFalse(partitions.isPartitioned(a.high(), a.low()));
+        assertEquals(2, partitions.size());
+    }
+
+    @Test
+    void fileThatReappearsRestartsItsGracePeriod() {
+        add(DIRECTORY, a, b);
+
+        assertEquals(Set.of(), reconcile(DIRECTORY, 0, b));
+        // Back in the listing, e.g. a rename that was undone
+        assertEquals(Set.of(), reconcile(DIRECTORY, 50, a, b));
+        assertEquals(Set.of(), reconcile(DIRECTORY, 120, b));
+        assertEquals(Set.of(), reconcile(DIRECTORY, 120 + GRACE - 1, b));
+        assertEquals(Set.of(a), reconcile(DIRECTORY, 120 + GRACE, b));
+    }
+
+    @Test
+    void sortedMergeEvictsExactlyTheUnlistedEntries() {
+        Random random = new Random(11);
+        List<Fingerprint> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            entries.add(new Fingerprint(random.nextLong(), random.nextLong()));
+        }
+        // Shares its high half with an entry, so the merge must compare the low half too
+        entries.add(new Fingerprint(entries.get(0).high(), entries.get(0).low() + 1));
+        add(DIRECTORY, entries.toArray(new Fingerprint[0]));
+
+        List<Fingerprint> listed = new ArrayList<>();
+        Set<Fingerprint> gone = new HashSet<>();
+        for (Fingerprint entry : entries) {
+            if (random.nextInt(4) == 0) {
+                gone.add(entry);
+            } else {
+                listed.add(entry);
+            }
+        }
+        // Live files that were never processed sort in between and are ignored
+        for (int i = 0; i < 1_000; i++) {
+            listed.add(new Fingerprint(random.nextLong(), random.nextLong()));
+        }
+        Collections.shuffle(listed, random);
+
+        assertEquals(Set.of(), reconcile(DIRECTORY, 0, listed.toArray(new Fingerprint[0])));
+        assertEquals(gone, reconcile(DIRECTORY, GRACE, listed.toArray(new Fingerprint[0])));
+        assertEquals(entries.size() - gone.size(), partitions.size());
+    }
+
+    @Test
+    void processedLiveFilesAreAdoptedIntoTheirDirectory() {
+        FingerprintSet stored = new FingerprintSet();
+        stored.add(a);
+        stored.add(b);
+
+        assertEquals(Set.of(), toSet(partitions.reconcile(DIRECTORY, pairs(a, b, c), 0, GRACE, stored::contains)));
+
+        assertEquals(Set.of(DIRECTORY), partitions.directories());
+        assertTrue(partitions.isPartitioned(a.high(), a.low()));
+        assertTrue(partitions.isPartitioned(b.high(), b.low()));
+        assertFalse(partitions.isPartitioned(c.high(), c.low()));
+    }
+
+    @Test
+    void deletedDirectoryLosesItsPartitionAfterTheGracePeriod() {
+        add(DIRECTORY, a, b);
+        add("/other", b);
+
+        assertEquals(Set.of(), reconcile(DIRECTORY, 0));
+        assertEquals(Set.of(a, b), reconcile(DIRECTORY, GRACE));
+
+        assertEquals(Set.of("/other"), partitions.directories());
+        // Evicted from the deleted directory, but another directory still holds the same file
+        assertTrue(partitions.isPartitioned(b.high(), b.low()));
+    }
+
+    @Test
+    void sweepEvictsEntriesNoDirectoryClaimedForTheGracePeriod() {
+        Fingerprint d = new Fingerprint(7, 7);
+        FingerprintSet stored = new FingerprintSet();
+        for (Fingerprint fingerprint : List.of(a, b, c, d)) {
+            stored.add(fingerprint);
+        }
+        add(DIRECTORY, a);
+        add("/other", b);
+
+        assertEquals(Set.of(), toSet(partitions.sweepUnpartitioned(stored.snapshot(), 0, GRACE)));
+        // Claimed by a directory before the grace period ran out
+        add(DIRECTORY, c);
+        assertEquals(Set.of(), toSet(partitions.sweepUnpartitioned(stored.snapshot(), GRACE - 1, GRACE)));
+        assertEquals(Set.of(d), toSet(partitions.sweepUnpartitioned(stored.snapshot(), GRACE, GRACE)));
+    }
+
+    @Test
+    void sweepForgetsEntriesThatWereClaimedInBetween() {
+        FingerprintSet stored = new FingerprintSet();
+        stored.add(a);
+
+        assertEquals(Set.of(), toSet(partitions.sweepUnpartitioned(stored.snapshot(), 0, GRACE)));
+        add(DIRECTORY, a);
+        assertEquals(Set.of(), toSet(partitions.sweepUnpartitioned(stored.snapshot(), GRACE, GRACE)));
+        // Unclaimed again: the grace period starts over from here
+        partitions.clear();
+        assertEquals(Set.of(), toSet(partitions.sweepUnpartitioned(stored.snapshot(), 2 * GRACE, GRACE)));
+        assertEquals(Set.of(a), toSet(partitions.sweepUnpartitioned(stored.snapshot(), 3 * GRACE, GRACE)));
+    }
+
+    private void add(String directory, Fingerprint... fingerprints) {
+        for (Fingerprint fingerprint : fingerprints) {
+            partitions.add(directory, fingerprint.high(), fingerprint.low());
+        }
+    }
+
+    private Set<Fingerprint> reconcile(String directory, long nowMillis, Fingerprint... live) {
+        return toSet(partitions.reconcile(directory, pairs(live), nowMillis, GRACE, NOTHING_STORED));
+    }
+
+    private static long[] pairs(Fingerprint... fingerprints) {
+        long[] packed = new long[2 * fingerprints.length];
+        for (int i = 0; i < fingerprints.length; i++) {
+            packed[2 * i] = fingerprints[i].high();
+            packed[2 * i + 1] = fingerprints[i].low();
+        }
+        return packed;
+    }
+
+    private static Set<Fingerprint> toSet(long[] packed) {
+        Set<Fingerprint> fingerprints = new HashSet<>();
+        for (int i = 0; i < packed.length; i += 2) {
+            assertTrue(fingerprints.add(new Fingerprint(packed[i], packed[i + 1])), "evicted twice");
+        }
+        return fingerprints;
+    }
+}
@@ -0,0 +1,84 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FingerprintEngineTest {
+
+    private final FingerprintEngine sha256 = FingerprintEngine.forName(FingerprintEngine.SHA256);
+    private final FingerprintEngine murmur3 = FingerprintEngine.forName(FingerprintEngine.MURMUR3);
+
+    @Test
+    void sha256MatchesTheHashesPublishedBeforeFingerprints() {
+        // sha256sum of "filename|size|mtime", the values /api/reprocess clients already hold
+        assertEquals("3fdcfac9b6db1d65416e900c805b3cf36001237ae8408c8aefbf6c903ff46527",
+            sha256.hash("data.csv", 1024, 1700000000000L));
+        assertEquals("4a050adf626880234e863e8001d0210b4907cbba478109315b5aa9f5f81e007b",
+            sha256.hash("/data/in/report 2024.pdf", 0, -1));
+        assertEquals("8528f86ae6298d76f851ca2bc9d650ccc0c224cf51d29fbc1f0e7e021d3fc213",
+            sha256.hash("résumé.txt", Long.MAX_VALUE, 1718000000123L));
+    }
+
+    @Test
+    void sha256FingerprintIsTheFirstHalfOfTheHash() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            String filename = "/landing/" + Long.toString(random.nextLong(), 36) + (i % 3 == 0 ? "-ü" : "") + ".csv";
+            long size = random.nextLong();
+            long mtime = random.nextLong();
+            // The string-building hash from before the per-thread buffers
+            String expected = HexFormat.of().formatHex(
+                digest.digest((filename + "|" + size + "|" + mtime).getBytes(StandardCharsets.UTF_8)));
+
+            String hash = sha256.hash(filename, size, mtime);
+            assertEquals(expected, hash);
+            assertEquals(hash.substring(0, 32), sha256.fingerprint(filename, size, mtime).toHex());
+            assertEquals(sha256.fingerprint(filename, size, mtime), Fingerprint.fromHash(hash));
+        }
+    }
+
+    @Test
+    void murmur3MatchesReferenceVectors() {
+        // MurmurHash3_x64_128 with seed 0; h1 and h2 as the reference implementation returns them
+        assertMurmur3("", 0x0000000000000000L, 0x0000000000000000L);
+        assertMurmur3("a", 0x85555565f6597889L, 0xe6b53a48510e895aL);
+        assertMurmur3("hello", 0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L);
+        assertMurmur3("abcdefgh", 0xcc8a0ab037ef8c02L, 0x48890d60eb6940a1L);
+        assertMurmur3("abcdefghi", 0x0547c0cff13c7964L, 0x79b53df5b741e033L);
+        assertMurmur3("abcdefghijklmno", 0x8abe2451890c2ffbL, 0x6a548c2d9c962a61L);
+        assertMurmur3("abcdefghijklmnop", 0xc4ca3ca3224cb723L, 0x4333d695b331eb1aL);
+        assertMurmur3("abcdefghijklmnopq", 0x7564747f88bda657L, 0xecda499da1110de4L);
+        assertMurmur3("abcdefghijklmnopqrstuvwxyz01234", 0x4bf06228635658a8L, 0xbedbd26090f9ef7aL);
+        assertMurmur3("The quick brown fox jumps over the lazy dog", 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L);
+    }
+
+    @Test
+    void murmur3HashesNameThenLittleEndianSizeAndMtime() {
+        byte[] name = "data.csv".getBytes(StandardCharsets.UTF_8);
+        byte[] input = new byte[name.length + 16];
+        System.arraycopy(name, 0, input, 0, name.length);
+        long size = 1024;
+        long mtime = 1700000000000L;
+        for (int i = 0; i < 8; i++) {
+            input[name.length + i] = (byte) (size >>> (8 * i));
+            input[name.length + 8 + i] = (byte) (mtime >>> (8 * i));
+        }
+
+        Fingerprint fingerprint = murmur3.fingerprint("data.csv", size, mtime);
+
+        assertEquals(Murmur3FingerprintEngine.hash128(input, input.length), fingerprint);
+        assertEquals(fingerprint.toHex(), murmur3.hash("data.csv", size, mtime));
+    }
+
+    private static void assertMurmur3(String input, long h1, long h2) {
+        byte[] bytes = input.getBytes(StandardCharsets.US_ASCII);
+        assertEquals(new Fingerprint(h1, h2), Murmur3FingerprintEngine.hash128(bytes, bytes.length), input);
+    }
+}
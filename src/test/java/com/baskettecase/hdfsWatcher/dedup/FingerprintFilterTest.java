@@ -0,0 +1,92 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FingerprintFilterTest {
+
+    @Test
+    void everyAddedFingerprintIsReported() {
+        FingerprintFilter filter = FingerprintFilter.create(100_000, 0.01);
+        SplittableRandom random = new SplittableRandom(3);
+        long[] added = new long[2 * 100_000];
+        for (int i = 0; i < added.length; i += 2) {
+            added[i] = random.nextLong();
+            added[i + 1] = random.nextLong();
+            filter.put(added[i], added[i + 1]);
+        }
+
+        for (int i = 0; i < added.length; i += 2) {
+            assertTrue(filter.mightContain(added[i], added[i + 1]), "false negative at " + i / 2);
+        }
+        assertEquals(100_000, filter.entries());
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheTargetAtCapacity() {
+        FingerprintFilter filter = FingerprintFilter.create(100_000, 0.01);
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 100_000; i++) {
+            filter.put(random.nextLong(), random.nextLong());
+        }
+
+        int positives = 0;
+        int probes = 200_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(random.nextLong(), random.nextLong())) {
+                positives++;
+            }
+        }
+        double rate = (double) positives / probes;
+        // Blocking costs some accuracy; twice the target still means the sizing works
+        assertTrue(rate < 0.02, "false-positive rate " + rate);
+        assertTrue(Math.abs(filter.estimatedFalsePositiveRate() - rate) < 0.01,
+            "estimate " + filter.estimatedFalsePositiveRate() + " vs measured " + rate);
+    }
+
+    @Test
+    void concurrentPutsAreNotLost() throws Exception {
+        // Small, so the threads keep setting bits in the same words
+        FingerprintFilter filter = FingerprintFilter.create(1_000, 0.01);
+        int threads = 8;
+        int perThread = 20_000;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread writer = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int i = 0; i < perThread; i++) {
+                    filter.put(random.nextLong(), random.nextLong());
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            for (int i = 0; i < perThread; i++) {
+                assertTrue(filter.mightContain(random.nextLong(), random.nextLong()));
+            }
+        }
+        assertEquals((long) threads * perThread, filter.entries());
+    }
+
+    @Test
+    void rejectsInvalidSizing() {
+        assertThrows(IllegalArgumentException.class, () -> FingerprintFilter.create(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> FingerprintFilter.create(1_000, 0));
+        assertThrows(IllegalArgumentException.class, () -> FingerprintFilter.create(1_000, 1));
+        assertThrows(IllegalArgumentException.class, () -> FingerprintFilter.create(Long.MAX_VALUE / 2, 0.01));
+    }
+}
@@ -0,0 +1,98 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FingerprintSetTest {
+
+    @Test
+    void matchesHashSetUnderRandomOperations() {
+        FingerprintSet set = new FingerprintSet();
+        Set<Fingerprint> expected = new HashSet<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // A small key space keeps probe runs long, so removals exercise the back-shift
+            Fingerprint fingerprint = new Fingerprint(random.nextInt(64), random.nextInt(512));
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.add(fingerprint), set.add(fingerprint));
+                case 1 -> assertEquals(expected.remove(fingerprint), set.remove(fingerprint));
+                default -> assertEquals(expected.contains(fingerprint), set.contains(fingerprint));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+
+        for (long high = 0; high < 64; high++) {
+            for (long low = 0; low < 512; low++) {
+                assertEquals(expected.contains(new Fingerprint(high, low)), set.contains(high, low));
+            }
+        }
+        assertEquals(expected, contents(set.snapshot()));
+    }
+
+    @Test
+    void keepsEveryEntryAcrossResizes() {
+        FingerprintSet set = new FingerprintSet();
+        Set<Fingerprint> expected = new HashSet<>();
+        Random random = new Random(7);
+        int initialCapacity = set.capacity();
+
+        for (int i = 0; i < 100_000; i++) {
+            Fingerprint fingerprint = new Fingerprint(random.nextLong(), random.nextLong());
+            assertEquals(expected.add(fingerprint), set.add(fingerprint));
+        }
+
+        assertTrue(set.capacity() > initialCapacity);
+        assertEquals(expected.size(), set.size());
+        for (Fingerprint fingerprint : expected) {
+            assertTrue(set.contains(fingerprint));
+        }
+        assertEquals(expected, contents(set.snapshot()));
+    }
+
+    @Test
+    void tracksTheZeroFingerprintSeparately() {
+        FingerprintSet set = new FingerprintSet();
+
+        assertFalse(set.contains(0, 0));
+        assertTrue(set.add(0, 0));
+        assertFalse(set.add(0, 0));
+        assertTrue(set.contains(0, 0));
+        assertEquals(1, set.size());
+        assertEquals(Set.of(new Fingerprint(0, 0)), contents(set.snapshot()));
+
+        assertTrue(set.remove(0, 0));
+        assertFalse(set.remove(0, 0));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    void clearShrinksBackToTheMinimumTable() {
+        FingerprintSet set = new FingerprintSet();
+        for (long i = 1; i <= 1000; i++) {
+            set.add(i, i);
+        }
+
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertEquals(new FingerprintSet(0).capacity(), set.capacity());
+        assertFalse(set.contains(1, 1));
+    }
+
+    static Set<Fingerprint> contents(FingerprintSet.Snapshot snapshot) {
+        Set<Fingerprint> contents = new HashSet<>();
+        while (snapshot.next()) {
+            assertTrue(contents.add(new Fingerprint(snapshot.high(), snapshot.low())),
+                "snapshot holds a duplicate entry");
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,239 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the jdbc backend against an embedded H2 database. Each store stands in for a
+ * replica; replicas are told apart by the hostname that goes into their claims.
+ */
+class JdbcProcessedFilesStoreTest {
+
+    private static final String TABLE = "hdfswatcher_processed";
+    private static final long CLAIM_TIMEOUT_SECONDS = 600;
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void createDatabase() {
+        database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+        jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    @AfterEach
+    void dropDatabase() {
+        database.shutdown();
+    }
+
+    @Test
+    void racingClaimsOnTheSameFileHaveOneWinner() throws Exception {
+        int replicas = 8;
+        int files = 200;
+        List<JdbcProcessedFilesStore> stores = new ArrayList<>();
+        for (int r = 0; r < replicas; r++) {
+            stores.add(store("replica-" + r, 500));
+        }
+        AtomicIntegerArray winners = new AtomicIntegerArray(files);
+
+        ExecutorService executor = Executors.newFixedThreadPool(replicas);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (JdbcProcessedFilesStore store : stores) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int f = 0; f < files; f++) {
+                        if (store.tryClaim(f, f)) {
+                            winners.incrementAndGet(f);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int f = 0; f < files; f++) {
+            assertEquals(1, winners.get(f), "file " + f + " was claimed by " + winners.get(f) + " replicas");
+        }
+        assertEquals(files, rowCount("status = 'C'"));
+    }
+
+    @Test
+    void onlyOneReplicaTakesOverATimedOutClaim() throws Exception {
+        JdbcProcessedFilesStore dead = store("dead", 500);
+        assertTrue(dead.tryClaim(1, 2));
+
+        JdbcProcessedFilesStore a = store("replica-a", 500);
+        JdbcProcessedFilesStore b = store("replica-b", 500);
+        assertFalse(a.tryClaim(1, 2), "a live claim must not be taken over");
+
+        ageRows((CLAIM_TIMEOUT_SECONDS + 60) * 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<Boolean> claimedByA = executor.submit(() -> {
+                start.await();
+                return a.tryClaim(1, 2);
+            });
+            Future<Boolean> claimedByB = executor.submit(() -> {
+                start.await();
+                return b.tryClaim(1, 2);
+            });
+            start.countDown();
+            assertTrue(claimedByA.get(1, TimeUnit.MINUTES) ^ claimedByB.get(1, TimeUnit.MINUTES),
+                "exactly one replica should take over the claim");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String owner = jdbcTemplate.queryForObject("SELECT claimed_by FROM " + TABLE
+            + " WHERE fp_high = 1 AND fp_low = 2", String.class);
+        assertTrue(owner.startsWith("replica-"), owner);
+        // The dead replica no longer owns the row, so its late release leaves it alone
+        dead.releaseClaim(1, 2);
+        assertEquals(1, rowCount("status = 'C'"));
+    }
+
+    @Test
+    void processedRowsAreNeverTakenOver() throws Exception {
+        JdbcProcessedFilesStore a = store("replica-a", 500);
+        assertTrue(a.tryClaim(1, 2));
+        a.add(1, 2, null);
+        a.flush();
+        ageRows((CLAIM_TIMEOUT_SECONDS + 60) * 1000);
+
+        JdbcProcessedFilesStore b = store("replica-b", 500);
+        assertFalse(b.tryClaim(1, 2));
+        assertTrue(b.contains(1, 2));
+    }
+
+    @Test
+    void flushTurnsClaimsIntoProcessedRows() throws Exception {
+        JdbcProcessedFilesStore a = store("replica-a", 500);
+        JdbcProcessedFilesStore b = store("replica-b", 500);
+        assertTrue(a.tryClaim(1, 2));
+        assertTrue(a.add(1, 2, null));
+
+        // Buffered: visible to this replica, still a claim for everyone else
+        assertTrue(a.contains(1, 2));
+        assertFalse(b.contains(1, 2));
+        assertFalse(b.tryClaim(1, 2));
+        a.releaseClaim(1, 2);
+        assertEquals(1, rowCount("status = 'C'"));
+
+        a.flush();
+
+        assertEquals(0, rowCount("status = 'C'"));
+        assertEquals(1, rowCount("status = 'P' AND claimed_by LIKE 'replica-a-%'"));
+        assertTrue(b.contains(1, 2));
+        // Written marks leave the buffer, so the row is not counted twice
+        assertEquals(1, a.size());
+    }
+
+    @Test
+    void flushInsertsMarksMadeWithoutAClaim() throws Exception {
+        JdbcProcessedFilesStore store = store("replica-a", 500);
+        for (long i = 1; i <= 5; i++) {
+            store.add(i, i, null);
+        }
+        assertTrue(store.tryClaim(9, 9));
+        store.add(9, 9, null);
+
+        store.flush();
+
+        assertEquals(6, rowCount("status = 'P'"));
+        assertEquals(0, rowCount("status = 'C'"));
+        assertTrue(store("replica-b", 500).contains(3, 3));
+    }
+
+    @Test
+    void addFlushesOnceABatchIsBuffered() throws Exception {
+        JdbcProcessedFilesStore store = store("replica-a", 3);
+        store.add(1, 1, null);
+        store.add(2, 2, null);
+        assertEquals(0, rowCount("status = 'P'"));
+
+        store.add(3, 3, null);
+
+        assertEquals(3, rowCount("status = 'P'"));
+    }
+
+    @Test
+    void containsAllMatchesLowsAcrossBatchBoundaries() throws Exception {
+        // Three fingerprints per query, so ten lookups take several round trips
+        JdbcProcessedFilesStore store = store("replica-a", 3);
+        // Shared highs make the query return rows whose low does not match
+        long[][] processed = {{1, 10}, {1, 11}, {2, 20}, {3, 30}, {4, 40}, {5, 50}};
+        for (long[] fingerprint : processed) {
+            store.add(fingerprint[0], fingerprint[1], null);
+        }
+        store.flush();
+        // Buffered marks are answered without a query
+        store.add(7, 70, null);
+
+        long[] packed = {
+            1, 10,   1, 12,   2, 20,   2, 21,   3, 30,
+            6, 60,   4, 40,   7, 70,   5, 50,   1, 11
+        };
+        boolean[] expected = {true, false, true, false, true, false, true, true, true, true};
+
+        assertArrayEquals(expected, store.containsAll(packed));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], store.contains(packed[2 * i], packed[2 * i + 1]));
+        }
+    }
+
+    private JdbcProcessedFilesStore store(String hostname, int batchSize) {
+        HdfsWatcherProperties properties = new HdfsWatcherProperties() {
+            @Override
+            public String getHostname() {
+                return hostname;
+            }
+        };
+        properties.setDedupJdbcTable(TABLE);
+        properties.setDedupJdbcInitializeSchema(true);
+        properties.setDedupJdbcBatchSize(batchSize);
+        properties.setDedupClaimTimeout(CLAIM_TIMEOUT_SECONDS);
+        return new JdbcProcessedFilesStore(jdbcTemplate, properties);
+    }
+
+    private void ageRows(long millis) {
+        jdbcTemplate.update("UPDATE " + TABLE + " SET updated_at = updated_at - ?", millis);
+    }
+
+    private int rowCount(String condition) {
+        Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE " + condition,
+            Integer.class);
+        return rows != null ? rows : 0;
+    }
+}
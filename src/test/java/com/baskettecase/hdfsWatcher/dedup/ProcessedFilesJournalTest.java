@@ -0,0 +1,209 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProcessedFilesJournalTest {
+
+    private static final int RECORD_BYTES = 21;
+    private static final long NO_COMPACTION = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversSnapshotPlusJournalTail() throws Exception {
+        Set<Fingerprint> expected = new HashSet<>();
+        try (LocalProcessedFilesStore store = open()) {
+            for (long i = 1; i <= 1000; i++) {
+                store.add(i, -i, null);
+                expected.add(new Fingerprint(i, -i));
+            }
+            store.compactJournal();
+            // The tail: changes after the snapshot, including removals of snapshot entries
+            for (long i = 1001; i <= 1100; i++) {
+                store.add(i, -i, null);
+                expected.add(new Fingerprint(i, -i));
+            }
+            for (long i = 1; i <= 50; i++) {
+                store.remove(i, -i, null);
+                expected.remove(new Fingerprint(i, -i));
+            }
+            store.sync();
+            assertEquals(150, store.getJournal().getRecordsSinceSnapshot());
+        }
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(expected, FingerprintSetTest.contents(store.snapshot()));
+            assertEquals(150, store.getJournal().getRecordsSinceSnapshot());
+        }
+    }
+
+    @Test
+    void replaysAddRemoveAndClearInOrder() throws Exception {
+        try (LocalProcessedFilesStore store = open()) {
+            store.add(1, 1, null);
+            store.add(2, 2, null);
+            store.remove(1, 1, null);
+            store.sync();
+            store.clear(null);
+            store.add(3, 3, null);
+            store.add(1, 1, null);
+            store.remove(3, 3, null);
+            store.add(4, 4, null);
+        }
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(Set.of(new Fingerprint(1, 1), new Fingerprint(4, 4)),
+                FingerprintSetTest.contents(store.snapshot()));
+        }
+    }
+
+    @Test
+    void tornLastRecordIsTruncated() throws Exception {
+        try (LocalProcessedFilesStore store = open()) {
+            store.add(1, 1, null);
+            store.add(2, 2, null);
+        }
+        Path journal = onlyJournal();
+        // A crash in the middle of a write leaves part of a record
+        Files.write(journal, new byte[] {ProcessedFilesJournal.OP_ADD, 0, 0, 0, 0, 0, 0, 0, 3, 0},
+            StandardOpenOption.APPEND);
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(Set.of(new Fingerprint(1, 1), new Fingerprint(2, 2)),
+                FingerprintSetTest.contents(store.snapshot()));
+            assertEquals(2L * RECORD_BYTES, Files.size(journal));
+            // Later records follow the last good one
+            store.add(5, 5, null);
+        }
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(Set.of(new Fingerprint(1, 1), new Fingerprint(2, 2), new Fingerprint(5, 5)),
+                FingerprintSetTest.contents(store.snapshot()));
+        }
+    }
+
+    @Test
+    void lastRecordFailingItsChecksumIsTruncated() throws Exception {
+        try (LocalProcessedFilesStore store = open()) {
+            store.add(1, 1, null);
+            store.add(2, 2, null);
+            store.remove(1, 1, null);
+        }
+        Path journal = onlyJournal();
+        // Flip a bit in the low half of the last record
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer oneByte = ByteBuffer.allocate(1);
+            long offset = 2L * RECORD_BYTES + 12;
+            channel.read(oneByte, offset);
+            oneByte.put(0, (byte) (oneByte.get(0) ^ 1)).rewind();
+            channel.write(oneByte, offset);
+        }
+
+        try (LocalProcessedFilesStore store = open()) {
+            // The removal is lost, not the startup
+            assertEquals(Set.of(new Fingerprint(1, 1), new Fingerprint(2, 2)),
+                FingerprintSetTest.contents(store.snapshot()));
+            assertEquals(2L * RECORD_BYTES, Files.size(journal));
+        }
+    }
+
+    @Test
+    void compactionDropsCoveredJournalsAndSurvivesReopen() throws Exception {
+        Set<Fingerprint> expected = new HashSet<>();
+        try (LocalProcessedFilesStore store = open()) {
+            for (long i = 1; i <= 500; i++) {
+                store.add(i, i * 31, null);
+                expected.add(new Fingerprint(i, i * 31));
+            }
+            store.compactJournal();
+            store.add(-1, -1, null);
+            expected.add(new Fingerprint(-1, -1));
+            store.compactJournal();
+            assertEquals(0, store.getJournal().getRecordsSinceSnapshot());
+        }
+        assertEquals(List.of("processed-2.journal"), journalNames());
+        assertEquals(0, Files.size(onlyJournal()));
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(expected, FingerprintSetTest.contents(store.snapshot()));
+            assertEquals(0, store.getJournal().getRecordsSinceSnapshot());
+            store.remove(-1, -1, null);
+            expected.remove(new Fingerprint(-1, -1));
+        }
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(expected, FingerprintSetTest.contents(store.snapshot()));
+        }
+    }
+
+    @Test
+    void journalLeftBehindByACrashDuringCompactionIsNotReplayedTwice() throws Exception {
+        try (LocalProcessedFilesStore store = open()) {
+            store.add(1, 1, null);
+            store.add(2, 2, null);
+        }
+        Path covered = onlyJournal();
+        byte[] coveredRecords = Files.readAllBytes(covered);
+        try (LocalProcessedFilesStore store = open()) {
+            store.compactJournal();
+            store.remove(1, 1, null);
+        }
+        // The crash came after the snapshot was moved into place, before the old journal was deleted
+        Files.write(covered, coveredRecords);
+
+        try (LocalProcessedFilesStore store = open()) {
+            assertEquals(Set.of(new Fingerprint(2, 2)), FingerprintSetTest.contents(store.snapshot()));
+        }
+        assertEquals(List.of("processed-1.journal"), journalNames());
+    }
+
+    @Test
+    void corruptSnapshotFailsStartup() throws Exception {
+        try (LocalProcessedFilesStore store = open()) {
+            store.add(1, 1, null);
+            store.compactJournal();
+        }
+        Path snapshot = directory.resolve(ProcessedFilesJournal.SNAPSHOT_FILE);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[ProcessedFilesJournal.SNAPSHOT_HEADER_BYTES] ^= 1;
+        Files.write(snapshot, bytes);
+
+        // Replaying journals on top of a wrong snapshot would silently drop or resurrect files
+        assertThrows(IOException.class, this::open);
+    }
+
+    private LocalProcessedFilesStore open() throws IOException {
+        return new LocalProcessedFilesStore(4, directory, NO_COMPACTION);
+    }
+
+    private Path onlyJournal() throws IOException {
+        List<String> names = journalNames();
+        assertEquals(1, names.size(), "journals: " + names);
+        return directory.resolve(names.get(0));
+    }
+
+    private List<String> journalNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(".journal"))
+                .sorted()
+                .toList();
+        }
+    }
+}
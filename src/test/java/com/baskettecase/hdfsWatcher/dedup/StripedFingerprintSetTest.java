@@ -0,0 +1,180 @@
+package com.baskettecase.hdfsWatcher.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedFingerprintSetTest {
+
+    private static final int WRITERS = 8;
+    private static final int KEYS_PER_WRITER = 50_000;
+    private static final int STABLE_KEYS = 10_000;
+
+    @Test
+    void concurrentUpdatesLoseNoEntries() throws Exception {
+        // Few stripes and no presizing, so every stripe resizes many times under contention
+        StripedFingerprintSet set = new StripedFingerprintSet(4);
+        List<Fingerprint> stable = randomFingerprints(new Random(1), STABLE_KEYS);
+        for (Fingerprint fingerprint : stable) {
+            assertTrue(set.add(fingerprint, null));
+        }
+
+        List<List<Fingerprint>> writerKeys = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            writerKeys.add(randomFingerprints(new Random(100 + w), KEYS_PER_WRITER));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger writersLeft = new AtomicInteger(WRITERS);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (List<Fingerprint> keys : writerKeys) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (Fingerprint fingerprint : keys) {
+                        assertTrue(set.add(fingerprint, null));
+                        assertTrue(set.contains(fingerprint));
+                    }
+                    // Remove every other key, which shifts probe runs back while others resize
+                    for (int i = 0; i < keys.size(); i += 2) {
+                        assertTrue(set.remove(keys.get(i), null));
+                        assertFalse(set.contains(keys.get(i)));
+                    }
+                    if (writersLeft.decrementAndGet() == 0) {
+                        writing.set(false);
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                start.await();
+                do {
+                    for (Fingerprint fingerprint : stable) {
+                        assertTrue(set.contains(fingerprint), "stable entry lost during concurrent updates");
+                    }
+                } while (writing.get());
+                return null;
+            }));
+            futures.add(executor.submit(() -> {
+                start.await();
+                do {
+                    Set<Fingerprint> snapshot = FingerprintSetTest.contents(set.snapshot());
+                    assertTrue(snapshot.containsAll(stable), "snapshot is missing stable entries");
+                } while (writing.get());
+                return null;
+            }));
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<Fingerprint> expected = new HashSet<>(stable);
+        for (List<Fingerprint> keys : writerKeys) {
+            for (int i = 1; i < keys.size(); i += 2) {
+                expected.add(keys.get(i));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, FingerprintSetTest.contents(set.snapshot()));
+        for (List<Fingerprint> keys : writerKeys) {
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(i % 2 == 1, set.contains(keys.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void concurrentAddsOfTheSameKeySucceedOnce() throws Exception {
+        StripedFingerprintSet set = new StripedFingerprintSet(16);
+        List<Fingerprint> keys = randomFingerprints(new Random(5), 20_000);
+        AtomicInteger added = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (Fingerprint fingerprint : keys) {
+                        if (set.add(fingerprint, null)) {
+                            added.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(keys.size(), added.get());
+        assertEquals(keys.size(), set.size());
+    }
+
+    @Test
+    void listenerSeesOnlyEffectiveChanges() {
+        StripedFingerprintSet set = new StripedFingerprintSet(2);
+        List<String> changes = new ArrayList<>();
+        StripedFingerprintSet.ChangeListener listener = (op, high, low) -> changes.add(op + ":" + high + ":" + low);
+
+        set.add(1, 2, listener);
+        set.add(1, 2, listener);
+        set.remove(3, 4, listener);
+        set.remove(1, 2, listener);
+        set.add(5, 6, listener);
+        assertEquals(1, set.clear(listener));
+
+        assertEquals(List.of(
+            ProcessedFilesJournal.OP_ADD + ":1:2",
+            ProcessedFilesJournal.OP_REMOVE + ":1:2",
+            ProcessedFilesJournal.OP_ADD + ":5:6",
+            ProcessedFilesJournal.OP_CLEAR + ":0:0"), changes);
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    void rejectsStripeCountsThatAreNotPowersOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new StripedFingerprintSet(0));
+        assertThrows(IllegalArgumentException.class, () -> new StripedFingerprintSet(3));
+        assertThrows(IllegalArgumentException.class, () -> new StripedFingerprintSet(2048));
+    }
+
+    private static List<Fingerprint> randomFingerprints(Random random, int count) {
+        Set<Fingerprint> unique = new HashSet<>();
+        List<Fingerprint> fingerprints = new ArrayList<>(count);
+        while (fingerprints.size() < count) {
+            Fingerprint fingerprint = new Fingerprint(random.nextLong(), random.nextLong());
+            if (unique.add(fingerprint)) {
+                fingerprints.add(fingerprint);
+            }
+        }
+        return fingerprints;
+    }
+}
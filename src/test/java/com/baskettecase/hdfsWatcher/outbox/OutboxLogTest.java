@@ -0,0 +1,207 @@
+package com.baskettecase.hdfsWatcher.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboxLogTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final long MAX_BYTES = 1 << 20;
+    // Length, CRC and timestamp ahead of each payload
+    private static final int RECORD_HEADER_BYTES = 16;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void undeliveredRecordsSurviveReopen() throws Exception {
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            log.append(List.of("a", "b", "c"));
+            assertEquals(3, log.size());
+
+            List<OutboxLog.Entry> entries = log.peek(10, 0);
+            assertEquals(List.of("a", "b", "c"), payloads(entries));
+            // Peeking does not deliver
+            assertEquals(entries, log.peek(10, 0));
+
+            log.commit(entries.get(0).next(), 1);
+            assertEquals(2, log.size());
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(2, log.size());
+            List<OutboxLog.Entry> entries = log.peek(10, 0);
+            assertEquals(List.of("b", "c"), payloads(entries));
+
+            log.commit(entries.get(1).next(), 2);
+            assertEquals(0, log.size());
+            assertEquals(-1, log.oldestTimestamp());
+            assertTrue(log.peek(10, 0).isEmpty());
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(0, log.size());
+            log.append(List.of("d"));
+            assertEquals(List.of("d"), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void truncatedSegmentEndsAtTheLastWholeRecord() throws Exception {
+        long torn;
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            log.append(List.of("first", "second"));
+            torn = log.peek(10, 0).get(1).position();
+        }
+        // Cut the second record off in the middle of its payload, as a crash during the write would
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            channel.truncate(torn + RECORD_HEADER_BYTES + 3);
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(1, log.size());
+            assertEquals(List.of("first"), payloads(log.peek(10, 0)));
+            // New records replace the torn one
+            log.append(List.of("third"));
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(List.of("first", "third"), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void corruptRecordEndsItsSegment() throws Exception {
+        long corrupt;
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            log.append(List.of("first", "second", "third"));
+            corrupt = log.peek(10, 0).get(1).position();
+        }
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), corrupt + RECORD_HEADER_BYTES);
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(1, log.size());
+            assertEquals(List.of("first"), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void corruptCursorRedeliversFromTheOldestSegment() throws Exception {
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            log.append(List.of("a", "b"));
+            log.commit(log.peek(1, 0).get(0).next(), 1);
+        }
+        Files.write(directory.resolve("outbox.cursor"), new byte[12]);
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            assertEquals(List.of("a", "b"), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void commitDeletesDrainedSegments() throws Exception {
+        // Two ten-byte messages per segment
+        int segmentBytes = 2 * (RECORD_HEADER_BYTES + 10) + 5;
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            messages.add("message-0" + i);
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, segmentBytes, MAX_BYTES)) {
+            log.append(messages);
+            assertEquals(3, segmentCount());
+
+            List<OutboxLog.Entry> entries = log.peek(10, 0);
+            assertEquals(messages, payloads(entries));
+            // Positions skip the unused end of each segment
+            assertEquals(segmentBytes, entries.get(2).position());
+
+            log.commit(entries.get(3).next(), 4);
+            assertEquals(1, segmentCount());
+            assertEquals(messages.subList(4, 6), payloads(log.peek(10, 0)));
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, segmentBytes, MAX_BYTES)) {
+            assertEquals(messages.subList(4, 6), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void appendWaitsForRoomUntilACommit() throws Exception {
+        long maxBytes = 2 * (RECORD_HEADER_BYTES + 1);
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, maxBytes)) {
+            log.append(List.of("a", "b"));
+
+            CountDownLatch appended = new CountDownLatch(1);
+            Thread appender = new Thread(() -> {
+                try {
+                    log.append(List.of("c"));
+                    appended.countDown();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            appender.start();
+            assertFalse(appended.await(200, TimeUnit.MILLISECONDS));
+
+            log.commit(log.peek(1, 0).get(0).next(), 1);
+
+            assertTrue(appended.await(5, TimeUnit.SECONDS));
+            appender.join(5000);
+            assertEquals(List.of("b", "c"), payloads(log.peek(10, 0)));
+        }
+    }
+
+    @Test
+    void rejectsCommitsThatDoNotFollowTheCursor() throws Exception {
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_BYTES, MAX_BYTES)) {
+            log.append(List.of("a"));
+            OutboxLog.Entry entry = log.peek(1, 0).get(0);
+
+            assertThrows(IllegalArgumentException.class, () -> log.commit(entry.position(), 1));
+            assertThrows(IllegalArgumentException.class, () -> log.commit(entry.next() + 1, 1));
+            assertThrows(IllegalArgumentException.class, () -> log.append(List.of("")));
+            assertEquals(1, log.size());
+        }
+    }
+
+    private static List<String> payloads(List<OutboxLog.Entry> entries) {
+        return entries.stream().map(OutboxLog.Entry::payload).toList();
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.filter(path -> path.getFileName().toString().endsWith(".segment")).toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".segment")).count();
+        }
+    }
+}
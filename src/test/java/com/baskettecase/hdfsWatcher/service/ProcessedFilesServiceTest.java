@@ -0,0 +1,257 @@
+package com.baskettecase.hdfsWatcher.service;
+
+import com.baskettecase.hdfsWatcher.HdfsWatcherProperties;
+import com.baskettecase.hdfsWatcher.dedup.Fingerprint;
+import com.baskettecase.hdfsWatcher.dedup.ProcessedFilesStore;
+import com.baskettecase.hdfsWatcher.util.HdfsWatcherConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs the service over the in-memory store with the Bloom filter in front of it. The
+ * filter may answer "maybe" for anything, so the checks here are for files it must not
+ * answer "no" for.
+ */
+class ProcessedFilesServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void markedFilesAreFoundThroughTheFilter() throws Exception {
+        ProcessedFilesService service = service();
+        List<Fingerprint> marked = fingerprints(1, 10_000);
+        marked.forEach(service::markFileAsProcessed);
+
+        for (Fingerprint fingerprint : marked) {
+            assertTrue(service.isFileProcessed(fingerprint));
+            assertFalse(service.tryClaim(fingerprint));
+        }
+        boolean[] processed = service.areFilesProcessed(marked.toArray(new Fingerprint[0]));
+        for (boolean flag : processed) {
+            assertTrue(flag);
+        }
+        for (Fingerprint fingerprint : fingerprints(2, 10_000)) {
+            assertFalse(service.isFileProcessed(fingerprint));
+        }
+        assertTrue(lookups("negative") > 0);
+    }
+
+    @Test
+    void rebuildKeepsEveryEntryAndDropsReprocessedOnes() throws Exception {
+        ProcessedFilesService service = service();
+        // More than the minimum capacity, so the rebuilt filter is a different size
+        List<Fingerprint> marked = fingerprints(3, (int) HdfsWatcherConstants.PROCESSED_FILTER_MIN_CAPACITY + 10_000);
+        marked.forEach(service::markFileAsProcessed);
+        List<Fingerprint> reprocessed = marked.subList(0, 1_000);
+        reprocessed.forEach(fingerprint -> service.markFileForReprocessing(fingerprint.toHex()));
+        long memoryBefore = service.getFilterMemoryBytes();
+
+        service.rebuildFilter();
+
+        assertTrue(service.getFilterMemoryBytes() > memoryBefore);
+        for (Fingerprint fingerprint : marked.subList(reprocessed.size(), marked.size())) {
+            assertTrue(service.isFileProcessed(fingerprint));
+        }
+        for (Fingerprint fingerprint : reprocessed) {
+            assertFalse(service.isFileProcessed(fingerprint));
+        }
+    }
+
+    @Test
+    void filesMarkedAgainAfterReprocessingOrClearAreFound() throws Exception {
+        ProcessedFilesService service = service();
+        List<Fingerprint> marked = fingerprints(4, 1_000);
+        marked.forEach(service::markFileAsProcessed);
+
+        Fingerprint again = marked.get(0);
+        service.markFileForReprocessing(again.toHex());
+        assertFalse(service.isFileProcessed(again));
+        service.markFileAsProcessed(again);
+        assertTrue(service.isFileProcessed(again));
+
+        assertEquals(marked.size(), service.clearAllProcessedFiles());
+        for (Fingerprint fingerprint : marked) {
+            assertFalse(service.isFileProcessed(fingerprint));
+        }
+        // The clear swapped in an empty filter; adds after it must reach that one
+        List<Fingerprint> afterClear = marked.subList(0, 100);
+        afterClear.forEach(service::markFileAsProcessed);
+        for (Fingerprint fingerprint : afterClear) {
+            assertTrue(service.isFileProcessed(fingerprint));
+        }
+        service.rebuildFilter();
+        for (Fingerprint fingerprint : afterClear) {
+            assertTrue(service.isFileProcessed(fingerprint));
+        }
+    }
+
+    @Test
+    void addsMadeDuringARebuildAreNotLost() throws Exception {
+        ProcessedFilesService service = service();
+        fingerprints(5, 200_000).forEach(service::markFileAsProcessed);
+        List<Fingerprint> concurrent = new ArrayList<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        // Keeps adding until every rebuild has swapped, so no later rebuild covers for a lost add
+        Thread writer = new Thread(() -> {
+            SplittableRandom random = new SplittableRandom(6);
+            while (!stop.get()) {
+                Fingerprint fingerprint = new Fingerprint(random.nextLong(), random.nextLong());
+                service.markFileAsProcessed(fingerprint);
+                concurrent.add(fingerprint);
+            }
+        });
+        writer.start();
+
+        for (int i = 0; i < 5; i++) {
+            service.rebuildFilter();
+        }
+        stop.set(true);
+        writer.join();
+
+        for (Fingerprint fingerprint : concurrent) {
+            assertTrue(service.isFileProcessed(fingerprint), "lost in a rebuild: " + fingerprint);
+        }
+        // A lookup the filter wrongly rejected would have been counted as a negative
+        assertEquals(0, lookups("negative"));
+    }
+
+    @Test
+    void exportedSnapshotImportsToTheSameSet() throws Exception {
+        ProcessedFilesService source = service();
+        List<Fingerprint> marked = fingerprints(7, 50_000);
+        marked.forEach(source::markFileAsProcessed);
+        Path file = tempDir.resolve("processed.snapshot");
+
+        assertEquals(marked.size(), source.exportSnapshot(file));
+
+        ProcessedFilesService target = service();
+        Fingerprint alreadyThere = new Fingerprint(1, 1);
+        target.markFileAsProcessed(alreadyThere);
+        target.markFileAsProcessed(marked.get(0));
+        // Only the entries the target did not have count as imported
+        assertEquals(marked.size() - 1, target.importSnapshot(file));
+        assertEquals(0, target.importSnapshot(file));
+
+        Set<String> expected = source.getAllProcessedFingerprints();
+        Set<String> imported = target.getAllProcessedFingerprints();
+        assertTrue(imported.remove(alreadyThere.toHex()));
+        assertEquals(expected, imported);
+        for (Fingerprint fingerprint : marked) {
+            assertTrue(target.isFileProcessed(fingerprint));
+        }
+    }
+
+    @Test
+    void emptySetRoundTrips() throws Exception {
+        Path file = tempDir.resolve("empty.snapshot");
+        assertEquals(0, service().exportSnapshot(file));
+
+        ProcessedFilesService target = service();
+        assertEquals(0, target.importSnapshot(file));
+        assertEquals(0, target.getProcessedFilesCount());
+    }
+
+    @Test
+    void invalidSnapshotIsRejectedWithoutChangingTheSet() throws Exception {
+        ProcessedFilesService source = service();
+        fingerprints(8, 1_000).forEach(source::markFileAsProcessed);
+        Path valid = tempDir.resolve("valid.snapshot");
+        source.exportSnapshot(valid);
+        byte[] bytes = Files.readAllBytes(valid);
+
+        ProcessedFilesService target = service();
+        List<Fingerprint> existing = fingerprints(9, 100);
+        existing.forEach(target::markFileAsProcessed);
+        Set<String> before = target.getAllProcessedFingerprints();
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        byte[] badVersion = bytes.clone();
+        badVersion[7] = 2;
+        byte[] badCount = bytes.clone();
+        badCount[23] ^= 1;
+        // In the last entry, so every entry before it would already have been read
+        byte[] badEntry = bytes.clone();
+        badEntry[bytes.length - Long.BYTES - 1] ^= 1;
+        byte[] badChecksum = bytes.clone();
+        badChecksum[bytes.length - 1] ^= 1;
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 16);
+
+        for (byte[] corrupt : List.of(badMagic, badVersion, badCount, badEntry, badChecksum, truncated)) {
+            Path file = Files.write(tempDir.resolve("corrupt.snapshot"), corrupt);
+            assertThrows(IOException.class, () -> target.importSnapshot(file));
+            assertEquals(before, target.getAllProcessedFingerprints());
+        }
+        assertThrows(IOException.class, () -> target.importSnapshot(tempDir.resolve("missing.snapshot")));
+        assertEquals(before, target.getAllProcessedFingerprints());
+    }
+
+    @Test
+    void emptyStoreIsSeededFromTheConfiguredSnapshot() throws Exception {
+        ProcessedFilesService source = service();
+        List<Fingerprint> marked = fingerprints(10, 1_000);
+        marked.forEach(source::markFileAsProcessed);
+        Path file = tempDir.resolve("seed.snapshot");
+        source.exportSnapshot(file);
+
+        HdfsWatcherProperties properties = properties();
+        properties.setDedupSnapshotPath(file.toString());
+        ProcessedFilesService seeded = service(properties);
+
+        assertEquals(source.getAllProcessedFingerprints(), seeded.getAllProcessedFingerprints());
+        // Built after the import, so the filter covers the seeded entries
+        for (Fingerprint fingerprint : marked) {
+            assertTrue(seeded.isFileProcessed(fingerprint));
+        }
+    }
+
+    private ProcessedFilesService service() throws Exception {
+        return service(properties());
+    }
+
+    private ProcessedFilesService service(HdfsWatcherProperties properties) throws Exception {
+        @SuppressWarnings("unchecked")
+        ObjectProvider<ProcessedFilesStore> noStore = mock(ObjectProvider.class);
+        return new ProcessedFilesService(properties, meterRegistry, noStore);
+    }
+
+    private static HdfsWatcherProperties properties() {
+        HdfsWatcherProperties properties = new HdfsWatcherProperties();
+        properties.setDedupBackend(HdfsWatcherConstants.DEDUP_BACKEND_MEMORY);
+        return properties;
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("hdfswatcher.processed.filter.lookups").tag("result", result).counter().count();
+    }
+
+    private static List<Fingerprint> fingerprints(long seed, int count) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Fingerprint> fingerprints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fingerprints.add(new Fingerprint(random.nextLong(), random.nextLong()));
+        }
+        return fingerprints;
+    }
+}